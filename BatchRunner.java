@@ -0,0 +1,519 @@
+package traffic;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code BatchRunner} runs a scenario without Swing.  There is no
+ *  repaint and no timer; the ticks run back-to-back as fast as the
+ *  machine allows and the wall time, ticks per second and cell
+ *  updates per second are reported at the end.  Each
+ *  {@code BatchRunner} has a {@code Simulation} of its own, so several
+ *  of them can run at once.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class BatchRunner {
+    private final Simulation    simulation;
+    private final Road          road[];
+    private final EdgeOfMap     edgeOfMap;
+    private final long          cellCount;
+
+    /**
+     *  Build a chain of {@code Road}s, each one feeding the next,
+     *  with the edge of the map at both ends.  North and east bound
+     *  traffic runs from the first road to the last one.  South and
+     *  west bound traffic runs from the last road to the first one.
+     *  @param roadCount Required number of roads in the chain
+     *  @param carCount Required number of cars in one lane of a road
+     *  @param NElanes Required number of north or east bound lanes
+     *  @param SWlanes Required number of south or west bound lanes
+     *  @param kind Required way to store the lanes
+     *  @param seed The seed of the {@code Simulation}
+     *  @param arrivals How vehicles arrive at the edge of the map
+     */
+    public BatchRunner(int roadCount, int carCount,
+                       int NElanes, int SWlanes, Road.LaneKind kind,
+                       long seed, EdgeOfMap.Arrivals arrivals)
+    {
+        int     i;
+        int     lane;
+
+        if (roadCount < 1) {
+            roadCount = 1;
+        }
+        simulation = new Simulation(seed);
+        road = new Road[roadCount];
+        for (i = 0; (i < roadCount); ++i) {
+            road[i] = new Road(simulation, "Road " + i, carCount,
+                               NElanes, SWlanes, kind);
+        }
+        edgeOfMap = new EdgeOfMap(simulation);
+        edgeOfMap.setArrivals(arrivals);
+
+        /*
+         *  Stitch the roads together including the edge of the map
+         *  the same way MapComponent does it for its two roads.
+         */
+        for (lane = NElanes - 1; (lane >= 0); --lane) {
+            edgeOfMap.vehiclesGoTo(road[0], 'E', lane, lane);
+            for (i = 0; (i < (roadCount - 1)); ++i) {
+                road[i].vehiclesGoTo(road[i + 1], 'E', lane, lane);
+            }
+            road[roadCount - 1].vehiclesGoTo(edgeOfMap, 'E', lane, lane);
+        }
+        for (lane = SWlanes - 1; (lane >= 0); --lane) {
+            edgeOfMap.vehiclesGoTo(road[roadCount - 1], 'W', lane, lane);
+            for (i = roadCount - 1; (i > 0); --i) {
+                road[i].vehiclesGoTo(road[i - 1], 'W', lane, lane);
+            }
+            road[0].vehiclesGoTo(edgeOfMap, 'W', lane, lane);
+        }
+
+        /*
+         *  Get the tick order sorted out before anybody times a tick.
+         */
+        simulation.compile();
+
+        /*
+         *  Every cell of every lane is looked at on every tick.
+         */
+        cellCount = (long)road[0].getCarCount() *
+                    (road[0].getNElanes() + road[0].getSWlanes()) *
+                    roadCount;
+    }
+
+    /*
+     *  Make a runner for a fork of another one's Simulation.
+     */
+    private BatchRunner(BatchRunner parent)
+    {
+        int                     i;
+        Map<Object, Object>     twins;
+
+        twins = new IdentityHashMap<>();
+        simulation = parent.simulation.fork(twins);
+        road = new Road[parent.road.length];
+        for (i = 0; (i < road.length); ++i) {
+            road[i] = (Road)twins.get(parent.road[i]);
+        }
+        edgeOfMap = (EdgeOfMap)twins.get(parent.edgeOfMap);
+        cellCount = parent.cellCount;
+    }
+
+    /**
+     *  Make a copy of the roads as they are now, in a fork of our
+     *  {@code Simulation}, to run a variation from here on without
+     *  running the ticks up to here again.  The lanes of both are
+     *  only copied as they change.  See {@code Simulation.fork()}.
+     *  @return The copy
+     */
+    public BatchRunner  fork()
+    {
+        return(new BatchRunner(this));
+    }
+
+    /**
+     *  @return The {@code Simulation} the roads are in
+     */
+    public Simulation   getSimulation()
+    {
+        return(simulation);
+    }
+
+    /**
+     *  @return The roads in the chain, from west to east
+     */
+    public Road[]       getRoads()
+    {
+        return(road.clone());
+    }
+
+    /**
+     *  @return The number of vehicles that have left the map so far
+     */
+    public long getDelivered()
+    {
+        return(edgeOfMap.getDelivered());
+    }
+
+    /**
+     *  @return The number of vehicles on all the roads right now
+     */
+    public long getVehicleCount()
+    {
+        long    vehicles;
+
+        vehicles = 0;
+        for (Road which : road) {
+            vehicles += which.getVehicleCount();
+        }
+
+        return(vehicles);
+    }
+
+    /**
+     *  @return The number of cells updated by a single tick
+     */
+    public long getCellCount()
+    {
+        return(cellCount);
+    }
+
+    /**
+     *  Run the given number of ticks back-to-back.
+     *  @param ticks The number of ticks to run
+     *  @return The wall time the ticks took in nanoseconds
+     */
+    public long run(long ticks)
+    {
+        long    start;
+
+        start = System.nanoTime();
+        for (; (ticks > 0); --ticks) {
+            simulation.tick();
+        }
+
+        return(System.nanoTime() - start);
+    }
+
+    /*
+     *  Tell the user how to run us and quit.
+     */
+    private static void usage(String complaint)
+    {
+        System.err.println(complaint);
+        System.err.println("usage: BatchRunner [-ticks n] [-warmup n]" +
+                           " [-roads n] [-cars n] [-ne n] [-sw n]" +
+                           " [-threads n] [-buffered 0|1]" +
+                           " [-lanes dense|bitmask|sparse] [-seed n]" +
+                           " [-arrivals per_tick|scheduled]" +
+                           " [-checkpoint file] [-occupancy file]" +
+                           " [-history file] [-trajectories file]" +
+                           " [-metrics port] [-jfr file]" +
+                           " [-profile n] [-top n]");
+        System.exit(1);
+    }
+
+    /**
+     *  Build a scenario and run it as fast as possible.
+     *  @param args Command line options:
+     *  {@code -ticks} number of ticks to measure,
+     *  {@code -warmup} number of ticks to run before measuring,
+     *  {@code -roads} number of roads in the chain,
+     *  {@code -cars} number of cars in a lane,
+     *  {@code -ne} number of north or east bound lanes,
+     *  {@code -sw} number of south or west bound lanes,
+     *  {@code -threads} number of threads to tick on,
+     *  {@code -buffered} 1 to tick in two phases,
+     *  {@code -lanes} how to store the lanes,
+     *  {@code -seed} the seed for spawning vehicles,
+     *  {@code -arrivals} how vehicles arrive,
+     *  {@code -checkpoint} a file to restore instead of warming up,
+     *  or to save to after warming up if it isn't there yet,
+     *  {@code -occupancy} a file to record every measured tick of
+     *  every lane in,
+     *  {@code -history} a file to record every measured tick in
+     *  compressed, to go back to any of them later, and
+     *  {@code -trajectories} a file to record where every vehicle
+     *  went during the measured ticks in,
+     *  {@code -metrics} a port on the loopback address to serve
+     *  metrics on while running, which are shown through JMX too,
+     *  {@code -jfr} a file to write a flight recording of the
+     *  measured ticks to, with an event for every lane's tick,
+     *  {@code -profile} a number of ticks after which to print which
+     *  lanes take the longest to tick, timing one tick in
+     *  {@code TickProfiler.SAMPLE_EVERY}, and
+     *  {@code -top} how many of them to print.
+     */
+    public static void main(String args[])
+    {
+        int             i;
+        long            ticks           = 1000000;
+        long            warmupTicks     = 0;
+        int             threads         = 1;
+        boolean         doubleBuffered  = false;
+        Road.LaneKind   kind            = Road.LaneKind.DENSE;
+        EdgeOfMap.Arrivals      arrivals        =
+                                        EdgeOfMap.Arrivals.PER_TICK;
+        long            seed            = new SplittableRandom()
+                                                        .nextLong();
+        int             roadCount       = 2;
+        int             carCount        = 20;
+        int             NElanes         = 2;
+        int             SWlanes         = 2;
+        Path            checkpoint      = null;
+        Path            occupancy       = null;
+        OccupancyRecorder       recorder        = null;
+        Path            history         = null;
+        HistoryRecorder historyRecorder = null;
+        Path            trajectories    = null;
+        TrajectoryRecorder      trajectoryRecorder      = null;
+        int             metricsPort     = -1;
+        MetricsServer   metricsServer   = null;
+        Path            flight          = null;
+        jdk.jfr.Recording       flightRecording = null;
+        long            profileEvery    = 0;
+        int             top             = 10;
+        TickProfiler    profiler        = null;
+        Metrics         metrics;
+        long            elapsed;
+        long            bytes;
+        long            delivered;
+        double          seconds;
+        TravelTimes     travelTimes;
+        BatchRunner     runner;
+
+        for (i = 0; (i < args.length); i += 2) {
+            long        value;
+
+            if ((i + 1) >= args.length) {
+                usage("missing value for " + args[i]);
+            }
+            if (args[i].equals("-lanes") == true) {
+                try {
+                    kind = Road.LaneKind.valueOf(
+                                        args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            if (args[i].equals("-checkpoint") == true) {
+                checkpoint = Paths.get(args[i + 1]);
+                continue;
+            }
+            if (args[i].equals("-occupancy") == true) {
+                occupancy = Paths.get(args[i + 1]);
+                continue;
+            }
+            if (args[i].equals("-history") == true) {
+                history = Paths.get(args[i + 1]);
+                continue;
+            }
+            if (args[i].equals("-trajectories") == true) {
+                trajectories = Paths.get(args[i + 1]);
+                continue;
+            }
+            if (args[i].equals("-jfr") == true) {
+                flight = Paths.get(args[i + 1]);
+                continue;
+            }
+            if (args[i].equals("-arrivals") == true) {
+                try {
+                    arrivals = EdgeOfMap.Arrivals.valueOf(
+                                        args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            value = 0;
+            try {
+                value = Long.parseLong(args[i + 1]);
+            } catch (NumberFormatException e) {
+                usage("bad value for " + args[i] + ": " + args[i + 1]);
+            }
+
+            if (args[i].equals("-ticks") == true) {
+                ticks = value;
+            } else if (args[i].equals("-warmup") == true) {
+                warmupTicks = value;
+            } else if (args[i].equals("-roads") == true) {
+                roadCount = (int)value;
+            } else if (args[i].equals("-cars") == true) {
+                carCount = (int)value;
+            } else if (args[i].equals("-ne") == true) {
+                NElanes = (int)value;
+            } else if (args[i].equals("-sw") == true) {
+                SWlanes = (int)value;
+            } else if (args[i].equals("-threads") == true) {
+                threads = (int)value;
+            } else if (args[i].equals("-buffered") == true) {
+                doubleBuffered = value != 0;
+            } else if (args[i].equals("-seed") == true) {
+                seed = value;
+            } else if (args[i].equals("-metrics") == true) {
+                metricsPort = (int)value;
+            } else if (args[i].equals("-profile") == true) {
+                profileEvery = value;
+            } else if (args[i].equals("-top") == true) {
+                top = (int)value;
+            } else {
+                usage("unknown option " + args[i]);
+            }
+        }
+
+        runner = new BatchRunner(roadCount, carCount, NElanes, SWlanes,
+                                 kind, seed, arrivals);
+        runner.getSimulation().setParallelism(threads);
+        runner.getSimulation().setDoubleBuffered(doubleBuffered);
+        metrics = runner.getSimulation().getMetrics();
+        if (metricsPort >= 0) {
+            try {
+                metrics.register("BatchRunner");
+                metricsServer = new MetricsServer(metrics, metricsPort);
+            } catch (IOException | javax.management.JMException e) {
+                usage("can't serve metrics on port " + metricsPort +
+                      ": " + e);
+            }
+            System.out.println("serving metrics on " +
+                               metricsServer.getAddress());
+        }
+
+        if ((checkpoint != null) && (Files.exists(checkpoint) == true)) {
+            /*
+             *  Somebody already warmed this map up.
+             */
+            elapsed = System.nanoTime();
+            try {
+                Checkpoint.restore(runner.getSimulation(), checkpoint);
+            } catch (IOException e) {
+                usage("can't restore " + checkpoint + ": " + e);
+            }
+            System.out.printf("restored tick %d from %s in %.3f ms\n",
+                              runner.getSimulation().getTickCount(),
+                              checkpoint,
+                              (System.nanoTime() - elapsed) / 1e6);
+            warmupTicks = 0;
+        }
+
+        /*
+         *  Give the JIT a chance before we start the clock.
+         */
+        runner.run(warmupTicks);
+        if ((checkpoint != null) && (warmupTicks > 0)) {
+            elapsed = System.nanoTime();
+            try {
+                bytes = Checkpoint.save(runner.getSimulation(),
+                                        checkpoint);
+                System.out.printf("saved %d bytes to %s in %.3f ms\n",
+                                  bytes, checkpoint,
+                                  (System.nanoTime() - elapsed) / 1e6);
+            } catch (IOException e) {
+                usage("can't save " + checkpoint + ": " + e);
+            }
+        }
+        if (occupancy != null) {
+            try {
+                recorder = new OccupancyRecorder(occupancy,
+                                                 runner.getSimulation(),
+                                                 runner.getRoads());
+            } catch (IOException e) {
+                usage("can't record to " + occupancy + ": " + e);
+            }
+        }
+        if (history != null) {
+            try {
+                historyRecorder = new HistoryRecorder(history,
+                                                runner.getSimulation(),
+                                                runner.getRoads());
+            } catch (IOException e) {
+                usage("can't record to " + history + ": " + e);
+            }
+        }
+        if (trajectories != null) {
+            trajectoryRecorder = new TrajectoryRecorder(trajectories,
+                                                runner.getSimulation(),
+                                                runner.getRoads());
+        }
+        if (flight != null) {
+            try {
+                flightRecording = FlightEvents.record(true);
+            } catch (IOException e) {
+                usage("can't record to " + flight + ": " + e);
+            }
+        }
+        if (profileEvery > 0) {
+            profiler = new TickProfiler(TickProfiler.SAMPLE_EVERY);
+            runner.getSimulation().setProfiler(profiler);
+            runner.getSimulation().addTickListener(
+                        profiler.reportEvery(profileEvery, top, System.out));
+        }
+        delivered = runner.getDelivered();
+        elapsed = runner.run(ticks);
+        delivered = runner.getDelivered() - delivered;
+        if (flightRecording != null) {
+            try {
+                flightRecording.stop();
+                flightRecording.dump(flight);
+                flightRecording.close();
+                System.out.printf("recorded flight to %s\n", flight);
+            } catch (IOException e) {
+                usage("can't record to " + flight + ": " + e);
+            }
+        }
+        if (trajectoryRecorder != null) {
+            try {
+                trajectoryRecorder.close();
+                System.out.printf("recorded %d events to %s\n",
+                                  trajectoryRecorder.getEventCount(),
+                                  trajectories);
+            } catch (IOException e) {
+                usage("can't record to " + trajectories + ": " + e);
+            }
+        }
+        if (historyRecorder != null) {
+            try {
+                historyRecorder.close();
+                System.out.printf("recorded %d ticks to %s in %d" +
+                                  " bytes\n",
+                                  historyRecorder.getTickCount(), history,
+                                  historyRecorder.getSize());
+            } catch (IOException e) {
+                usage("can't record to " + history + ": " + e);
+            }
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+                System.out.printf("recorded %d ticks to %s\n",
+                                  recorder.getTickCount(), occupancy);
+            } catch (IOException e) {
+                usage("can't record to " + occupancy + ": " + e);
+            }
+        }
+
+        seconds = elapsed / 1e9;
+        System.out.printf("roads=%d cars=%d NElanes=%d SWlanes=%d" +
+                          " threads=%d buffered=%b lanes=%s seed=%d" +
+                          " arrivals=%s\n",
+                          roadCount, carCount, NElanes, SWlanes, threads,
+                          doubleBuffered, kind, seed, arrivals);
+        System.out.printf("ticks:             %d\n", ticks);
+        System.out.printf("wall time:         %.3f s\n", seconds);
+        if (seconds > 0) {
+            System.out.printf("ticks/s:           %.1f\n",
+                              ticks / seconds);
+            System.out.printf("cell-updates/s:    %.1f\n",
+                              (ticks * (double)runner.getCellCount()) /
+                                                            seconds);
+        }
+
+        /*
+         *  The travel times are for the whole run, warmup and all.
+         */
+        travelTimes = runner.getSimulation().getTravelTimes();
+        System.out.printf("delivered:         %d\n", delivered);
+        if (ticks > 0) {
+            System.out.printf("throughput:        %.3f vehicles/tick\n",
+                              delivered / (double)ticks);
+        }
+        System.out.printf("travel ticks:      mean %.1f p50 %d p95 %d" +
+                          " p99 %d\n",
+                          travelTimes.getMeanTicks(),
+                          travelTimes.percentile(0.50),
+                          travelTimes.percentile(0.95),
+                          travelTimes.percentile(0.99));
+        System.out.printf("tick ns:           mean %.0f p50 %d p99 %d\n",
+                          metrics.getMeanTickNanos(),
+                          metrics.getTickNanosP50(),
+                          metrics.getTickNanosP99());
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+    }
+}
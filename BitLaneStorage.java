@@ -0,0 +1,301 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code BitLaneStorage} keeps a lane as one bit per slot, set when
+ *  the slot is occupied, so advancing the lane works on 64 slots at
+ *  a time with shifts and masks.  Vehicles never pass each other in a
+ *  lane, so which {@code Vehicle} is where is kept separately as a
+ *  queue, oldest (nearest the outgoing end) first.  The n-th set bit
+ *  counting down from the outgoing end is the n-th {@code Vehicle} in
+ *  the queue.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+class BitLaneStorage extends LaneStorage {
+    private final long          occupied[];
+    private int                 queue[];
+    private int                 head;
+    private int                 count;
+
+    /**
+     *  @param length Number of slots in the lane
+     */
+    BitLaneStorage(int length)
+    {
+        super(length);
+        occupied = new long[(length + 63) >>> 6];
+        queue = new int[Math.max(length, 1)];
+    }
+
+    /*
+     *  Make the other half of a double buffer.  Both halves share the
+     *  queue: the next state only ever drops the oldest vehicle or
+     *  adds one behind the youngest, and neither touches an element
+     *  the current state is using.
+     */
+    private BitLaneStorage(int length, int queue[])
+    {
+        this(length);
+        this.queue = queue;
+    }
+
+    /*
+     *  Return the position in the queue of the vehicle in the given
+     *  occupied slot: the number of vehicles in front of it.
+     */
+    private int rank(int slot)
+    {
+        int     word;
+        int     bit;
+        int     returnValue;
+        int     i;
+
+        word = slot >>> 6;
+        bit = slot & 63;
+        returnValue = 0;
+        if (bit < 63) {
+            returnValue = Long.bitCount(occupied[word] >>> (bit + 1));
+        }
+        for (i = word + 1; (i < occupied.length); ++i) {
+            returnValue += Long.bitCount(occupied[i]);
+        }
+
+        return(returnValue);
+    }
+
+    int         get(int slot)
+    {
+        if (isEmpty(slot) == true) {
+            return(VehicleTable.NONE);
+        }
+
+        return(queue[(head + rank(slot)) % queue.length]);
+    }
+
+    boolean     isEmpty(int slot)
+    {
+        return((occupied[slot >>> 6] & (1L << slot)) == 0);
+    }
+
+    int         count()
+    {
+        return(count);
+    }
+
+    void        copyTo(int vehicles[])
+    {
+        int     word;
+        int     which;
+
+        /*
+         *  Walk the set bits from the outgoing end back, handing out
+         *  vehicles from the front of the queue.
+         */
+        Arrays.fill(vehicles, 0, length, VehicleTable.NONE);
+        which = head;
+        for (word = occupied.length - 1; (word >= 0); --word) {
+            long    bits;
+
+            bits = occupied[word];
+            while (bits != 0) {
+                int     bit;
+
+                bit = 63 - Long.numberOfLeadingZeros(bits);
+                bits &= ~(1L << bit);
+                vehicles[(word << 6) + bit] = queue[which];
+                if (++which == queue.length) {
+                    which = 0;
+                }
+            }
+        }
+    }
+
+    void        load(int vehicles[])
+    {
+        int     slot;
+
+        /*
+         *  The oldest vehicle goes at the front of the queue.
+         */
+        Arrays.fill(occupied, 0L);
+        head = 0;
+        count = 0;
+        for (slot = length - 1; (slot >= 0); --slot) {
+            if (vehicles[slot] != VehicleTable.NONE) {
+                occupied[slot >>> 6] |= 1L << (slot & 63);
+                queue[count++] = vehicles[slot];
+            }
+        }
+    }
+
+    int         peekLast()
+    {
+        if ((length <= 0) || (isEmpty(length - 1) == true)) {
+            return(VehicleTable.NONE);
+        }
+
+        return(queue[head]);
+    }
+
+    int         removeLast()
+    {
+        int         returnValue;
+
+        if ((length <= 0) || (isEmpty(length - 1) == true)) {
+            return(VehicleTable.NONE);
+        }
+
+        occupied[(length - 1) >>> 6] &= ~(1L << (length - 1));
+        returnValue = queue[head];
+        queue[head] = VehicleTable.NONE;
+        if (++head == queue.length) {
+            head = 0;
+        }
+        --count;
+
+        return(returnValue);
+    }
+
+    void        setFirst(int vehicle)
+    {
+        if (vehicle == VehicleTable.NONE) {
+            return;
+        }
+
+        occupied[0] |= 1L;
+        queue[(head + count) % queue.length] = vehicle;
+        ++count;
+    }
+
+    void        advance()
+    {
+        advance(occupied);
+    }
+
+    /*
+     *  Advance the vehicles whose slots are set in the given bits,
+     *  which are either ours or the other buffer's.
+     */
+    private void        advance(long bits[])
+    {
+        int     word;
+        int     gapWord;
+        int     gap;
+        long    below;
+
+        /*
+         *  Find the frontmost empty slot.  Everything behind it moves
+         *  ahead one slot and everything in front of it stays put.
+         */
+        gap = -1;
+        for (word = bits.length - 1; (word >= 0); --word) {
+            long    empty;
+
+            empty = ~bits[word];
+            if (word == (bits.length - 1)) {
+                /*
+                 *  Ignore the bits past the end of the lane.
+                 */
+                empty &= lastWordMask();
+            }
+            if (empty != 0) {
+                gap = (word << 6) + 63 - Long.numberOfLeadingZeros(empty);
+                break;
+            }
+        }
+        if (gap <= 0) {
+            /*
+             *  The lane is full, or the only gap is the first slot
+             *  with nobody behind it.
+             */
+            return;
+        }
+
+        /*
+         *  Shift the bits below the gap up by one, carrying from word
+         *  to word, and keep the bits above the gap.  The gap's own
+         *  bit is clear so the shifted bits can't collide with it.
+         */
+        gapWord = gap >>> 6;
+        below = (1L << (gap & 63)) - 1;
+        bits[gapWord] = (bits[gapWord] & ~below) |
+                        ((bits[gapWord] & below) << 1) |
+                        carryInto(bits, gapWord);
+        for (word = gapWord - 1; (word >= 0); --word) {
+            bits[word] = (bits[word] << 1) | carryInto(bits, word);
+        }
+    }
+
+    /*
+     *  Return the top bit of the word below the given one, moved to
+     *  the bottom, as it would be carried by a shift of one.
+     */
+    private static long carryInto(long bits[], int word)
+    {
+        if (word == 0) {
+            return(0);
+        }
+
+        return(bits[word - 1] >>> 63);
+    }
+
+    /*
+     *  Return a mask of the bits of the last word that are slots.
+     */
+    private long        lastWordMask()
+    {
+        if ((length & 63) == 0) {
+            return(-1L);
+        }
+
+        return((1L << (length & 63)) - 1);
+    }
+
+    LaneStorage newBuffer()
+    {
+        return(new BitLaneStorage(length, queue));
+    }
+
+    /*
+     *  The copy gets a queue of its own.
+     */
+    LaneStorage copy()
+    {
+        BitLaneStorage  copy;
+
+        copy = new BitLaneStorage(length);
+        System.arraycopy(occupied, 0, copy.occupied, 0, occupied.length);
+        copy.queue = queue.clone();
+        copy.head = head;
+        copy.count = count;
+
+        return(copy);
+    }
+
+    void        advanceInto(LaneStorage nextStorage, boolean exitFree)
+    {
+        BitLaneStorage  next;
+
+        next = (BitLaneStorage)nextStorage;
+        next.head = head;
+        next.count = count;
+        if (length <= 0) {
+            return;
+        }
+
+        System.arraycopy(occupied, 0, next.occupied, 0, occupied.length);
+        if ((exitFree == true) && (isEmpty(length - 1) == false)) {
+            /*
+             *  Our oldest vehicle leaves off the end of the lane.
+             */
+            next.occupied[(length - 1) >>> 6] &= ~(1L << (length - 1));
+            if (++next.head == queue.length) {
+                next.head = 0;
+            }
+            --next.count;
+        }
+        advance(next.occupied);
+    }
+}
@@ -7,8 +7,6 @@ package traffic;
  */
 public class Car extends Vehicle {
 
-	private static int	randomPercentage = 20;
-
     /**
      *  Performs a unit test on the {@code} class
      *  @param args arguments to the unit test
@@ -32,6 +30,14 @@ public class Car extends Vehicle {
     {
         super("car");
     }
+
+    /*
+     *  Make a view of a row of a VehicleTable.
+     */
+    Car(int handle, long identifier)
+    {
+        super("car", handle, identifier);
+    }
 	/**
 	 *  Return a label for this subclass.
 	 *  @return String Label for this subclass.
@@ -48,7 +54,8 @@ public class Car extends Vehicle {
 	  */
 	  public static int getRandomPercentage()
 	  {
-		  return(randomPercentage);
+		  return((int)Math.round(VehicleRegistry.getDefault()
+									.getProbability(CAR) * 100));
 	  }
 	  /**
 	   *  set the percentage of occurrences for this
@@ -57,6 +64,7 @@ public class Car extends Vehicle {
 	   */
 	   public static void setRandomPercentage(int newRandomPercentage)
 	   {
-		   randomPercentage = newRandomPercentage;
+		   VehicleRegistry.getDefault().setProbability(CAR,
+											newRandomPercentage / 100.0);
 	}
 }
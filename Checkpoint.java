@@ -0,0 +1,653 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ *  {@code Checkpoint} saves everything a running {@code Simulation}
+ *  is made of to a file and puts it back later, so a long warm-up only
+ *  has to be run once.  The file holds the tick count, the mix of
+ *  vehicles, the master stream of random numbers, every row of the
+ *  vehicle table and the state of every object in the schedule: the
+ *  contents of every lane, where its next vehicle comes from and the
+ *  random numbers of every place vehicles are made up.
+ *  <p>
+ *  A checkpoint doesn't hold the objects themselves, only their
+ *  state.  It is restored into a {@code Simulation} wired up exactly
+ *  the same way as the one it was saved from, which is easy since the
+ *  wiring is code (say, a {@code BatchRunner} built with the same
+ *  arguments).  The wiring is saved too, and a checkpoint refuses to
+ *  go into a map that doesn't match it.
+ *  <p>
+ *  The file is written and read through memory mapped windows of a
+ *  {@code FileChannel}, so the bulk of it, the lanes and the vehicle
+ *  table, goes straight from the arrays to the page cache and back
+ *  without any streams in between.  It is worked out how big the file
+ *  will be before anything is written, so the file is never longer
+ *  than it has to be.
+ *  <p>
+ *  Vehicles spawned after a restore get the same identifiers they
+ *  would have got if the run hadn't stopped, since each inbound lane
+ *  hands out identifiers from a range of its own and the checkpoint
+ *  says how far along each one is.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class Checkpoint {
+    /**
+     *  The first four bytes of a checkpoint.
+     */
+    static final int            MAGIC           = 0x54524350;
+
+    /**
+     *  The version of the checkpoint written.
+     */
+    static final int            VERSION         = 3;
+
+    /*
+     *  How much of the file is mapped at once.
+     */
+    private static final int    WINDOW_SIZE     = 1 << 26;
+
+    /**
+     *  This class writes the state of a {@code Simulation} through
+     *  mapped windows of a file.  A {@code Writer} without a file
+     *  just counts the bytes that would have been written.
+     */
+    static final class  Writer {
+        private final FileChannel       channel;
+        private final long              size;
+        private long                    base;
+        private long                    counted;
+        private MappedByteBuffer        window;
+        private int                     scratch[]       = new int[0];
+
+        /*
+         *  Write the given number of bytes to a file, or count them if
+         *  there's no file.
+         */
+        private Writer(FileChannel channel, long size)
+        {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /*
+         *  Make sure there is room in the window for the given number
+         *  of bytes.  Return false if we're only counting, in which
+         *  case they've been counted.
+         */
+        private boolean room(int bytes) throws IOException
+        {
+            if (channel == null) {
+                counted += bytes;
+                return(false);
+            }
+            if ((window == null) || (window.remaining() < bytes)) {
+                if (window != null) {
+                    base += window.position();
+                }
+                window = channel.map(FileChannel.MapMode.READ_WRITE,
+                                     base,
+                                     Math.min(WINDOW_SIZE, size - base));
+                if (window.remaining() < bytes) {
+                    throw new IOException("checkpoint grew while it" +
+                                          " was being written");
+                }
+            }
+
+            return(true);
+        }
+
+        /**
+         *  @return The number of bytes written so far
+         */
+        long    position()
+        {
+            if (channel == null) {
+                return(counted);
+            }
+            if (window == null) {
+                return(base);
+            }
+
+            return(base + window.position());
+        }
+
+        /**
+         *  Return an array of at least the given length that the
+         *  caller can use until it writes something else.
+         *  @param length The number of elements needed
+         *  @return The array
+         */
+        int[]   scratch(int length)
+        {
+            if (scratch.length < length) {
+                scratch = new int[length];
+            }
+
+            return(scratch);
+        }
+
+        void    putByte(int value) throws IOException
+        {
+            if (room(1) == true) {
+                window.put((byte)value);
+            }
+        }
+
+        void    putInt(int value) throws IOException
+        {
+            if (room(4) == true) {
+                window.putInt(value);
+            }
+        }
+
+        void    putLong(long value) throws IOException
+        {
+            if (room(8) == true) {
+                window.putLong(value);
+            }
+        }
+
+        void    putDouble(double value) throws IOException
+        {
+            if (room(8) == true) {
+                window.putDouble(value);
+            }
+        }
+
+        void    putString(String value) throws IOException
+        {
+            byte    bytes[];
+
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        /*
+         *  The bulk puts go a window at a time.
+         */
+        void    putBytes(byte values[], int offset, int length)
+            throws IOException
+        {
+            while (length > 0) {
+                int     chunk;
+
+                chunk = Math.min(length, WINDOW_SIZE);
+                if (room(chunk) == true) {
+                    window.put(values, offset, chunk);
+                }
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void    putInts(int values[], int offset, int length)
+            throws IOException
+        {
+            while (length > 0) {
+                int     chunk;
+
+                chunk = Math.min(length, WINDOW_SIZE / 4);
+                if (room(chunk * 4) == true) {
+                    window.asIntBuffer().put(values, offset, chunk);
+                    window.position(window.position() + (chunk * 4));
+                }
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void    putLongs(long values[], int offset, int length)
+            throws IOException
+        {
+            while (length > 0) {
+                int     chunk;
+
+                chunk = Math.min(length, WINDOW_SIZE / 8);
+                if (room(chunk * 8) == true) {
+                    window.asLongBuffer().put(values, offset, chunk);
+                    window.position(window.position() + (chunk * 8));
+                }
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    }
+
+    /**
+     *  This class reads the state of a {@code Simulation} back through
+     *  mapped windows of a file.
+     */
+    static final class  Reader {
+        private final FileChannel       channel;
+        private final long              size;
+        private long                    base;
+        private MappedByteBuffer        window;
+        private int                     scratch[]       = new int[0];
+
+        private Reader(FileChannel channel) throws IOException
+        {
+            this.channel = channel;
+            size = channel.size();
+        }
+
+        /*
+         *  Make sure the next given number of bytes are in the window.
+         */
+        private void    need(int bytes) throws IOException
+        {
+            if ((window != null) && (window.remaining() >= bytes)) {
+                return;
+            }
+
+            if (window != null) {
+                base += window.position();
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                                 Math.min(WINDOW_SIZE, size - base));
+            if (window.remaining() < bytes) {
+                throw new EOFException("checkpoint is cut short");
+            }
+        }
+
+        /**
+         *  Return an array of at least the given length that the
+         *  caller can use until it reads something else.
+         *  @param length The number of elements needed
+         *  @return The array
+         */
+        int[]   scratch(int length)
+        {
+            if (scratch.length < length) {
+                scratch = new int[length];
+            }
+
+            return(scratch);
+        }
+
+        byte    getByte() throws IOException
+        {
+            need(1);
+            return(window.get());
+        }
+
+        int     getInt() throws IOException
+        {
+            need(4);
+            return(window.getInt());
+        }
+
+        long    getLong() throws IOException
+        {
+            need(8);
+            return(window.getLong());
+        }
+
+        double  getDouble() throws IOException
+        {
+            need(8);
+            return(window.getDouble());
+        }
+
+        String  getString() throws IOException
+        {
+            int     length;
+            byte    bytes[];
+
+            length = getInt();
+            if ((length < 0) || (length > (size - base))) {
+                throw new IOException("bad string in checkpoint");
+            }
+            bytes = new byte[length];
+            getBytes(bytes, 0, length);
+
+            return(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        void    getBytes(byte values[], int offset, int length)
+            throws IOException
+        {
+            while (length > 0) {
+                int     chunk;
+
+                chunk = Math.min(length, WINDOW_SIZE);
+                need(chunk);
+                window.get(values, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void    getInts(int values[], int offset, int length)
+            throws IOException
+        {
+            while (length > 0) {
+                int     chunk;
+
+                chunk = Math.min(length, WINDOW_SIZE / 4);
+                need(chunk * 4);
+                window.asIntBuffer().get(values, offset, chunk);
+                window.position(window.position() + (chunk * 4));
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        void    getLongs(long values[], int offset, int length)
+            throws IOException
+        {
+            while (length > 0) {
+                int     chunk;
+
+                chunk = Math.min(length, WINDOW_SIZE / 8);
+                need(chunk * 8);
+                window.asLongBuffer().get(values, offset, chunk);
+                window.position(window.position() + (chunk * 8));
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    }
+
+    /*
+     *  Nobody makes one of these.
+     */
+    private Checkpoint()
+    {
+    }
+
+    /**
+     *  Save a {@code Simulation} between two ticks.
+     *  @param simulation What to save
+     *  @param file Where to save it.  Anything already there is
+     *  replaced.
+     *  @return The size of the checkpoint in bytes
+     *  @throws IOException If the file can't be written
+     */
+    public static long  save(Simulation simulation, Path file)
+        throws IOException
+    {
+        Writer      counter;
+        Writer      out;
+
+        synchronized (simulation) {
+            /*
+             *  Work out how big it'll be so the whole file can be
+             *  mapped as it's written, then write it.
+             */
+            counter = new Writer(null, 0);
+            write(simulation, counter);
+            try (FileChannel channel = FileChannel.open(file,
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE)) {
+                out = new Writer(channel, counter.position());
+                write(simulation, out);
+                if (out.position() != counter.position()) {
+                    throw new IOException("checkpoint changed size while" +
+                                          " it was being written");
+                }
+            }
+        }
+
+        return(counter.position());
+    }
+
+    /*
+     *  Write the header and the simulation.
+     */
+    private static void write(Simulation simulation, Writer out)
+        throws IOException
+    {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        simulation.save(out);
+    }
+
+    /**
+     *  Put a {@code Simulation} back the way it was when it was saved,
+     *  without running any ticks.  It must be wired up the same way as
+     *  the one that was saved, and mustn't be being recorded.  A
+     *  checkpoint of a map wired differently is turned away before
+     *  anything is changed, but if the checkpoint turns out to be
+     *  damaged part way through, the {@code Simulation} is in no fit
+     *  state to run.
+     *  @param simulation Where to put it
+     *  @param file The checkpoint
+     *  @throws IOException If the file can't be read, isn't a
+     *  checkpoint or is for a different map
+     */
+    public static void  restore(Simulation simulation, Path file)
+        throws IOException
+    {
+        Reader      in;
+
+        try (FileChannel channel = FileChannel.open(file,
+                                            StandardOpenOption.READ)) {
+            in = new Reader(channel);
+            if ((in.size < 8) || (in.getInt() != MAGIC) ||
+                (in.getInt() != VERSION)) {
+                throw new IOException("not a checkpoint");
+            }
+            simulation.restore(in);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("checkpoint is cut short");
+        }
+    }
+
+    /*
+     *  Build a chain of roads for the unit test.
+     */
+    private static BatchRunner  build(Road.LaneKind kind, int carCount,
+                                      EdgeOfMap.Arrivals arrivals,
+                                      boolean doubleBuffered)
+    {
+        BatchRunner     runner;
+
+        runner = new BatchRunner(4, carCount, 2, 2, kind, 2026, arrivals);
+        runner.getSimulation().setDoubleBuffered(doubleBuffered);
+
+        return(runner);
+    }
+
+    /*
+     *  Add up the identifiers of the vehicles in every slot of a
+     *  chain of roads, weighted by where they are.
+     */
+    private static long identifierSum(BatchRunner runner)
+    {
+        int     lane;
+        long    at;
+        long    sum;
+        int     vehicles[];
+
+        at = 0;
+        sum = 0;
+        for (Road which : runner.getRoads()) {
+            vehicles = new int[which.getCarCount()];
+            for (lane = 0;
+                 (lane < (which.getNElanes() + which.getSWlanes()));
+                 ++lane) {
+                which.vehiclesInto(lane, vehicles);
+                for (int vehicle : vehicles) {
+                    ++at;
+                    if (vehicle != VehicleTable.NONE) {
+                        sum += at * runner.getSimulation()
+                                          .getVehicleTable()
+                                          .identifierOf(vehicle);
+                    }
+                }
+            }
+        }
+
+        return(sum);
+    }
+
+    /*
+     *  Compare two runs and complain if they differ.
+     */
+    private static int  compare(String what, BatchRunner expected,
+                                BatchRunner actual)
+    {
+        Simulation      expectedSimulation;
+        Simulation      actualSimulation;
+
+        expectedSimulation = expected.getSimulation();
+        actualSimulation = actual.getSimulation();
+        if ((RunRecorder.fingerprint(expected.getRoads()) !=
+             RunRecorder.fingerprint(actual.getRoads())) ||
+            (identifierSum(expected) != identifierSum(actual)) ||
+            (expectedSimulation.getTickCount() !=
+             actualSimulation.getTickCount()) ||
+            (expected.getDelivered() != actual.getDelivered()) ||
+            (expected.getVehicleCount() != actual.getVehicleCount()) ||
+            (expectedSimulation.getVehicleTable().liveCount() !=
+             actualSimulation.getVehicleTable().liveCount()) ||
+            (expectedSimulation.getTravelTimes().getMeanTicks() !=
+             actualSimulation.getTravelTimes().getMeanTicks()) ||
+            (expectedSimulation.getTravelTimes().percentile(0.99) !=
+             actualSimulation.getTravelTimes().percentile(0.99))) {
+            System.out.println("**** ERROR: " + what + " differs");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Checkpoint} class by saving
+     *  warm runs, restoring them into freshly built maps and making
+     *  sure the copies carry on exactly like the originals.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        long                bytes;
+        Path                file;
+        BatchRunner         original;
+        BatchRunner         copy;
+        BatchRunner         untouched;
+        EdgeOfMap.Arrivals  arrivals;
+
+        exitCode = 0;
+        file = null;
+        try {
+            file = Files.createTempFile("checkpoint", ".bin");
+            for (Road.LaneKind kind : Road.LaneKind.values()) {
+                for (int buffered = 0; (buffered < 2); ++buffered) {
+                    String      what;
+
+                    what = kind + " buffered " + (buffered == 1);
+                    arrivals = EdgeOfMap.Arrivals.values()[
+                            (kind.ordinal() + buffered) %
+                            EdgeOfMap.Arrivals.values().length];
+
+                    /*
+                     *  Warm a run up, with a change of mix on the
+                     *  way, and save it.
+                     */
+                    original = build(kind, 70, arrivals, buffered == 1);
+                    original.run(1500);
+                    original.getSimulation().setProbability((byte)1,
+                                                            0.05);
+                    original.run(1500);
+                    bytes = save(original.getSimulation(), file);
+                    if (bytes != Files.size(file)) {
+                        System.out.println("**** ERROR: " + what +
+                                           " checkpoint is " +
+                                           Files.size(file) +
+                                           " bytes, should be " + bytes);
+                        ++exitCode;
+                    }
+
+                    /*
+                     *  A fresh map picks up where it left off.
+                     */
+                    copy = build(kind, 70, arrivals, buffered == 1);
+                    restore(copy.getSimulation(), file);
+                    exitCode += compare(what + " restore", original,
+                                        copy);
+                    original.run(2000);
+                    copy.run(2000);
+                    exitCode += compare(what + " after restore",
+                                        original, copy);
+
+                    /*
+                     *  So does a map that had moved on, and one that
+                     *  had never started.
+                     */
+                    copy = build(kind, 70, arrivals, buffered == 1);
+                    copy.run(4321);
+                    restore(copy.getSimulation(), file);
+                    copy.run(2000);
+                    exitCode += compare(what + " rewind", original, copy);
+                    System.out.println(what + ": " + bytes + " bytes");
+
+                    /*
+                     *  A map wired differently is turned away, and
+                     *  carries on exactly as if it had never been
+                     *  asked.
+                     */
+                    copy = build(kind, 71, arrivals, buffered == 1);
+                    copy.run(1000);
+                    untouched = build(kind, 71, arrivals, buffered == 1);
+                    untouched.run(1000);
+                    try {
+                        restore(copy.getSimulation(), file);
+                        System.out.println("**** ERROR: " + what +
+                                           " restored into a different" +
+                                           " map");
+                        ++exitCode;
+                    } catch (IOException e) {
+                    }
+                    exitCode += compare(what + " turned away", untouched,
+                                        copy);
+                    untouched.run(1000);
+                    copy.run(1000);
+                    exitCode += compare(what + " after turned away",
+                                        untouched, copy);
+                }
+            }
+
+            /*
+             *  Something that isn't a checkpoint is turned away.
+             */
+            Files.write(file, new byte[] {1, 2, 3});
+            try {
+                restore(build(Road.LaneKind.DENSE, 70,
+                              EdgeOfMap.Arrivals.PER_TICK, false)
+                                                    .getSimulation(),
+                        file);
+                System.out.println("**** ERROR: restored junk");
+                ++exitCode;
+            } catch (IOException e) {
+            }
+        } catch (IOException e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        } finally {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -1,11 +1,24 @@
 package traffic;
 
+import java.io.*;
 import java.util.*;
 
 /**
  *  {@code Connection} is a functional interface for one of
  *  two connected objects to take {@code Vehicle}s from the other.
- *  @version 2018100500
+ *  <p>
+ *  Besides the usual {@code tick()}, which moves things in place and
+ *  relies on the {@code TickManager} ticking downstream objects
+ *  first, a {@code Connection} can tick in two phases.  In the first
+ *  phase, {@code computeNext()}, every object works out its next
+ *  state from what everybody looked like at the end of the last tick
+ *  without changing that.  In the second phase,
+ *  {@code swapBuffers()}, the next state becomes the current one.
+ *  Neither phase cares about the order in which objects are done.
+ *  Vehicles move along a lane the same either way; only handing a
+ *  {@code Vehicle} from one object to the next goes by the last tick,
+ *  so one only comes in if there was room at the end of it.
+ *  @version 2026101800
  *  @author Richard Barton
  */
 interface Connection {
@@ -15,10 +28,132 @@ interface Connection {
      *  Since no {@code Vehicle} should be in more than one place at
      *  a time, the {@code Vehicle} being returned must be completely
      *  removed from this object.
-     *  @return The next {@code Vehicle} to exit this {@code Connection}
-     *  object.
+     *  @return The {@code VehicleTable} handle of the next
+     *  {@code Vehicle} to exit this {@code Connection} object or
+     *  {@code VehicleTable.NONE}.
      */
-    Vehicle     takeVehicle();
+    int         takeVehicle();
 
     abstract void       tick();
+
+    /**
+     *  The {@code takenBy} method tells this object which
+     *  {@code Connection} takes its outgoing {@code Vehicle}s, so that
+     *  during {@code computeNext()} it can tell whether its oldest
+     *  {@code Vehicle} will leave.
+     *  @param outgoing The {@code Connection} object taking our
+     *  {@code Vehicle}s.
+     */
+    default void        takenBy(Connection outgoing)
+    {
+    }
+
+    /**
+     *  @return Whether this object had room for an incoming
+     *  {@code Vehicle} at the end of the last tick.
+     */
+    default boolean     acceptsVehicle()
+    {
+        return(true);
+    }
+
+    /**
+     *  The {@code handOffVehicle} method is the two-phase version of
+     *  {@code takeVehicle}.  It is called during {@code computeNext()}
+     *  by the object taking our {@code Vehicle}s, and only when
+     *  that object has room.  It must not change what this object
+     *  looked like at the end of the last tick; this object drops the
+     *  {@code Vehicle} itself when it computes its own next state.
+     *  Objects that make up {@code Vehicle}s out of thin air can just
+     *  take one.
+     *  @return The handle of the {@code Vehicle} leaving this object
+     *  this tick or {@code VehicleTable.NONE}.
+     */
+    default int         handOffVehicle()
+    {
+        return(takeVehicle());
+    }
+
+    /**
+     *  Objects that make up {@code Vehicle}s may know that nothing
+     *  will come out of them for a while.  Whoever takes our
+     *  {@code Vehicle}s may skip asking until then.
+     *  @return The first tick on which {@code takeVehicle} might
+     *  return a {@code Vehicle}.  The tick number is the one from
+     *  {@code TickManager.getTickCount()}.
+     */
+    default long        nextArrival()
+    {
+        return(Long.MIN_VALUE);
+    }
+
+    /**
+     *  First phase of a two-phase tick: work out the next state from
+     *  the state at the end of the last tick.
+     */
+    default void        computeNext()
+    {
+    }
+
+    /**
+     *  Second phase of a two-phase tick: make the next state the
+     *  current one.
+     */
+    default void        swapBuffers()
+    {
+    }
+
+    /**
+     *  Write whatever this object needs to carry on later from where
+     *  it is now, between two ticks.  Objects that keep nothing from
+     *  one tick to the next write nothing.
+     *  @param out Where to write it
+     *  @throws IOException If it can't be written
+     */
+    default void        save(Checkpoint.Writer out) throws IOException
+    {
+    }
+
+    /**
+     *  Read back what {@code save()} wrote, into an object wired up
+     *  the same way as the one that wrote it.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read or doesn't fit this
+     *  object
+     */
+    default void        restore(Checkpoint.Reader in) throws IOException
+    {
+    }
+
+    /**
+     *  A checkpoint only goes back into objects the same size as the
+     *  ones that wrote it, and checks before it changes anything.
+     *  @return The number of vehicles this object has room for, or
+     *  zero for objects that don't hold any
+     */
+    default int         slotCount()
+    {
+        return(0);
+    }
+
+    /**
+     *  Make a copy of this object in a fork of its
+     *  {@code Simulation}.  The copy still points at the same
+     *  neighbours as this object until {@code rewire()} is called on
+     *  it, once everything has been copied.
+     *  @param child The fork
+     *  @param twins Every object copied so far and its copy.  The
+     *  copy of this object goes in here, along with anything else
+     *  made along the way.
+     *  @return The copy
+     */
+    Connection  fork(Simulation child, Map<Object, Object> twins);
+
+    /**
+     *  Point a copy made by {@code fork()} at the copies of its
+     *  neighbours instead of the originals.  Objects with no
+     *  neighbours of their own do nothing.
+     *  @param twins Every object in the fork and its copy
+     */
+    void        rewire(Map<Object, Object> twins);
 }
@@ -0,0 +1,185 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code DenseLaneStorage} keeps a lane as one array element per
+ *  slot, the way {@code Road} always has.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+class DenseLaneStorage extends LaneStorage {
+    private final int           lane[];
+    private int                 count;
+
+    /**
+     *  @param length Number of slots in the lane
+     */
+    DenseLaneStorage(int length)
+    {
+        super(length);
+        lane = new int[length];
+    }
+
+    int         get(int slot)
+    {
+        return(lane[slot]);
+    }
+
+    boolean     isEmpty(int slot)
+    {
+        return(lane[slot] == VehicleTable.NONE);
+    }
+
+    int         count()
+    {
+        return(count);
+    }
+
+    void        copyTo(int vehicles[])
+    {
+        System.arraycopy(lane, 0, vehicles, 0, length);
+    }
+
+    void        load(int vehicles[])
+    {
+        int     i;
+
+        System.arraycopy(vehicles, 0, lane, 0, length);
+        count = 0;
+        for (i = 0; (i < length); ++i) {
+            if (lane[i] != VehicleTable.NONE) {
+                ++count;
+            }
+        }
+    }
+
+    int         peekLast()
+    {
+        if (length <= 0) {
+            return(VehicleTable.NONE);
+        }
+
+        return(lane[length - 1]);
+    }
+
+    int         removeLast()
+    {
+        int         returnValue;
+
+        if (length <= 0) {
+            return(VehicleTable.NONE);
+        }
+
+        /*
+         *  We're going to return our outgoing vehicle.  Make sure
+         *  we empty its slot so the next vehicle in the lane may
+         *  move.
+         */
+        returnValue = lane[length - 1];
+        lane[length - 1] = VehicleTable.NONE;
+        if (returnValue != VehicleTable.NONE) {
+            --count;
+        }
+
+        return(returnValue);
+    }
+
+    void        setFirst(int vehicle)
+    {
+        if (vehicle == VehicleTable.NONE) {
+            return;
+        }
+
+        lane[0] = vehicle;
+        ++count;
+    }
+
+    void        advance()
+    {
+        int             i;
+        int             j;
+
+        /*
+         *  We'll use the high indices as the outgoing end
+         *  of the road and index 0 as the incoming end of
+         *  the road.  For a vehicle to advance, the "slot" in
+         *  front of it must be empty.  So, we'll start at the
+         *  outgoing end.
+         */
+        for (i = length - 1, j = i - 1; (i > 0); --i, --j) {
+            if (lane[i] != VehicleTable.NONE) {
+                /*
+                 *  This "slot" in the road is not empty.  So, we
+                 *  can't advance the vehicle behind us into this
+                 *  slot.
+                 */
+                continue;
+            }
+
+            /*
+             *  This slot is empty so advance the next Vehicle.
+             *  Advance the next vehicle to this slot and empty
+             *  its former slot.
+             */
+            lane[i] = lane[j];
+            lane[j] = VehicleTable.NONE;
+        }
+    }
+
+    LaneStorage newBuffer()
+    {
+        return(new DenseLaneStorage(length));
+    }
+
+    LaneStorage copy()
+    {
+        DenseLaneStorage    copy;
+
+        copy = new DenseLaneStorage(length);
+        System.arraycopy(lane, 0, copy.lane, 0, length);
+        copy.count = count;
+
+        return(copy);
+    }
+
+    void        advanceInto(LaneStorage nextStorage, boolean exitFree)
+    {
+        int                 i;
+        int                 gap;
+        int                 nextLane[];
+        DenseLaneStorage    next;
+
+        next = (DenseLaneStorage)nextStorage;
+        nextLane = next.lane;
+        next.count = count;
+        gap = length - 1;
+        if ((exitFree == true) && (length > 0) &&
+            (lane[gap] != VehicleTable.NONE)) {
+            /*
+             *  Our oldest vehicle leaves, so the last slot is the
+             *  frontmost gap.
+             */
+            --next.count;
+        } else {
+            /*
+             *  The vehicles packed up against the outgoing end stay
+             *  put.
+             */
+            while ((gap >= 0) && (lane[gap] != VehicleTable.NONE)) {
+                nextLane[gap] = lane[gap];
+                --gap;
+            }
+        }
+
+        /*
+         *  Everybody behind the gap moves ahead one slot.
+         */
+        for (i = gap; (i > 0); --i) {
+            nextLane[i] = lane[i - 1];
+        }
+        if (gap >= 0) {
+            nextLane[0] = VehicleTable.NONE;
+        }
+    }
+}
@@ -1,21 +1,502 @@
 package traffic;
 
+import java.io.*;
 import java.util.*;
+import java.util.random.*;
 
 /**
  *  This object implements what happens to lanes at the edge of a map.
- *  Inbound lanes get random vehicles.  Outbound lanes lose their
+ *  Inbound lanes get random vehicles, each lane from its own
+ *  {@code Source} with its own stream of random numbers split from
+ *  the seed of the map, so lanes never wait for each other and a
+ *  seeded map spawns the same vehicles however its lanes are
+ *  ticked.  Outbound lanes lose their
  *  oldest vehicle.  You may use multiple instances of this class but
  *  you don't have to.  It's designed such that any number of
  *  {@code Connectable} objects may take {@code Vehicle}s from a single
  *  instance and that same single instance will consume
  *  {@code Vehicle}s from all {@code Connection} objects that are
  *  connected to any instance.
- *  @version 2018093000
+ *  Each outbound lane is drained by its own little {@code Sink} so
+ *  that lanes which have nothing else in common stay independent in
+ *  the {@code Simulation}'s schedule.
+ *  @version 2026101800
  *  @author Richard Barton
  */
 public class EdgeOfMap implements Connectable, Connection {
-    private List<Connection>    incomingList    = new ArrayList<>();
+    /*
+     *  A lane polls at least this often, even if its next vehicle
+     *  isn't due for longer, so it notices when the mix of vehicles
+     *  changes.
+     */
+    private static final long   MAX_SKIP        = 256;
+
+    private List<Sink>          sinkList        = new ArrayList<>();
+    private final Simulation    simulation;
+    private final RandomStream  random;
+    private Arrivals            arrivals        = Arrivals.PER_TICK;
+    private long                spawned;
+
+    /**
+     *  The ways vehicles can arrive at the edge of the map.
+     *  With {@code PER_TICK} the dice are rolled every time a lane
+     *  has room, and most rolls come up empty.  With
+     *  {@code SCHEDULED} each inbound lane works out on which tick its
+     *  next vehicle arrives, from the geometric distribution that the
+     *  dice rolls would have given, and the lane doesn't even ask
+     *  before then.  Random numbers are only used when a vehicle
+     *  actually arrives.  Both give vehicles the same chances.
+     */
+    public enum Arrivals {
+        PER_TICK,
+        SCHEDULED
+    }
+
+    /*
+     *  This class fills one inbound lane.  Nobody else uses its
+     *  random numbers or its shard of the vehicle table.
+     */
+    private class       Source implements Connection {
+        private final RandomStream      random;
+        private final VehicleTable.Shard    rows;
+        private final int               origin;
+        private final String            name;
+        private long                    spawned;
+        private long                    arrival;
+        private long                    lastPoll;
+        private double                  rate            = Double.NaN;
+
+        /*
+         *  The origin is the number TravelTimes gave the lane we fill,
+         *  and the name what it called it.  Only the thread ticking
+         *  the lane counts what we spawn, so the count is a plain
+         *  field the metrics add up when asked.
+         */
+        public Source(RandomStream random, VehicleTable.Shard rows,
+                      int origin, String name)
+        {
+            this.random = random;
+            this.rows = rows;
+            this.origin = origin;
+            this.name = name;
+            simulation.getMetrics().addSpawner(() -> spawned);
+        }
+
+        /*
+         *  Our copy has a copy of our random numbers, so it makes the
+         *  same vehicles we do unless its mix changes, and the copy
+         *  of our shard in the fork's table.
+         */
+        public Connection       fork(Simulation child,
+                                     Map<Object, Object> twins)
+        {
+            Source      twin;
+
+            twin = (Source)twins.get(this);
+            if (twin == null) {
+                twin = EdgeOfMap.this.twin(child, twins)
+                                     .new Source(random.copy(),
+                                                 child.getVehicleTable()
+                                                      .shard(rows.number()),
+                                                 origin, name);
+                twin.spawned = spawned;
+                twin.arrival = arrival;
+                twin.lastPoll = lastPoll;
+                twin.rate = rate;
+                twins.put(this, twin);
+            }
+
+            return(twin);
+        }
+
+        /*
+         *  We don't point at anybody.
+         */
+        public void     rewire(Map<Object, Object> twins)
+        {
+        }
+
+        /*
+         *  Make up a vehicle for the lane.
+         */
+        public int      takeVehicle()
+        {
+            int                 vehicle;
+            FlightEvents.Spawn  event;
+
+            event = new FlightEvents.Spawn();
+            event.begin();
+            if (arrivals == Arrivals.PER_TICK) {
+                vehicle = Vehicle.nextRandomHandle(rows,
+                                                   simulation.getRegistry(),
+                                                   simulation.getTickCount(),
+                                                   random, origin);
+            } else {
+                vehicle = arrive(simulation.getTickCount());
+            }
+            if (vehicle != VehicleTable.NONE) {
+                ++spawned;
+            }
+            if (event.shouldCommit() == true) {
+                event.origin = name;
+                event.spawned = vehicle != VehicleTable.NONE;
+                event.total = spawned;
+                event.commit();
+            }
+
+            return(vehicle);
+        }
+
+        /*
+         *  The lane has room on the given tick.  Give it a vehicle if
+         *  one is due.
+         */
+        int     arrive(long tick)
+        {
+            double          spawnProbability;
+            byte            vehicleType;
+            VehicleRegistry registry;
+
+            registry = simulation.getRegistry();
+            spawnProbability = registry.getSpawnProbability();
+            lastPoll = tick;
+            if ((spawnProbability != rate) || (arrival < tick)) {
+                /*
+                 *  Either the mix changed, or we're new, or the lane
+                 *  was full when the last vehicle was due.  Since
+                 *  the dice have no memory we can start afresh from
+                 *  the last tick.
+                 */
+                rate = spawnProbability;
+                arrival = (tick - 1) + gap();
+            }
+            if (arrival > tick) {
+                return(VehicleTable.NONE);
+            }
+
+            /*
+             *  One's due.  Pick what it is and when the next one is.
+             */
+            arrival = tick + gap();
+            vehicleType = registry.sampleType(random);
+            if (vehicleType == VehicleTable.FREE) {
+                return(VehicleTable.NONE);
+            }
+
+            return(rows.allocate(vehicleType, tick, origin));
+        }
+
+        /*
+         *  Return the number of ticks until the next vehicle: the
+         *  number of dice rolls up to and including the first one to
+         *  come up with a vehicle.
+         */
+        private long    gap()
+        {
+            if (rate <= 0) {
+                return(Long.MAX_VALUE / 2);
+            }
+            if (rate >= 1) {
+                return(1);
+            }
+
+            return(1 + (long)(Math.log(1 - random.nextDouble()) /
+                              Math.log1p(-rate)));
+        }
+
+        /*
+         *  The lane doesn't need to ask us again before this.
+         */
+        public long     nextArrival()
+        {
+            if (arrivals == Arrivals.PER_TICK) {
+                return(Long.MIN_VALUE);
+            }
+
+            return(Math.min(arrival, lastPoll + MAX_SKIP));
+        }
+
+        /*
+         *  There's nothing to do on a tick.
+         */
+        public void tick()
+        {
+        }
+
+        /*
+         *  Write our random numbers and when the next vehicle is due.
+         */
+        public void save(Checkpoint.Writer out) throws IOException
+        {
+            random.save(out);
+            out.putLong(spawned);
+            out.putLong(arrival);
+            out.putLong(lastPoll);
+            out.putDouble(rate);
+        }
+
+        /*
+         *  Put back what save() wrote.
+         */
+        public void restore(Checkpoint.Reader in) throws IOException
+        {
+            random.restore(in);
+            spawned = in.getLong();
+            arrival = in.getLong();
+            lastPoll = in.getLong();
+            rate = in.getDouble();
+        }
+    }
+
+    /*
+     *  This class drains one outbound lane.  It ticks just before the
+     *  lane it drains so the lane's oldest vehicle is gone by the time
+     *  the lane advances.
+     */
+    private class       Sink implements Connection {
+        private Connection              incoming;
+        private final int               destination;
+        private int                     leaving;
+        private long                    delivered;
+
+        /*
+         *  The destination is the number TravelTimes gave the lane we
+         *  drain.
+         */
+        public Sink(Connection incoming, int destination)
+        {
+            this.incoming = incoming;
+            this.destination = destination;
+            incoming.takenBy(this);
+            simulation.getMetrics().addConsumer(() -> delivered);
+        }
+
+        /*
+         *  Make a copy of a sink for a fork.  It drains the parent's
+         *  lane until rewire().
+         */
+        public Sink(Sink parent)
+        {
+            incoming = parent.incoming;
+            destination = parent.destination;
+            delivered = parent.delivered;
+            simulation.getMetrics().addConsumer(() -> delivered);
+        }
+
+        /*
+         *  Our copy is made along with the rest of the edge.
+         */
+        public Connection       fork(Simulation child,
+                                     Map<Object, Object> twins)
+        {
+            twin(child, twins);
+
+            return(Simulation.twinOf(twins, this));
+        }
+
+        /*
+         *  Drain the copy of the parent's lane.
+         */
+        public void     rewire(Map<Object, Object> twins)
+        {
+            incoming = Simulation.twinOf(twins, incoming);
+        }
+
+        /*
+         *  Name the sink after the lane it drains.
+         */
+        public String   toString()
+        {
+            return("edge of the map after " + incoming);
+        }
+
+        /*
+         *  Nothing ever comes out of a sink.
+         */
+        public int      takeVehicle()
+        {
+            return(VehicleTable.NONE);
+        }
+
+        /*
+         *  Throw away the lane's oldest vehicle.
+         */
+        public void tick()
+        {
+            deliver(incoming.takeVehicle());
+        }
+
+        /*
+         *  A vehicle has left the lane, and the map.  Count it and
+         *  how long it was on the map, and let its row be used again.
+         */
+        void        deliver(int vehicle)
+        {
+            VehicleTable    table;
+
+            if (vehicle == VehicleTable.NONE) {
+                return;
+            }
+            ++delivered;
+            table = simulation.getVehicleTable();
+            simulation.getTravelTimes().delivered(table.originOf(vehicle),
+                                destination,
+                                simulation.getTickCount() -
+                                            table.spawnTickOf(vehicle));
+            simulation.left(vehicle);
+            table.release(vehicle);
+        }
+
+        /*
+         *  When ticking in two phases we always have room, so the
+         *  lane drops its oldest vehicle on its own.  We just note
+         *  which one it was.
+         */
+        public void computeNext()
+        {
+            leaving = incoming.handOffVehicle();
+        }
+
+        /*
+         *  The vehicle is gone from the lane now, so its row can be
+         *  used again.  Nobody spawns vehicles during this phase.
+         */
+        public void swapBuffers()
+        {
+            deliver(leaving);
+            leaving = VehicleTable.NONE;
+        }
+
+        /*
+         *  Between two ticks nothing is leaving, so all there is to
+         *  write is the count.
+         */
+        public void save(Checkpoint.Writer out) throws IOException
+        {
+            out.putLong(delivered);
+        }
+
+        /*
+         *  Put back what save() wrote.
+         */
+        public void restore(Checkpoint.Reader in) throws IOException
+        {
+            delivered = in.getLong();
+            leaving = VehicleTable.NONE;
+        }
+    }
+
+    /**
+     *  Make an edge of the map in the default {@code Simulation}
+     *  whose vehicles are different every time.
+     */
+    public EdgeOfMap()
+    {
+        this(new SplittableRandom().nextLong());
+    }
+
+    /**
+     *  Make an edge of the map in the default {@code Simulation}
+     *  whose vehicles are the same every time it is wired up the same
+     *  way.
+     *  @param seed Where the random numbers for all the inbound
+     *  lanes come from
+     */
+    public EdgeOfMap(long seed)
+    {
+        this(Simulation.getDefault(), new RandomStream(seed));
+    }
+
+    /**
+     *  Make an edge of the map in a {@code Simulation}.  Its random
+     *  numbers are the next stream split from the seed of the
+     *  {@code Simulation}, so the same wiring always gets the same
+     *  vehicles.
+     *  @param simulation The {@code Simulation} the edge belongs to
+     */
+    public EdgeOfMap(Simulation simulation)
+    {
+        this(simulation, simulation.newStream());
+    }
+
+    /*
+     *  Make an edge of the map with the given random numbers.
+     */
+    private EdgeOfMap(Simulation simulation, RandomStream random)
+    {
+        this.simulation = simulation;
+        this.random = random;
+        simulation.getMetrics().addSpawner(() -> spawned);
+    }
+
+    /*
+     *  Return our copy in a fork, making it and our sinks the first
+     *  time anybody asks.
+     */
+    private EdgeOfMap   twin(Simulation child, Map<Object, Object> twins)
+    {
+        EdgeOfMap   twin;
+
+        twin = (EdgeOfMap)twins.get(this);
+        if (twin != null) {
+            return(twin);
+        }
+
+        twin = new EdgeOfMap(child, random.copy());
+        twin.arrivals = arrivals;
+        twin.spawned = spawned;
+        twins.put(this, twin);
+        for (Sink which : sinkList) {
+            Sink    sink;
+
+            sink = twin.new Sink(which);
+            twin.sinkList.add(sink);
+            twins.put(which, sink);
+        }
+
+        return(twin);
+    }
+
+    /**
+     *  Make a copy of this edge of the map, and all its lanes, in a
+     *  fork of its {@code Simulation}.
+     *  @param child The fork
+     *  @param twins Every object copied so far and its copy
+     *  @return The copy
+     */
+    public Connection   fork(Simulation child, Map<Object, Object> twins)
+    {
+        return(twin(child, twins));
+    }
+
+    /**
+     *  Our sinks point at the copies of their lanes on their own.
+     *  @param twins Every object in the fork and its copy
+     */
+    public void rewire(Map<Object, Object> twins)
+    {
+    }
+
+    /**
+     *  Pick how vehicles arrive at this edge of the map.  Do this
+     *  before the first tick.
+     *  @param arrivals How vehicles arrive
+     */
+    public void setArrivals(Arrivals arrivals)
+    {
+        this.arrivals = arrivals;
+    }
+
+    /*
+     *  Make up a vehicle using the given random numbers.
+     */
+    private int spawn(RandomGenerator random, int origin)
+    {
+        return(Vehicle.nextRandomHandle(simulation.getVehicleTable(),
+                                        simulation.getRegistry(),
+                                        simulation.getTickCount(),
+                                        random, origin));
+    }
 
     /**
      *  Give the {@code Connectable} object at the edge of the map a
@@ -33,7 +514,25 @@ public class EdgeOfMap implements Connectable, Connection {
     public void vehiclesGoTo(Connectable outgoingTo, char heading,
                              int outgoingLane, int incomingLane)
     {
-        outgoingTo.setConnection(this, heading, incomingLane);
+        String  name;
+
+        /*
+         *  Each inbound lane gets the next stream split from ours, so
+         *  the same wiring always gets the same streams, and a shard
+         *  of the vehicle table to spawn from.  Its vehicles are
+         *  counted as coming from it when they leave.
+         */
+        name = String.valueOf(heading) + incomingLane;
+        if (outgoingTo instanceof Road) {
+            name = ((Road)outgoingTo).getName() + " " + name;
+        }
+        outgoingTo.setConnection(new Source(random.split(),
+                                            simulation.getVehicleTable()
+                                                      .newShard(),
+                                            simulation.getTravelTimes()
+                                                      .addOrigin(name),
+                                            name),
+                                 heading, incomingLane);
     }
 
     /**
@@ -50,11 +549,32 @@ public class EdgeOfMap implements Connectable, Connection {
                               char heading, int lane)
     {
         /*
-         *  Add the given Connection object to our list of objects
-         *  from which to take vehicles on a tick.
+         *  Give the given Connection object its own sink to take
+         *  vehicles from it on a tick, and remember it in case
+         *  somebody ticks us directly.
          */
-        TickManager.registerTick(this, incoming);
-        incomingList.add(incoming);
+        Sink    sink;
+
+        sink = new Sink(incoming, simulation.getTravelTimes()
+                                    .addDestination(incoming.toString()));
+        simulation.registerTick(sink, incoming);
+        sinkList.add(sink);
+    }
+
+    /**
+     *  @return The number of vehicles that have left the map through
+     *  this edge of the map.  Only ask between ticks.
+     */
+    public long getDelivered()
+    {
+        long    delivered;
+
+        delivered = 0;
+        for (Sink which : sinkList) {
+            delivered += which.delivered;
+        }
+
+        return(delivered);
     }
 
     /**
@@ -64,20 +584,262 @@ public class EdgeOfMap implements Connectable, Connection {
     public void tick()
     {
         /*
-         *  for (Connection incoming : incomingList) {
-         *      incoming.takeVehicle();
+         *  for (Sink sink : sinkList) {
+         *      sink.incoming.takeVehicle();
          *  }
          *
          *  The following lambda expression replaces the above loop.
          */
-         incomingList.forEach(incoming -> incoming.takeVehicle());
+         sinkList.forEach(sink ->
+                            sink.deliver(sink.incoming.takeVehicle()));
     }
 
     /**
-     *  @return A pseudo-randomly chosen subclass of {@code Vehicle}.
+     *  @return The handle of a new, pseudo-randomly chosen type of
+     *  {@code Vehicle} or {@code VehicleTable.NONE}.
+     */
+    public synchronized int     takeVehicle()
+    {
+        int                 vehicle;
+        FlightEvents.Spawn  event;
+
+        event = new FlightEvents.Spawn();
+        event.begin();
+        vehicle = spawn(random, VehicleTable.NO_ORIGIN);
+        if (vehicle != VehicleTable.NONE) {
+            ++spawned;
+        }
+        if (event.shouldCommit() == true) {
+            event.origin = "edge of the map";
+            event.spawned = vehicle != VehicleTable.NONE;
+            event.total = spawned;
+            event.commit();
+        }
+
+        return(vehicle);
+    }
+
+    /*
+     *  Run a road between two edges of the map and make sure the
+     *  rows of the vehicles leaving it get used again.
+     */
+    private static int  testRecycling(boolean doubleBuffered)
+    {
+        int             i;
+        int             rows;
+        int             slots;
+        long            spawned;
+        Road            road;
+        EdgeOfMap       edgeOfMap;
+        VehicleTable    table;
+        Simulation      simulation;
+
+        simulation = new Simulation();
+        table = simulation.getVehicleTable();
+        road = new Road(simulation, "Recycling", 10, 2, 1,
+                        Road.LaneKind.DENSE);
+        edgeOfMap = new EdgeOfMap(simulation);
+        for (i = 1; (i >= 0); --i) {
+            edgeOfMap.vehiclesGoTo(road, 'E', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'E', i, i);
+        }
+        edgeOfMap.vehiclesGoTo(road, 'W', 0, 0);
+        road.vehiclesGoTo(edgeOfMap, 'W', 0, 0);
+
+        simulation.setDoubleBuffered(doubleBuffered);
+        for (i = 0; (i < 5000); ++i) {
+            simulation.tick();
+        }
+
+        /*
+         *  Every slot may be full and, ticking in two phases, each
+         *  lane may have spawned a vehicle before the one leaving it
+         *  was let go.  Thousands of vehicles went through.
+         */
+        slots = 10 * 3;
+        rows = table.rowCount();
+        System.out.println("doubleBuffered " + doubleBuffered + ": " +
+                           rows + " rows, " + table.liveCount() +
+                           " live, " + edgeOfMap.getDelivered() +
+                           " delivered");
+        if (rows > (slots + 3)) {
+            System.out.println("**** ERROR: " + rows + " rows used for " +
+                               slots + " slots");
+            return(1);
+        }
+
+        /*
+         *  Everything that was spawned either left, and had its row
+         *  let go, or is still on the road.
+         */
+        spawned = simulation.getMetrics().getVehiclesSpawned();
+        if ((road.getVehicleCount() != table.liveCount()) ||
+            (road.getDepartures() != edgeOfMap.getDelivered()) ||
+            ((edgeOfMap.getDelivered() + road.getVehicleCount()) !=
+                                                            spawned)) {
+            System.out.println("**** ERROR: " +
+                               edgeOfMap.getDelivered() +
+                               " delivered and " +
+                               road.getVehicleCount() +
+                               " on the road and " +
+                               road.getDepartures() +
+                               " departed but " + table.liveCount() +
+                               " live and " + spawned + " spawned");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Build a road between two edges of the map with the given seed.
      */
-    public Vehicle      takeVehicle()
+    private static Road seededRoad(long seed)
     {
-        return(Vehicle.nextRandom());
+        int             i;
+        Road            road;
+        EdgeOfMap       edgeOfMap;
+
+        road = new Road("Seeded " + seed, 15, 3, 3);
+        edgeOfMap = new EdgeOfMap(seed);
+        for (i = 2; (i >= 0); --i) {
+            edgeOfMap.vehiclesGoTo(road, 'E', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'E', i, i);
+            edgeOfMap.vehiclesGoTo(road, 'W', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'W', i, i);
+        }
+
+        return(road);
+    }
+
+    /*
+     *  Tick two roads with the same seed on several threads, and one
+     *  with another seed, and make sure the same seed always looks
+     *  the same.
+     */
+    private static int  testSeeding()
+    {
+        int     i;
+        int     differences;
+        Road    first;
+        Road    second;
+        Road    other;
+
+        first = seededRoad(2026);
+        second = seededRoad(2026);
+        other = seededRoad(2027);
+        TickManager.setParallelism(4);
+        differences = 0;
+        for (i = 0; (i < 200); ++i) {
+            TickManager.tick();
+            if (Arrays.equals(first.snapshot(), second.snapshot()) ==
+                                                                false) {
+                System.out.println("**** ERROR: same seed, different" +
+                                   " roads on tick " + i);
+                TickManager.setParallelism(1);
+                return(1);
+            }
+            if (Arrays.equals(first.snapshot(), other.snapshot()) ==
+                                                                false) {
+                ++differences;
+            }
+        }
+        TickManager.setParallelism(1);
+        for (String lane : first.snapshot()) {
+            System.out.println(lane);
+        }
+        if (differences == 0) {
+            System.out.println("**** ERROR: different seeds, same" +
+                               " roads");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Poll a source every so many ticks, or only when it asks to be
+     *  if every is 0, and make sure vehicles come up as often as
+     *  rolling the dice on every one of those ticks would give them.
+     */
+    private static int  testScheduled(int every)
+    {
+        int             polls;
+        int             arrivals;
+        int             chances;
+        long            tick;
+        double          expected;
+        double          sigma;
+        EdgeOfMap       edgeOfMap;
+        Source          source;
+
+        edgeOfMap = new EdgeOfMap(2026);
+        edgeOfMap.setArrivals(Arrivals.SCHEDULED);
+        source = edgeOfMap.new Source(edgeOfMap.random.split(),
+                                      VehicleTable.getDefault().newShard(),
+                                      VehicleTable.NO_ORIGIN, "test");
+        polls = 0;
+        arrivals = 0;
+        chances = 0;
+        for (tick = 1; (tick <= 400000); tick += Math.max(every, 1)) {
+            int     handle;
+
+            ++chances;
+            if ((every == 0) && (tick < source.nextArrival())) {
+                continue;
+            }
+            ++polls;
+            handle = source.arrive(tick);
+            if (handle != VehicleTable.NONE) {
+                ++arrivals;
+                VehicleTable.getDefault().release(handle);
+            }
+            if ((handle == VehicleTable.NONE) &&
+                (source.nextArrival() <= tick)) {
+                System.out.println("**** ERROR: asked to poll again on" +
+                                   " tick " + source.nextArrival() +
+                                   " after tick " + tick);
+                return(1);
+            }
+        }
+
+        expected = chances * VehicleRegistry.getDefault()
+                                            .getSpawnProbability();
+        sigma = Math.sqrt(expected * (1 - VehicleRegistry.getDefault()
+                                            .getSpawnProbability()));
+        System.out.println("every " + every + " ticks: " + arrivals +
+                           " arrivals in " + polls + " polls");
+        if (Math.abs(arrivals - expected) > (5 * sigma)) {
+            System.out.println("**** ERROR: expected about " + expected +
+                               " arrivals");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code EdgeOfMap} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     exitCode;
+
+        exitCode = 0;
+        exitCode += testRecycling(false);
+        exitCode += testRecycling(true);
+        exitCode += testSeeding();
+        exitCode += testScheduled(1);
+        exitCode += testScheduled(3);
+        exitCode += testScheduled(0);
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
     }
 }
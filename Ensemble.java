@@ -0,0 +1,470 @@
+package traffic;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  {@code Ensemble} runs the same scenario over and over with
+ *  different seeds and reports, for each road, the flow of vehicles
+ *  off its far end and how full it is, with a confidence interval for
+ *  each.  Replicas run in parallel, each in a {@code Simulation} of its
+ *  own.  Their results are folded into running means and variances as
+ *  they finish, and no more replicas are started once every interval
+ *  is as narrow as asked for, so a quiet scenario takes a handful of
+ *  replicas and a noisy one takes as many as it needs.
+ *  <p>
+ *  Replicas that were already running when the intervals got narrow
+ *  enough are still counted.  Which replicas those are depends on how
+ *  the threads happen to run, so the last digits can differ from one
+ *  ensemble to the next even with the same seed.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class Ensemble {
+    /**
+     *  How many standard errors either side of the mean make a 95%
+     *  confidence interval.
+     */
+    public static final double  Z_95            = 1.959964;
+
+    /*
+     *  How many ticks go by between looks at how full the roads are.
+     */
+    private static final long   SAMPLE_TICKS    = 100;
+
+    private final int           roadCount;
+    private final int           carCount;
+    private final int           NElanes;
+    private final int           SWlanes;
+    private final Road.LaneKind kind;
+    private final EdgeOfMap.Arrivals    arrivals;
+    private final long          ticks;
+    private final long          warmupTicks;
+    private final Statistic     flow[];
+    private final Statistic     occupancy[];
+
+    /**
+     *  This class keeps the mean and variance of a stream of numbers
+     *  without keeping the numbers, using Welford's method so the
+     *  variance doesn't fall apart when the numbers are big and close
+     *  together.
+     */
+    public static final class   Statistic {
+        private long            count;
+        private double          mean;
+        private double          sumOfSquares;
+
+        /**
+         *  @param value The next number
+         */
+        public void     add(double value)
+        {
+            double      delta;
+
+            ++count;
+            delta = value - mean;
+            mean += delta / count;
+            sumOfSquares += delta * (value - mean);
+        }
+
+        /**
+         *  @return How many numbers there have been
+         */
+        public long     getCount()
+        {
+            return(count);
+        }
+
+        /**
+         *  @return The mean of the numbers
+         */
+        public double   getMean()
+        {
+            return(mean);
+        }
+
+        /**
+         *  @return The sample variance of the numbers, 0 until there
+         *  are two of them
+         */
+        public double   getVariance()
+        {
+            if (count < 2) {
+                return(0);
+            }
+
+            return(sumOfSquares / (count - 1));
+        }
+
+        /**
+         *  @param z How many standard errors make the interval
+         *  @return Half the width of the confidence interval of the
+         *  mean, infinite until there are two numbers
+         */
+        public double   getHalfWidth(double z)
+        {
+            if (count < 2) {
+                return(Double.POSITIVE_INFINITY);
+            }
+
+            return(z * Math.sqrt(getVariance() / count));
+        }
+    }
+
+    /**
+     *  @param roadCount Required number of roads in the chain
+     *  @param carCount Required number of cars in one lane of a road
+     *  @param NElanes Required number of north or east bound lanes
+     *  @param SWlanes Required number of south or west bound lanes
+     *  @param kind Required way to store the lanes
+     *  @param arrivals How vehicles arrive at the edge of the map
+     *  @param ticks Number of ticks to measure in each replica
+     *  @param warmupTicks Number of ticks to run before measuring
+     */
+    public Ensemble(int roadCount, int carCount, int NElanes, int SWlanes,
+                    Road.LaneKind kind, EdgeOfMap.Arrivals arrivals,
+                    long ticks, long warmupTicks)
+    {
+        int     i;
+
+        if (roadCount < 1) {
+            roadCount = 1;
+        }
+        this.roadCount = roadCount;
+        this.carCount = carCount;
+        this.NElanes = NElanes;
+        this.SWlanes = SWlanes;
+        this.kind = kind;
+        this.arrivals = arrivals;
+        this.ticks = ticks;
+        this.warmupTicks = warmupTicks;
+        flow = new Statistic[roadCount];
+        occupancy = new Statistic[roadCount];
+        for (i = 0; (i < roadCount); ++i) {
+            flow[i] = new Statistic();
+            occupancy[i] = new Statistic();
+        }
+    }
+
+    /**
+     *  @param road The index of a road in the chain
+     *  @return The vehicles per tick leaving the far end of the road,
+     *  over all the replicas so far
+     */
+    public Statistic    getFlow(int road)
+    {
+        return(flow[road]);
+    }
+
+    /**
+     *  @param road The index of a road in the chain
+     *  @return The fraction of the road's slots with a vehicle in
+     *  them, over all the replicas so far
+     */
+    public Statistic    getOccupancy(int road)
+    {
+        return(occupancy[road]);
+    }
+
+    /**
+     *  @return The number of replicas so far
+     */
+    public long getReplicas()
+    {
+        return(flow[0].getCount());
+    }
+
+    /*
+     *  Run one replica and return the flow of each road followed by
+     *  the occupancy of each road.
+     */
+    private double[]    replica(long seed)
+    {
+        int             i;
+        long            left;
+        long            chunk;
+        long            samples;
+        long            departures[];
+        double          slots;
+        double          result[];
+        Road            road[];
+        BatchRunner     runner;
+
+        runner = new BatchRunner(roadCount, carCount, NElanes, SWlanes,
+                                 kind, seed, arrivals);
+        runner.run(warmupTicks);
+        road = runner.getRoads();
+        departures = new long[roadCount];
+        for (i = 0; (i < roadCount); ++i) {
+            departures[i] = road[i].getDepartures();
+        }
+
+        /*
+         *  Run the ticks a chunk at a time and see how full the roads
+         *  are in between.
+         */
+        result = new double[2 * roadCount];
+        samples = 0;
+        for (left = ticks; (left > 0); left -= chunk) {
+            chunk = Math.min(left, SAMPLE_TICKS);
+            runner.run(chunk);
+            for (i = 0; (i < roadCount); ++i) {
+                result[roadCount + i] += road[i].getVehicleCount();
+            }
+            ++samples;
+        }
+
+        slots = (double)carCount * (NElanes + SWlanes);
+        for (i = 0; (i < roadCount); ++i) {
+            if (ticks > 0) {
+                result[i] = (road[i].getDepartures() - departures[i]) /
+                                                        (double)ticks;
+            }
+            if ((samples > 0) && (slots > 0)) {
+                result[roadCount + i] /= samples * slots;
+            }
+        }
+
+        return(result);
+    }
+
+    /*
+     *  Are all the intervals narrower than the given fraction of
+     *  their means?
+     */
+    private boolean     narrowEnough(double width, double z)
+    {
+        int     i;
+
+        for (i = 0; (i < roadCount); ++i) {
+            if (((2 * flow[i].getHalfWidth(z)) >
+                            (width * Math.abs(flow[i].getMean()))) ||
+                ((2 * occupancy[i].getHalfWidth(z)) >
+                            (width * Math.abs(occupancy[i].getMean())))) {
+                return(false);
+            }
+        }
+
+        return(true);
+    }
+
+    /**
+     *  Run replicas until every confidence interval is narrow enough
+     *  or we've run as many as we're allowed.
+     *  @param seed Where the seeds of the replicas come from
+     *  @param width The widest an interval may be, as a fraction of
+     *  its mean
+     *  @param z How many standard errors make an interval
+     *  @param minReplicas The fewest replicas to run, however narrow
+     *  the intervals are
+     *  @param maxReplicas The most replicas to run
+     *  @param threads The most replicas to run at once
+     *  @throws InterruptedException If we're interrupted while
+     *  waiting for a replica
+     *  @throws ExecutionException If a replica failed
+     */
+    public void run(long seed, double width, double z, int minReplicas,
+                    int maxReplicas, int threads)
+        throws InterruptedException, ExecutionException
+    {
+        int                             i;
+        int                             started;
+        int                             running;
+        double                          result[];
+        RandomStream                    seeds;
+        ExecutorService                 executor;
+        CompletionService<double[]>     finished;
+
+        threads = Math.max(threads, 1);
+        executor = Executors.newFixedThreadPool(threads);
+        finished = new ExecutorCompletionService<>(executor);
+        seeds = new RandomStream(seed);
+        started = 0;
+        running = 0;
+        try {
+            do {
+                /*
+                 *  Keep every thread busy until we know we've got
+                 *  enough.
+                 */
+                while ((running < threads) && (started < maxReplicas) &&
+                       ((started < minReplicas) ||
+                        (narrowEnough(width, z) == false))) {
+                    final long      replicaSeed     = seeds.nextLong();
+
+                    finished.submit(() -> replica(replicaSeed));
+                    ++started;
+                    ++running;
+                }
+                if (running == 0) {
+                    break;
+                }
+
+                result = finished.take().get();
+                --running;
+                for (i = 0; (i < roadCount); ++i) {
+                    flow[i].add(result[i]);
+                    occupancy[i].add(result[roadCount + i]);
+                }
+            } while (true);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     *  Tell the user how to run us and quit.
+     */
+    private static void usage(String complaint)
+    {
+        System.err.println(complaint);
+        System.err.println("usage: Ensemble [-ticks n] [-warmup n]" +
+                           " [-roads n] [-cars n] [-ne n] [-sw n]" +
+                           " [-threads n] [-lanes dense|bitmask|sparse]" +
+                           " [-arrivals per_tick|scheduled] [-seed n]" +
+                           " [-width f] [-min n] [-max n]");
+        System.exit(1);
+    }
+
+    /**
+     *  Run replicas of a scenario until the 95% confidence intervals
+     *  of every road's flow and occupancy are narrow enough.
+     *  @param args Command line options:
+     *  {@code -ticks} number of ticks to measure in each replica,
+     *  {@code -warmup} number of ticks to run before measuring,
+     *  {@code -roads} number of roads in the chain,
+     *  {@code -cars} number of cars in a lane,
+     *  {@code -ne} number of north or east bound lanes,
+     *  {@code -sw} number of south or west bound lanes,
+     *  {@code -threads} most replicas to run at once,
+     *  {@code -lanes} how to store the lanes,
+     *  {@code -arrivals} how vehicles arrive,
+     *  {@code -seed} where the seeds of the replicas come from,
+     *  {@code -width} widest an interval may be as a fraction of its
+     *  mean, {@code -min} fewest replicas and {@code -max} most
+     *  replicas.
+     */
+    public static void main(String args[])
+    {
+        int             i;
+        long            ticks           = 20000;
+        long            warmupTicks     = 2000;
+        int             roadCount       = 2;
+        int             carCount        = 20;
+        int             NElanes         = 2;
+        int             SWlanes         = 2;
+        int             threads         =
+                            Runtime.getRuntime().availableProcessors();
+        Road.LaneKind   kind            = Road.LaneKind.DENSE;
+        EdgeOfMap.Arrivals      arrivals        =
+                                        EdgeOfMap.Arrivals.PER_TICK;
+        long            seed            = new SplittableRandom()
+                                                        .nextLong();
+        double          width           = 0.02;
+        int             minReplicas     = 10;
+        int             maxReplicas     = 500;
+        long            start;
+        Ensemble        ensemble;
+
+        for (i = 0; (i < args.length); i += 2) {
+            long        value;
+
+            if ((i + 1) >= args.length) {
+                usage("missing value for " + args[i]);
+            }
+            if (args[i].equals("-lanes") == true) {
+                try {
+                    kind = Road.LaneKind.valueOf(
+                                        args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            if (args[i].equals("-arrivals") == true) {
+                try {
+                    arrivals = EdgeOfMap.Arrivals.valueOf(
+                                        args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            if (args[i].equals("-width") == true) {
+                try {
+                    width = Double.parseDouble(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            value = 0;
+            try {
+                value = Long.parseLong(args[i + 1]);
+            } catch (NumberFormatException e) {
+                usage("bad value for " + args[i] + ": " + args[i + 1]);
+            }
+
+            if (args[i].equals("-ticks") == true) {
+                ticks = value;
+            } else if (args[i].equals("-warmup") == true) {
+                warmupTicks = value;
+            } else if (args[i].equals("-roads") == true) {
+                roadCount = (int)value;
+            } else if (args[i].equals("-cars") == true) {
+                carCount = (int)value;
+            } else if (args[i].equals("-ne") == true) {
+                NElanes = (int)value;
+            } else if (args[i].equals("-sw") == true) {
+                SWlanes = (int)value;
+            } else if (args[i].equals("-threads") == true) {
+                threads = (int)value;
+            } else if (args[i].equals("-seed") == true) {
+                seed = value;
+            } else if (args[i].equals("-min") == true) {
+                minReplicas = (int)value;
+            } else if (args[i].equals("-max") == true) {
+                maxReplicas = (int)value;
+            } else {
+                usage("unknown option " + args[i]);
+            }
+        }
+
+        ensemble = new Ensemble(roadCount, carCount, NElanes, SWlanes,
+                                kind, arrivals, ticks, warmupTicks);
+        start = System.nanoTime();
+        try {
+            ensemble.run(seed, width, Z_95, minReplicas, maxReplicas,
+                         threads);
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("ensemble failed: " + e);
+            System.exit(1);
+        }
+
+        System.out.printf("roads=%d cars=%d NElanes=%d SWlanes=%d" +
+                          " lanes=%s seed=%d arrivals=%s width=%s\n",
+                          roadCount, carCount, NElanes, SWlanes, kind,
+                          seed, arrivals, width);
+        System.out.printf("replicas:          %d in %.3f s\n",
+                          ensemble.getReplicas(),
+                          (System.nanoTime() - start) / 1e9);
+        for (i = 0; (i < roadCount); ++i) {
+            System.out.printf("road %d flow:       %.5f +- %.5f" +
+                              " vehicles/tick\n", i,
+                              ensemble.getFlow(i).getMean(),
+                              ensemble.getFlow(i).getHalfWidth(Z_95));
+            System.out.printf("road %d occupancy:  %.5f +- %.5f\n", i,
+                              ensemble.getOccupancy(i).getMean(),
+                              ensemble.getOccupancy(i)
+                                                .getHalfWidth(Z_95));
+        }
+        if (ensemble.narrowEnough(width, Z_95) == false) {
+            System.out.println("stopped at " + maxReplicas +
+                               " replicas before the intervals were" +
+                               " narrow enough");
+        }
+    }
+}
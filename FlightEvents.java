@@ -0,0 +1,331 @@
+package traffic;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import jdk.jfr.*;
+import jdk.jfr.consumer.*;
+
+/**
+ *  {@code FlightEvents} are the Java Flight Recorder events the
+ *  engine emits around the parts of a tick and the painting of the
+ *  map, so a recording shows which roads and which phases the time
+ *  goes to.  They are all disabled unless a recording asks for them
+ *  by name, for instance through {@code record()}, a {@code .jfc}
+ *  file or {@code jcmd JFR.start}.
+ *  <p>
+ *  Every place that emits one makes the event, begins it, does its
+ *  work and asks {@code shouldCommit()} before filling anything in.
+ *  With no recording running that is all empty methods the JIT
+ *  throws away along with the event itself, so nothing is allocated
+ *  and nothing is measured.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+final class FlightEvents {
+    /*
+     *  Where the events show up in JDK Mission Control.
+     */
+    private static final String CATEGORY        = "Traffic";
+
+    /**
+     *  A whole tick of a {@code Simulation}.
+     */
+    @Name("traffic.Tick")
+    @Label("Tick")
+    @Category(CATEGORY)
+    @Description("One tick of every road and edge of the map")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class  Tick extends Event {
+        @Label("Tick")
+        long            tick;
+
+        @Label("Vehicles")
+        @Description("Vehicles on the map after the tick")
+        int             vehicles;
+
+        @Label("Two Phase")
+        boolean         twoPhase;
+
+        @Label("Threads")
+        int             threads;
+    }
+
+    /**
+     *  One lane of a {@code Road} moving its vehicles, or working out
+     *  where they'll be when ticking in two phases.
+     */
+    @Name("traffic.LaneTick")
+    @Label("Lane Tick")
+    @Category(CATEGORY)
+    @Description("One lane moving its vehicles")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class  LaneTick extends Event {
+        @Label("Road")
+        String          road;
+
+        @Label("Heading")
+        @Description("E for north or east bound, W for south or west" +
+                     " bound")
+        char            heading;
+
+        @Label("Lane")
+        @Description("The lane among the ones going its way")
+        int             lane;
+
+        @Label("Vehicles")
+        @Description("Vehicles in the lane afterwards")
+        int             vehicles;
+
+        @Label("Two Phase")
+        boolean         twoPhase;
+    }
+
+    /**
+     *  An edge of the map asked for a vehicle for an inbound lane.
+     */
+    @Name("traffic.Spawn")
+    @Label("Spawn")
+    @Category(CATEGORY)
+    @Description("An edge of the map making up a vehicle for a lane")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class  Spawn extends Event {
+        @Label("Origin")
+        @Description("The lane the vehicle comes into")
+        String          origin;
+
+        @Label("Spawned")
+        @Description("Whether a vehicle came up")
+        boolean         spawned;
+
+        @Label("Total Spawned")
+        @Description("Vehicles spawned for the lane so far")
+        long            total;
+    }
+
+    /**
+     *  A {@code Road} drawn as text.
+     */
+    @Name("traffic.Snapshot")
+    @Label("Snapshot")
+    @Category(CATEGORY)
+    @Description("A road turned into one string per lane")
+    @Enabled(false)
+    static final class  Snapshot extends Event {
+        @Label("Road")
+        String          road;
+
+        @Label("Lanes")
+        int             lanes;
+
+        @Label("Vehicles")
+        int             vehicles;
+    }
+
+    /**
+     *  The map painted on the screen.
+     */
+    @Name("traffic.Paint")
+    @Label("Paint")
+    @Category(CATEGORY)
+    @Description("The map painted on the screen")
+    @Enabled(false)
+    static final class  Paint extends Event {
+        @Label("Roads")
+        int             roads;
+
+        @Label("Vehicles")
+        int             vehicles;
+    }
+
+    /*
+     *  Nobody makes one of these.
+     */
+    private FlightEvents()
+    {
+    }
+
+    /**
+     *  Start a recording with the JDK's default events and all of
+     *  ours.
+     *  @param laneTicks Whether to record every lane's tick too.  There
+     *  is one of those for every lane on every tick, so a long run
+     *  makes a lot of them.
+     *  @return The recording, already started
+     *  @throws IOException If the JDK's settings can't be read
+     */
+    static Recording    record(boolean laneTicks) throws IOException
+    {
+        Recording   recording;
+
+        try {
+            recording = new Recording(
+                            Configuration.getConfiguration("default"));
+        } catch (java.text.ParseException e) {
+            throw new IOException("bad JFR settings: " + e);
+        }
+        recording.enable(Tick.class);
+        recording.enable(Spawn.class);
+        recording.enable(Snapshot.class);
+        recording.enable(Paint.class);
+        if (laneTicks == true) {
+            recording.enable(LaneTick.class);
+        }
+        recording.start();
+
+        return(recording);
+    }
+
+    /*
+     *  Run a chain of roads with no recording and make sure the
+     *  events cost no memory once the JIT has had a look.
+     */
+    private static int  testDisabled()
+    {
+        int             i;
+        long            before;
+        long            allocated;
+        BatchRunner     runner;
+        com.sun.management.ThreadMXBean threads;
+
+        if ((ManagementFactory.getThreadMXBean() instanceof
+                        com.sun.management.ThreadMXBean) == false) {
+            return(0);
+        }
+        threads = (com.sun.management.ThreadMXBean)
+                                    ManagementFactory.getThreadMXBean();
+        runner = new BatchRunner(3, 30, 2, 2, Road.LaneKind.DENSE, 2026,
+                                 EdgeOfMap.Arrivals.PER_TICK);
+
+        /*
+         *  The first rounds may allocate while the JIT is still at
+         *  it.  Take the best round.
+         */
+        allocated = Long.MAX_VALUE;
+        for (i = 0; (i < 10); ++i) {
+            before = threads.getThreadAllocatedBytes(
+                                    Thread.currentThread().getId());
+            runner.run(20000);
+            allocated = Math.min(allocated,
+                            threads.getThreadAllocatedBytes(
+                                    Thread.currentThread().getId()) -
+                            before);
+        }
+        System.out.println(allocated + " bytes allocated in 20000 ticks" +
+                           " with no recording");
+        if (allocated > 1024) {
+            System.out.println("**** ERROR: ticking allocated " +
+                               allocated + " bytes");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Record a chain of roads and make sure every kind of event
+     *  showed up as often as it should, with its fields filled in.
+     */
+    private static int  testRecorded(boolean doubleBuffered)
+        throws IOException
+    {
+        int                 i;
+        int                 ticks;
+        int                 lanes;
+        Path                file;
+        Recording           recording;
+        BatchRunner         runner;
+        Map<String, Integer>        count;
+        Set<String>                 roadNames;
+
+        runner = new BatchRunner(3, 12, 2, 1, Road.LaneKind.DENSE, 2026,
+                                 EdgeOfMap.Arrivals.PER_TICK);
+        runner.getSimulation().setDoubleBuffered(doubleBuffered);
+        ticks = 300;
+        lanes = 3 * (2 + 1);
+        file = Files.createTempFile("traffic", ".jfr");
+        count = new HashMap<>();
+        roadNames = new TreeSet<>();
+        try {
+            recording = record(true);
+            runner.run(ticks);
+            for (Road which : runner.getRoads()) {
+                which.snapshot();
+            }
+            recording.stop();
+            recording.dump(file);
+            recording.close();
+
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String  name;
+
+                name = event.getEventType().getName();
+                if (name.startsWith("traffic.") == false) {
+                    continue;
+                }
+                count.merge(name, 1, Integer::sum);
+                if (name.equals("traffic.LaneTick") == true) {
+                    roadNames.add(event.getString("road") + " " +
+                                  event.getChar("heading") +
+                                  event.getInt("lane"));
+                    if ((event.getInt("vehicles") < 0) ||
+                        (event.getInt("vehicles") > 12) ||
+                        (event.getBoolean("twoPhase") !=
+                                                    doubleBuffered)) {
+                        System.out.println("**** ERROR: bad lane tick " +
+                                           event);
+                        return(1);
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        System.out.println("doubleBuffered " + doubleBuffered + ": " +
+                           count + " " + roadNames);
+        if ((count.getOrDefault("traffic.Tick", 0) != ticks) ||
+            (count.getOrDefault("traffic.LaneTick", 0) !=
+                                                    (ticks * lanes)) ||
+            (count.getOrDefault("traffic.Snapshot", 0) != 3) ||
+            (count.getOrDefault("traffic.Spawn", 0) == 0) ||
+            (roadNames.size() != lanes) ||
+            (roadNames.contains("Road 2 W0") == false)) {
+            System.out.println("**** ERROR: wrong events recorded");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code FlightEvents} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     exitCode;
+
+        exitCode = 0;
+        exitCode += testDisabled();
+        try {
+            exitCode += testRecorded(false);
+            exitCode += testRecorded(true);
+        } catch (IOException e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
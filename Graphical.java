@@ -1,6 +1,7 @@
 package traffic;
 
 import java.util.*;
+import java.io.*;
 import java.awt.*;
 import java.awt.font.*;
 import java.awt.geom.*;
@@ -15,10 +16,27 @@ import javax.swing.*;
  */
 
 public class Graphical {
+    /**
+     *  Show the map.
+     *  @param arg {@code -record file} to record the run so
+     *  {@code RunReplayer} can run it again
+     */
     public static void main(String arg[])
     {
+        final String    recordTo;
+
+        if ((arg.length == 2) && (arg[0].equals("-record") == true)) {
+            recordTo = arg[1];
+        } else if (arg.length == 0) {
+            recordTo = null;
+        } else {
+            System.err.println("usage: Graphical [-record file]");
+            System.exit(1);
+            return;
+        }
+
         EventQueue.invokeLater(() -> {
-                MapFrame     frame   = new MapFrame();
+                MapFrame     frame   = new MapFrame(recordTo);
 
                 /*
                  *  Section 10.2, pages 543-546.
@@ -42,7 +60,7 @@ class MapFrame extends JFrame {
     private JButton     		startStopButton;
     private SettingsDialog		settingsDialog;
 
-    public MapFrame() {
+    public MapFrame(String recordTo) {
         int             frameWidth;
         int             frameHeight;
         Toolkit         toolkit;
@@ -94,7 +112,8 @@ class MapFrame extends JFrame {
          */
         panel.add(new MapComponent(frameWidth,
                                    (frameHeight - 72),
-                                   this, panel, startStopButton));
+                                   this, panel, startStopButton,
+                                   recordTo));
 
         /*
          *  Center the button and put it after our map.
@@ -160,6 +179,7 @@ class MapComponent extends JComponent {
     private JButton     startStopButton;
     private boolean     stopped         = true;
     private Rectangle   mapLocation;
+    private RunRecorder recorder;
 
     /*
      *  Advance all the traffic objects and repaint the map.
@@ -211,6 +231,9 @@ class MapComponent extends JComponent {
 
         startStopButton.setText("Stop");
         stopped = false;
+        if (recorder != null) {
+            recorder.started();
+        }
         tick();
     }
 
@@ -228,6 +251,9 @@ class MapComponent extends JComponent {
 
         startStopButton.setText("Start");
         stopped = true;
+        if (recorder != null) {
+            recorder.stopped();
+        }
     }
 
     /*
@@ -289,6 +315,22 @@ class MapComponent extends JComponent {
 
             stopTicks();
         }
+
+        public void windowClosing(WindowEvent event)
+        {
+            /*
+             *  Finish the recording before the program exits.
+             */
+            stopTicks();
+            if (recorder == null) {
+                return;
+            }
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                System.err.println("recording failed: " + e);
+            }
+        }
     }
 
     /*
@@ -329,6 +371,9 @@ class MapComponent extends JComponent {
                     tickDelay *= 2;
                 }
             }
+            if (recorder != null) {
+                recorder.tickDelayChanged(tickDelay);
+            }
         }
     }
 
@@ -408,7 +453,8 @@ class MapComponent extends JComponent {
     }
 
     public MapComponent(int mapWidth, int mapHeight, MapFrame ourFrame,
-                        JPanel ourParent, JButton startStopButton)
+                        JPanel ourParent, JButton startStopButton,
+                        String recordTo)
     {
         int             lane;
         AdjustSpeed     increaseSpeed;
@@ -430,7 +476,7 @@ class MapComponent extends JComponent {
 
         road[0] = new Road("West Road", carCount, NElanes, SWlanes);
         road[1] = new Road("East Road", carCount, NElanes, SWlanes);
-        edgeOfMap = new EdgeOfMap();
+        edgeOfMap = new EdgeOfMap(Simulation.getDefault());
 
         /*
          *  Stitch the roads together including the edge of the map.
@@ -446,6 +492,23 @@ class MapComponent extends JComponent {
             road[0].vehiclesGoTo(edgeOfMap, 'W', lane, lane);
         }
 
+        /*
+         *  If asked to, record the run so it can be replayed.  The
+         *  roads are wired the same way BatchRunner wires them.
+         */
+        if (recordTo != null) {
+            try {
+                recorder = new RunRecorder(new FileOutputStream(recordTo),
+                                           Simulation.getDefault(), road,
+                                           Road.LaneKind.DENSE,
+                                           EdgeOfMap.Arrivals.PER_TICK,
+                                           false);
+            } catch (IOException e) {
+                System.err.println("can't record to " + recordTo + ": " +
+                                   e);
+            }
+        }
+
         /*
          *  Section 10.7, pages 573-582.
          *
@@ -542,6 +605,10 @@ class MapComponent extends JComponent {
         Graphics2D              graphics2D;
         FontRenderContext       fontContext;
         Rectangle2D             laneBounds;
+        FlightEvents.Paint      event;
+
+        event = new FlightEvents.Paint();
+        event.begin();
 
         /*
          *  Save the original font to restore before we return
@@ -687,5 +754,12 @@ class MapComponent extends JComponent {
          *  Restore the original font.
          */
         graphics.setFont(originalFont);
+        if (event.shouldCommit() == true) {
+            event.roads = roadCount;
+            for (Road which : road) {
+                event.vehicles += which.getVehicleCount();
+            }
+            event.commit();
+        }
     }
 }
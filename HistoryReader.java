@@ -0,0 +1,572 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code HistoryReader} goes back to any tick of a file written by
+ *  {@code HistoryRecorder}.  Going to a tick decodes the keyframe
+ *  before it and the deltas from there, unless the reader is already
+ *  somewhere between the two, in which case it just carries on from
+ *  where it is.  So stepping forward a tick at a time costs one delta
+ *  a tick.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class HistoryReader implements Closeable {
+    private final FileChannel   channel;
+    private final long          firstTick;
+    private final int           interval;
+    private final String        typeName[];
+    private final String        roadName[];
+    private final char          heading[];
+    private final int           laneNumber[];
+    private final int           start[];
+    private final int           length[];
+    private final long          keyframe[];
+    private final long          tickCount;
+    private DataInputStream     in;
+    private long                offset;
+    private byte                cells[];
+    private byte                last[];
+    private byte                payload[]       = new byte[4096];
+    private boolean             left[];
+    private long                current         = -1;
+    private int                 framesDecoded;
+
+    /**
+     *  Open a history.
+     *  @param file The file {@code HistoryRecorder} wrote
+     *  @throws IOException If the file can't be read or isn't a
+     *  history
+     */
+    public HistoryReader(Path file) throws IOException
+    {
+        int         i;
+        int         lanes;
+        int         cellCount;
+        long        keyframes[];
+        long        ticks;
+        boolean     finished;
+        ByteBuffer  header;
+        ByteBuffer  trailer;
+
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            /*
+             *  The header.
+             */
+            header = ByteBuffer.allocate(12);
+            readFully(header, 0);
+            if ((header.getInt() != HistoryRecorder.MAGIC) ||
+                (header.getInt() != HistoryRecorder.VERSION)) {
+                throw new IOException(file + " isn't a history");
+            }
+            i = header.getInt();
+            if ((i < 0) || (i > (channel.size() - 12))) {
+                throw new IOException(file + " has a broken header");
+            }
+            header = ByteBuffer.allocate(i);
+            readFully(header, 12);
+            firstTick = header.getLong();
+            interval = header.getInt();
+            typeName = new String[header.get() & 0xff];
+            for (i = 0; (i < typeName.length); ++i) {
+                typeName[i] = readString(header);
+            }
+            lanes = header.getInt();
+            roadName = new String[lanes];
+            heading = new char[lanes];
+            laneNumber = new int[lanes];
+            start = new int[lanes];
+            length = new int[lanes];
+            cellCount = 0;
+            for (i = 0; (i < lanes); ++i) {
+                roadName[i] = readString(header);
+                heading[i] = (char)header.get();
+                laneNumber[i] = header.getInt();
+                length[i] = header.getInt();
+                start[i] = cellCount;
+                cellCount += length[i];
+            }
+            cells = new byte[cellCount];
+            last = new byte[cellCount];
+            left = new boolean[lanes];
+
+            /*
+             *  Where the keyframes are, from the end of the file if
+             *  the recorder was closed or by skipping through the
+             *  ticks if it wasn't.
+             */
+            trailer = ByteBuffer.allocate(12);
+            finished = false;
+            if (channel.size() >= (24 + header.capacity())) {
+                readFully(trailer, channel.size() - 12);
+                finished =
+                    (trailer.getInt(8) == HistoryRecorder.MAGIC) &&
+                    (trailer.getLong(0) >= (12 + header.capacity())) &&
+                    (trailer.getLong(0) < channel.size());
+            }
+            if (finished == true) {
+                trailer = ByteBuffer.allocate(
+                            (int)(channel.size() - trailer.getLong(0)));
+                readFully(trailer, channel.size() - trailer.capacity());
+                if (trailer.get() != HistoryRecorder.END) {
+                    throw new IOException(file + " has a broken end");
+                }
+                keyframes = new long[trailer.getInt()];
+                trailer.asLongBuffer().get(keyframes);
+                trailer.position(trailer.position() +
+                                 (8 * keyframes.length));
+                ticks = trailer.getLong();
+            } else {
+                keyframes = new long[16];
+                ticks = 0;
+                in = open(12 + header.capacity());
+                for (;;) {
+                    int     kind;
+                    int     bytes;
+
+                    try {
+                        kind = in.readByte();
+                        if ((kind < HistoryRecorder.KEYFRAME) ||
+                            (kind > HistoryRecorder.TWO_PHASE)) {
+                            break;
+                        }
+                        bytes = readNumber(in);
+                        in.skipNBytes(bytes);
+                    } catch (EOFException e) {
+                        /*
+                         *  The last tick was cut short.
+                         */
+                        break;
+                    }
+                    if ((ticks % interval) == 0) {
+                        int     which;
+
+                        which = (int)(ticks / interval);
+                        if (which == keyframes.length) {
+                            keyframes = Arrays.copyOf(keyframes,
+                                                      2 * which);
+                        }
+                        keyframes[which] = offset;
+                    }
+                    offset += 1 + sizeOf(bytes) + bytes;
+                    ++ticks;
+                }
+                keyframes = Arrays.copyOf(keyframes,
+                                    (int)((ticks + interval - 1) /
+                                          interval));
+                in = null;
+            }
+            keyframe = keyframes;
+            tickCount = ticks;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            channel.close();
+            throw new IOException(file + " is broken");
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     *  Fill a buffer from the file starting at the given place, and
+     *  get it ready to read.
+     */
+    private void        readFully(ByteBuffer buffer, long from)
+        throws IOException
+    {
+        while (buffer.hasRemaining() == true) {
+            int     bytes;
+
+            bytes = channel.read(buffer, from);
+            if (bytes < 0) {
+                throw new EOFException("history is cut short");
+            }
+            from += bytes;
+        }
+        buffer.flip();
+    }
+
+    /*
+     *  Read the ticks from the given place on.
+     */
+    private DataInputStream     open(long from) throws IOException
+    {
+        offset = from;
+        channel.position(from);
+
+        return(new DataInputStream(new BufferedInputStream(
+                                    Channels.newInputStream(channel),
+                                    1 << 16)));
+    }
+
+    /*
+     *  Read a string written as its length and its UTF-8 bytes.
+     */
+    private static String       readString(ByteBuffer in)
+    {
+        byte    utf8[];
+
+        utf8 = new byte[in.getInt()];
+        in.get(utf8);
+
+        return(new String(utf8, StandardCharsets.UTF_8));
+    }
+
+    /*
+     *  Read a number written seven bits at a time.
+     */
+    private static int  readNumber(DataInputStream in) throws IOException
+    {
+        int     value;
+        int     shift;
+        int     b;
+
+        value = 0;
+        for (shift = 0; ; shift += 7) {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return(value);
+            }
+        }
+    }
+
+    /*
+     *  The number of bytes a number takes written seven bits at a
+     *  time.
+     */
+    private static int  sizeOf(int value)
+    {
+        int     bytes;
+
+        for (bytes = 1; ((value & ~0x7f) != 0); ++bytes) {
+            value >>>= 7;
+        }
+
+        return(bytes);
+    }
+
+    /*
+     *  Take a number written seven bits at a time out of the payload.
+     *  The place to start is in at[0], which is moved past it.
+     */
+    private int         getNumber(int at[])
+    {
+        int     value;
+        int     shift;
+        int     b;
+
+        value = 0;
+        for (shift = 0; ; shift += 7) {
+            b = payload[at[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return(value);
+            }
+        }
+    }
+
+    /*
+     *  Read the next tick and decode it into cells.
+     */
+    private void        decodeNext(boolean mustBeKeyframe)
+        throws IOException
+    {
+        int     i;
+        int     kind;
+        int     bytes;
+        int     end;
+        int     lane;
+        int     at[];
+        byte    temp[];
+
+        kind = in.readByte();
+        if ((kind < HistoryRecorder.KEYFRAME) ||
+            (kind > HistoryRecorder.TWO_PHASE) ||
+            ((kind == HistoryRecorder.KEYFRAME) != mustBeKeyframe)) {
+            throw new IOException("history is broken at tick " +
+                                  (firstTick + current + 1));
+        }
+        bytes = readNumber(in);
+        if (payload.length < bytes) {
+            payload = new byte[Math.max(bytes, 2 * payload.length)];
+        }
+        in.readFully(payload, 0, bytes);
+        at = new int[1];
+        ++framesDecoded;
+
+        if (kind == HistoryRecorder.KEYFRAME) {
+            /*
+             *  Runs of the same type.
+             */
+            for (i = 0; (i < cells.length); ) {
+                int     run;
+
+                run = getNumber(at);
+                Arrays.fill(cells, i, i + run, payload[at[0]++]);
+                i += run;
+            }
+            return;
+        }
+
+        /*
+         *  Move everybody along the way the lanes would have, then
+         *  put in what's different.
+         */
+        temp = last;
+        last = cells;
+        cells = temp;
+        Arrays.fill(left, false);
+        end = getNumber(at);
+        for (i = 0, lane = 0; (i < end); ++i) {
+            lane += getNumber(at);
+            left[lane] = true;
+        }
+        for (i = 0; (i < start.length); ++i) {
+            HistoryRecorder.predict(last, cells, start[i], length[i],
+                                    left[i]);
+        }
+        for (i = 0; (at[0] < bytes); ) {
+            i += getNumber(at);
+            end = getNumber(at);
+            System.arraycopy(payload, at[0], cells, i, end);
+            at[0] += end;
+            i += end;
+        }
+    }
+
+    /**
+     *  Go to a tick, so its lanes can be looked at.
+     *  @param tick The tick of the simulation
+     *  @throws IOException If the history can't be read
+     */
+    public synchronized void    seek(long tick) throws IOException
+    {
+        long    row;
+
+        row = tick - firstTick;
+        if ((row < 0) || (row >= tickCount)) {
+            throw new IndexOutOfBoundsException("tick " + tick +
+                                                " wasn't recorded");
+        }
+        framesDecoded = 0;
+        if ((current < 0) || (current > row) ||
+            ((current / interval) != (row / interval))) {
+            /*
+             *  Start from the keyframe.
+             */
+            current = -1;
+            in = open(keyframe[(int)(row / interval)]);
+            decodeNext(true);
+            current = (row / interval) * interval;
+        }
+        while (current < row) {
+            decodeNext(false);
+            ++current;
+        }
+    }
+
+    /**
+     *  @return The number of ticks read by the last {@code seek()},
+     *  the keyframe included
+     */
+    public synchronized int     getFramesDecoded()
+    {
+        return(framesDecoded);
+    }
+
+    /**
+     *  @return The tick of the simulation the first tick was recorded
+     *  on
+     */
+    public long getFirstTick()
+    {
+        return(firstTick);
+    }
+
+    /**
+     *  @return The number of ticks recorded
+     */
+    public long getTickCount()
+    {
+        return(tickCount);
+    }
+
+    /**
+     *  @return The number of ticks from one keyframe to the next
+     */
+    public int  getKeyframeInterval()
+    {
+        return(interval);
+    }
+
+    /**
+     *  @return The number of lanes recorded
+     */
+    public int  getLaneCount()
+    {
+        return(length.length);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The name of the road the lane is on
+     */
+    public String       getRoadName(int lane)
+    {
+        return(roadName[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return 'E' if the lane is north or east bound or 'W' if it is
+     *  south or west bound
+     */
+    public char getHeading(int lane)
+    {
+        return(heading[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The number of the lane among the ones going its way on
+     *  its road, the way {@code Road.vehiclesGoTo()} counts them
+     */
+    public int  getLaneNumber(int lane)
+    {
+        return(laneNumber[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The number of slots in the lane
+     */
+    public int  getLength(int lane)
+    {
+        return(length[lane]);
+    }
+
+    /**
+     *  @param type The number of the type or {@code VehicleTable.FREE}
+     *  @return The character that stands for the type in a snapshot
+     *  of a road
+     */
+    public char letterOf(byte type)
+    {
+        if (type == VehicleTable.FREE) {
+            return('_');
+        }
+        if ((type < 0) || (type >= typeName.length)) {
+            return('?');
+        }
+
+        return(typeName[type].charAt(0));
+    }
+
+    /**
+     *  @param tick The tick of the simulation
+     *  @param lane Which lane
+     *  @param slot Which slot, in the order {@code Road.snapshot()}
+     *  shows them
+     *  @return The type of the vehicle in the slot or
+     *  {@code VehicleTable.FREE}
+     *  @throws IOException If the history can't be read
+     */
+    public synchronized byte    typeAt(long tick, int lane, int slot)
+        throws IOException
+    {
+        seek(tick);
+
+        return(cellAt(lane, slot));
+    }
+
+    /*
+     *  Look up a slot of the tick we're at.
+     */
+    private byte        cellAt(int lane, int slot)
+    {
+        if (heading[lane] == 'W') {
+            /*
+             *  The history keeps the slots incoming end first.
+             */
+            slot = length[lane] - 1 - slot;
+        }
+
+        return(cells[start[lane] + slot]);
+    }
+
+    /**
+     *  @param tick The tick of the simulation
+     *  @param lane Which lane
+     *  @return The lane on that tick the way {@code Road.snapshot()}
+     *  showed it
+     *  @throws IOException If the history can't be read
+     */
+    public synchronized String  row(long tick, int lane)
+        throws IOException
+    {
+        int     slot;
+        char    letters[];
+
+        seek(tick);
+        letters = new char[length[lane]];
+        for (slot = 0; (slot < letters.length); ++slot) {
+            letters[slot] = letterOf(cellAt(lane, slot));
+        }
+
+        return(new String(letters));
+    }
+
+    /**
+     *  Let go of the file.
+     *  @throws IOException If the file can't be closed
+     */
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     *  Print every lane on one tick of a history.
+     *  @param args The file and the tick
+     */
+    public static void main(String args[])
+    {
+        int             lane;
+        long            tick;
+        HistoryReader   reader;
+
+        if (args.length != 2) {
+            System.err.println("usage: HistoryReader file tick");
+            System.exit(1);
+        }
+        try {
+            reader = new HistoryReader(Paths.get(args[0]));
+            tick = Long.parseLong(args[1]);
+            System.out.printf("%d lanes, ticks %d to %d, a keyframe" +
+                              " every %d ticks\n",
+                              reader.getLaneCount(), reader.getFirstTick(),
+                              reader.getFirstTick() +
+                              reader.getTickCount() - 1,
+                              reader.getKeyframeInterval());
+            for (lane = 0; (lane < reader.getLaneCount()); ++lane) {
+                System.out.printf("%-10s %c%d %s\n",
+                                  reader.getRoadName(lane),
+                                  reader.getHeading(lane),
+                                  reader.getLaneNumber(lane),
+                                  reader.row(tick, lane));
+            }
+            reader.close();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("can't read " + args[0] + ": " + e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,751 @@
+package traffic;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code HistoryRecorder} keeps the whole history of a run in a file
+ *  small enough to keep for a long run, so {@code HistoryReader} can
+ *  go back to any tick of it later.  Like {@code OccupancyRecorder}
+ *  it keeps the type of the vehicle in every slot of every lane, but
+ *  it doesn't keep every tick in full.
+ *  <p>
+ *  Every so many ticks there is a keyframe holding every slot, with
+ *  runs of the same type, mostly empty slots, written as one count
+ *  and one type.  Every other tick is a delta from the tick before.
+ *  Most vehicles just move ahead one slot a tick, so writing down
+ *  every slot that changed would cost about two slots for every
+ *  vehicle that moved.  Instead the delta is worked out against
+ *  where the lanes' own rules would have moved everybody, which only
+ *  needs to know whose front vehicle left.  What's left over, mostly
+ *  the vehicles that came in, is written as runs of slots to skip and
+ *  slots to replace.
+ *  <p>
+ *  So going to any tick reads one keyframe and at most one delta for
+ *  every tick after it up to the next keyframe.  Where the keyframes
+ *  are is written at the end of the file when the recorder is
+ *  closed.  If it never got that far the reader finds them by
+ *  skipping through the file.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class HistoryRecorder implements Closeable,
+                                        Simulation.TickListener {
+    /**
+     *  The first four bytes of a file, and the last four bytes of one
+     *  that was closed.
+     */
+    static final int            MAGIC           = 0x54524849;
+
+    /**
+     *  The version of the file written.
+     */
+    static final int            VERSION         = 1;
+
+    /**
+     *  A tick with every slot in it.
+     */
+    static final byte           KEYFRAME        = 1;
+
+    /**
+     *  A tick ticked in place, as a delta from the tick before.
+     */
+    static final byte           IN_PLACE        = 2;
+
+    /**
+     *  A tick ticked in two phases, as a delta from the tick before.
+     */
+    static final byte           TWO_PHASE       = 3;
+
+    /**
+     *  The end of the ticks: where the keyframes are follows.
+     */
+    static final byte           END             = 4;
+
+    /**
+     *  The number of ticks from one keyframe to the next unless asked
+     *  for otherwise.
+     */
+    static final int            DEFAULT_INTERVAL        = 256;
+
+    private final Simulation    simulation;
+    private final DataOutputStream      out;
+    private final Road          road[];
+    private final int           roadOf[];
+    private final int           laneOf[];
+    private final int           start[];
+    private final int           length[];
+    private final boolean       reversed[];
+    private final int           interval;
+    private final byte          types[];
+    private final int           vehicles[];
+    private byte                cells[];
+    private byte                last[];
+    private final byte          predicted[];
+    private final byte          payload[];
+    private long                position;
+    private long                keyframe[]      = new long[16];
+    private int                 keyframeCount;
+    private long                tickCount;
+    private boolean             closed;
+    private IOException         failure;
+
+    /**
+     *  Start recording a {@code Simulation} with a keyframe every
+     *  {@code DEFAULT_INTERVAL} ticks.  See the other constructor.
+     *  @param file Where to record, replacing anything there
+     *  @param simulation What to record
+     *  @param road The roads to record
+     *  @throws IOException If the file can't be written
+     */
+    public HistoryRecorder(Path file, Simulation simulation, Road road[])
+        throws IOException
+    {
+        this(file, simulation, road, DEFAULT_INTERVAL);
+    }
+
+    /**
+     *  Start recording a {@code Simulation}.  The roads as they are
+     *  now are the first tick recorded, then every tick after that is
+     *  recorded until the recorder is closed.
+     *  @param file Where to record, replacing anything there
+     *  @param simulation What to record
+     *  @param road The roads to record
+     *  @param interval The number of ticks from one keyframe to the
+     *  next
+     *  @throws IOException If the file can't be written
+     */
+    public HistoryRecorder(Path file, Simulation simulation, Road road[],
+                           int interval)
+        throws IOException
+    {
+        int                     i;
+        int                     lanes;
+        int                     whichRoad;
+        int                     whichLane;
+        long                    cellCount;
+        VehicleRegistry         registry;
+        ByteArrayOutputStream   bytes;
+        DataOutputStream        header;
+
+        /*
+         *  Work out the lanes, in the order snapshot() shows them, one
+         *  road after another.
+         */
+        lanes = 0;
+        cellCount = 0;
+        for (Road which : road) {
+            lanes += which.getNElanes() + which.getSWlanes();
+            cellCount += (long)which.getCarCount() *
+                         (which.getNElanes() + which.getSWlanes());
+            if (which.getCarCount() > road[0].getCarCount()) {
+                throw new IllegalArgumentException("roads of different" +
+                                                   " lengths");
+            }
+        }
+        if ((cellCount == 0) || (cellCount > (Integer.MAX_VALUE / 8))) {
+            throw new IllegalArgumentException(cellCount + " slots in a" +
+                                               " tick can't be recorded");
+        }
+        this.simulation = simulation;
+        this.road = road.clone();
+        this.interval = Math.max(interval, 1);
+        roadOf = new int[lanes];
+        laneOf = new int[lanes];
+        start = new int[lanes];
+        length = new int[lanes];
+        reversed = new boolean[lanes];
+        i = 0;
+        cellCount = 0;
+        for (whichRoad = 0; (whichRoad < road.length); ++whichRoad) {
+            for (whichLane = 0;
+                 (whichLane < (road[whichRoad].getNElanes() +
+                               road[whichRoad].getSWlanes()));
+                 ++whichLane, ++i) {
+                roadOf[i] = whichRoad;
+                laneOf[i] = whichLane;
+                start[i] = (int)cellCount;
+                length[i] = road[whichRoad].getCarCount();
+                reversed[i] = whichLane < road[whichRoad].getSWlanes();
+                cellCount += length[i];
+            }
+        }
+        types = new byte[road[0].getCarCount()];
+        vehicles = new int[types.length];
+        cells = new byte[(int)cellCount];
+        last = new byte[cells.length];
+        predicted = new byte[cells.length];
+        payload = new byte[(6 * cells.length) + (5 * lanes) + 64];
+
+        synchronized (simulation) {
+            /*
+             *  The header: the tick we start on, the types and the
+             *  lanes.
+             */
+            bytes = new ByteArrayOutputStream();
+            header = new DataOutputStream(bytes);
+            header.writeLong(simulation.getTickCount());
+            header.writeInt(this.interval);
+            registry = simulation.getRegistry();
+            header.writeByte(registry.size());
+            for (i = 0; (i < registry.size()); ++i) {
+                writeString(header, registry.nameOf((byte)i));
+            }
+            header.writeInt(lanes);
+            for (i = 0; (i < lanes); ++i) {
+                whichRoad = roadOf[i];
+                writeString(header, road[whichRoad].getName());
+                if (reversed[i] == true) {
+                    header.writeByte('W');
+                    header.writeInt(road[whichRoad].getSWlanes() - 1 -
+                                    laneOf[i]);
+                } else {
+                    header.writeByte('E');
+                    header.writeInt(laneOf[i] -
+                                    road[whichRoad].getSWlanes());
+                }
+                header.writeInt(length[i]);
+            }
+
+            out = new DataOutputStream(new BufferedOutputStream(
+                                        Files.newOutputStream(file)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                position = 12 + bytes.size();
+                record();
+                if (failure != null) {
+                    throw failure;
+                }
+            } catch (IOException | RuntimeException e) {
+                out.close();
+                throw e;
+            }
+            simulation.addTickListener(this);
+        }
+    }
+
+    /*
+     *  Write a string as its length and its UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String value)
+        throws IOException
+    {
+        byte    utf8[];
+
+        utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /*
+     *  Put a number that isn't negative into an array seven bits at a
+     *  time, low bits first, with the top bit set on every byte but
+     *  the last, the way RunRecorder writes them.  Return where the
+     *  next byte goes.
+     */
+    private static int  putNumber(byte into[], int at, long value)
+    {
+        while ((value & ~0x7fL) != 0) {
+            into[at++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        into[at++] = (byte)value;
+
+        return(at);
+    }
+
+    /**
+     *  Work out where the vehicles in one lane would be after a tick
+     *  if nobody came in, using the same rules as
+     *  {@code LaneStorage.advance()} and
+     *  {@code LaneStorage.advanceInto()}, which move vehicles along a
+     *  lane the same way.  The slots are in lane order, incoming end
+     *  first, with the type of the vehicle in each one or
+     *  {@code VehicleTable.FREE}.
+     *  @param last The slots after the tick before
+     *  @param next Where the slots after the tick go
+     *  @param start Where the lane starts in both arrays
+     *  @param length The number of slots in the lane
+     *  @param left Whether the vehicle in the last slot, if any, left
+     */
+    static void predict(byte last[], byte next[], int start, int length,
+                        boolean left)
+    {
+        int     i;
+        int     end;
+
+        end = start + length - 1;
+
+        /*
+         *  Everybody behind the frontmost empty slot moves.
+         */
+        System.arraycopy(last, start, next, start, length);
+        if (left == true) {
+            next[end] = VehicleTable.FREE;
+        }
+        for (i = end; (i > start); --i) {
+            if (next[i] == VehicleTable.FREE) {
+                next[i] = next[i - 1];
+                next[i - 1] = VehicleTable.FREE;
+            }
+        }
+    }
+
+    /*
+     *  Count the slots of a lane that differ between two arrays.
+     */
+    private static int  differences(byte expected[], byte actual[],
+                                     int start, int length)
+    {
+        int     i;
+        int     count;
+
+        count = 0;
+        for (i = start; (i < (start + length)); ++i) {
+            if (expected[i] != actual[i]) {
+                ++count;
+            }
+        }
+
+        return(count);
+    }
+
+    /*
+     *  Remember the first thing that went wrong so close() can
+     *  complain about it.  The ticks go on no matter what.
+     */
+    private void        failed(IOException e)
+    {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /*
+     *  Fill the keyframe payload with runs of the same type.  Return
+     *  its length.
+     */
+    private int         encodeKeyframe()
+    {
+        int     i;
+        int     run;
+        int     at;
+
+        at = 0;
+        for (i = 0; (i < cells.length); i += run) {
+            for (run = 1; ((i + run) < cells.length) &&
+                          (cells[i + run] == cells[i]); ++run) {
+            }
+            at = putNumber(payload, at, run);
+            payload[at++] = cells[i];
+        }
+
+        return(at);
+    }
+
+    /*
+     *  Fill the delta payload: the lanes whose front vehicle left,
+     *  then the slots that are different from what that predicts.
+     *  Return its length.
+     */
+    private int         encodeDelta()
+    {
+        int     i;
+        int     lane;
+        int     lefts;
+        int     previous;
+        int     at;
+        int     skipFrom;
+        int     end;
+
+        /*
+         *  Leave room for the number of lanes whose front vehicle
+         *  left, which isn't known yet, by putting the lanes after
+         *  the most room it could take and moving them down after.
+         */
+        at = 5;
+        lefts = 0;
+        previous = 0;
+        for (lane = 0; (lane < start.length); ++lane) {
+            int     kept;
+
+            end = start[lane] + length[lane] - 1;
+            predict(last, predicted, start[lane], length[lane], false);
+            if (last[end] == VehicleTable.FREE) {
+                continue;
+            }
+            kept = differences(cells, predicted, start[lane],
+                               length[lane]);
+            if (kept == 0) {
+                continue;
+            }
+            predict(last, predicted, start[lane], length[lane], true);
+            if (differences(cells, predicted, start[lane],
+                            length[lane]) < kept) {
+                at = putNumber(payload, at, lane - previous);
+                previous = lane;
+                ++lefts;
+            } else {
+                predict(last, predicted, start[lane], length[lane],
+                        false);
+            }
+        }
+        i = putNumber(payload, 0, lefts);
+        System.arraycopy(payload, 5, payload, i, at - 5);
+        at = i + (at - 5);
+
+        /*
+         *  Runs of slots to skip and slots to replace.
+         */
+        skipFrom = 0;
+        for (i = 0; (i < cells.length); ) {
+            if (cells[i] == predicted[i]) {
+                ++i;
+                continue;
+            }
+            for (end = i + 1; (end < cells.length) &&
+                              (cells[end] != predicted[end]); ++end) {
+            }
+            at = putNumber(payload, at, i - skipFrom);
+            at = putNumber(payload, at, end - i);
+            System.arraycopy(cells, i, payload, at, end - i);
+            at += end - i;
+            skipFrom = end;
+            i = end;
+        }
+
+        return(at);
+    }
+
+    /*
+     *  Append the roads as they are now.  The caller holds the lock
+     *  of the simulation so no tick is in progress.
+     */
+    private void        record()
+    {
+        int     i;
+        int     j;
+        int     bytes;
+        int     sizeOfSize;
+        byte    kind;
+        byte    temp[];
+
+        if (failure != null) {
+            return;
+        }
+
+        /*
+         *  The slots of every lane, incoming end first.
+         */
+        temp = last;
+        last = cells;
+        cells = temp;
+        for (i = 0; (i < start.length); ++i) {
+            road[roadOf[i]].typesInto(laneOf[i], types, vehicles);
+            if (reversed[i] == true) {
+                for (j = 0; (j < length[i]); ++j) {
+                    cells[start[i] + j] = types[length[i] - 1 - j];
+                }
+            } else {
+                System.arraycopy(types, 0, cells, start[i], length[i]);
+            }
+        }
+
+        if ((tickCount % interval) == 0) {
+            if (keyframeCount == keyframe.length) {
+                keyframe = Arrays.copyOf(keyframe, 2 * keyframeCount);
+            }
+            keyframe[keyframeCount++] = position;
+            kind = KEYFRAME;
+            bytes = encodeKeyframe();
+        } else if (simulation.isDoubleBuffered() == true) {
+            kind = TWO_PHASE;
+            bytes = encodeDelta();
+        } else {
+            kind = IN_PLACE;
+            bytes = encodeDelta();
+        }
+        try {
+            out.writeByte(kind);
+            sizeOfSize = 0;
+            for (i = bytes; (i > 0x7f); i >>>= 7) {
+                out.writeByte((i & 0x7f) | 0x80);
+                ++sizeOfSize;
+            }
+            out.writeByte(i);
+            out.write(payload, 0, bytes);
+            position += 2 + sizeOfSize + bytes;
+        } catch (IOException e) {
+            failed(e);
+            return;
+        }
+        ++tickCount;
+    }
+
+    /**
+     *  Append the roads as they are after a tick.  This is called by
+     *  the simulation.
+     *  @param simulation The simulation that ticked
+     */
+    public void ticked(Simulation simulation)
+    {
+        record();
+    }
+
+    /**
+     *  @return The number of ticks recorded so far, counting the one
+     *  from when the recorder started
+     */
+    public long getTickCount()
+    {
+        synchronized (simulation) {
+            return(tickCount);
+        }
+    }
+
+    /**
+     *  @return The number of bytes written so far
+     */
+    public long getSize()
+    {
+        synchronized (simulation) {
+            return(position);
+        }
+    }
+
+    /**
+     *  Stop recording and write down where the keyframes are.
+     *  @throws IOException If any part of the file couldn't be
+     *  written
+     */
+    public void close() throws IOException
+    {
+        int     i;
+
+        synchronized (simulation) {
+            if (closed == true) {
+                return;
+            }
+            closed = true;
+            simulation.removeTickListener(this);
+            try {
+                if (failure == null) {
+                    out.writeByte(END);
+                    out.writeInt(keyframeCount);
+                    for (i = 0; (i < keyframeCount); ++i) {
+                        out.writeLong(keyframe[i]);
+                    }
+                    out.writeLong(tickCount);
+                    out.writeLong(position);
+                    out.writeInt(MAGIC);
+                    position += 1 + 4 + (8 * keyframeCount) + 20;
+                }
+                out.close();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     *  Performs a unit test on the {@code HistoryRecorder} class by
+     *  recording runs and going back to every tick of them.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        int                 i;
+        int                 tick;
+        int                 lane;
+        int                 row;
+        int                 ticks;
+        long                raw;
+        long                size;
+        Path                file;
+        Path                cut;
+        BatchRunner         runner;
+        Simulation          simulation;
+        Road                road[];
+        HistoryRecorder     recorder;
+        HistoryReader       reader;
+        List<String[][]>    snapshots;
+        List<Integer>       order;
+        String              actual;
+        String              expected;
+
+        exitCode = 0;
+        file = null;
+        cut = null;
+        try {
+            file = Files.createTempFile("history", ".bin");
+            cut = Files.createTempFile("history", ".cut");
+            for (Road.LaneKind kind : Road.LaneKind.values()) {
+                for (int buffered = 0; (buffered < 2); ++buffered) {
+                    runner = new BatchRunner(3, 40, 2, 2, kind,
+                                             2026 + kind.ordinal(),
+                                             EdgeOfMap.Arrivals.SCHEDULED);
+                    simulation = runner.getSimulation();
+                    simulation.setDoubleBuffered(buffered == 1);
+                    road = runner.getRoads();
+                    runner.run(100);
+
+                    /*
+                     *  Record 201 ticks with a keyframe every 16, and
+                     *  switch the way of ticking halfway.
+                     */
+                    recorder = new HistoryRecorder(file, simulation,
+                                                   road, 16);
+                    snapshots = new ArrayList<>();
+                    ticks = 201;
+                    for (tick = 0; (tick < ticks); ++tick) {
+                        String  snapshot[][];
+
+                        if (tick == 100) {
+                            simulation.setDoubleBuffered(buffered == 0);
+                        }
+                        if (tick > 0) {
+                            runner.run(1);
+                        }
+                        snapshot = new String[road.length][];
+                        for (i = 0; (i < road.length); ++i) {
+                            snapshot[i] = road[i].snapshot();
+                        }
+                        snapshots.add(snapshot);
+                    }
+                    recorder.close();
+                    size = Files.size(file);
+                    raw = 12L * 40 * ticks;
+                    System.out.printf("%s buffered %b: %d bytes, %.1f" +
+                                      " times smaller than every slot\n",
+                                      kind, buffered == 1, size,
+                                      raw / (double)size);
+                    if ((size != recorder.getSize()) ||
+                        ((size * 4) > raw)) {
+                        System.out.println("**** ERROR: " + kind +
+                                           " history is " + size +
+                                           " bytes");
+                        ++exitCode;
+                    }
+
+                    /*
+                     *  Go to every tick in a random order, and then
+                     *  with the end of the file cut off, so the
+                     *  keyframes have to be found and the last tick
+                     *  is lost.
+                     */
+                    order = new ArrayList<>();
+                    for (tick = 0; (tick < ticks); ++tick) {
+                        order.add(tick);
+                    }
+                    for (int pass = 0; (pass < 2); ++pass) {
+                        if (pass == 0) {
+                            reader = new HistoryReader(file);
+                        } else {
+                            Files.copy(file, cut,
+                                    StandardCopyOption.REPLACE_EXISTING);
+                            try (FileOutputStream truncate =
+                                    new FileOutputStream(cut.toFile(),
+                                                         true)) {
+                                truncate.getChannel().truncate(
+                                        size - (1 + 4 + (8 * 13) + 20) -
+                                        1);
+                            }
+                            reader = new HistoryReader(cut);
+                            ticks = 200;
+                            order.remove(Integer.valueOf(200));
+                        }
+                        if ((reader.getTickCount() != ticks) ||
+                            (reader.getFirstTick() != 100) ||
+                            (reader.getLaneCount() != 12) ||
+                            (reader.getKeyframeInterval() != 16)) {
+                            System.out.println("**** ERROR: " + kind +
+                                               " pass " + pass +
+                                               " header is wrong");
+                            ++exitCode;
+                        }
+                        Collections.shuffle(order, new Random(2026));
+                        for (int which : order) {
+                            for (lane = 0; (lane < 12); ++lane) {
+                                /*
+                                 *  Skip the centerline in the
+                                 *  snapshot.
+                                 */
+                                row = lane % 4;
+                                if (row >= 2) {
+                                    ++row;
+                                }
+                                expected = snapshots.get(which)
+                                                    [lane / 4][row];
+                                actual = reader.row(100 + which, lane);
+                                if (reader.getFramesDecoded() > 16) {
+                                    actual = reader.getFramesDecoded() +
+                                             " frames decoded";
+                                }
+                                if (actual.equals(expected) == false) {
+                                    System.out.println("**** ERROR: " +
+                                            kind + " buffered " +
+                                            (buffered == 1) + " pass " +
+                                            pass + " tick " + which +
+                                            " lane " + lane + " is " +
+                                            actual + " instead of " +
+                                            expected);
+                                    ++exitCode;
+                                    break;
+                                }
+                            }
+                        }
+
+                        /*
+                         *  Going forward a tick at a time only decodes
+                         *  one frame a tick.
+                         */
+                        reader.seek(100);
+                        for (tick = 101; (tick < (100 + ticks)); ++tick) {
+                            reader.seek(tick);
+                            if (reader.getFramesDecoded() != 1) {
+                                System.out.println("**** ERROR: " +
+                                        reader.getFramesDecoded() +
+                                        " frames decoded to go forward");
+                                ++exitCode;
+                                break;
+                            }
+                        }
+                        reader.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        } finally {
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+                if (cut != null) {
+                    Files.deleteIfExists(cut);
+                }
+            } catch (IOException e) {
+                System.out.println("**** ERROR: " + e);
+                ++exitCode;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code IdAllocator} hands out 64-bit identifiers that are unique
+ *  across a run without every caller fighting over one counter.  Each
+ *  {@code Shard} owns a range of identifiers of its own, picked by
+ *  the order the shards were made in, and hands them out one at a
+ *  time with no synchronization at all.  What a shard hands out only
+ *  depends on which shard it is and how many it has handed out
+ *  already, never on which thread asks or what the other shards are
+ *  up to, so a seeded run gets the same identifiers however it is
+ *  ticked.
+ *  <p>
+ *  Callers of {@code next()} share the first shard, so on their own
+ *  they get 0, 1, 2 and so on, just like a plain counter.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+final class IdAllocator {
+    /**
+     *  Each shard's range of identifiers is this many bits long.
+     */
+    static final int            SHARD_SHIFT     = 40;
+
+    private static final long   SHARD_SIZE      = 1L << SHARD_SHIFT;
+    private static final int    MAX_SHARDS      = 1 << (63 - SHARD_SHIFT);
+
+    private int                 shardCount;
+    private Shard               shared;
+
+    /**
+     *  This class hands out the identifiers in one shard's range.
+     *  A {@code Shard} must only be used by one thread at a time.
+     */
+    final class         Shard {
+        private final long  first;
+        private long        next;
+
+        /*
+         *  The shard's range starts at its number times the size of
+         *  a range.
+         */
+        private Shard(int number)
+        {
+            first = number * SHARD_SIZE;
+            next = first;
+        }
+
+        /**
+         *  @return The next identifier
+         */
+        long    next()
+        {
+            if ((next - first) == SHARD_SIZE) {
+                throw new IllegalStateException("out of identifiers");
+            }
+
+            return(next++);
+        }
+
+        /**
+         *  @return The identifier {@code next()} will hand out
+         */
+        long    position()
+        {
+            return(next);
+        }
+
+        /**
+         *  Carry on from the given identifier, as if everything in
+         *  the range before it had been handed out already.
+         *  @param identifier The next identifier to hand out
+         *  @return False, with nothing changed, if the identifier
+         *  isn't in this shard's range
+         */
+        boolean moveTo(long identifier)
+        {
+            if ((identifier < first) ||
+                ((identifier - first) > SHARD_SIZE)) {
+                return(false);
+            }
+            next = identifier;
+
+            return(true);
+        }
+    }
+
+    /**
+     *  @return A new identifier from the shared shard
+     */
+    synchronized long   next()
+    {
+        if (shared == null) {
+            shared = newShard();
+        }
+
+        return(shared.next());
+    }
+
+    /**
+     *  Make a {@code Shard} for somebody that wants to hand out
+     *  identifiers on its own, say one per inbound lane.  Make them
+     *  in the same order to get the same identifiers.
+     *  @return The new {@code Shard}
+     */
+    synchronized Shard  newShard()
+    {
+        if (shardCount == MAX_SHARDS) {
+            throw new IllegalStateException("out of identifiers");
+        }
+
+        return(new Shard(shardCount++));
+    }
+
+    /*
+     *  Hand out identifiers from a shard for each of several threads
+     *  at once and return them.
+     */
+    private static long[][] onThreads(IdAllocator allocator, int threads,
+                                      int perThread)
+    {
+        int                 i;
+        Thread              thread[];
+        long                ids[][];
+
+        thread = new Thread[threads];
+        ids = new long[threads][perThread];
+        for (i = 0; (i < threads); ++i) {
+            final long      mine[]  = ids[i];
+            final Shard     from    = allocator.newShard();
+
+            thread[i] = new Thread(() -> {
+                int     j;
+
+                for (j = 0; (j < mine.length); ++j) {
+                    mine[j] = from.next();
+                }
+            });
+        }
+
+        /*
+         *  Start them backwards so the last shard gets going first.
+         */
+        for (i = threads - 1; (i >= 0); --i) {
+            thread[i].start();
+        }
+        for (i = 0; (i < threads); ++i) {
+            try {
+                thread[i].join();
+            } catch (InterruptedException e) {
+                return(null);
+            }
+        }
+
+        return(ids);
+    }
+
+    /**
+     *  Performs a unit test on the {@code IdAllocator} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        int                 i;
+        int                 j;
+        long                id;
+        IdAllocator         allocator;
+        IdAllocator.Shard   shard;
+        IdAllocator.Shard   copy;
+        long                ids[][];
+        long                again[][];
+
+        exitCode = 0;
+
+        /*
+         *  One thread gets the same identifiers as a counter would.
+         */
+        allocator = new IdAllocator();
+        for (i = 0; (i < 100); ++i) {
+            id = allocator.next();
+            if (id != i) {
+                System.out.println("**** ERROR: identifier " + id +
+                                   " should be " + i);
+                ++exitCode;
+                break;
+            }
+        }
+
+        /*
+         *  A shard gets the next range.
+         */
+        shard = allocator.newShard();
+        id = shard.next();
+        if ((id != SHARD_SIZE) || (allocator.next() != 100)) {
+            System.out.println("**** ERROR: shard started at " + id +
+                               " instead of " + SHARD_SIZE);
+            ++exitCode;
+        }
+
+        /*
+         *  The same shard of another allocator carries on where this
+         *  one is, and can't be moved out of its range.
+         */
+        copy = new IdAllocator().newShard();
+        if ((copy.moveTo(shard.position()) == true) ||
+            (new IdAllocator().newShard().moveTo(-1) == true)) {
+            System.out.println("**** ERROR: moved out of range");
+            ++exitCode;
+        }
+        allocator = new IdAllocator();
+        allocator.next();
+        copy = allocator.newShard();
+        if ((copy.moveTo(shard.position()) == false) ||
+            (copy.next() != shard.next())) {
+            System.out.println("**** ERROR: copy didn't carry on");
+            ++exitCode;
+        }
+
+        /*
+         *  Several threads at once get the same identifiers every
+         *  time, each from its own range.
+         */
+        ids = onThreads(new IdAllocator(), 4, 100000);
+        again = onThreads(new IdAllocator(), 4, 100000);
+        if ((ids == null) || (again == null)) {
+            System.out.println("**** ERROR: interrupted");
+            ++exitCode;
+        } else {
+            for (i = 0; (i < ids.length); ++i) {
+                for (j = 0; (j < ids[i].length); ++j) {
+                    if ((ids[i][j] != again[i][j]) ||
+                        (ids[i][j] != ((i * SHARD_SIZE) + j))) {
+                        System.out.println("**** ERROR: thread " + i +
+                                           " got " + ids[i][j] +
+                                           " then " + again[i][j]);
+                        ++exitCode;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code LaneStorage} holds the {@code Vehicle}s in the slots of one
+ *  lane, as their {@code VehicleTable} handles, and knows how to
+ *  advance them.  Slot 0 is the incoming end of
+ *  the lane and slot {@code length - 1} the outgoing end.  There are
+ *  several ways to store a lane, picked with {@code Road.LaneKind};
+ *  they all move vehicles exactly the same way.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+abstract class LaneStorage {
+    protected final int         length;
+
+    /**
+     *  @param length Number of slots in the lane
+     */
+    protected LaneStorage(int length)
+    {
+        this.length = length;
+    }
+
+    /**
+     *  Make an empty lane of the given kind.
+     *  @param kind How to store the lane
+     *  @param length Number of slots in the lane
+     *  @return The new lane storage
+     */
+    static LaneStorage  create(Road.LaneKind kind, int length)
+    {
+        if (kind == Road.LaneKind.BITMASK) {
+            return(new BitLaneStorage(length));
+        }
+        if (kind == Road.LaneKind.SPARSE) {
+            return(new SparseLaneStorage(length));
+        }
+
+        return(new DenseLaneStorage(length));
+    }
+
+    /**
+     *  @return The number of slots in the lane
+     */
+    int length()
+    {
+        return(length);
+    }
+
+    /**
+     *  @param slot Which slot
+     *  @return The handle of the {@code Vehicle} in the slot or
+     *  {@code VehicleTable.NONE}
+     */
+    abstract int        get(int slot);
+
+    /**
+     *  @param slot Which slot
+     *  @return Whether the slot is empty
+     */
+    abstract boolean    isEmpty(int slot);
+
+    /**
+     *  @return The number of {@code Vehicle}s in the lane
+     */
+    abstract int        count();
+
+    /**
+     *  Copy the handle in every slot into an array, in slot order.
+     *  This is cheaper than calling {@code get()} for each slot.
+     *  @param vehicles An array of at least {@code length} elements
+     */
+    abstract void       copyTo(int vehicles[]);
+
+    /**
+     *  Throw away what is in the lane and fill it from an array the
+     *  way {@code copyTo()} would have filled it.
+     *  @param vehicles An array of at least {@code length} elements,
+     *  in slot order
+     */
+    abstract void       load(int vehicles[]);
+
+    /**
+     *  @return The handle of the {@code Vehicle} in the last slot or
+     *  {@code VehicleTable.NONE}
+     */
+    abstract int        peekLast();
+
+    /**
+     *  Empty the last slot.
+     *  @return The handle of the {@code Vehicle} that was in the last
+     *  slot or {@code VehicleTable.NONE}
+     */
+    abstract int        removeLast();
+
+    /**
+     *  Put a {@code Vehicle} in the first slot, which must be empty.
+     *  @param vehicle The handle of the {@code Vehicle} or
+     *  {@code VehicleTable.NONE} for none.
+     */
+    abstract void       setFirst(int vehicle);
+
+    /**
+     *  Advance the vehicles in place.  Starting from the outgoing
+     *  end, every empty slot pulls up the vehicle behind it, so every
+     *  vehicle behind the frontmost empty slot moves ahead one slot.
+     */
+    abstract void       advance();
+
+    /**
+     *  Make an empty lane of the same kind to serve as the other half
+     *  of a double buffer with this one.
+     *  @return The other buffer
+     */
+    abstract LaneStorage        newBuffer();
+
+    /**
+     *  Make a lane of the same kind with the same vehicles in the same
+     *  slots that has nothing to do with this one from here on.
+     *  @return The copy
+     */
+    abstract LaneStorage        copy();
+
+    /**
+     *  Whether every vehicle in the lane is up against the outgoing
+     *  end, with nobody behind a gap.  Then advancing the lane doesn't
+     *  move anybody.
+     *  @return Whether the vehicles are packed
+     */
+    boolean     isPacked()
+    {
+        int     slot;
+
+        for (slot = length - count(); (slot < length); ++slot) {
+            if (isEmpty(slot) == true) {
+                return(false);
+            }
+        }
+
+        return(true);
+    }
+
+    /**
+     *  How many vehicles are up against the outgoing end with no gap
+     *  between them.  Those are the ones advancing the lane doesn't
+     *  move.
+     *  @return The number of vehicles packed at the outgoing end
+     */
+    int         packedCount()
+    {
+        int     slot;
+
+        slot = length;
+        while ((slot > 0) && (isEmpty(slot - 1) == false)) {
+            --slot;
+        }
+
+        return(length - slot);
+    }
+
+    /**
+     *  Work out the next state of the lane into the other buffer
+     *  without changing this one.  The vehicle in the last slot
+     *  leaves if {@code exitFree}, then the rest move just as
+     *  {@code advance()} moves them, so a line of vehicles moves up
+     *  together.  If the first slot is empty here, it is empty in
+     *  {@code next} too, ready for {@code setFirst()}.
+     *  @param next The buffer made by {@code newBuffer()}
+     *  @param exitFree Whether the vehicle in the last slot leaves
+     */
+    abstract void       advanceInto(LaneStorage next, boolean exitFree);
+
+    /*
+     *  Compare a lane against the dense one, slot by slot.
+     */
+    private static int  compare(String what, int tick,
+                                LaneStorage expected, LaneStorage actual)
+    {
+        int         i;
+        int         expectedVehicles[];
+        int         actualVehicles[];
+
+        expectedVehicles = new int[expected.length()];
+        actualVehicles = new int[actual.length()];
+        expected.copyTo(expectedVehicles);
+        actual.copyTo(actualVehicles);
+        for (i = 0; (i < expected.length()); ++i) {
+            if ((expected.get(i) != actual.get(i)) ||
+                (expectedVehicles[i] != actualVehicles[i]) ||
+                (expected.isEmpty(i) != actual.isEmpty(i))) {
+                System.out.println("**** ERROR: " + what + " length " +
+                                   expected.length() + " tick " + tick +
+                                   " slot " + i + " differs");
+                return(1);
+            }
+        }
+        if (expected.isPacked() != actual.isPacked()) {
+            System.out.println("**** ERROR: " + what + " length " +
+                               expected.length() + " tick " + tick +
+                               " isPacked() differs");
+            return(1);
+        }
+        if (expected.packedCount() != actual.packedCount()) {
+            System.out.println("**** ERROR: " + what + " length " +
+                               expected.length() + " tick " + tick +
+                               " packedCount() differs");
+            return(1);
+        }
+        if (expected.count() != actual.count()) {
+            System.out.println("**** ERROR: " + what + " length " +
+                               expected.length() + " tick " + tick +
+                               " count " + actual.count() +
+                               " should be " + expected.count());
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the lane storage classes by running
+     *  every kind of lane next to a dense one with the same random
+     *  traffic and making sure they always look the same.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             exitCode;
+        int             lengths[]       = {1, 2, 3, 63, 64, 65, 127,
+                                           128, 129, 200, 1000};
+        int             vehicles[];
+        Random          random;
+        VehicleTable    table;
+
+        exitCode = 0;
+        random = new Random(2026);
+        table = new VehicleTable();
+        for (Road.LaneKind kind : Road.LaneKind.values()) {
+            for (int length : lengths) {
+                int             tick;
+                int             errors;
+                LaneStorage     dense;
+                LaneStorage     other;
+                LaneStorage     denseNext;
+                LaneStorage     otherNext;
+                LaneStorage     copy;
+
+                /*
+                 *  Move vehicles in place.
+                 */
+                dense = new DenseLaneStorage(length);
+                other = create(kind, length);
+                errors = 0;
+                for (tick = 0; (tick < (3 * length) + 50); ++tick) {
+                    int         entering;
+
+                    if (random.nextInt(4) != 0) {
+                        entering = dense.removeLast();
+                        if (entering != other.removeLast()) {
+                            System.out.println("**** ERROR: " + kind +
+                                               " removeLast() differs");
+                            ++errors;
+                        }
+                        table.release(entering);
+                    }
+                    dense.advance();
+                    other.advance();
+                    if ((dense.isEmpty(0) == true) &&
+                        (random.nextInt(3) != 0)) {
+                        entering = table.allocate(Vehicle.CAR, tick);
+                        dense.setFirst(entering);
+                        other.setFirst(entering);
+                    }
+                    errors += compare(kind + " in place", tick,
+                                      dense, other);
+                    if (errors > 0) {
+                        break;
+                    }
+                }
+                exitCode += errors;
+
+                /*
+                 *  Move vehicles in two phases.
+                 */
+                dense = new DenseLaneStorage(length);
+                other = create(kind, length);
+                denseNext = dense.newBuffer();
+                otherNext = other.newBuffer();
+                errors = 0;
+                for (tick = 0; (tick < (3 * length) + 50); ++tick) {
+                    boolean         exitFree;
+                    boolean         entryFree;
+                    LaneStorage     temp;
+
+                    exitFree = random.nextInt(4) != 0;
+                    entryFree = dense.isEmpty(0);
+                    dense.advanceInto(denseNext, exitFree);
+                    other.advanceInto(otherNext, exitFree);
+                    if ((entryFree == true) && (random.nextInt(3) != 0)) {
+                        int         entering;
+
+                        entering = table.allocate(Vehicle.CAR, tick);
+                        denseNext.setFirst(entering);
+                        otherNext.setFirst(entering);
+                    }
+                    temp = dense;
+                    dense = denseNext;
+                    denseNext = temp;
+                    temp = other;
+                    other = otherNext;
+                    otherNext = temp;
+                    errors += compare(kind + " two phase", tick,
+                                      dense, other);
+                    if (errors > 0) {
+                        break;
+                    }
+                }
+                exitCode += errors;
+
+                /*
+                 *  A lane loaded from the slots of another one looks
+                 *  the same and moves the same.
+                 */
+                vehicles = new int[length];
+                dense.copyTo(vehicles);
+                other = create(kind, length);
+                other.setFirst(table.allocate(Vehicle.CAR, 0));
+                other.load(vehicles);
+                errors = compare(kind + " load", 0, dense, other);
+                if (errors == 0) {
+                    denseNext = dense.newBuffer();
+                    otherNext = other.newBuffer();
+                    dense.advanceInto(denseNext, true);
+                    other.advanceInto(otherNext, true);
+                    errors = compare(kind + " after load", 1,
+                                     denseNext, otherNext);
+                }
+                if (errors == 0) {
+                    dense.advance();
+                    other.advance();
+                    errors = compare(kind + " after load", 2,
+                                     dense, other);
+                }
+                exitCode += errors;
+
+                /*
+                 *  A copy moves on its own without moving the
+                 *  original, and a packed lane doesn't advance.
+                 */
+                errors = 0;
+                copy = other.copy();
+                errors += compare(kind + " copy", 0, other, copy);
+                if (errors == 0) {
+                    denseNext = dense.copy();
+                    while (copy.isPacked() == false) {
+                        copy.advance();
+                    }
+                    if (copy.count() > 0) {
+                        copy.removeLast();
+                    }
+                    copy.advance();
+                    errors += compare(kind + " original", 0, denseNext,
+                                      other);
+                }
+                if (errors == 0) {
+                    copy = dense.copy();
+                    while (copy.isPacked() == false) {
+                        copy.advance();
+                    }
+                    denseNext = copy.copy();
+                    copy.advance();
+                    errors += compare(kind + " packed", 0, denseNext,
+                                      copy);
+                }
+                exitCode += errors;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
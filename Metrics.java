@@ -0,0 +1,682 @@
+package traffic;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import javax.management.*;
+
+/**
+ *  {@code Metrics} watches a {@code Simulation} while it runs: how
+ *  long each tick takes, how many vehicles the edges of the map spawn
+ *  and take away, and how full the lanes are.  The histograms have
+ *  fixed buckets whose counts are {@code LongAdder}s, so recording
+ *  from any number of threads allocates nothing and takes no locks;
+ *  the work is done when somebody reads them.
+ *  <p>
+ *  Even that is too much to do on every tick of a small map, where
+ *  reading the clock costs about as much as the tick.  So only one
+ *  tick in {@code SAMPLE_EVERY} is timed, and the occupancy is looked
+ *  at on the same ticks; the rest only bump a counter only the
+ *  ticking thread writes.  The vehicles spawned and taken away are
+ *  counted by each lane at the edge of the map, in a plain field only
+ *  the thread ticking that lane writes, and added up here when asked
+ *  for, the way {@code EdgeOfMap.getDelivered()} does it.
+ *  <p>
+ *  Every {@code Simulation} has its own, always on.  They can be seen
+ *  through JMX with {@code register()}, or as plain text with
+ *  {@code scrape()}, which is what {@code MetricsServer} serves.
+ *  A fork times only its own ticks, but its edges of the map carry on
+ *  counting vehicles from where the parent's were.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class Metrics implements MetricsMXBean {
+    /*
+     *  The buckets of the tick time histogram, in nanoseconds: 64
+     *  up to a second, doubling.
+     */
+    private static final long   TICK_NANOS[]    = doubling(64, 25);
+
+    /*
+     *  The buckets of the occupancy histogram, in percent.
+     */
+    private static final long   OCCUPANCY_PERCENT[]     = steps(5, 20);
+
+    /**
+     *  One tick in this many is timed.  It must be a power of two.
+     */
+    static final int            SAMPLE_EVERY    = 64;
+
+    private final Histogram     tickNanos       = new Histogram(TICK_NANOS);
+    private final Histogram     occupancy       =
+                                        new Histogram(OCCUPANCY_PERCENT);
+    private final AtomicLong    ticks           = new AtomicLong();
+    private volatile LongSupplier       spawner[]       =
+                                                new LongSupplier[0];
+    private volatile LongSupplier       consumer[]      =
+                                                new LongSupplier[0];
+    private final VehicleTable  vehicles;
+    private volatile int        slots;
+
+    /**
+     *  This class counts values into buckets fixed when it is made.
+     *  Each bucket counts the values no bigger than its bound and
+     *  bigger than the bound before it; one more bucket at the end
+     *  counts everything bigger than the last bound.
+     */
+    public static final class   Histogram {
+        private final long      bound[];
+        private final LongAdder count[];
+        private final LongAdder sum             = new LongAdder();
+
+        /**
+         *  @param bound The upper bound of each bucket, from smallest
+         *  to biggest
+         */
+        public Histogram(long bound[])
+        {
+            int     i;
+
+            this.bound = bound.clone();
+            count = new LongAdder[bound.length + 1];
+            for (i = 0; (i < count.length); ++i) {
+                count[i] = new LongAdder();
+            }
+        }
+
+        /**
+         *  Count a value.  This may be called on any number of
+         *  threads at once.
+         *  @param value The value
+         */
+        public void     record(long value)
+        {
+            int     bucket;
+
+            bucket = Arrays.binarySearch(bound, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            count[bucket].increment();
+            sum.add(value);
+        }
+
+        /**
+         *  @return The number of buckets, counting the one for
+         *  everything bigger than the last bound
+         */
+        public int      getBucketCount()
+        {
+            return(count.length);
+        }
+
+        /**
+         *  @param bucket Which bucket
+         *  @return Its upper bound, or {@code Long.MAX_VALUE} for the
+         *  last one
+         */
+        public long     getBound(int bucket)
+        {
+            if (bucket == bound.length) {
+                return(Long.MAX_VALUE);
+            }
+
+            return(bound[bucket]);
+        }
+
+        /**
+         *  @param bucket Which bucket
+         *  @return The number of values counted in it
+         */
+        public long     getCount(int bucket)
+        {
+            return(count[bucket].sum());
+        }
+
+        /**
+         *  @return The number of values counted
+         */
+        public long     getCount()
+        {
+            long    total;
+
+            total = 0;
+            for (LongAdder which : count) {
+                total += which.sum();
+            }
+
+            return(total);
+        }
+
+        /**
+         *  @return The sum of the values counted
+         */
+        public long     getSum()
+        {
+            return(sum.sum());
+        }
+
+        /**
+         *  @param fraction The fraction of the values, like 0.99
+         *  @return The upper bound of the bucket that fraction of the
+         *  values falls in, or 0 if nothing was counted
+         */
+        public long     percentile(double fraction)
+        {
+            int     i;
+            long    total;
+            long    rank;
+            long    seen;
+
+            total = getCount();
+            if (total == 0) {
+                return(0);
+            }
+            rank = Math.max(1, (long)Math.ceil(fraction * total));
+            seen = 0;
+            for (i = 0; (i < bound.length); ++i) {
+                seen += count[i].sum();
+                if (seen >= rank) {
+                    break;
+                }
+            }
+
+            return(getBound(i));
+        }
+    }
+
+    /**
+     *  @param vehicles The table of the vehicles on the map
+     */
+    Metrics(VehicleTable vehicles)
+    {
+        this.vehicles = vehicles;
+    }
+
+    /*
+     *  Make bounds that start somewhere and double.
+     */
+    private static long[]       doubling(long first, int buckets)
+    {
+        int     i;
+        long    bound[];
+
+        bound = new long[buckets];
+        for (i = 0; (i < buckets); ++i) {
+            bound[i] = first << i;
+        }
+
+        return(bound);
+    }
+
+    /*
+     *  Make bounds that go up the same step each time.
+     */
+    private static long[]       steps(long step, int buckets)
+    {
+        int     i;
+        long    bound[];
+
+        bound = new long[buckets];
+        for (i = 0; (i < buckets); ++i) {
+            bound[i] = step * (i + 1);
+        }
+
+        return(bound);
+    }
+
+    /**
+     *  Count the slots of some new lanes.  This is done while the map
+     *  is wired up.
+     *  @param count The number of slots
+     */
+    synchronized void   addSlots(int count)
+    {
+        slots += count;
+    }
+
+    /**
+     *  A tick is starting.  Only the thread ticking calls this.
+     *  @return Whether to time this tick and pass the time to
+     *  {@code ticked()}
+     */
+    boolean     starting()
+    {
+        long    tick;
+
+        /*
+         *  There's only one writer, so the count can go out without a
+         *  fence.
+         */
+        tick = ticks.get() + 1;
+        ticks.lazySet(tick);
+
+        return((tick & (SAMPLE_EVERY - 1)) == 0);
+    }
+
+    /**
+     *  A tick that {@code starting()} picked finished.
+     *  @param nanos How long it took
+     */
+    void        ticked(long nanos)
+    {
+        int     all;
+
+        tickNanos.record(nanos);
+        all = slots;
+        if (all > 0) {
+            occupancy.record((100L * vehicles.liveCount()) / all);
+        }
+    }
+
+    /**
+     *  Add something that counts the vehicles it spawns.  This is done
+     *  while the map is wired up.
+     *  @param count Its count
+     */
+    synchronized void   addSpawner(LongSupplier count)
+    {
+        spawner = Arrays.copyOf(spawner, spawner.length + 1);
+        spawner[spawner.length - 1] = count;
+    }
+
+    /**
+     *  Add something that counts the vehicles it takes off the map.
+     *  This is done while the map is wired up.
+     *  @param count Its count
+     */
+    synchronized void   addConsumer(LongSupplier count)
+    {
+        consumer = Arrays.copyOf(consumer, consumer.length + 1);
+        consumer[consumer.length - 1] = count;
+    }
+
+    /*
+     *  Add up some counts.
+     */
+    private static long total(LongSupplier count[])
+    {
+        long    total;
+
+        total = 0;
+        for (LongSupplier which : count) {
+            total += which.getAsLong();
+        }
+
+        return(total);
+    }
+
+    /**
+     *  @return How long the timed ticks took, in nanoseconds
+     */
+    public Histogram    getTickNanos()
+    {
+        return(tickNanos);
+    }
+
+    /**
+     *  @return How full the lanes were after each timed tick, in
+     *  percent
+     */
+    public Histogram    getOccupancyPercent()
+    {
+        return(occupancy);
+    }
+
+    /*
+     *  What JMX shows; see MetricsMXBean.
+     */
+    public long getTicks()
+    {
+        return(ticks.get());
+    }
+
+    public double       getMeanTickNanos()
+    {
+        long    ticks;
+
+        ticks = tickNanos.getCount();
+        if (ticks == 0) {
+            return(0);
+        }
+
+        return(tickNanos.getSum() / (double)ticks);
+    }
+
+    public long getTickNanosP50()
+    {
+        return(tickNanos.percentile(0.50));
+    }
+
+    public long getTickNanosP99()
+    {
+        return(tickNanos.percentile(0.99));
+    }
+
+    public long getVehiclesSpawned()
+    {
+        return(total(spawner));
+    }
+
+    public long getVehiclesConsumed()
+    {
+        return(total(consumer));
+    }
+
+    public int  getVehiclesOnMap()
+    {
+        return(vehicles.liveCount());
+    }
+
+    public int  getSlots()
+    {
+        return(slots);
+    }
+
+    public double       getOccupancy()
+    {
+        int     all;
+
+        all = slots;
+        if (all == 0) {
+            return(0);
+        }
+
+        return(vehicles.liveCount() / (double)all);
+    }
+
+    /**
+     *  Show these metrics through the platform's JMX server.
+     *  @param name What to call the simulation, so several can be
+     *  told apart
+     *  @return The name they are registered under
+     *  @throws JMException If they can't be registered, say because
+     *  the name is taken
+     */
+    public ObjectName   register(String name) throws JMException
+    {
+        ObjectName  objectName;
+
+        objectName = new ObjectName("traffic:type=Metrics,name=" +
+                                    ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer()
+                         .registerMBean(this, objectName);
+
+        return(objectName);
+    }
+
+    /**
+     *  Stop showing metrics through JMX.
+     *  @param objectName What {@code register()} returned
+     *  @throws JMException If they weren't registered
+     */
+    public static void  unregister(ObjectName objectName)
+        throws JMException
+    {
+        ManagementFactory.getPlatformMBeanServer()
+                         .unregisterMBean(objectName);
+    }
+
+    /*
+     *  Write one number with its help and type lines.
+     */
+    private static void metric(StringBuilder out, String name,
+                               String type, String help, Object value)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help)
+           .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type)
+           .append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /*
+     *  Write a histogram the way Prometheus expects one: a line for
+     *  each bucket counting everything up to its bound, then the sum
+     *  and the count.
+     */
+    private static void histogram(StringBuilder out, String name,
+                                  String help, Histogram histogram)
+    {
+        int     i;
+        long    below;
+
+        out.append("# HELP ").append(name).append(' ').append(help)
+           .append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        below = 0;
+        for (i = 0; (i < histogram.getBucketCount()); ++i) {
+            below += histogram.getCount(i);
+            out.append(name).append("_bucket{le=\"");
+            if (i == (histogram.getBucketCount() - 1)) {
+                out.append("+Inf");
+            } else {
+                out.append(histogram.getBound(i));
+            }
+            out.append("\"} ").append(below).append('\n');
+        }
+        out.append(name).append("_sum ").append(histogram.getSum())
+           .append('\n');
+        out.append(name).append("_count ").append(below).append('\n');
+    }
+
+    /**
+     *  @return Everything, as plain text in the format Prometheus
+     *  scrapes
+     */
+    public String       scrape()
+    {
+        StringBuilder   out;
+
+        out = new StringBuilder();
+        metric(out, "traffic_ticks_total", "counter",
+               "Ticks run.", getTicks());
+        metric(out, "traffic_vehicles_spawned_total", "counter",
+               "Vehicles spawned at the edges of the map.",
+               getVehiclesSpawned());
+        metric(out, "traffic_vehicles_consumed_total", "counter",
+               "Vehicles that left the map.", getVehiclesConsumed());
+        metric(out, "traffic_vehicles_on_map", "gauge",
+               "Vehicles on the map.",
+               getVehiclesOnMap());
+        metric(out, "traffic_slots", "gauge",
+               "Slots in all the lanes.", getSlots());
+        histogram(out, "traffic_tick_nanoseconds",
+                  "Wall time of one tick in " + SAMPLE_EVERY + ".",
+                  tickNanos);
+        histogram(out, "traffic_occupancy_percent",
+                  "Share of the slots holding a vehicle after one tick" +
+                  " in " + SAMPLE_EVERY + ".", occupancy);
+
+        return(out.toString());
+    }
+
+    /*
+     *  Make sure values land in the right buckets and the
+     *  percentiles come out as the bounds of the right ones.
+     */
+    private static int  testHistogram()
+    {
+        int         i;
+        long        bound[]         = { 10, 20, 40 };
+        long        value[]         = { 0, 10, 11, 20, 39, 40, 41, 1000 };
+        long        expected[]      = { 2, 2, 2, 2 };
+        Histogram   histogram;
+
+        histogram = new Histogram(bound);
+        for (long which : value) {
+            histogram.record(which);
+        }
+        for (i = 0; (i < histogram.getBucketCount()); ++i) {
+            if (histogram.getCount(i) != expected[i]) {
+                System.out.println("**** ERROR: bucket " + i + " has " +
+                                   histogram.getCount(i) +
+                                   " values, should have " +
+                                   expected[i]);
+                return(1);
+            }
+        }
+        if ((histogram.getCount() != value.length) ||
+            (histogram.getSum() != 1161) ||
+            (histogram.percentile(0.5) != 20) ||
+            (histogram.percentile(0.75) != 40) ||
+            (histogram.percentile(1.0) != Long.MAX_VALUE)) {
+            System.out.println("**** ERROR: count " +
+                               histogram.getCount() + " sum " +
+                               histogram.getSum() + " p50 " +
+                               histogram.percentile(0.5));
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Record a lot of values and make sure it didn't allocate
+     *  anything.
+     */
+    private static int  testAllocation()
+    {
+        int         i;
+        long        before;
+        long        after;
+        Metrics     metrics;
+        com.sun.management.ThreadMXBean threads;
+
+        if ((ManagementFactory.getThreadMXBean() instanceof
+                        com.sun.management.ThreadMXBean) == false) {
+            return(0);
+        }
+        threads = (com.sun.management.ThreadMXBean)
+                                    ManagementFactory.getThreadMXBean();
+        metrics = new Metrics(new VehicleTable());
+        metrics.addSlots(1000);
+
+        /*
+         *  Warm up first so nothing the JIT or the adders set up once
+         *  is counted.
+         */
+        for (i = 0; (i < 200000); ++i) {
+            if (metrics.starting() == true) {
+                metrics.ticked(i);
+            }
+        }
+        before = threads.getThreadAllocatedBytes(
+                                    Thread.currentThread().getId());
+        for (i = 0; (i < 200000); ++i) {
+            if (metrics.starting() == true) {
+                metrics.ticked(i);
+            }
+        }
+        after = threads.getThreadAllocatedBytes(
+                                    Thread.currentThread().getId());
+        System.out.println((after - before) + " bytes allocated" +
+                           " recording 200000 ticks");
+        if ((after - before) > 1024) {
+            System.out.println("**** ERROR: recording allocated " +
+                               (after - before) + " bytes");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Run a chain of roads and make sure the counts add up, then
+     *  read them through JMX and through the scrape.
+     */
+    private static int  testRun(boolean doubleBuffered) throws Exception
+    {
+        long            onRoads;
+        String          text;
+        Metrics         metrics;
+        ObjectName      objectName;
+        BatchRunner     runner;
+
+        runner = new BatchRunner(3, 15, 2, 1, Road.LaneKind.DENSE, 2026,
+                                 EdgeOfMap.Arrivals.PER_TICK);
+        runner.getSimulation().setDoubleBuffered(doubleBuffered);
+        runner.run(3000);
+        metrics = runner.getSimulation().getMetrics();
+        onRoads = runner.getVehicleCount();
+        System.out.printf("doubleBuffered %b: %d ticks, %d spawned, %d" +
+                          " consumed, %d on the map, %.1f%% full, p50" +
+                          " %d ns\n",
+                          doubleBuffered, metrics.getTicks(),
+                          metrics.getVehiclesSpawned(),
+                          metrics.getVehiclesConsumed(),
+                          metrics.getVehiclesOnMap(),
+                          100 * metrics.getOccupancy(),
+                          metrics.getTickNanosP50());
+        if ((metrics.getTicks() != 3000) ||
+            (metrics.getSlots() != (3 * 15 * 3)) ||
+            (metrics.getTickNanos().getCount() != (3000 / SAMPLE_EVERY)) ||
+            (metrics.getOccupancyPercent().getCount() !=
+                                            (3000 / SAMPLE_EVERY)) ||
+            (metrics.getVehiclesConsumed() != runner.getDelivered()) ||
+            (metrics.getVehiclesOnMap() != onRoads) ||
+            ((metrics.getVehiclesSpawned() -
+              metrics.getVehiclesConsumed()) != onRoads)) {
+            System.out.println("**** ERROR: counts don't add up, " +
+                               runner.getDelivered() + " delivered and " +
+                               onRoads + " on the roads");
+            return(1);
+        }
+
+        objectName = metrics.register("test " + doubleBuffered);
+        try {
+            if (((Long)ManagementFactory.getPlatformMBeanServer()
+                        .getAttribute(objectName, "VehiclesConsumed")) !=
+                                        metrics.getVehiclesConsumed()) {
+                System.out.println("**** ERROR: JMX shows different" +
+                                   " counts");
+                return(1);
+            }
+        } finally {
+            unregister(objectName);
+        }
+
+        text = metrics.scrape();
+        if ((text.contains("\ntraffic_vehicles_consumed_total " +
+                           metrics.getVehiclesConsumed() + "\n") ==
+                                                                false) ||
+            (text.contains("\ntraffic_ticks_total 3000\n") == false) ||
+            (text.contains("traffic_occupancy_percent_bucket{le=\"+Inf\"}" +
+                           " " + (3000 / SAMPLE_EVERY) + "\n") == false)) {
+            System.out.println("**** ERROR: scrape doesn't match:\n" +
+                               text);
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Metrics} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     exitCode;
+
+        exitCode = 0;
+        exitCode += testHistogram();
+        exitCode += testAllocation();
+        try {
+            exitCode += testRun(false);
+            exitCode += testRun(true);
+        } catch (Exception e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package traffic;
+
+/**
+ *  {@code MetricsMXBean} is what JMX shows of a {@code Simulation}'s
+ *  {@code Metrics}.  Every attribute is read from counters the engine
+ *  keeps anyway, so looking costs the engine nothing.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public interface MetricsMXBean {
+    /**
+     *  @return The number of ticks run
+     */
+    long        getTicks();
+
+    /**
+     *  @return The average wall time of a tick in nanoseconds, from
+     *  the ticks that were timed
+     */
+    double      getMeanTickNanos();
+
+    /**
+     *  @return The wall time half of the ticks took no more than,
+     *  to within a bucket
+     */
+    long        getTickNanosP50();
+
+    /**
+     *  @return The wall time 99 in 100 ticks took no more than, to
+     *  within a bucket
+     */
+    long        getTickNanosP99();
+
+    /**
+     *  @return The number of vehicles the edges of the map spawned
+     */
+    long        getVehiclesSpawned();
+
+    /**
+     *  @return The number of vehicles that left the map
+     */
+    long        getVehiclesConsumed();
+
+    /**
+     *  @return The number of vehicles on the map
+     */
+    int         getVehiclesOnMap();
+
+    /**
+     *  @return The number of slots in all the lanes
+     */
+    int         getSlots();
+
+    /**
+     *  @return The fraction of the slots holding a vehicle
+     */
+    double      getOccupancy();
+}
@@ -0,0 +1,129 @@
+package traffic;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+
+/**
+ *  {@code MetricsServer} serves a {@code Simulation}'s
+ *  {@code Metrics} as plain text over HTTP, for Prometheus or anybody
+ *  with {@code curl} to scrape.  It listens on the loopback address
+ *  only and answers on its own thread; the counters are read as they
+ *  are, so a scrape never waits for a tick or holds one up.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class MetricsServer implements Closeable {
+    /**
+     *  Where the metrics are served.
+     */
+    public static final String  PATH            = "/metrics";
+
+    private final HttpServer    server;
+
+    /**
+     *  Start serving.
+     *  @param metrics What to serve
+     *  @param port The port to listen on, or 0 for any free one
+     *  @throws IOException If the port can't be listened on
+     */
+    public MetricsServer(Metrics metrics, int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(
+                                    InetAddress.getLoopbackAddress(), port),
+                                   0);
+        server.createContext(PATH, exchange -> {
+                byte    body[];
+
+                try (exchange) {
+                    if (exchange.getRequestMethod().equals("GET") ==
+                                                                false) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    body = metrics.scrape()
+                                  .getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders()
+                            .set("Content-Type",
+                                 "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+            });
+        server.start();
+    }
+
+    /**
+     *  @return The port we're listening on
+     */
+    public int  getPort()
+    {
+        return(server.getAddress().getPort());
+    }
+
+    /**
+     *  @return Where to scrape, like "http://127.0.0.1:9400/metrics"
+     */
+    public String       getAddress()
+    {
+        return("http://" +
+               server.getAddress().getAddress().getHostAddress() + ":" +
+               getPort() + PATH);
+    }
+
+    /**
+     *  Stop serving.
+     */
+    public void close()
+    {
+        server.stop(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code MetricsServer} class by
+     *  scraping a running simulation over HTTP.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             exitCode;
+        String          text;
+        BatchRunner     runner;
+        MetricsServer   server;
+
+        exitCode = 0;
+        runner = new BatchRunner(2, 20, 2, 2, Road.LaneKind.DENSE, 2026,
+                                 EdgeOfMap.Arrivals.PER_TICK);
+        runner.run(500);
+        try {
+            server = new MetricsServer(runner.getSimulation().getMetrics(),
+                                       0);
+            try (InputStream in = new URL(server.getAddress())
+                                                        .openStream()) {
+                text = new String(in.readAllBytes(),
+                                  StandardCharsets.UTF_8);
+            } finally {
+                server.close();
+            }
+            System.out.print(text);
+            if ((text.contains("\ntraffic_ticks_total 500\n") == false) ||
+                (text.contains("\ntraffic_vehicles_consumed_total " +
+                               runner.getDelivered() + "\n") == false)) {
+                System.out.println("**** ERROR: scrape doesn't match");
+                ++exitCode;
+            }
+        } catch (IOException e) {
+            System.out.println("**** ERROR: can't scrape: " + e);
+            ++exitCode;
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -7,8 +7,6 @@ package traffic;
  */
 public class Motorcycle extends Vehicle {
 
-	private static int	randomPercentage = 5;
-
     /**
      *  Performs a unit test on the {@code Motorcycle} class
      *  @param args arguments to the unit test
@@ -32,6 +30,14 @@ public class Motorcycle extends Vehicle {
     {
         super("motorcycle");
     }
+
+    /*
+     *  Make a view of a row of a VehicleTable.
+     */
+    Motorcycle(int handle, long identifier)
+    {
+        super("motorcycle", handle, identifier);
+    }
 	/**
 	*  Return a label for this subclass.
 	*  @return String Label for this subclass.
@@ -48,7 +54,8 @@ public class Motorcycle extends Vehicle {
 	*/
 	public static int getRandomPercentage()
 	{
-	  return(randomPercentage);
+	  return((int)Math.round(VehicleRegistry.getDefault()
+								.getProbability(MOTORCYCLE) * 100));
 	}
 	/**
 	*  set the percentage of occurrences for this
@@ -57,6 +64,7 @@ public class Motorcycle extends Vehicle {
 	*/
 	public static void setRandomPercentage(int newRandomPercentage)
 	{
-	   randomPercentage = newRandomPercentage;
+	   VehicleRegistry.getDefault().setProbability(MOTORCYCLE,
+										newRandomPercentage / 100.0);
 	}
 }
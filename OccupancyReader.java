@@ -0,0 +1,408 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ *  {@code OccupancyReader} reads a file written by
+ *  {@code OccupancyRecorder}.  The file is mapped into memory a block
+ *  at a time and the columns are handed out as views of the mapping,
+ *  so nothing is copied or decoded to look at them.  The reader can
+ *  be opened while the recording is still going; the number of ticks
+ *  recorded is read from the header every time it is asked for.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class OccupancyReader implements Closeable {
+    private final FileChannel   channel;
+    private final MappedByteBuffer      header;
+    private final int           ticksPerBlock;
+    private final long          dataStart;
+    private final long          blockBytes;
+    private final long          firstTick;
+    private final String        typeName[];
+    private final String        roadName[];
+    private final char          heading[];
+    private final int           laneNumber[];
+    private final int           length[];
+    private final int           column[];
+    private MappedByteBuffer    block;
+    private long                blockNumber     = -1;
+
+    /**
+     *  Open a recording.
+     *  @param file The file {@code OccupancyRecorder} wrote
+     *  @throws IOException If the file can't be read or isn't a
+     *  recording
+     */
+    public OccupancyReader(Path file) throws IOException
+    {
+        int         i;
+        int         lanes;
+        ByteBuffer  in;
+
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                             Math.min(channel.size(),
+                                      OccupancyRecorder.ALIGNMENT));
+            if ((in.remaining() < OccupancyRecorder.TICK_COUNT_AT + 8) ||
+                (in.getInt() != OccupancyRecorder.MAGIC) ||
+                (in.getInt() != OccupancyRecorder.VERSION)) {
+                throw new IOException(file + " isn't an occupancy" +
+                                      " recording");
+            }
+            lanes = in.getInt();
+            ticksPerBlock = in.getInt();
+            dataStart = in.getLong();
+            blockBytes = in.getLong();
+            firstTick = in.getLong();
+            if ((lanes < 1) || (ticksPerBlock < 1) ||
+                (dataStart > channel.size()) ||
+                (blockBytes > Integer.MAX_VALUE)) {
+                throw new IOException(file + " has a broken header");
+            }
+
+            /*
+             *  The whole header this time, now that we know how long
+             *  it is.
+             */
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 dataStart);
+            header.position(OccupancyRecorder.TICK_COUNT_AT + 8);
+            typeName = new String[header.get() & 0xff];
+            for (i = 0; (i < typeName.length); ++i) {
+                typeName[i] = readString(header);
+            }
+            roadName = new String[lanes];
+            heading = new char[lanes];
+            laneNumber = new int[lanes];
+            length = new int[lanes];
+            column = new int[lanes];
+            for (i = 0; (i < lanes); ++i) {
+                roadName[i] = readString(header);
+                heading[i] = (char)header.get();
+                laneNumber[i] = header.getInt();
+                length[i] = header.getInt();
+                column[i] = (int)header.getLong();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            channel.close();
+            throw new IOException(file + " has a broken header");
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     *  Read a string written as its length and its UTF-8 bytes.
+     */
+    private static String       readString(ByteBuffer in)
+    {
+        byte    utf8[];
+
+        utf8 = new byte[in.getInt()];
+        in.get(utf8);
+
+        return(new String(utf8, StandardCharsets.UTF_8));
+    }
+
+    /**
+     *  @return The tick of the simulation the first row was recorded
+     *  on
+     */
+    public long getFirstTick()
+    {
+        return(firstTick);
+    }
+
+    /**
+     *  @return The number of ticks recorded so far
+     */
+    public long getTickCount()
+    {
+        return(header.getLong(OccupancyRecorder.TICK_COUNT_AT));
+    }
+
+    /**
+     *  @return The number of ticks in a block
+     */
+    public int  getTicksPerBlock()
+    {
+        return(ticksPerBlock);
+    }
+
+    /**
+     *  @return Where the first block starts in the file
+     */
+    public long getDataStart()
+    {
+        return(dataStart);
+    }
+
+    /**
+     *  @return The number of bytes in a block
+     */
+    public long getBlockBytes()
+    {
+        return(blockBytes);
+    }
+
+    /**
+     *  @return The number of lanes recorded
+     */
+    public int  getLaneCount()
+    {
+        return(length.length);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The name of the road the lane is on
+     */
+    public String       getRoadName(int lane)
+    {
+        return(roadName[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return 'E' if the lane is north or east bound or 'W' if it is
+     *  south or west bound
+     */
+    public char getHeading(int lane)
+    {
+        return(heading[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The number of the lane among the ones going its way on
+     *  its road, the way {@code Road.vehiclesGoTo()} counts them
+     */
+    public int  getLaneNumber(int lane)
+    {
+        return(laneNumber[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The number of slots in the lane
+     */
+    public int  getLength(int lane)
+    {
+        return(length[lane]);
+    }
+
+    /**
+     *  @return The number of vehicle types
+     */
+    public int  getTypeCount()
+    {
+        return(typeName.length);
+    }
+
+    /**
+     *  @param type The number of the type
+     *  @return The type name
+     */
+    public String       getTypeName(byte type)
+    {
+        return(typeName[type]);
+    }
+
+    /**
+     *  @param type The number of the type or {@code VehicleTable.FREE}
+     *  @return The character that stands for the type in a snapshot
+     *  of a road
+     */
+    public char letterOf(byte type)
+    {
+        if (type == VehicleTable.FREE) {
+            return('_');
+        }
+        if ((type < 0) || (type >= typeName.length)) {
+            return('?');
+        }
+
+        return(typeName[type].charAt(0));
+    }
+
+    /**
+     *  @param tick The tick of the simulation
+     *  @param lane Which lane
+     *  @return Where the first slot of the lane on that tick is in the
+     *  file
+     */
+    public long offsetOf(long tick, int lane)
+    {
+        long    row;
+
+        row = tick - firstTick;
+
+        return(dataStart + ((row / ticksPerBlock) * blockBytes) +
+               column[lane] + ((row % ticksPerBlock) * length[lane]));
+    }
+
+    /*
+     *  Make sure the block holding a tick is mapped.
+     */
+    private void        mapBlockOf(long tick) throws IOException
+    {
+        long    which;
+
+        if ((tick < firstTick) || (tick >= (firstTick + getTickCount()))) {
+            throw new IndexOutOfBoundsException("tick " + tick +
+                                                " wasn't recorded");
+        }
+        which = (tick - firstTick) / ticksPerBlock;
+        if (which != blockNumber) {
+            block = channel.map(FileChannel.MapMode.READ_ONLY,
+                                dataStart + (which * blockBytes),
+                                blockBytes);
+            blockNumber = which;
+        }
+    }
+
+    /**
+     *  Look at one lane from a tick through as many ticks after it as
+     *  are in the same block and recorded so far, without copying
+     *  anything.  Each tick is {@code getLength()} bytes holding the
+     *  type in each slot or {@code VehicleTable.FREE}.
+     *  @param lane Which lane
+     *  @param tick The tick of the simulation to start at
+     *  @return A read only view of the column, positioned at zero
+     *  @throws IOException If the block can't be mapped
+     */
+    public ByteBuffer   column(int lane, long tick) throws IOException
+    {
+        int     row;
+        long    ticks;
+
+        mapBlockOf(tick);
+        row = (int)((tick - firstTick) % ticksPerBlock);
+        ticks = Math.min(ticksPerBlock - row,
+                         firstTick + getTickCount() - tick);
+
+        return(block.slice(column[lane] + (row * length[lane]),
+                           (int)(ticks * length[lane])));
+    }
+
+    /**
+     *  @param tick The tick of the simulation
+     *  @param lane Which lane
+     *  @param slot Which slot, in the order {@code Road.snapshot()}
+     *  shows them
+     *  @return The type of the vehicle in the slot or
+     *  {@code VehicleTable.FREE}
+     *  @throws IOException If the block can't be mapped
+     */
+    public byte typeAt(long tick, int lane, int slot) throws IOException
+    {
+        mapBlockOf(tick);
+
+        return(block.get((int)(offsetOf(tick, lane) - dataStart -
+                               (blockNumber * blockBytes)) + slot));
+    }
+
+    /**
+     *  @param tick The tick of the simulation
+     *  @param lane Which lane
+     *  @return The lane on that tick the way {@code Road.snapshot()}
+     *  showed it
+     *  @throws IOException If the block can't be mapped
+     */
+    public String       row(long tick, int lane) throws IOException
+    {
+        int             slot;
+        ByteBuffer      cells;
+        char            letters[];
+
+        cells = column(lane, tick);
+        letters = new char[length[lane]];
+        for (slot = 0; (slot < letters.length); ++slot) {
+            letters[slot] = letterOf(cells.get(slot));
+        }
+
+        return(new String(letters));
+    }
+
+    /**
+     *  Let go of the file.
+     *  @throws IOException If the file can't be closed
+     */
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     *  Print what is in a recording: the lanes and how full each one
+     *  was on average, or every lane on one tick.
+     *  @param args The file and, if wanted, a tick
+     */
+    public static void main(String args[])
+    {
+        int                 lane;
+        int                 i;
+        long                tick;
+        long                ticks;
+        long                vehicles;
+        ByteBuffer          cells;
+        OccupancyReader     reader;
+
+        if ((args.length < 1) || (args.length > 2)) {
+            System.err.println("usage: OccupancyReader file [tick]");
+            System.exit(1);
+        }
+        try {
+            reader = new OccupancyReader(Paths.get(args[0]));
+            ticks = reader.getTickCount();
+            System.out.printf("%d lanes, ticks %d to %d, %d ticks" +
+                              " per block\n",
+                              reader.getLaneCount(), reader.getFirstTick(),
+                              reader.getFirstTick() + ticks - 1,
+                              reader.getTicksPerBlock());
+            for (lane = 0; (lane < reader.getLaneCount()); ++lane) {
+                if (args.length == 2) {
+                    tick = Long.parseLong(args[1]);
+                    System.out.printf("%-10s %c%d %s\n",
+                                      reader.getRoadName(lane),
+                                      reader.getHeading(lane),
+                                      reader.getLaneNumber(lane),
+                                      reader.row(tick, lane));
+                    continue;
+                }
+
+                /*
+                 *  Walk down the lane's column a block at a time.
+                 */
+                vehicles = 0;
+                for (tick = reader.getFirstTick();
+                     (tick < (reader.getFirstTick() + ticks));
+                     tick += cells.limit() / reader.getLength(lane)) {
+                    cells = reader.column(lane, tick);
+                    for (i = 0; (i < cells.limit()); ++i) {
+                        if (cells.get(i) != VehicleTable.FREE) {
+                            ++vehicles;
+                        }
+                    }
+                }
+                System.out.printf("%-10s %c%d %6.2f%% full\n",
+                                  reader.getRoadName(lane),
+                                  reader.getHeading(lane),
+                                  reader.getLaneNumber(lane),
+                                  (100.0 * vehicles) /
+                                  (ticks * (double)reader.getLength(lane)));
+            }
+            reader.close();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("can't read " + args[0] + ": " + e);
+            System.exit(1);
+        }
+    }
+}
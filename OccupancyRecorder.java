@@ -0,0 +1,507 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code OccupancyRecorder} writes down what is in every slot of
+ *  every lane after every tick, for looking at a run afterwards
+ *  without running it again.  {@code OccupancyReader} reads it back.
+ *  <p>
+ *  The file is a header followed by blocks of the same size.  A block
+ *  holds a fixed number of ticks and is laid out in columns: all the
+ *  ticks of the first lane, then all the ticks of the second lane and
+ *  so on.  A tick of a lane is one byte per slot, in the order
+ *  {@code Road.snapshot()} shows them, holding the type of the
+ *  vehicle or {@code VehicleTable.FREE}.  The header has the types,
+ *  the lanes and where each lane's column starts in a block, so where
+ *  any tick of any lane is in the file is a little arithmetic and
+ *  following one lane over time reads bytes that sit next to each
+ *  other.
+ *  <p>
+ *  Each block is mapped into memory while it is being filled and the
+ *  rows are copied straight into it, so recording is a copy per lane
+ *  per tick with no system calls except one to map the next block.
+ *  The number of ticks in the header goes up after every tick, so a
+ *  reader can follow a recording that is still going.  The last
+ *  block is always full size, but the part of it past the last tick
+ *  was never written.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class OccupancyRecorder implements Closeable,
+                                          Simulation.TickListener {
+    /**
+     *  The first four bytes of a file.
+     */
+    static final int            MAGIC           = 0x54524f43;
+
+    /**
+     *  The version of the file written.
+     */
+    static final int            VERSION         = 1;
+
+    /**
+     *  Where in the header the number of ticks recorded so far is.
+     */
+    static final int            TICK_COUNT_AT   = 40;
+
+    /**
+     *  The blocks start on a multiple of this many bytes.
+     */
+    static final int            ALIGNMENT       = 4096;
+
+    /**
+     *  About how many bytes a block holds unless asked for otherwise.
+     */
+    static final int            BLOCK_TARGET    = 1 << 24;
+
+    /**
+     *  The most ticks in a block unless asked for otherwise.
+     */
+    static final int            MAX_TICKS_PER_BLOCK     = 4096;
+
+    private final Simulation    simulation;
+    private final FileChannel   channel;
+    private final MappedByteBuffer      header;
+    private final Road          road[];
+    private final int           roadOf[];
+    private final int           laneOf[];
+    private final int           length[];
+    private final int           column[];
+    private final int           ticksPerBlock;
+    private final long          dataStart;
+    private final long          blockBytes;
+    private final byte          types[];
+    private final int           vehicles[];
+    private MappedByteBuffer    block;
+    private long                blockCount;
+    private int                 tickInBlock;
+    private long                tickCount;
+    private boolean             closed;
+    private IOException         failure;
+
+    /**
+     *  Start recording a {@code Simulation}, with blocks of about
+     *  {@code BLOCK_TARGET} bytes.  See the other constructor.
+     *  @param file Where to record, replacing anything there
+     *  @param simulation What to record
+     *  @param road The roads to record
+     *  @throws IOException If the file can't be written
+     */
+    public OccupancyRecorder(Path file, Simulation simulation,
+                             Road road[])
+        throws IOException
+    {
+        this(file, simulation, road, 0);
+    }
+
+    /**
+     *  Start recording a {@code Simulation}.  The roads as they are
+     *  now are the first tick recorded, then every tick after that is
+     *  recorded until the recorder is closed.
+     *  @param file Where to record, replacing anything there
+     *  @param simulation What to record
+     *  @param road The roads to record
+     *  @param ticksPerBlock How many ticks go in a block, or 0 for
+     *  blocks of about {@code BLOCK_TARGET} bytes
+     *  @throws IOException If the file can't be written
+     */
+    public OccupancyRecorder(Path file, Simulation simulation,
+                             Road road[], int ticksPerBlock)
+        throws IOException
+    {
+        int                     i;
+        int                     lanes;
+        int                     whichRoad;
+        int                     whichLane;
+        long                    cells;
+        long                    columnAt;
+        VehicleRegistry         registry;
+        ByteArrayOutputStream   bytes;
+        DataOutputStream        out;
+
+        /*
+         *  Work out the lanes, in the order snapshot() shows them, one
+         *  road after another.
+         */
+        lanes = 0;
+        cells = 0;
+        for (Road which : road) {
+            lanes += which.getNElanes() + which.getSWlanes();
+            cells += (long)which.getCarCount() *
+                     (which.getNElanes() + which.getSWlanes());
+        }
+        if ((cells == 0) || (cells > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException(cells + " slots in a" +
+                                               " tick can't be recorded");
+        }
+        if (ticksPerBlock < 1) {
+            ticksPerBlock = (int)Math.max(1, Math.min(
+                                MAX_TICKS_PER_BLOCK, BLOCK_TARGET / cells));
+        }
+        ticksPerBlock = (int)Math.min(ticksPerBlock,
+                                      Integer.MAX_VALUE / cells);
+        this.simulation = simulation;
+        this.road = road.clone();
+        this.ticksPerBlock = ticksPerBlock;
+        roadOf = new int[lanes];
+        laneOf = new int[lanes];
+        length = new int[lanes];
+        column = new int[lanes];
+        i = 0;
+        columnAt = 0;
+        for (whichRoad = 0; (whichRoad < road.length); ++whichRoad) {
+            for (whichLane = 0;
+                 (whichLane < (road[whichRoad].getNElanes() +
+                               road[whichRoad].getSWlanes()));
+                 ++whichLane, ++i) {
+                roadOf[i] = whichRoad;
+                laneOf[i] = whichLane;
+                length[i] = road[whichRoad].getCarCount();
+                column[i] = (int)columnAt;
+                columnAt += (long)ticksPerBlock * length[i];
+            }
+        }
+        blockBytes = columnAt;
+        types = new byte[road[0].getCarCount()];
+        vehicles = new int[types.length];
+        for (Road which : road) {
+            if (which.getCarCount() > types.length) {
+                throw new IllegalArgumentException("roads of different" +
+                                                   " lengths");
+            }
+        }
+
+        synchronized (simulation) {
+            /*
+             *  The header: the types, the lanes and where their
+             *  columns are in a block.
+             */
+            bytes = new ByteArrayOutputStream();
+            out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lanes);
+            out.writeInt(ticksPerBlock);
+            out.writeLong(0);
+            out.writeLong(blockBytes);
+            out.writeLong(simulation.getTickCount());
+            out.writeLong(0);
+            registry = simulation.getRegistry();
+            out.writeByte(registry.size());
+            for (i = 0; (i < registry.size()); ++i) {
+                writeString(out, registry.nameOf((byte)i));
+            }
+            for (i = 0; (i < lanes); ++i) {
+                whichRoad = roadOf[i];
+                writeString(out, road[whichRoad].getName());
+                if (laneOf[i] < road[whichRoad].getSWlanes()) {
+                    out.writeByte('W');
+                    out.writeInt(road[whichRoad].getSWlanes() - 1 -
+                                 laneOf[i]);
+                } else {
+                    out.writeByte('E');
+                    out.writeInt(laneOf[i] - road[whichRoad].getSWlanes());
+                }
+                out.writeInt(length[i]);
+                out.writeLong(column[i]);
+            }
+            dataStart = ((bytes.size() + ALIGNMENT - 1) / ALIGNMENT) *
+                        ALIGNMENT;
+
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                     dataStart);
+                header.put(bytes.toByteArray());
+                header.putLong(16, dataStart);
+                record();
+                if (failure != null) {
+                    throw failure;
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            simulation.addTickListener(this);
+        }
+    }
+
+    /*
+     *  Write a string as its length and its UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String value)
+        throws IOException
+    {
+        byte    utf8[];
+
+        utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /*
+     *  Remember the first thing that went wrong so close() can
+     *  complain about it.  The ticks go on no matter what.
+     */
+    private void        failed(IOException e)
+    {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /*
+     *  Append the roads as they are now.  The caller holds the lock
+     *  of the simulation so no tick is in progress.
+     */
+    private void        record()
+    {
+        int     i;
+
+        if (failure != null) {
+            return;
+        }
+        if ((block == null) || (tickInBlock == ticksPerBlock)) {
+            /*
+             *  Map the next block, which makes the file longer.
+             */
+            try {
+                block = channel.map(FileChannel.MapMode.READ_WRITE,
+                                    dataStart + (blockCount * blockBytes),
+                                    blockBytes);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            ++blockCount;
+            tickInBlock = 0;
+        }
+        for (i = 0; (i < length.length); ++i) {
+            road[roadOf[i]].typesInto(laneOf[i], types, vehicles);
+            block.put(column[i] + (tickInBlock * length[i]), types, 0,
+                      length[i]);
+        }
+        ++tickInBlock;
+        ++tickCount;
+        header.putLong(TICK_COUNT_AT, tickCount);
+    }
+
+    /**
+     *  Append the roads as they are after a tick.  This is called by
+     *  the simulation.
+     *  @param simulation The simulation that ticked
+     */
+    public void ticked(Simulation simulation)
+    {
+        record();
+    }
+
+    /**
+     *  @return The number of ticks recorded so far, counting the one
+     *  from when the recorder started
+     */
+    public long getTickCount()
+    {
+        synchronized (simulation) {
+            return(tickCount);
+        }
+    }
+
+    /**
+     *  @return The number of ticks in a block
+     */
+    public int  getTicksPerBlock()
+    {
+        return(ticksPerBlock);
+    }
+
+    /**
+     *  Stop recording and make sure the file is all written.
+     *  @throws IOException If any part of the file couldn't be
+     *  written
+     */
+    public void close() throws IOException
+    {
+        synchronized (simulation) {
+            if (closed == true) {
+                return;
+            }
+            closed = true;
+            simulation.removeTickListener(this);
+            try {
+                if (block != null) {
+                    block.force();
+                }
+                header.force();
+                channel.close();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     *  Performs a unit test on the {@code OccupancyRecorder} class by
+     *  recording runs and reading them back.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        int                 i;
+        int                 tick;
+        int                 lane;
+        int                 row;
+        int                 slot;
+        Path                file;
+        BatchRunner         runner;
+        Simulation          simulation;
+        Road                road[];
+        OccupancyRecorder   recorder;
+        OccupancyReader     reader;
+        List<String[][]>    snapshots;
+        String              actual;
+        String              expected;
+        ByteBuffer          column;
+
+        exitCode = 0;
+        file = null;
+        try {
+            file = Files.createTempFile("occupancy", ".bin");
+            for (Road.LaneKind kind : Road.LaneKind.values()) {
+                for (int buffered = 0; (buffered < 2); ++buffered) {
+                    runner = new BatchRunner(3, 40, 2, 2, kind,
+                                             2026 + kind.ordinal(),
+                                             EdgeOfMap.Arrivals.SCHEDULED);
+                    simulation = runner.getSimulation();
+                    simulation.setDoubleBuffered(buffered == 1);
+                    road = runner.getRoads();
+                    runner.run(100);
+
+                    /*
+                     *  Record 61 ticks in blocks of 7, so the last
+                     *  block is only partly filled, and take a
+                     *  snapshot of every one.
+                     */
+                    recorder = new OccupancyRecorder(file, simulation,
+                                                     road, 7);
+                    snapshots = new ArrayList<>();
+                    reader = null;
+                    for (tick = 0; (tick <= 60); ++tick) {
+                        String  snapshot[][];
+
+                        if (tick > 0) {
+                            runner.run(1);
+                        }
+                        snapshot = new String[road.length][];
+                        for (i = 0; (i < road.length); ++i) {
+                            snapshot[i] = road[i].snapshot();
+                        }
+                        snapshots.add(snapshot);
+                        if (tick == 30) {
+                            reader = new OccupancyReader(file);
+                            if (reader.getTickCount() != 31) {
+                                System.out.println("**** ERROR: " +
+                                        reader.getTickCount() +
+                                        " ticks halfway");
+                                ++exitCode;
+                            }
+                        }
+                    }
+                    recorder.close();
+                    runner.run(5);
+
+                    /*
+                     *  The reader that was opened halfway sees the
+                     *  rest, and every row looks like the snapshot.
+                     */
+                    if ((reader.getTickCount() != 61) ||
+                        (reader.getFirstTick() != 100) ||
+                        (reader.getLaneCount() != 12) ||
+                        (Files.size(file) != reader.getDataStart() +
+                                         (9 * reader.getBlockBytes()))) {
+                        System.out.println("**** ERROR: " + kind +
+                                           " header is wrong");
+                        ++exitCode;
+                    }
+                    for (tick = 0; (tick <= 60); ++tick) {
+                        for (lane = 0; (lane < 12); ++lane) {
+                            /*
+                             *  Skip the centerline in the snapshot.
+                             */
+                            row = lane % 4;
+                            if (row >= 2) {
+                                ++row;
+                            }
+                            expected = snapshots.get(tick)[lane / 4][row];
+                            actual = reader.row(100 + tick, lane);
+                            column = reader.column(lane, 100 + tick);
+                            for (slot = 0; (slot < 40); ++slot) {
+                                if (column.get(slot) !=
+                                        reader.typeAt(100 + tick, lane,
+                                                      slot)) {
+                                    actual = "column differs";
+                                }
+                            }
+                            if (actual.equals(expected) == false) {
+                                System.out.println("**** ERROR: " +
+                                        kind + " buffered " +
+                                        (buffered == 1) + " tick " +
+                                        tick + " lane " + lane + " is " +
+                                        actual + " instead of " +
+                                        expected);
+                                ++exitCode;
+                                tick = 60;
+                                break;
+                            }
+                        }
+                    }
+                    if ((reader.getRoadName(5).equals("Road 1") == false) ||
+                        (reader.getHeading(4) != 'W') ||
+                        (reader.getLaneNumber(4) != 1) ||
+                        (reader.getHeading(7) != 'E') ||
+                        (reader.getLaneNumber(7) != 1) ||
+                        (reader.getLength(7) != 40) ||
+                        (reader.column(3, 159).remaining() != 80)) {
+                        System.out.println("**** ERROR: " + kind +
+                                           " lanes are wrong");
+                        ++exitCode;
+                    }
+                    reader.close();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        } finally {
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                System.out.println("**** ERROR: " + e);
+                ++exitCode;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
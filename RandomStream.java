@@ -0,0 +1,245 @@
+package traffic;
+
+import java.io.*;
+import java.util.random.*;
+
+/**
+ *  {@code RandomStream} is a stream of pseudo-random numbers that
+ *  belongs to one user, so nobody has to share, and that can split
+ *  off independent streams for others.  It uses the same SplitMix64
+ *  generator as {@code SplittableRandom}, but keeps its state where
+ *  we can get at it and works out its numbers a block at a time.
+ *  <p>
+ *  A stream made from a seed, and every stream split from it in the
+ *  same order, always gives the same numbers, which is what makes a
+ *  seeded run come out the same however its lanes are ticked.
+ *  A {@code RandomStream} must only be used by one thread at a time.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+final class RandomStream implements RandomGenerator {
+    private static final long   GOLDEN_GAMMA    = 0x9e3779b97f4a7c15L;
+    private static final int    BLOCK_SIZE      = 64;
+
+    private long                seed;
+    private long                gamma;
+    private final long          block[]         = new long[BLOCK_SIZE];
+    private int                 next            = BLOCK_SIZE;
+
+    /**
+     *  @param seed Where the stream starts
+     */
+    RandomStream(long seed)
+    {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /*
+     *  Start a stream with its own increment, which must be odd.
+     */
+    private RandomStream(long seed, long gamma)
+    {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /*
+     *  Stafford's variant 13 of the MurmurHash3 finalizer.
+     */
+    private static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+        return(z ^ (z >>> 31));
+    }
+
+    /*
+     *  Make an increment for a split stream: odd and with enough bits
+     *  changing from one step to the next.
+     */
+    private static long mixGamma(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        if (Long.bitCount(z ^ (z >>> 1)) < 24) {
+            z ^= 0xaaaaaaaaaaaaaaaaL;
+        }
+
+        return(z);
+    }
+
+    /*
+     *  Work out the next block of numbers all at once.
+     */
+    private void        refill()
+    {
+        int     i;
+        long    s;
+
+        s = seed;
+        for (i = 0; (i < BLOCK_SIZE); ++i) {
+            s += gamma;
+            block[i] = mix64(s);
+        }
+        seed = s;
+        next = 0;
+    }
+
+    /**
+     *  @return The next 64 pseudo-random bits
+     */
+    public long nextLong()
+    {
+        if (next == BLOCK_SIZE) {
+            refill();
+        }
+
+        return(block[next++]);
+    }
+
+    /**
+     *  Split off a new stream that has nothing to do with this one
+     *  from here on.
+     *  @return The new stream
+     */
+    RandomStream        split()
+    {
+        return(new RandomStream(nextLong(), mixGamma(nextLong())));
+    }
+
+    /**
+     *  Make a stream that gives the same numbers as this one from
+     *  here on, without the two having anything to do with each other.
+     *  @return The copy
+     */
+    RandomStream        copy()
+    {
+        RandomStream    copy;
+
+        copy = new RandomStream(seed, gamma);
+        System.arraycopy(block, 0, copy.block, 0, BLOCK_SIZE);
+        copy.next = next;
+
+        return(copy);
+    }
+
+    /**
+     *  Write where the stream is.  The numbers already worked out
+     *  but not used yet aren't written; they are worked out again
+     *  from the point just before them.
+     *  @param out Where to write it
+     *  @throws IOException If it can't be written
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        out.putLong(seed - ((BLOCK_SIZE - next) * gamma));
+        out.putLong(gamma);
+    }
+
+    /**
+     *  Carry on from where a saved stream was.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read
+     */
+    void        restore(Checkpoint.Reader in) throws IOException
+    {
+        seed = in.getLong();
+        gamma = in.getLong();
+        next = BLOCK_SIZE;
+    }
+
+    /**
+     *  Performs a unit test on the {@code RandomStream} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             exitCode;
+        int             i;
+        int             count[];
+        RandomStream    first;
+        RandomStream    second;
+        RandomStream    child;
+        RandomStream    otherChild;
+
+        exitCode = 0;
+
+        /*
+         *  Same seed, same numbers, block after block, and the same
+         *  numbers as SplittableRandom would give.
+         */
+        first = new RandomStream(2026);
+        second = new RandomStream(2026);
+        for (i = 0; (i < (3 * BLOCK_SIZE) + 7); ++i) {
+            if (first.nextLong() != second.nextLong()) {
+                System.out.println("**** ERROR: same seed, different" +
+                                   " number " + i);
+                ++exitCode;
+                break;
+            }
+        }
+        first = new RandomStream(2026);
+        if (first.nextLong() != new java.util.SplittableRandom(2026)
+                                                        .nextLong()) {
+            System.out.println("**** ERROR: not SplitMix64");
+            ++exitCode;
+        }
+
+        /*
+         *  A copy carries on the same, part way through a block.
+         */
+        first = new RandomStream(99);
+        first.nextLong();
+        second = first.copy();
+        for (i = 0; (i < (2 * BLOCK_SIZE)); ++i) {
+            if (first.nextLong() != second.nextLong()) {
+                System.out.println("**** ERROR: copy differs at " + i);
+                ++exitCode;
+                break;
+            }
+        }
+
+        /*
+         *  Streams split in the same order are the same streams, and
+         *  different from each other.
+         */
+        first = new RandomStream(7);
+        second = new RandomStream(7);
+        child = first.split();
+        otherChild = first.split();
+        second.split();
+        if (second.split().nextLong() != otherChild.nextLong()) {
+            System.out.println("**** ERROR: split streams differ");
+            ++exitCode;
+        }
+        if (child.nextLong() == otherChild.nextLong()) {
+            System.out.println("**** ERROR: split streams are the same");
+            ++exitCode;
+        }
+
+        /*
+         *  Numbers from a split stream are spread out evenly.
+         */
+        count = new int[10];
+        for (i = 0; (i < 1000000); ++i) {
+            ++count[child.nextInt(10)];
+        }
+        for (i = 0; (i < count.length); ++i) {
+            if (Math.abs(count[i] - 100000) > 1500) {
+                System.out.println("**** ERROR: " + i + " came up " +
+                                   count[i] + " times");
+                ++exitCode;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
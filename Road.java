@@ -1,5 +1,6 @@
 package traffic;
 
+import java.io.*;
 import java.util.*;
 
 /**
@@ -8,8 +9,10 @@ import java.util.*;
  *  @author Richard Barton
  */
 public class Road implements Connectable {
-    private final int           identifier;
-    private static int          nextIdentifier;
+    private final long          identifier;
+    private static final IdAllocator    identifiers     =
+                                                new IdAllocator();
+    private final Simulation    simulation;
     private final String        name;
     private final int           carCount;
     private final int           SWlanes;
@@ -19,21 +22,103 @@ public class Road implements Connectable {
     private Lane        SWlane[];
     private Lane        NElane[];
 
+    /**
+     *  The ways a lane can be stored.  {@code DENSE} keeps one
+     *  reference per slot.  {@code BITMASK} keeps one bit per slot and
+     *  advances 64 slots at a time, which pays off on long lanes.
+     *  {@code SPARSE} keeps only the positions of the vehicles, which
+     *  pays off on very long lanes with few vehicles.  Vehicles move
+     *  the same way in all of them.
+     */
+    public enum LaneKind {
+        DENSE,
+        BITMASK,
+        SPARSE
+    }
+
     /*
      *  This class manages individual lanes of a road.
      */
     private class       Lane implements Connection {
         private final boolean   reverseFlow;
-        private final Vehicle   lane[];
+        private LaneStorage     lane;
+        private LaneStorage     nextLane;
         private Connection      incoming;
+        private Connection      outgoing;
+        private long            pollAt          = Long.MIN_VALUE;
+        private long            departures;
+        private boolean         shared;
+        private boolean         changed;
 
         /*
          *  flow will determine the order in which Vehicles are
          *  accessed in accessor methods.
          */
-        public Lane(boolean reverseFlow) {
+        public Lane(boolean reverseFlow, LaneKind kind) {
             this.reverseFlow = reverseFlow;
-            lane = new Vehicle[carCount];
+            lane = LaneStorage.create(kind, carCount);
+        }
+
+        /*
+         *  Make a copy of a lane for a fork.  Both lanes use the same
+         *  storage until one of them changes it.  The copy's incoming
+         *  and outgoing are still the parent's until rewire().
+         */
+        public Lane(Lane parent)
+        {
+            reverseFlow = parent.reverseFlow;
+            lane = parent.lane;
+            incoming = parent.incoming;
+            outgoing = parent.outgoing;
+            pollAt = parent.pollAt;
+            departures = parent.departures;
+            shared = true;
+            parent.shared = true;
+        }
+
+        /*
+         *  Our copy is made along with the rest of the road.
+         */
+        public Connection       fork(Simulation child,
+                                     Map<Object, Object> twins)
+        {
+            twin(child, twins);
+
+            return(Simulation.twinOf(twins, this));
+        }
+
+        /*
+         *  Take our vehicles from and give them to the copies of the
+         *  parent's neighbours.
+         */
+        public void     rewire(Map<Object, Object> twins)
+        {
+            incoming = Simulation.twinOf(twins, incoming);
+            outgoing = Simulation.twinOf(twins, outgoing);
+        }
+
+        /*
+         *  Return the storage, copying it first if somebody else is
+         *  using it too.  Only call this when the lane is about to
+         *  change.
+         */
+        private LaneStorage     writable()
+        {
+            if (shared == true) {
+                lane = lane.copy();
+                nextLane = null;
+                shared = false;
+            }
+
+            return(lane);
+        }
+
+        /*
+         *  Is our storage shared with a fork?
+         */
+        public boolean  isShared()
+        {
+            return(shared);
         }
 
         /*
@@ -42,31 +127,47 @@ public class Road implements Connectable {
          */
         public void setIncoming(Connection incoming)
         {
-            TickManager.registerTick(this, incoming);
+            simulation.registerTick(this, incoming);
             this.incoming = incoming;
+            if (incoming != null) {
+                incoming.takenBy(this);
+            }
+        }
+
+        /*
+         *  outgoing is the place that takes our outgoing vehicles.
+         */
+        public void takenBy(Connection outgoing)
+        {
+            this.outgoing = outgoing;
         }
 
         /*
          *  This is called by some object which will take our outgoing
          *  vehicle.
          */
-        public Vehicle  takeVehicle()
+        public int      takeVehicle()
         {
-            Vehicle     returnValue;
-
-            if (carCount <= 0) {
-                return(null);
-            }
+            int         vehicle;
 
             /*
              *  We're going to return our outgoing vehicle.  Make sure
-             *  we replace it with null so the next vehicle in the
-             *  lane may move.
+             *  we empty its slot so the next vehicle in the lane may
+             *  move.
              */
-            returnValue = lane[carCount - 1];
-            lane[carCount - 1] = null;
+            if ((shared == true) &&
+                (lane.peekLast() == VehicleTable.NONE)) {
+                /*
+                 *  Nothing is leaving so there's no need to copy.
+                 */
+                return(VehicleTable.NONE);
+            }
+            vehicle = writable().removeLast();
+            if (vehicle != VehicleTable.NONE) {
+                ++departures;
+            }
 
-            return(returnValue);
+            return(vehicle);
         }
 
         /*
@@ -86,7 +187,66 @@ public class Road implements Connectable {
                 which = carCount - which - 1;
             }
 
-            return(lane[which]);
+            return(simulation.vehicleOf(lane.get(which)));
+        }
+
+        /*
+         *  Return the number of vehicles that have left the lane.
+         */
+        public long     departures()
+        {
+            return(departures);
+        }
+
+        /*
+         *  Return the number of vehicles in the lane.
+         */
+        public int      vehicleCount()
+        {
+            return(lane.count());
+        }
+
+        /*
+         *  Copy the handles of all our vehicles into the given array
+         *  in the order vehicleAt() would give them.
+         */
+        public void vehiclesInto(int vehicles[])
+        {
+            int     i;
+            int     j;
+
+            lane.copyTo(vehicles);
+            if (reverseFlow == true) {
+                /*
+                 *  Reverse the order of Vehicles.
+                 */
+                for (i = 0, j = carCount - 1; (i < j); ++i, --j) {
+                    int         temp;
+
+                    temp = vehicles[i];
+                    vehicles[i] = vehicles[j];
+                    vehicles[j] = temp;
+                }
+            }
+        }
+
+        /*
+         *  If somebody is recording where vehicles go, tell them how
+         *  many of our vehicles stay this tick and how many of those
+         *  are packed up against the outgoing end, which don't move.
+         *  Whatever leaves has already been taken unless it's leaving
+         *  now.
+         */
+        private void    moving(boolean leaving)
+        {
+            if (simulation.tracking() == true) {
+                if (leaving == true) {
+                    simulation.moved(this, lane.count() - 1, 0);
+                } else {
+                    simulation.moved(this, lane.count(),
+                                     lane.packedCount());
+                }
+            }
         }
 
         /*
@@ -94,42 +254,294 @@ public class Road implements Connectable {
          */
         public void tick()
         {
-            int             i;
-            int             j;
+            FlightEvents.LaneTick       event;
 
-            /*
-             *  We'll use the high indices as the outgoing end
-             *  of the road and index 0 as the incoming end of
-             *  the road.  For a vehicle to advance, the "slot" in
-             *  front of it must be empty.  So, we'll start at the
-             *  outgoing end.
-             */
-            for (i = carCount - 1, j = i - 1; (i > 0); --i, --j) {
-                if (lane[i] != null) {
+            event = new FlightEvents.LaneTick();
+            event.begin();
+            advance();
+            if (event.shouldCommit() == true) {
+                commit(event, false);
+            }
+        }
+
+        /*
+         *  Fill in and record an event about us.
+         */
+        private void    commit(FlightEvents.LaneTick event, boolean twoPhase)
+        {
+            event.road = name;
+            event.heading = heading();
+            event.lane = number();
+            event.vehicles = vehicleCount();
+            event.twoPhase = twoPhase;
+            event.commit();
+        }
+
+        /*
+         *  Move our vehicles along and take a new one if there's room.
+         */
+        private void    advance()
+        {
+            int         vehicle;
+
+            moving(false);
+            if ((shared == false) || (lane.isPacked() == false)) {
+                /*
+                 *  Somebody may move.  A shared lane where nobody
+                 *  can move is left alone.
+                 */
+                writable().advance();
+            }
+            if ((carCount > 0) && (lane.isEmpty(0) == true) &&
+                (incoming != null) &&
+                (simulation.getTickCount() >= pollAt)) {
+                /*
+                 *  The incoming slot is empty so get a Vehicle for it.
+                 */
+                vehicle = incoming.takeVehicle();
+                if (vehicle != VehicleTable.NONE) {
+                    writable().setFirst(vehicle);
+                    simulation.entered(vehicle, this);
+                }
+                pollAt = incoming.nextArrival();
+            }
+        }
+
+        /*
+         *  Did we have room for another vehicle at the end of the
+         *  last tick?
+         */
+        public boolean  acceptsVehicle()
+        {
+            return((carCount > 0) && (lane.isEmpty(0) == true));
+        }
+
+        /*
+         *  Whoever takes our vehicles has room, so our oldest vehicle
+         *  is leaving.  We'll drop it ourselves in computeNext().
+         */
+        public int      handOffVehicle()
+        {
+            return(lane.peekLast());
+        }
+
+        /*
+         *  Work out where the vehicles will be after this tick using
+         *  only where they were after the last tick.  The oldest
+         *  vehicle leaves if whoever takes our vehicles had room, and
+         *  the rest move just as tick() moves them, so a line of
+         *  vehicles moves up together.  Only the vehicle coming in
+         *  goes by the last tick: we take one if our first slot was
+         *  empty then.
+         */
+        public void computeNext()
+        {
+            FlightEvents.LaneTick       event;
+
+            event = new FlightEvents.LaneTick();
+            event.begin();
+            workOutNext();
+            if (event.shouldCommit() == true) {
+                commit(event, true);
+            }
+        }
+
+        /*
+         *  Do what computeNext() says.
+         */
+        private void    workOutNext()
+        {
+            boolean     exitFree;
+            boolean     leaving;
+            int         entering;
+
+            if (carCount <= 0) {
+                return;
+            }
+
+            exitFree = (outgoing != null) && outgoing.acceptsVehicle();
+            leaving = (exitFree == true) &&
+                      (lane.peekLast() != VehicleTable.NONE);
+            if (leaving == true) {
+                ++departures;
+            }
+            moving(leaving);
+            entering = VehicleTable.NONE;
+            if ((lane.isEmpty(0) == true) && (incoming != null) &&
+                (simulation.getTickCount() >= pollAt)) {
+                /*
+                 *  We had room so take whatever is leaving the place
+                 *  our vehicles come from.
+                 */
+                entering = incoming.handOffVehicle();
+                pollAt = incoming.nextArrival();
+            }
+
+            changed = true;
+            if (shared == true) {
+                if ((leaving == false) &&
+                    (entering == VehicleTable.NONE) &&
+                    (lane.isPacked() == true)) {
                     /*
-                     *  This "slot" in the road is not empty.  So, we
-                     *  can't advance the vehicle behind us into this
-                     *  slot.
+                     *  Nothing changes, so keep sharing.
                      */
-                    continue;
+                    changed = false;
+                    return;
                 }
 
                 /*
-                 *  This slot is empty so advance the next Vehicle.
-                 *  Advance the next vehicle to this slot and empty
-                 *  its former slot.
+                 *  Our neighbours may be looking at our lane right
+                 *  now, so it mustn't change under them.  Work out
+                 *  the next state into a copy of our own, which
+                 *  becomes our lane when we swap.
                  */
-                lane[i] = lane[j];
-                lane[j] = null;
+                nextLane = lane.copy();
+            } else if (nextLane == null) {
+                nextLane = lane.newBuffer();
+            }
+            lane.advanceInto(nextLane, exitFree);
+            nextLane.setFirst(entering);
+            if (entering != VehicleTable.NONE) {
+                simulation.entered(entering, this);
             }
-            if ((carCount > 0) && (lane[0] == null) &&
-                (incoming != null)) {
+        }
+
+        /*
+         *  What we computed becomes what we are.
+         */
+        public void swapBuffers()
+        {
+            LaneStorage temp;
+
+            if ((nextLane == null) || (changed == false)) {
+                return;
+            }
+
+            temp = lane;
+            lane = nextLane;
+            nextLane = temp;
+            if (shared == true) {
                 /*
-                 *  The incoming slot is empty so get a Vehicle for it.
+                 *  The old lane is still somebody else's.
                  */
-                lane[0] = incoming.takeVehicle();
+                nextLane = null;
+                shared = false;
             }
         }
+
+        /*
+         *  Write the vehicles in the lane as slots and handles, and
+         *  when we next ask for one.
+         */
+        public void save(Checkpoint.Writer out) throws IOException
+        {
+            int     i;
+            int     pairs;
+            int     vehicles[];
+
+            /*
+             *  The pairs go after the slots in the same array so they
+             *  can be written all at once.
+             */
+            vehicles = out.scratch(3 * carCount);
+            lane.copyTo(vehicles);
+            pairs = carCount;
+            for (i = 0; (i < carCount); ++i) {
+                if (vehicles[i] != VehicleTable.NONE) {
+                    vehicles[pairs++] = i;
+                    vehicles[pairs++] = vehicles[i];
+                }
+            }
+            out.putInt(carCount);
+            out.putLong(departures);
+            out.putLong(pollAt);
+            out.putInt((pairs - carCount) / 2);
+            out.putInts(vehicles, carCount, pairs - carCount);
+        }
+
+        /*
+         *  Put back what save() wrote.
+         */
+        public void restore(Checkpoint.Reader in) throws IOException
+        {
+            int     i;
+            int     count;
+            int     vehicles[];
+
+            if (in.getInt() != carCount) {
+                throw new IOException("checkpoint has a lane of a" +
+                                      " different length on " + name);
+            }
+            departures = in.getLong();
+            pollAt = in.getLong();
+            count = in.getInt();
+            if ((count < 0) || (count > carCount)) {
+                throw new IOException("bad lane in checkpoint");
+            }
+            vehicles = in.scratch(3 * carCount);
+            in.getInts(vehicles, carCount, 2 * count);
+            Arrays.fill(vehicles, 0, carCount, VehicleTable.NONE);
+            for (i = carCount; (i < (carCount + (2 * count))); i += 2) {
+                if ((vehicles[i] < 0) || (vehicles[i] >= carCount)) {
+                    throw new IOException("bad lane in checkpoint");
+                }
+                vehicles[vehicles[i]] = vehicles[i + 1];
+            }
+            writable().load(vehicles);
+        }
+
+        /*
+         *  A checkpoint of a lane of another length doesn't fit us.
+         */
+        public int      slotCount()
+        {
+            return(carCount);
+        }
+
+        /*
+         *  Return 'E' if we're north or east bound and 'W' if we're
+         *  south or west bound.
+         */
+        char            heading()
+        {
+            if (reverseFlow == true) {
+                return('W');
+            }
+
+            return('E');
+        }
+
+        /*
+         *  Return which of the lanes going our way we are, the way
+         *  vehiclesGoTo() counts them, or -1 if we're not on the road
+         *  yet.
+         */
+        int             number()
+        {
+            int     i;
+            Lane    lanes[];
+
+            if (reverseFlow == true) {
+                lanes = SWlane;
+            } else {
+                lanes = NElane;
+            }
+            for (i = 0; ((lanes != null) && (i < lanes.length)); ++i) {
+                if (lanes[i] == this) {
+                    return(i);
+                }
+            }
+
+            return(-1);
+        }
+
+        /*
+         *  Name the lane the way the recorders do, like "Road 0 E1".
+         */
+        public String   toString()
+        {
+            return(name + " " + heading() + number());
+        }
     }
 
     /**
@@ -141,10 +553,44 @@ public class Road implements Connectable {
      *          south or west bound direction
      */
     public Road(String name, int carCount, int NElanes, int SWlanes)
+    {
+        this(name, carCount, NElanes, SWlanes, LaneKind.DENSE);
+    }
+
+    /**
+     *  @param name Required name of road
+     *  @param carCount Required number of cars in one direction
+     *  @param NElanes Required number of lanes in the
+     *          north or east bound direction
+     *  @param SWlanes Required number of lanes in the
+     *          south or west bound direction
+     *  @param kind Required way to store the lanes
+     */
+    public Road(String name, int carCount, int NElanes, int SWlanes,
+                LaneKind kind)
+    {
+        this(Simulation.getDefault(), name, carCount, NElanes, SWlanes,
+             kind);
+    }
+
+    /**
+     *  @param simulation Required {@code Simulation} the road
+     *          belongs to
+     *  @param name Required name of road
+     *  @param carCount Required number of cars in one direction
+     *  @param NElanes Required number of lanes in the
+     *          north or east bound direction
+     *  @param SWlanes Required number of lanes in the
+     *          south or west bound direction
+     *  @param kind Required way to store the lanes
+     */
+    public Road(Simulation simulation, String name, int carCount,
+                int NElanes, int SWlanes, LaneKind kind)
     {
         int     i;
 
-        identifier = nextIdentifier++;
+        this.simulation = simulation;
+        identifier = identifiers.next();
         this.name = name;
         if (carCount < 0) {
             carCount = 0;
@@ -167,7 +613,7 @@ public class Road implements Connectable {
          */
         SWlane = new Lane[SWlanes];
         for (i = SWlanes - 1; (i >= 0); --i) {
-            SWlane[i] = new Lane(true);
+            SWlane[i] = new Lane(true, kind);
         }
         /*
          *  Allocate an array to hold each of the north and east
@@ -175,14 +621,68 @@ public class Road implements Connectable {
          */
         NElane = new Lane[NElanes];
         for (i = NElanes - 1; (i>= 0); --i) {
-            NElane[i] = new Lane(false);
+            NElane[i] = new Lane(false, kind);
+        }
+        simulation.getMetrics().addSlots(carCount * (NElanes + SWlanes));
+    }
+
+    /*
+     *  Make a copy of a road in a fork of its Simulation, with copies
+     *  of its lanes that share their storage with the parent's.
+     */
+    private Road(Road parent, Simulation simulation)
+    {
+        int     i;
+
+        this.simulation = simulation;
+        identifier = identifiers.next();
+        name = parent.name;
+        carCount = parent.carCount;
+        SWlanes = parent.SWlanes;
+        NElanes = parent.NElanes;
+        hashCode = Objects.hash(identifier, name, carCount,
+                                NElanes, SWlanes);
+        SWlane = new Lane[SWlanes];
+        for (i = 0; (i < SWlanes); ++i) {
+            SWlane[i] = new Lane(parent.SWlane[i]);
+        }
+        NElane = new Lane[NElanes];
+        for (i = 0; (i < NElanes); ++i) {
+            NElane[i] = new Lane(parent.NElane[i]);
         }
+        simulation.getMetrics().addSlots(carCount * (NElanes + SWlanes));
+    }
+
+    /*
+     *  Return our copy in a fork, making it and its lanes the first
+     *  time anybody asks.
+     */
+    private Road        twin(Simulation child, Map<Object, Object> twins)
+    {
+        int     i;
+        Road    twin;
+
+        twin = (Road)twins.get(this);
+        if (twin != null) {
+            return(twin);
+        }
+
+        twin = new Road(this, child);
+        twins.put(this, twin);
+        for (i = 0; (i < SWlanes); ++i) {
+            twins.put(SWlane[i], twin.SWlane[i]);
+        }
+        for (i = 0; (i < NElanes); ++i) {
+            twins.put(NElane[i], twin.NElane[i]);
+        }
+
+        return(twin);
     }
 
     /**
      *  @return The unique identifier of the road
      */
-    public int  getIdentifier()
+    public long getIdentifier()
     {
         return(identifier);
     }
@@ -195,6 +695,92 @@ public class Road implements Connectable {
         return(name);
     }
 
+    /**
+     *  @return The number of cars that fit in one lane of the road
+     */
+    public int  getCarCount()
+    {
+        return(carCount);
+    }
+
+    /**
+     *  @return The number of north or east bound lanes
+     */
+    public int  getNElanes()
+    {
+        return(NElanes);
+    }
+
+    /**
+     *  @return The number of south or west bound lanes
+     */
+    public int  getSWlanes()
+    {
+        return(SWlanes);
+    }
+
+    /**
+     *  @return The number of vehicles on the road right now, in all
+     *  its lanes.  Only ask between ticks.
+     */
+    public int  getVehicleCount()
+    {
+        int     vehicles;
+
+        vehicles = 0;
+        for (Lane which : SWlane) {
+            vehicles += which.vehicleCount();
+        }
+        for (Lane which : NElane) {
+            vehicles += which.vehicleCount();
+        }
+
+        return(vehicles);
+    }
+
+    /**
+     *  @return The number of lanes still sharing their storage with
+     *  a fork.  Only ask between ticks.
+     */
+    int         getSharedLaneCount()
+    {
+        int     shared;
+
+        shared = 0;
+        for (Lane which : SWlane) {
+            if (which.isShared() == true) {
+                ++shared;
+            }
+        }
+        for (Lane which : NElane) {
+            if (which.isShared() == true) {
+                ++shared;
+            }
+        }
+
+        return(shared);
+    }
+
+    /**
+     *  @return The number of vehicles that have left the far end of
+     *  the road, in all its lanes, since it was made.  Only ask
+     *  between ticks.
+     */
+    public long getDepartures()
+    {
+        long    departures;
+
+        departures = 0;
+        for (Lane which : SWlane) {
+            departures += which.departures();
+        }
+        for (Lane which : NElane) {
+            departures += which.departures();
+        }
+
+        return(departures);
+    }
+
     /**
      *  Provide this {@code Road} with a {@code Connectable} object
      *  that will take our outgoing {@code Vehicle}s.
@@ -292,26 +878,32 @@ public class Road implements Connectable {
      *  of that lane.
      */
     private void laneToCharArray(Lane whichLane,
-                                 char charsOfVehicles[])
+                                 char charsOfVehicles[],
+                                 int vehicles[])
     {
-        int     whichVehicle;
-        Vehicle thisVehicle;
-
+        int             whichVehicle;
+        int             thisVehicle;
+        VehicleTable    table;
+        VehicleRegistry registry;
+
+        whichLane.vehiclesInto(vehicles);
+        table = simulation.getVehicleTable();
+        registry = simulation.getRegistry();
         for (whichVehicle = 0; (whichVehicle < carCount);
                                             ++whichVehicle) {
             /*
              *  Assume this "slot" in the road is empty.
              */
             charsOfVehicles[whichVehicle] = '_';
-            thisVehicle = whichLane.vehicleAt(whichVehicle);
-            if (thisVehicle != null) {
+            thisVehicle = vehicles[whichVehicle];
+            if (thisVehicle != VehicleTable.NONE) {
                 /*
                  *  There's a vehicle in this slot in the road.
                  *  Get the first character of its type to use
                  *  to represent the vehicle on the road.
                  */
                 charsOfVehicles[whichVehicle] =
-                                thisVehicle.getType().charAt(0);
+                        registry.letterOf(table.typeOf(thisVehicle));
             }
         }
     }
@@ -325,7 +917,12 @@ public class Road implements Connectable {
         int     i;
         int     whichLane;
         char    charsOfVehicles[];
+        int     vehicles[];
         String  returnValue[];
+        FlightEvents.Snapshot   event;
+
+        event = new FlightEvents.Snapshot();
+        event.begin();
 
         /*
          *  Number of total lanes.
@@ -344,13 +941,14 @@ public class Road implements Connectable {
          *  Need to build a string of characters for each lane.
          */
         charsOfVehicles = new char[carCount];
+        vehicles = new int[carCount];
 
         /*
          *  Like when you're reading a map with north up, the south
          *  and west bound lanes appear first.
          */
         for (i = SWlanes - 1; (i >= 0); --i, ++whichLane) {
-            laneToCharArray(SWlane[i], charsOfVehicles);
+            laneToCharArray(SWlane[i], charsOfVehicles, vehicles);
 
             /*
              *  Put this lane in our return value.
@@ -378,17 +976,79 @@ public class Road implements Connectable {
         }
 
         for (i = 0; (i < NElanes); ++i, ++whichLane) {
-            laneToCharArray(NElane[i], charsOfVehicles);
+            laneToCharArray(NElane[i], charsOfVehicles, vehicles);
 
             /*
              *  Put this lane in our return value.
              */
             returnValue[whichLane] = new String(charsOfVehicles);
         }
+        if (event.shouldCommit() == true) {
+            event.road = name;
+            event.lanes = NElanes + SWlanes;
+            event.vehicles = getVehicleCount();
+            event.commit();
+        }
             
         return(returnValue);
     }
 
+    /**
+     *  @param whichLane The lane, counted the way {@code typesInto()}
+     *  counts them
+     *  @return The lane, to tell apart when it hands out vehicles
+     */
+    Connection  laneAt(int whichLane)
+    {
+        if (whichLane < SWlanes) {
+            return(SWlane[SWlanes - 1 - whichLane]);
+        }
+
+        return(NElane[whichLane - SWlanes]);
+    }
+
+    /**
+     *  Copy the handle of the vehicle in every slot of one lane into
+     *  an array, in the order {@code snapshot()} shows them.  Only ask
+     *  between ticks.
+     *  @param whichLane The lane, counted the way {@code typesInto()}
+     *  counts them
+     *  @param vehicles An array of at least {@code getCarCount()}
+     *  elements
+     */
+    void        vehiclesInto(int whichLane, int vehicles[])
+    {
+        ((Lane)laneAt(whichLane)).vehiclesInto(vehicles);
+    }
+
+    /**
+     *  Copy the type of the vehicle in every slot of one lane into an
+     *  array, in the order {@code snapshot()} shows them.  Only ask
+     *  between ticks.
+     *  @param whichLane The lane, counted the way {@code snapshot()}
+     *  lists them without the centerline: the south or west bound
+     *  lanes from the outside in, then the north or east bound ones
+     *  @param types An array of at least {@code getCarCount()}
+     *  elements to get the type of each vehicle or
+     *  {@code VehicleTable.FREE} for an empty slot
+     *  @param vehicles An array of at least {@code getCarCount()}
+     *  elements to use along the way
+     */
+    void        typesInto(int whichLane, byte types[], int vehicles[])
+    {
+        int             i;
+        VehicleTable    table;
+
+        vehiclesInto(whichLane, vehicles);
+        table = simulation.getVehicleTable();
+        for (i = 0; (i < carCount); ++i) {
+            types[i] = VehicleTable.FREE;
+            if (vehicles[i] != VehicleTable.NONE) {
+                types[i] = table.typeOf(vehicles[i]);
+            }
+        }
+    }
+
     /**
      *  Compare two {@code Road} objects
      *  @param otherObject the object to compare to this object
@@ -459,12 +1119,193 @@ public class Road implements Connectable {
                ",NElanes=" + NElanes + "]");
     }
 
+    /*
+     *  Advance the vehicles in the last snapshot of a lane the way
+     *  tick() should, to see if this snapshot looks correct.
+     */
+    private static void advanceInPlace(char lastSnapshot[],
+                                       char thisSnapshot[])
+    {
+        advanceSlots(lastSnapshot);
+        if (lastSnapshot.length > 0) {
+            lastSnapshot[0] = thisSnapshot[0];
+        }
+    }
+
+    /*
+     *  Let the last vehicle in a snapshot of a lane leave and move
+     *  everybody behind the frontmost gap up one.
+     */
+    private static void advanceSlots(char lastSnapshot[])
+    {
+        int     j;
+        int     k;
+
+        /*
+         *  Since we're using EdgeOfMap, make sure the last vehicle
+         *  leaves the lane.
+         */
+        j = lastSnapshot.length;
+        if (j > 0) {
+            lastSnapshot[j - 1] = '_';
+        }
+        for (j = lastSnapshot.length - 1, k = j - 1; (k >= 0);
+                                                        --j, --k) {
+            if (lastSnapshot[j] != '_') {
+                /*
+                 *  This slot isn't empty so we can't advance anything
+                 *  to here.
+                 */
+                continue;
+            }
+
+            /*
+             *  This slot must be empty.  Move the following vehicle
+             *  here.
+             */
+            lastSnapshot[j] = lastSnapshot[k];
+            lastSnapshot[k] = '_';
+        }
+    }
+
+    /*
+     *  Advance the vehicles in the last snapshot of a lane the way
+     *  a two-phase tick should.  They move the same as in place, but
+     *  a vehicle only comes in if the first slot was empty in the
+     *  last snapshot.
+     */
+    private static void advanceBuffered(char lastSnapshot[],
+                                        char thisSnapshot[])
+    {
+        boolean     entryFree;
+
+        entryFree = (lastSnapshot.length > 0) && (lastSnapshot[0] == '_');
+        advanceSlots(lastSnapshot);
+        if (entryFree == true) {
+            lastSnapshot[0] = thisSnapshot[0];
+        }
+    }
+
+    /*
+     *  Return the slots of one line of a snapshot from the incoming
+     *  end, or null for the centerline.
+     */
+    private static char[]       slotsOf(String line, boolean reverseFlow)
+    {
+        int     j;
+        int     k;
+        char    slot[];
+
+        if ((line.length() > 0) &&
+            ((line.charAt(0) == ' ') || (line.charAt(0) == '-'))) {
+            return(null);
+        }
+        slot = line.toCharArray();
+        if (reverseFlow == true) {
+            for (j = 0, k = slot.length - 1; (j < k); ++j, --k) {
+                char    temp;
+
+                temp = slot[j];
+                slot[j] = slot[k];
+                slot[k] = temp;
+            }
+        }
+
+        return(slot);
+    }
+
+    /*
+     *  Fill a road with lines of vehicles ticking in place, then stop
+     *  the arrivals and let it drain in two phases.  With nothing
+     *  coming in, the only vehicles handed on are the ones leaving the
+     *  map, which always have room, so every line must move up just
+     *  as it does in place.
+     */
+    private static int  testDrain(LaneKind kind)
+    {
+        int         i;
+        int         tick;
+        int         cars;
+        int         motorcycles;
+        int         left;
+        char        expected[];
+        char        actual[];
+        String      last[];
+        String      snapshot[];
+        Road        road;
+        EdgeOfMap   edgeOfMap;
+
+        road = new Road("Draining " + kind, 70, 2, 2, kind);
+        edgeOfMap = new EdgeOfMap();
+        for (i = 1; (i >= 0); --i) {
+            edgeOfMap.vehiclesGoTo(road, 'E', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'E', i, i);
+            edgeOfMap.vehiclesGoTo(road, 'W', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'W', i, i);
+        }
+        cars = Car.getRandomPercentage();
+        motorcycles = Motorcycle.getRandomPercentage();
+        Car.setRandomPercentage(90);
+        Motorcycle.setRandomPercentage(0);
+        for (tick = 0; (tick < 100); ++tick) {
+            TickManager.tick();
+        }
+        Car.setRandomPercentage(0);
+        TickManager.setDoubleBuffered(true);
+
+        left = 0;
+        last = road.snapshot();
+        for (tick = 0; (tick < 100); ++tick) {
+            TickManager.tick();
+            snapshot = road.snapshot();
+            left = 0;
+            for (i = 0; (i < snapshot.length); ++i) {
+                expected = slotsOf(last[i], i < 2);
+                if (expected == null) {
+                    continue;
+                }
+                advanceSlots(expected);
+                actual = slotsOf(snapshot[i], i < 2);
+                if (Arrays.equals(expected, actual) == false) {
+                    System.out.println("**** ERROR: draining " + kind +
+                                       " in two phases on tick " + tick +
+                                       " gave " + snapshot[i] +
+                                       " after " + last[i]);
+                    left = -1;
+                    break;
+                }
+                for (char slot : actual) {
+                    left += (slot != '_') ? 1 : 0;
+                }
+            }
+            if (left < 0) {
+                break;
+            }
+            last = snapshot;
+        }
+        TickManager.setDoubleBuffered(false);
+        Car.setRandomPercentage(cars);
+        Motorcycle.setRandomPercentage(motorcycles);
+
+        if (left != 0) {
+            if (left > 0) {
+                System.out.println("**** ERROR: " + left + " " + kind +
+                                   " vehicles didn't drain");
+            }
+            return(1);
+        }
+
+        return(0);
+    }
+
     /*
      *  Run some ticks with car configurations and make sure the road
      *  is behaving.
      */
     private static int testRoadTicks(int carCount,
-                                     int NElanes, int SWlanes)
+                                     int NElanes, int SWlanes,
+                                     LaneKind kind,
+                                     boolean doubleBuffered)
     {
         int          exitCode;
         int          i;
@@ -478,9 +1319,11 @@ public class Road implements Connectable {
         exitCode = 0;
         roadName = "Road with " + carCount + " cars," +
                                   NElanes + " NElanes," +
-                                  SWlanes + " SWlanes";
+                                  SWlanes + " SWlanes," +
+                                  kind + " lanes";
                                  
-        roadToTest = new Road(roadName, carCount, NElanes, SWlanes);
+        roadToTest = new Road(roadName, carCount, NElanes, SWlanes,
+                              kind);
         edgeOfMap = new EdgeOfMap();
         for (i = NElanes - 1; (i >= 0); --i) {
             /*
@@ -592,34 +1435,13 @@ public class Road implements Connectable {
                     /*
                      *  Advance the vehicles in the last snapshot to
                      *  see if this snapshot looks correct.
-                     *  Since we're using EdgeOfMap, make sure the last
-                     *  vehicle leaves the lane.
                      */
-                    j = lastSnapshot[whichLane].length;
-                    if (j > 0) {
-                        lastSnapshot[whichLane][j - 1] = '_';
-                    }
-                    for (j = lastSnapshot[whichLane].length - 1,
-                                    k = j - 1; (k >= 0); --j, --k) {
-                        if (lastSnapshot[whichLane][j] != '_') {
-                            /*
-                             *  This slot isn't empty so we can't
-                             *  advance anything to here.
-                             */
-                            continue;
-                        }
-
-                        /*
-                         *  This slot must be empty.  Move the following
-                         *  vehicle here.
-                         */
-                        lastSnapshot[whichLane][j] =
-                                        lastSnapshot[whichLane][k];
-                        lastSnapshot[whichLane][k] = '_';
-                    }
-                    if (lastSnapshot[whichLane].length > 0) {
-                        lastSnapshot[whichLane][0] =
-                                        thisSnapshot[whichLane][0];
+                    if (doubleBuffered == true) {
+                        advanceBuffered(lastSnapshot[whichLane],
+                                        thisSnapshot[whichLane]);
+                    } else {
+                        advanceInPlace(lastSnapshot[whichLane],
+                                       thisSnapshot[whichLane]);
                     }
 
                     /*
@@ -684,7 +1506,7 @@ public class Road implements Connectable {
                          new Road("", 0, 0, 0),
                          new Road("Two Lane Road to nowhere", 0, 1, 1)};
         int     i;
-        BitSet  usedIdentifiers;
+        Set<Long>   usedIdentifiers;
         int     fakeCarCount;
         String  fakeRoadName;
         int     carCountToTest;
@@ -783,18 +1605,18 @@ public class Road implements Connectable {
          *  and make sure the identifiers don't get duplicated.
          */
         i = 1024 * 1024;
-        usedIdentifiers = new BitSet(i);
+        usedIdentifiers = new HashSet<>();
         for (Road which : road) {
             /*
              *  Add the instantances we've already created to our
              *  database.
              */
-            usedIdentifiers.set(which.getIdentifier());
+            usedIdentifiers.add(which.getIdentifier());
         }
         fakeRoadName = "Fake Road 0";
         fakeCarCount = 1;
         for (; (i > 0); --i) {
-            int      identifier;
+            long     identifier;
             Road     which;
 
             if ((i % 100) == 0) {
@@ -817,20 +1639,14 @@ public class Road implements Connectable {
              *  already in our database.
              */
             identifier = which.getIdentifier();
-            if (usedIdentifiers.get(identifier) == true) {
+            if (usedIdentifiers.add(identifier) == false) {
                 /*
                  *  We've seen this identifier before.
                  */
                 System.out.println(which + ": duplicate identifier(" +
                                    identifier + ")");
                 exitCode = 1;
-                continue;
             }
-
-            /*
-             *  Add this identifier to our database.
-             */
-            usedIdentifiers.set(identifier);
         }
 
         /*
@@ -844,14 +1660,50 @@ public class Road implements Connectable {
                                                     ++SWlanesToTest) {
                     exitCode += testRoadTicks(carCountToTest,
                                               NElanesToTest,
-                                              SWlanesToTest);
+                                              SWlanesToTest,
+                                              LaneKind.DENSE, false);
                 }
             }
         }
         /*
          *  Do a more reasonable one to look at.
          */
-        exitCode += testRoadTicks(10, 1, 1);
+        exitCode += testRoadTicks(10, 1, 1, LaneKind.DENSE, false);
+
+        /*
+         *  The other kinds of lanes have to behave the same way,
+         *  including lanes longer than a word of bits.
+         */
+        for (LaneKind kind : LaneKind.values()) {
+            for (carCountToTest = 0; (carCountToTest <= 3);
+                                                ++carCountToTest) {
+                exitCode += testRoadTicks(carCountToTest, 1, 1, kind,
+                                          false);
+            }
+            exitCode += testRoadTicks(70, 1, 1, kind, false);
+        }
+
+        /*
+         *  Now do some ticking in two phases.
+         */
+        TickManager.setDoubleBuffered(true);
+        for (LaneKind kind : LaneKind.values()) {
+            for (carCountToTest = 0; (carCountToTest <= 3);
+                                                ++carCountToTest) {
+                exitCode += testRoadTicks(carCountToTest, 1, 1, kind,
+                                          true);
+            }
+            exitCode += testRoadTicks(10, 2, 2, kind, true);
+            exitCode += testRoadTicks(70, 1, 1, kind, true);
+        }
+        TickManager.setDoubleBuffered(false);
+
+        /*
+         *  Both ways of ticking move vehicles along a lane the same.
+         */
+        for (LaneKind kind : LaneKind.values()) {
+            exitCode += testDrain(kind);
+        }
 
         if (exitCode != 0) {
             /*
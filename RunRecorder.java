@@ -0,0 +1,379 @@
+package traffic;
+
+import java.io.*;
+
+/**
+ *  {@code RunRecorder} writes down everything needed to run a
+ *  {@code Simulation} again exactly the way it ran: the seed, how the
+ *  map was built, the mix of vehicles at the start and every input
+ *  from outside with the tick it landed on.  {@code RunReplayer}
+ *  reads it back and runs it again without a window, as fast as it
+ *  can, checking along the way that the roads look the same.
+ *  <p>
+ *  The map has to be a chain of roads like {@code BatchRunner}
+ *  builds, and the recording has to start before the first tick.
+ *  The log is a header followed by events.  Numbers that are usually
+ *  small, like the ticks between two events, are written seven bits
+ *  to a byte, so a log with a handful of inputs is a few dozen bytes
+ *  no matter how long the run was.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class RunRecorder implements Closeable {
+    /**
+     *  The first four bytes of a log.
+     */
+    static final int            MAGIC           = 0x54524c47;
+
+    /**
+     *  The version of the log written.
+     */
+    static final int            VERSION         = 1;
+
+    /**
+     *  An event that changes the chance of spawning a type: the type
+     *  and the new probability follow.
+     */
+    static final byte           PROBABILITY     = 1;
+
+    /**
+     *  An event for the ticks starting.
+     */
+    static final byte           START           = 2;
+
+    /**
+     *  An event for the ticks stopping: a fingerprint of the roads
+     *  follows.
+     */
+    static final byte           STOP            = 3;
+
+    /**
+     *  An event for the time between ticks changing: the milliseconds
+     *  follow.
+     */
+    static final byte           TICK_DELAY      = 4;
+
+    /**
+     *  The last event: a fingerprint of the roads follows.
+     */
+    static final byte           END             = 5;
+
+    private final DataOutputStream      out;
+    private final Simulation    simulation;
+    private final Road          road[];
+    private long                lastTick;
+    private IOException         failure;
+
+    /**
+     *  Start recording a {@code Simulation}.  Its inputs are recorded
+     *  until the recorder is closed.
+     *  @param out Where the log goes
+     *  @param simulation What to record, before its first tick
+     *  @param road The chain of roads, from west to east
+     *  @param kind How the lanes are stored
+     *  @param arrivals How vehicles arrive at the edge of the map
+     *  @param doubleBuffered Whether the simulation ticks in two
+     *  phases
+     *  @throws IOException If the header can't be written
+     */
+    public RunRecorder(OutputStream out, Simulation simulation,
+                       Road road[], Road.LaneKind kind,
+                       EdgeOfMap.Arrivals arrivals, boolean doubleBuffered)
+        throws IOException
+    {
+        int                 i;
+        VehicleRegistry     registry;
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.simulation = simulation;
+        this.road = road.clone();
+        synchronized (simulation) {
+            if (simulation.getTickCount() != 0) {
+                throw new IllegalStateException("recording must start" +
+                                                " before the first tick");
+            }
+
+            /*
+             *  The header: the seed, the map and the mix of vehicles.
+             */
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(VERSION);
+            this.out.writeLong(simulation.getSeed());
+            writeNumber(road.length);
+            writeNumber(road[0].getCarCount());
+            writeNumber(road[0].getNElanes());
+            writeNumber(road[0].getSWlanes());
+            this.out.writeByte(kind.ordinal());
+            this.out.writeByte(arrivals.ordinal());
+            this.out.writeBoolean(doubleBuffered);
+            registry = simulation.getRegistry();
+            this.out.writeByte(registry.size());
+            for (i = 0; (i < registry.size()); ++i) {
+                this.out.writeUTF(registry.nameOf((byte)i));
+                this.out.writeDouble(registry.getProbability((byte)i));
+            }
+            this.out.flush();
+            simulation.setRecorder(this);
+        }
+    }
+
+    /*
+     *  Write a number that isn't negative seven bits at a time, low
+     *  bits first, with the top bit set on every byte but the last.
+     */
+    private void        writeNumber(long value) throws IOException
+    {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    /*
+     *  Start an event on the current tick.  The caller holds the lock
+     *  of the simulation so no tick is in progress.
+     */
+    private void        writeEvent(byte event) throws IOException
+    {
+        long    tick;
+
+        tick = simulation.getTickCount();
+        out.writeByte(event);
+        writeNumber(tick - lastTick);
+        lastTick = tick;
+    }
+
+    /*
+     *  Remember the first thing that went wrong so close() can
+     *  complain about it.  Inputs come from places, like the window,
+     *  that can't do anything about it.
+     */
+    private void        failed(IOException e)
+    {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     *  Work out a fingerprint of what's on a chain of roads, so two
+     *  runs can be compared without keeping either one.
+     *  @param road The roads
+     *  @return The fingerprint
+     */
+    public static long  fingerprint(Road road[])
+    {
+        long    hash;
+
+        /*
+         *  64-bit FNV-1a over every character of every snapshot.
+         */
+        hash = 0xcbf29ce484222325L;
+        for (Road which : road) {
+            for (String lane : which.snapshot()) {
+                for (char c : lane.toCharArray()) {
+                    hash = (hash ^ c) * 0x100000001b3L;
+                }
+                hash = (hash ^ '\n') * 0x100000001b3L;
+            }
+        }
+
+        return(hash);
+    }
+
+    /*
+     *  The simulation changed the chance of spawning a type.  It
+     *  holds its own lock while it tells us.
+     */
+    void        probabilityChanged(byte type, double probability)
+    {
+        try {
+            writeEvent(PROBABILITY);
+            out.writeByte(type);
+            out.writeDouble(probability);
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     *  The ticks started.
+     */
+    public void started()
+    {
+        synchronized (simulation) {
+            try {
+                writeEvent(START);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    }
+
+    /**
+     *  The ticks stopped.  The roads are fingerprinted so a replay
+     *  can check it got here the same way.
+     */
+    public void stopped()
+    {
+        synchronized (simulation) {
+            try {
+                writeEvent(STOP);
+                out.writeLong(fingerprint(road));
+                out.flush();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    }
+
+    /**
+     *  The time between ticks changed.  It makes no difference to what
+     *  happens on the roads but it's good to know.
+     *  @param milliseconds The new time between ticks
+     */
+    public void tickDelayChanged(int milliseconds)
+    {
+        synchronized (simulation) {
+            try {
+                writeEvent(TICK_DELAY);
+                writeNumber(Math.max(milliseconds, 0));
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    }
+
+    /**
+     *  Stop recording and finish the log with a fingerprint of the
+     *  roads.
+     *  @throws IOException If any part of the log couldn't be written
+     */
+    public void close() throws IOException
+    {
+        synchronized (simulation) {
+            if (simulation.getRecorder() != this) {
+                return;
+            }
+            simulation.setRecorder(null);
+            try {
+                writeEvent(END);
+                out.writeLong(fingerprint(road));
+                out.close();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+     *  Record a run that changes its mix now and then, and return the
+     *  log.
+     */
+    private static byte[]       record(long seed, Road.LaneKind kind,
+                                       boolean doubleBuffered)
+        throws IOException
+    {
+        int                     i;
+        BatchRunner             runner;
+        Simulation              simulation;
+        RunRecorder             recorder;
+        ByteArrayOutputStream   log;
+
+        runner = new BatchRunner(3, 25, 2, 1, kind, seed,
+                                 EdgeOfMap.Arrivals.SCHEDULED);
+        simulation = runner.getSimulation();
+        simulation.setDoubleBuffered(doubleBuffered);
+        log = new ByteArrayOutputStream();
+        recorder = new RunRecorder(log, simulation, runner.getRoads(),
+                                   kind, EdgeOfMap.Arrivals.SCHEDULED,
+                                   doubleBuffered);
+        recorder.started();
+        for (i = 0; (i < 20); ++i) {
+            runner.run(97 + (i * 13));
+            simulation.setProbability((byte)(i & 0x1),
+                                      (i % 7) / 10.0);
+            if ((i % 5) == 4) {
+                recorder.stopped();
+                recorder.tickDelayChanged(500 >> (i / 5));
+                recorder.started();
+            }
+        }
+        runner.run(500);
+        recorder.close();
+
+        return(log.toByteArray());
+    }
+
+    /**
+     *  Performs a unit test on the {@code RunRecorder} class by
+     *  recording runs and replaying them.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        byte                log[];
+        RunReplayer         replayer;
+
+        exitCode = 0;
+        try {
+            for (Road.LaneKind kind : Road.LaneKind.values()) {
+                for (int buffered = 0; (buffered < 2); ++buffered) {
+                    /*
+                     *  A replay comes out the same at every stop.
+                     */
+                    log = record(2026 + kind.ordinal(), kind,
+                                 buffered == 1);
+                    replayer = new RunReplayer(
+                                    new ByteArrayInputStream(log));
+                    replayer.replay();
+                    System.out.println(kind + " buffered " +
+                                       (buffered == 1) + ": " +
+                                       log.length + " bytes, " +
+                                       replayer.getTicks() +
+                                       " ticks, " +
+                                       replayer.getChecks() +
+                                       " checks, " +
+                                       replayer.getMismatches() +
+                                       " mismatches");
+                    if ((replayer.getChecks() != 5) ||
+                        (replayer.getMismatches() != 0) ||
+                        (replayer.getTicks() != 4910)) {
+                        System.out.println("**** ERROR: replay differs");
+                        ++exitCode;
+                    }
+
+                    /*
+                     *  A different seed makes the replay go wrong.
+                     *  The seed ends 14 bytes in.
+                     */
+                    log[13] ^= 1;
+                    replayer = new RunReplayer(
+                                    new ByteArrayInputStream(log));
+                    replayer.replay();
+                    if (replayer.getMismatches() == 0) {
+                        System.out.println("**** ERROR: a different" +
+                                           " seed replayed the same");
+                        ++exitCode;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
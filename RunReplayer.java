@@ -0,0 +1,238 @@
+package traffic;
+
+import java.io.*;
+
+/**
+ *  {@code RunReplayer} runs a {@code Simulation} again from a log
+ *  written by {@code RunRecorder}.  It builds the same chain of roads
+ *  with the same seed, feeds in every recorded input on the tick it
+ *  landed on, and runs the ticks in between back-to-back with no
+ *  window and no delay.  Wherever the recording stopped the ticks it
+ *  compares the roads against the fingerprint in the log.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class RunReplayer {
+    private final DataInputStream       in;
+    private long                ticks;
+    private int                 checks;
+    private int                 mismatches;
+    private long                firstMismatch   = -1;
+
+    /**
+     *  @param in Where the log comes from
+     */
+    public RunReplayer(InputStream in)
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /*
+     *  Read a number written seven bits at a time.
+     */
+    private long        readNumber() throws IOException
+    {
+        int     shift;
+        int     b;
+        long    value;
+
+        value = 0;
+        for (shift = 0; (shift < 64); shift += 7) {
+            b = in.readUnsignedByte();
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return(value);
+            }
+        }
+
+        throw new IOException("bad number in log");
+    }
+
+    /*
+     *  Compare the roads with a recorded fingerprint.
+     */
+    private void        check(Road road[]) throws IOException
+    {
+        long    expected;
+
+        expected = in.readLong();
+        ++checks;
+        if (RunRecorder.fingerprint(road) != expected) {
+            if (mismatches == 0) {
+                firstMismatch = ticks;
+            }
+            ++mismatches;
+        }
+    }
+
+    /**
+     *  Replay the whole log.
+     *  @return The {@code BatchRunner} holding the roads as they
+     *  were at the end of the log
+     *  @throws IOException If the log can't be read or makes no
+     *  sense
+     */
+    public BatchRunner  replay() throws IOException
+    {
+        int                 i;
+        int                 roadCount;
+        int                 carCount;
+        int                 NElanes;
+        int                 SWlanes;
+        int                 typeCount;
+        byte                event;
+        long                seed;
+        Road.LaneKind       kind;
+        EdgeOfMap.Arrivals  arrivals;
+        boolean             doubleBuffered;
+        BatchRunner         runner;
+        Simulation          simulation;
+        VehicleRegistry     registry;
+
+        /*
+         *  Build the map the header describes.
+         */
+        if ((in.readInt() != RunRecorder.MAGIC) ||
+            (in.readShort() != RunRecorder.VERSION)) {
+            throw new IOException("not a run log");
+        }
+        seed = in.readLong();
+        roadCount = (int)readNumber();
+        carCount = (int)readNumber();
+        NElanes = (int)readNumber();
+        SWlanes = (int)readNumber();
+        try {
+            kind = Road.LaneKind.values()[in.readUnsignedByte()];
+            arrivals = EdgeOfMap.Arrivals.values()[in.readUnsignedByte()];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("bad map in log");
+        }
+        doubleBuffered = in.readBoolean();
+        runner = new BatchRunner(roadCount, carCount, NElanes, SWlanes,
+                                 kind, seed, arrivals);
+        simulation = runner.getSimulation();
+        simulation.setDoubleBuffered(doubleBuffered);
+        registry = simulation.getRegistry();
+        typeCount = in.readUnsignedByte();
+        for (i = 0; (i < typeCount); ++i) {
+            String      name;
+            double      probability;
+
+            name = in.readUTF();
+            probability = in.readDouble();
+            if (registry.register(name, name, probability) != i) {
+                throw new IOException("vehicle type " + name +
+                                      " out of order in log");
+            }
+        }
+
+        /*
+         *  Now run up to each event and apply it.
+         */
+        do {
+            long        wait;
+
+            event = in.readByte();
+            wait = readNumber();
+            runner.run(wait);
+            ticks += wait;
+            switch (event) {
+            case RunRecorder.PROBABILITY:
+                simulation.setProbability(in.readByte(), in.readDouble());
+                break;
+
+            case RunRecorder.START:
+                break;
+
+            case RunRecorder.STOP:
+            case RunRecorder.END:
+                check(runner.getRoads());
+                break;
+
+            case RunRecorder.TICK_DELAY:
+                readNumber();
+                break;
+
+            default:
+                throw new IOException("unknown event " + event +
+                                      " in log");
+            }
+        } while (event != RunRecorder.END);
+
+        return(runner);
+    }
+
+    /**
+     *  @return The number of ticks replayed
+     */
+    public long getTicks()
+    {
+        return(ticks);
+    }
+
+    /**
+     *  @return The number of times the roads were compared with the
+     *  recording
+     */
+    public int  getChecks()
+    {
+        return(checks);
+    }
+
+    /**
+     *  @return The number of times the roads didn't match the
+     *  recording
+     */
+    public int  getMismatches()
+    {
+        return(mismatches);
+    }
+
+    /**
+     *  @return The tick where the roads first didn't match, or -1 if
+     *  they always did
+     */
+    public long getFirstMismatch()
+    {
+        return(firstMismatch);
+    }
+
+    /**
+     *  Replay a log.
+     *  @param args The name of the log
+     */
+    public static void main(String args[])
+    {
+        long            start;
+        double          seconds;
+        RunReplayer     replayer;
+
+        if (args.length != 1) {
+            System.err.println("usage: RunReplayer log");
+            System.exit(1);
+        }
+
+        start = System.nanoTime();
+        try (InputStream in = new FileInputStream(args[0])) {
+            replayer = new RunReplayer(in);
+            replayer.replay();
+        } catch (IOException e) {
+            System.err.println("replay failed: " + e);
+            System.exit(1);
+            return;
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("ticks:             %d\n", replayer.getTicks());
+        System.out.printf("wall time:         %.3f s\n", seconds);
+        System.out.printf("checks:            %d\n",
+                          replayer.getChecks());
+        System.out.printf("mismatches:        %d\n",
+                          replayer.getMismatches());
+        if (replayer.getMismatches() > 0) {
+            System.out.printf("first mismatch at tick %d\n",
+                              replayer.getFirstMismatch());
+            System.exit(1);
+        }
+    }
+}
@@ -11,8 +11,7 @@ import java.awt.event.*;
  */
 public class SettingsDialog extends JDialog {
 
-	private JTextField			carPercentage;
-	private JTextField			motorcyclePercentage;
+	private JTextField			percentage[];
 
 	/*
 	 *  This is the action to perform when the OK button
@@ -22,35 +21,54 @@ public class SettingsDialog extends JDialog {
 	{
 		public void actionPerformed(ActionEvent event)
 		{
-			int		newCarPercentage;
-			int		newMotorcyclePercentage;
-			String	userInput;
+			int				i;
+			double			newPercentage[];
+			double			total;
+			String			userInput;
+			Simulation		simulation;
 
 			/*
 			 *  Get what the user entered for each field and
-			 *  convert it to an integer.
+			 *  convert it to a number.  Fractions of a percent
+			 *  are fine.
 			 */
-			 userInput = carPercentage.getText().trim();
-			 newCarPercentage = Integer.parseInt(userInput);
-
-			 userInput = motorcyclePercentage.getText().trim();
-			 newMotorcyclePercentage = Integer.parseInt(userInput);
-			 /*
-			  *  Check to make sure the user input is greater than 0
-			  *  but less than 100.
-			  */
-			 if ((newCarPercentage < 0) ||
-			    (newMotorcyclePercentage < 0) ||
-			    ((newCarPercentage + newMotorcyclePercentage) > 100)){
+			newPercentage = new double[percentage.length];
+			total = 0;
+			for (i = 0; (i < percentage.length); ++i) {
+				userInput = percentage[i].getText().trim();
+				try {
+					newPercentage[i] = Double.parseDouble(userInput);
+				} catch (NumberFormatException e) {
+					setValues();
+					return;
+				}
+				/*
+				 *  Check to make sure the user input is greater
+				 *  than 0.
+				 */
+				if ((newPercentage[i] >= 0) == false) {
+					setValues();
+					return;
+				}
+				total += newPercentage[i];
+			}
+			/*
+			 *  Check to make sure they don't add up to more
+			 *  than 100.
+			 */
+			if (total > 100) {
 				setValues();
 				return;
 			}
 			/*
-			 *  Set the new percentages in each class,
-			 *  then close the settings dialog
+			 *  Set the new percentages between two ticks of the
+			 *  simulation, then close the settings dialog
 			 */
-			Car.setRandomPercentage(newCarPercentage);
-			Motorcycle.setRandomPercentage(newMotorcyclePercentage);
+			simulation = Simulation.getDefault();
+			for (i = 0; (i < percentage.length); ++i) {
+				simulation.setProbability((byte)i,
+										  newPercentage[i] / 100);
+			}
 			setVisible(false);
 		}
 	}
@@ -61,8 +79,15 @@ public class SettingsDialog extends JDialog {
 	 */
 	 public void setValues()
 	 {
-		 carPercentage.setText("" + Car.getRandomPercentage());
-		 motorcyclePercentage.setText("" + Motorcycle.getRandomPercentage());
+		 int				i;
+		 VehicleRegistry	registry;
+
+		 registry = VehicleRegistry.getDefault();
+		 for (i = 0; (i < percentage.length); ++i) {
+			 percentage[i].setText("" +
+				 (Math.round(registry.getProbability((byte)i) * 1e6) /
+																  1e4));
+		 }
 	 }
 
 	/**
@@ -76,15 +101,16 @@ public class SettingsDialog extends JDialog {
 		 */
 		super(ourFrame, "Settings", true);
 
+		int					i;
 		JPanel				panel;
 		GridBagLayout		gridBag;
 		GridBagConstraints	gridBagConstraints;
 		JLabel				vehiclePercentageLabel;
-		JLabel				carLabel;
-		JLabel				motorcycleLabel;
+		JLabel				typeLabel;
 		JButton				OKButton;
 		JButton				cancelButton;
 		Rectangle			frameBounds;
+		VehicleRegistry		registry;
 
 		/*
 		 * Get a panel to put everything in.
@@ -119,51 +145,29 @@ public class SettingsDialog extends JDialog {
 		 						gridBagConstraints);
 		 panel.add(vehiclePercentageLabel);
 
-		 /*
-		  * Put the next line, put labels for the vehicles with
-		  * car on the left.
-		  */
-		 carLabel = new JLabel(Car.getLabel(), SwingConstants.CENTER);
-		 gridBagConstraints.gridx	  = 0;
-		 gridBagConstraints.gridwidth = 1;
-		 gridBagConstraints.gridy     = 1;
-		 gridBag.setConstraints(carLabel,
-		 						gridBagConstraints);
-		 panel.add(carLabel);
-		 /*
-		  * Put motorcycle on the right
-		  */
-		 motorcycleLabel = new JLabel(Motorcycle.getLabel(),
-		 							  SwingConstants.CENTER);
-		 gridBagConstraints.gridx	  = 1;
-		 gridBagConstraints.gridy     = 1;
-		 gridBag.setConstraints(motorcycleLabel,
-		 						gridBagConstraints);
-		 panel.add(motorcycleLabel);
-		 /*
-		  * Section 12.3.1, pages 649-651
-		  *
-		  * Text fields on next row with car on the left
-		  */
-		 carPercentage = new JTextField(2);
-		 carPercentage.setHorizontalAlignment(SwingConstants.CENTER);
-		 gridBagConstraints.gridx	  = 0;
-		 gridBagConstraints.gridy     = 2;
-		 gridBag.setConstraints(carPercentage,
-		 						gridBagConstraints);
-		 panel.add(carPercentage);
 		 /*
 		  * Section 12.3.1, pages 649-651
 		  *
-		  * Text fields on next row with car on the left
+		  * Put a row for each type of vehicle with its label on
+		  * the left and its text field on the right.
 		  */
-		 motorcyclePercentage = new JTextField(2);
-		 motorcyclePercentage.setHorizontalAlignment(SwingConstants.CENTER);
-		 gridBagConstraints.gridx	  = 1;
-		 gridBagConstraints.gridy     = 2;
-		 gridBag.setConstraints(motorcyclePercentage,
-		 						gridBagConstraints);
-		 panel.add(motorcyclePercentage);
+		 registry = VehicleRegistry.getDefault();
+		 percentage = new JTextField[registry.size()];
+		 gridBagConstraints.gridwidth = 1;
+		 for (i = 0; (i < percentage.length); ++i) {
+			 typeLabel = new JLabel(registry.labelOf((byte)i),
+			 						SwingConstants.CENTER);
+			 gridBagConstraints.gridx	  = 0;
+			 gridBagConstraints.gridy     = i + 1;
+			 gridBag.setConstraints(typeLabel, gridBagConstraints);
+			 panel.add(typeLabel);
+
+			 percentage[i] = new JTextField(4);
+			 percentage[i].setHorizontalAlignment(SwingConstants.CENTER);
+			 gridBagConstraints.gridx	  = 1;
+			 gridBag.setConstraints(percentage[i], gridBagConstraints);
+			 panel.add(percentage[i]);
+		 }
 
 		 /*
 		  *  Add our OK button on the next line on the left
@@ -171,7 +175,7 @@ public class SettingsDialog extends JDialog {
 		 OKButton = new JButton("OK");
 		 OKButton.addActionListener(new OKaction());
 		 gridBagConstraints.gridx = 0;
-		 gridBagConstraints.gridy = 3;
+		 gridBagConstraints.gridy = percentage.length + 1;
 		 gridBag.setConstraints(OKButton, gridBagConstraints);
 
 		 panel.add(OKButton);
@@ -189,7 +193,6 @@ public class SettingsDialog extends JDialog {
 			 	 setVisible(false);
 			 });
 		 gridBagConstraints.gridx = 1;
-		 gridBagConstraints.gridy = 3;
 		 gridBag.setConstraints(cancelButton, gridBagConstraints);
 
 		 panel.add(cancelButton);
@@ -0,0 +1,897 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  {@code Simulation} holds everything one run of the traffic needs:
+ *  the order in which things tick, the table of vehicles and where
+ *  their identifiers come from, the mix of vehicles to spawn and the
+ *  seed for the random numbers.  {@code Road}s and
+ *  {@code EdgeOfMap}s belong to the {@code Simulation} they were made
+ *  in and only get wired to others in the same one.
+ *  <p>
+ *  Nothing is shared between two {@code Simulation}s, so any number
+ *  of them can run at once in one JVM, each on its own thread.  The
+ *  default {@code Simulation} is the one {@code TickManager} and the
+ *  constructors without a {@code Simulation} use, and is the one the
+ *  window shows.
+ *  <p>
+ *  A tick holds the lock of its {@code Simulation}, so anything
+ *  another thread changes through {@code setProbability()} lands
+ *  between two ticks, where a {@code RunRecorder} can note it.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class Simulation {
+    private static final Simulation     defaultSimulation       =
+                    new Simulation(new SplittableRandom().nextLong(),
+                                   VehicleTable.getDefault(),
+                                   VehicleRegistry.getDefault());
+
+    private final TickSchedule          schedule        =
+                                                new TickSchedule();
+    private final VehicleTable          vehicles;
+    private final VehicleRegistry       registry;
+    private final long                  seed;
+    private final RandomStream          random;
+    private final TravelTimes           travelTimes;
+    private final Metrics               metrics;
+    private ForkJoinPool                pool;
+    private RunRecorder                 recorder;
+    private TrajectoryRecorder          trajectories;
+    private TickListener                listener[]      =
+                                                new TickListener[0];
+
+    /**
+     *  Something that wants to know every time a {@code Simulation}
+     *  has ticked, say to write down what the roads look like.
+     */
+    public interface TickListener {
+        /**
+         *  The simulation finished a tick.  It holds its own lock
+         *  while it tells us, so nothing changes until we return.
+         *  @param simulation The simulation that ticked
+         */
+        void    ticked(Simulation simulation);
+    }
+
+    /**
+     *  Make a {@code Simulation} with a random seed and the vehicle
+     *  mix the default one has right now.
+     */
+    public Simulation()
+    {
+        this(new SplittableRandom().nextLong());
+    }
+
+    /**
+     *  Make a {@code Simulation} that does the same thing every time
+     *  it is wired up the same way, starting with the vehicle mix the
+     *  default one has right now.
+     *  @param seed Where all the random numbers come from
+     */
+    public Simulation(long seed)
+    {
+        this(seed, new VehicleTable(), VehicleRegistry.getDefault().copy());
+    }
+
+    /*
+     *  Make a Simulation out of its parts.
+     */
+    private Simulation(long seed, VehicleTable vehicles,
+                       VehicleRegistry registry)
+    {
+        this.seed = seed;
+        this.vehicles = vehicles;
+        this.registry = registry;
+        random = new RandomStream(seed);
+        travelTimes = new TravelTimes();
+        metrics = new Metrics(vehicles);
+    }
+
+    /*
+     *  Make a fork out of copies of a Simulation's parts.
+     */
+    private Simulation(Simulation parent)
+    {
+        seed = parent.seed;
+        vehicles = parent.vehicles.copy();
+        registry = parent.registry.copy();
+        random = parent.random.copy();
+        travelTimes = parent.travelTimes.copy();
+        metrics = new Metrics(vehicles);
+    }
+
+    /**
+     *  @return The {@code Simulation} used by everything that doesn't
+     *  bring its own
+     */
+    public static Simulation    getDefault()
+    {
+        return(defaultSimulation);
+    }
+
+    /**
+     *  @return The seed all the random numbers come from
+     */
+    public long getSeed()
+    {
+        return(seed);
+    }
+
+    /**
+     *  @return The mix of vehicles to spawn.  Changing it changes
+     *  only this {@code Simulation}.
+     */
+    public VehicleRegistry      getRegistry()
+    {
+        return(registry);
+    }
+
+    /**
+     *  @return The table of the vehicles on the map
+     */
+    VehicleTable        getVehicleTable()
+    {
+        return(vehicles);
+    }
+
+    /**
+     *  @return How many vehicles have left the map, from where to
+     *  where, and how long they took
+     */
+    public TravelTimes  getTravelTimes()
+    {
+        return(travelTimes);
+    }
+
+    /**
+     *  @return What the engine is doing, for people watching it run
+     */
+    public Metrics      getMetrics()
+    {
+        return(metrics);
+    }
+
+    /**
+     *  Split off a new stream of random numbers.  Streams are split
+     *  in the order they are asked for, so the same wiring always
+     *  gets the same streams.
+     *  @return The new stream
+     */
+    synchronized RandomStream   newStream()
+    {
+        return(random.split());
+    }
+
+    /**
+     *  Make a view of a vehicle on the map.
+     *  @param handle The row of the vehicle
+     *  @return The view or {@code null} for {@code VehicleTable.NONE}
+     */
+    Vehicle     vehicleOf(int handle)
+    {
+        return(Vehicle.of(vehicles, registry, handle));
+    }
+
+    /**
+     *  Run all the registered tick() methods.
+     */
+    public synchronized void    tick()
+    {
+        long                start;
+        FlightEvents.Tick   event;
+
+        event = new FlightEvents.Tick();
+        event.begin();
+        if (metrics.starting() == false) {
+            schedule.tick();
+        } else {
+            start = System.nanoTime();
+            schedule.tick();
+            metrics.ticked(System.nanoTime() - start);
+        }
+        if (event.shouldCommit() == true) {
+            event.tick = getTickCount();
+            event.vehicles = vehicles.liveCount();
+            event.twoPhase = isDoubleBuffered();
+            event.threads = 1;
+            if (pool != null) {
+                event.threads = pool.getParallelism();
+            }
+            event.commit();
+        }
+        for (TickListener which : listener) {
+            which.ticked(this);
+        }
+    }
+
+    /**
+     *  Tell somebody after every tick from now on.  Forks don't
+     *  inherit listeners.
+     *  @param toAdd Who to tell
+     */
+    public synchronized void    addTickListener(TickListener toAdd)
+    {
+        listener = Arrays.copyOf(listener, listener.length + 1);
+        listener[listener.length - 1] = toAdd;
+    }
+
+    /**
+     *  Stop telling somebody about ticks.
+     *  @param toRemove Who to stop telling
+     */
+    public synchronized void    removeTickListener(TickListener toRemove)
+    {
+        int     i;
+
+        for (i = 0; (i < listener.length); ++i) {
+            if (listener[i] == toRemove) {
+                System.arraycopy(listener, i + 1, listener, i,
+                                 listener.length - i - 1);
+                listener = Arrays.copyOf(listener, listener.length - 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     *  Change how likely a type of vehicle is, between two ticks, and
+     *  tell the {@code RunRecorder} if there is one.  Use this rather
+     *  than changing the registry while the simulation is running.
+     *  @param type The number of the type
+     *  @param probability The chance of spawning this type, from 0
+     *  to 1
+     */
+    public synchronized void    setProbability(byte type,
+                                               double probability)
+    {
+        registry.setProbability(type, probability);
+        if (recorder != null) {
+            recorder.probabilityChanged(type, probability);
+        }
+    }
+
+    /**
+     *  @return Whoever is recording this {@code Simulation}'s inputs
+     *  or {@code null}
+     */
+    public synchronized RunRecorder     getRecorder()
+    {
+        return(recorder);
+    }
+
+    /*
+     *  Start or stop telling a recorder about inputs.
+     */
+    synchronized void   setRecorder(RunRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
+
+    /*
+     *  Return whoever is recording where vehicles go, or null.
+     */
+    synchronized TrajectoryRecorder     getTrajectoryRecorder()
+    {
+        return(trajectories);
+    }
+
+    /*
+     *  Start or stop telling a recorder where vehicles go.  Only
+     *  between ticks: the lanes look without the lock.
+     */
+    synchronized void   setTrajectoryRecorder(TrajectoryRecorder
+                                                        trajectories)
+    {
+        this.trajectories = trajectories;
+    }
+
+    /*
+     *  A vehicle came into a lane on the tick in progress.  This is
+     *  called from any thread ticking a lane.
+     */
+    void        entered(int vehicle, Connection lane)
+    {
+        if (trajectories != null) {
+            trajectories.entered(vehicle, lane);
+        }
+    }
+
+    /*
+     *  Whether somebody is recording where vehicles go, so the lanes
+     *  know to work out what moved.  This is called from any thread
+     *  ticking a lane.
+     */
+    boolean     tracking()
+    {
+        return(trajectories != null);
+    }
+
+    /*
+     *  A lane is about to move its vehicles on the tick in progress.
+     *  This is called from the thread ticking the lane, before any
+     *  vehicle comes in.
+     */
+    void        moved(Connection lane, int staying, int stopped)
+    {
+        if (trajectories != null) {
+            trajectories.moved(lane, staying, stopped);
+        }
+    }
+
+    /*
+     *  A vehicle left the map on the tick in progress, and is about
+     *  to be released.
+     */
+    void        left(int vehicle)
+    {
+        if ((trajectories != null) && (vehicle != VehicleTable.NONE)) {
+            trajectories.left(vehicle);
+        }
+    }
+
+    /**
+     *  @return The number of ticks started so far, which is the
+     *  number of the tick in progress during a tick
+     */
+    public long getTickCount()
+    {
+        return(schedule.getTickCount());
+    }
+
+    /**
+     *  Register an object to be ticked before another one.
+     *  @param toAdd The {@code Connection} object to tick.
+     *  @param before The {@code Connection} object which must tick
+     *  after {@code toAdd}.  This is usually the object from which
+     *  {@code toAdd} takes its {@code Vehicle}s.
+     */
+    public void registerTick(Connection toAdd, Connection before)
+    {
+        schedule.register(toAdd, before);
+    }
+
+    /**
+     *  Time every object in the schedule now and then from now on,
+     *  to find the slowest.  Forks don't inherit the profiler.
+     *  @param profiler Who keeps the times, or {@code null} to stop
+     */
+    public synchronized void    setProfiler(TickProfiler profiler)
+    {
+        schedule.setProfiler(profiler);
+    }
+
+    /**
+     *  @return Who keeps the times of every object, or {@code null}
+     */
+    public synchronized TickProfiler    getProfiler()
+    {
+        return(schedule.getProfiler());
+    }
+
+    /**
+     *  Tick independent groups of objects on several threads.  Each
+     *  group still ticks in the same order it would on one thread.
+     *  @param threads The number of threads to use.  One or less
+     *  ticks everything on the calling thread.
+     */
+    public void setParallelism(int threads)
+    {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+
+        /*
+         *  A group of fewer than a few dozen lanes isn't worth
+         *  handing to another thread.
+         */
+        schedule.setParallel(pool, 32);
+    }
+
+    /**
+     *  Tick every object in two phases: first everybody works out
+     *  their next state from the last tick, then everybody switches to
+     *  it.  Order stops mattering, so with more than one thread every
+     *  lane can be done on any thread.  Vehicles move along a lane
+     *  the same as when ticking in place, but a vehicle only comes
+     *  into a lane if its first slot was empty at the end of the last
+     *  tick: see {@code Connection}.
+     *  @param doubleBuffered Whether to tick in two phases.
+     */
+    public void setDoubleBuffered(boolean doubleBuffered)
+    {
+        schedule.setDoubleBuffered(doubleBuffered);
+    }
+
+    /**
+     *  @return Whether the ticks are in two phases
+     */
+    public boolean      isDoubleBuffered()
+    {
+        return(schedule.isDoubleBuffered());
+    }
+
+    /**
+     *  Compile the tick order now instead of on the next tick.  Call
+     *  this after wiring a large map so the first tick isn't slow.
+     */
+    public void compile()
+    {
+        schedule.compile();
+    }
+
+    /**
+     *  Make a fork of this {@code Simulation} as it is now, between
+     *  two ticks.  The fork has a copy of every object in the
+     *  schedule, wired up the same way, and of the vehicles, the mix
+     *  and the random numbers, so it does exactly what this one would
+     *  do until one of them is changed.  Nothing is shared that either
+     *  of them changes afterwards, so they can run at once on
+     *  different threads.
+     *  <p>
+     *  The lanes aren't copied.  A lane and its copy use the same
+     *  storage until one of them changes it, and only then does that
+     *  one make a copy of its own, so a fork of a big map is cheap and
+     *  lanes that stay empty or jammed are never copied at all.
+     *  <p>
+     *  The fork starts ticking on one thread; see
+     *  {@code setParallelism()}.
+     *  @param twins Where to put every object in the schedule, and
+     *  the {@code Road}s and {@code EdgeOfMap}s they belong to, with
+     *  its copy in the fork.  Pass an empty {@code IdentityHashMap}.
+     *  @return The fork
+     */
+    public synchronized Simulation      fork(Map<Object, Object> twins)
+    {
+        Simulation  child;
+
+        child = new Simulation(this);
+        child.schedule.forkFrom(schedule, child, twins);
+
+        return(child);
+    }
+
+    /**
+     *  Look up the copy of an object in a fork.
+     *  @param twins Every object in the fork and its copy
+     *  @param original The object or {@code null}
+     *  @return The copy or {@code null} for {@code null}
+     *  @throws IllegalStateException If the object wasn't copied
+     */
+    static Connection   twinOf(Map<Object, Object> twins,
+                               Connection original)
+    {
+        Connection  twin;
+
+        if (original == null) {
+            return(null);
+        }
+
+        twin = (Connection)twins.get(original);
+        if (twin == null) {
+            throw new IllegalStateException(original +
+                                            " has no copy in the fork");
+        }
+
+        return(twin);
+    }
+
+    /**
+     *  Write everything that changes as the simulation runs.  The
+     *  caller holds our lock so no tick is in progress.
+     *  @param out Where to write it
+     *  @throws IOException If it can't be written
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        int     i;
+
+        out.putInt(registry.size());
+        for (i = 0; (i < registry.size()); ++i) {
+            out.putString(registry.nameOf((byte)i));
+            out.putDouble(registry.getProbability((byte)i));
+        }
+        schedule.saveWiring(out);
+        travelTimes.saveWiring(out);
+        random.save(out);
+        vehicles.save(out);
+        schedule.save(out);
+        travelTimes.save(out);
+    }
+
+    /**
+     *  Read back what {@code save()} wrote.  The vehicle types, the
+     *  dependencies, the length of every lane and the number of
+     *  places vehicles come from and go to are all read and checked
+     *  against the way we're wired before anything is changed, so a
+     *  checkpoint of another map leaves us as we were.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read or doesn't fit us
+     */
+    synchronized void   restore(Checkpoint.Reader in) throws IOException
+    {
+        int         i;
+        int         typeCount;
+        double      probability[];
+
+        if (recorder != null) {
+            throw new IllegalStateException("can't restore a" +
+                                            " simulation being recorded");
+        }
+
+        typeCount = in.getInt();
+        if (typeCount != registry.size()) {
+            throw new IOException("checkpoint has " + typeCount +
+                                  " vehicle types, we have " +
+                                  registry.size());
+        }
+        probability = new double[typeCount];
+        for (i = 0; (i < typeCount); ++i) {
+            String      name;
+
+            name = in.getString();
+            if (name.equals(registry.nameOf((byte)i)) == false) {
+                throw new IOException("vehicle type " + name +
+                                      " out of order in checkpoint");
+            }
+            probability[i] = in.getDouble();
+        }
+        schedule.checkWiring(in);
+        travelTimes.checkWiring(in);
+
+        /*
+         *  It fits.  From here on only a damaged checkpoint can stop
+         *  us part way.
+         */
+        for (i = 0; (i < typeCount); ++i) {
+            registry.setProbability((byte)i, probability[i]);
+        }
+        random.restore(in);
+        vehicles.restore(in);
+        schedule.restore(in);
+        travelTimes.restore(in);
+    }
+
+    /*
+     *  Build a little map in a Simulation and run it.  Return the
+     *  snapshots of the road after every tick.
+     */
+    private static List<String> runScenario(Simulation simulation,
+                                            int ticks)
+    {
+        int             i;
+        Road            road;
+        EdgeOfMap       edgeOfMap;
+        List<String>    snapshots;
+
+        road = new Road(simulation, "Scenario", 12, 2, 2,
+                        Road.LaneKind.DENSE);
+        edgeOfMap = new EdgeOfMap(simulation);
+        for (i = 1; (i >= 0); --i) {
+            edgeOfMap.vehiclesGoTo(road, 'E', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'E', i, i);
+            edgeOfMap.vehiclesGoTo(road, 'W', i, i);
+            road.vehiclesGoTo(edgeOfMap, 'W', i, i);
+        }
+
+        snapshots = new ArrayList<>();
+        for (i = 0; (i < ticks); ++i) {
+            simulation.tick();
+            snapshots.add(String.join("\n", road.snapshot()));
+        }
+
+        return(snapshots);
+    }
+
+    /*
+     *  Count the lanes of a chain of roads still sharing storage with
+     *  a fork.
+     */
+    private static int  sharedLanes(BatchRunner runner)
+    {
+        int     shared;
+
+        shared = 0;
+        for (Road which : runner.getRoads()) {
+            shared += which.getSharedLaneCount();
+        }
+
+        return(shared);
+    }
+
+    /*
+     *  Fork a warm chain of roads several times, run the forks and
+     *  the original at once and make sure the forks that weren't
+     *  changed come out exactly like the original.
+     */
+    private static int  testForks(Road.LaneKind kind,
+                                  boolean doubleBuffered)
+    {
+        int                     i;
+        int                     errors;
+        int                     lanes;
+        long                    expected;
+        String                  what;
+        BatchRunner             runner[];
+        BatchRunner             empty;
+        List<Future<Long>>      results;
+        ExecutorService         executor;
+
+        errors = 0;
+        what = kind + " buffered " + doubleBuffered;
+        runner = new BatchRunner[5];
+        runner[0] = new BatchRunner(3, 60, 2, 2, kind, 11,
+                                    EdgeOfMap.Arrivals.SCHEDULED);
+        runner[0].getSimulation().setDoubleBuffered(doubleBuffered);
+        runner[0].run(1500);
+        lanes = 3 * 4;
+        for (i = 1; (i < runner.length); ++i) {
+            runner[i] = runner[0].fork();
+            if ((sharedLanes(runner[i]) != lanes) ||
+                (sharedLanes(runner[0]) != lanes)) {
+                System.out.println("**** ERROR: " + what + " fork " + i +
+                                   " copied lanes");
+                ++errors;
+            }
+        }
+        runner[4].getSimulation().setProbability(Vehicle.CAR, 0.0);
+
+        /*
+         *  Everybody runs at once.
+         */
+        executor = Executors.newFixedThreadPool(runner.length);
+        results = new ArrayList<>();
+        for (i = 0; (i < runner.length); ++i) {
+            final BatchRunner   which   = runner[i];
+
+            results.add(executor.submit(() -> {
+                which.run(2000);
+                return(RunRecorder.fingerprint(which.getRoads()));
+            }));
+        }
+        expected = 0;
+        for (i = 0; (i < runner.length); ++i) {
+            long        fingerprint;
+
+            try {
+                fingerprint = results.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("**** ERROR: " + what + " " + e);
+                ++errors;
+                continue;
+            }
+            if (i == 0) {
+                expected = fingerprint;
+            } else if ((i < 4) &&
+                       ((fingerprint != expected) ||
+                        (runner[i].getDelivered() !=
+                         runner[0].getDelivered()))) {
+                System.out.println("**** ERROR: " + what + " fork " + i +
+                                   " differs from the original");
+                ++errors;
+            } else if ((i == 4) && (fingerprint == expected)) {
+                System.out.println("**** ERROR: " + what + " fork with" +
+                                   " a different mix came out the same");
+                ++errors;
+            }
+        }
+        executor.shutdown();
+        if (runner[4].getSimulation().getTickCount() != 3500) {
+            System.out.println("**** ERROR: " + what + " fork ticked " +
+                               runner[4].getSimulation().getTickCount() +
+                               " times");
+            ++errors;
+        }
+
+        /*
+         *  Lanes that never change are never copied, however long
+         *  the fork runs.
+         */
+        empty = new BatchRunner(3, 60, 2, 2, kind, 11,
+                                EdgeOfMap.Arrivals.PER_TICK);
+        empty.getSimulation().setDoubleBuffered(doubleBuffered);
+        for (i = 0; (i < empty.getSimulation().getRegistry().size());
+             ++i) {
+            empty.getSimulation().setProbability((byte)i, 0.0);
+        }
+        empty.run(100);
+        empty = empty.fork();
+        empty.run(1000);
+        if (sharedLanes(empty) != lanes) {
+            System.out.println("**** ERROR: " + what + " copied " +
+                               (lanes - sharedLanes(empty)) +
+                               " lanes of an empty fork");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Return the identifier of the vehicle in every slot of every
+     *  lane of a chain of roads, or -1 for an empty slot.
+     */
+    private static long[]   identifiers(BatchRunner runner)
+    {
+        int     lane;
+        int     at;
+        int     vehicles[];
+        long    identifier[];
+
+        at = 0;
+        identifier = new long[0];
+        for (Road which : runner.getRoads()) {
+            vehicles = new int[which.getCarCount()];
+            for (lane = 0;
+                 (lane < (which.getNElanes() + which.getSWlanes()));
+                 ++lane) {
+                which.vehiclesInto(lane, vehicles);
+                identifier = Arrays.copyOf(identifier,
+                                           at + vehicles.length);
+                for (int vehicle : vehicles) {
+                    identifier[at++] = (vehicle == VehicleTable.NONE) ?
+                        -1 :
+                        runner.getSimulation().getVehicleTable()
+                                              .identifierOf(vehicle);
+                }
+            }
+        }
+
+        return(identifier);
+    }
+
+    /*
+     *  Run the same map on one thread and on several, and a fork of
+     *  the one on several, and make sure every vehicle gets the same
+     *  identifier on all of them.
+     */
+    private static int  testIdentifiers(boolean doubleBuffered)
+    {
+        int             i;
+        int             errors;
+        BatchRunner     runner[];
+
+        errors = 0;
+        runner = new BatchRunner[3];
+        for (i = 0; (i < 2); ++i) {
+            runner[i] = new BatchRunner(40, 20, 2, 2,
+                                        Road.LaneKind.DENSE, 2026,
+                                        EdgeOfMap.Arrivals.PER_TICK);
+            runner[i].getSimulation().setDoubleBuffered(doubleBuffered);
+        }
+        runner[1].getSimulation().setParallelism(4);
+        runner[0].run(1000);
+        runner[1].run(1000);
+        runner[2] = runner[1].fork();
+        runner[2].getSimulation().setParallelism(4);
+        for (i = 0; (i < runner.length); ++i) {
+            runner[i].run(1000);
+        }
+        runner[1].getSimulation().setParallelism(1);
+        runner[2].getSimulation().setParallelism(1);
+
+        if (Arrays.stream(identifiers(runner[0])).max().getAsLong() <
+                                                                0) {
+            System.out.println("**** ERROR: buffered " + doubleBuffered +
+                               " no vehicles on the roads");
+            ++errors;
+        }
+        for (i = 1; (i < runner.length); ++i) {
+            if (Arrays.equals(identifiers(runner[0]),
+                              identifiers(runner[i])) == false) {
+                System.out.println("**** ERROR: buffered " +
+                                   doubleBuffered + " run " + i +
+                                   " gave out different identifiers");
+                ++errors;
+            }
+        }
+
+        return(errors);
+    }
+
+    /**
+     *  Performs a unit test on the {@code Simulation} class by running
+     *  several of them at once.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                     exitCode;
+        int                     i;
+        long                    seeds[]         = {7, 7, 8, 7};
+        List<Future<List<String>>>      results;
+        List<List<String>>      snapshots;
+        Simulation              simulation[];
+        ExecutorService         executor;
+
+        exitCode = 0;
+
+        /*
+         *  Run the same seed several times at once, plus one other
+         *  seed, with a different mix in the last one.
+         */
+        simulation = new Simulation[seeds.length];
+        for (i = 0; (i < seeds.length); ++i) {
+            simulation[i] = new Simulation(seeds[i]);
+        }
+        simulation[3].getRegistry().setProbability(Vehicle.CAR, 0.5);
+        executor = Executors.newFixedThreadPool(seeds.length);
+        results = new ArrayList<>();
+        for (i = 0; (i < seeds.length); ++i) {
+            final Simulation    which   = simulation[i];
+
+            results.add(executor.submit(() -> runScenario(which, 300)));
+        }
+        snapshots = new ArrayList<>();
+        for (i = 0; (i < seeds.length); ++i) {
+            try {
+                snapshots.add(results.get(i).get());
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("**** ERROR: " + e);
+                ++exitCode;
+                snapshots.add(new ArrayList<>());
+            }
+        }
+        executor.shutdown();
+        System.out.println(snapshots.get(0).get(299));
+
+        if (snapshots.get(0).equals(snapshots.get(1)) == false) {
+            System.out.println("**** ERROR: same seed, different runs");
+            ++exitCode;
+        }
+        if (snapshots.get(0).equals(snapshots.get(2)) == true) {
+            System.out.println("**** ERROR: different seeds, same runs");
+            ++exitCode;
+        }
+        if (snapshots.get(0).equals(snapshots.get(3)) == true) {
+            System.out.println("**** ERROR: different mix, same runs");
+            ++exitCode;
+        }
+
+        /*
+         *  Forks carry on like the original.
+         */
+        for (Road.LaneKind kind : Road.LaneKind.values()) {
+            exitCode += testForks(kind, false);
+            exitCode += testForks(kind, true);
+        }
+        exitCode += testIdentifiers(false);
+        exitCode += testIdentifiers(true);
+
+        /*
+         *  None of that touched the default one.
+         */
+        if ((getDefault().getTickCount() != 0) ||
+            (getDefault().getRegistry().getProbability(Vehicle.CAR) !=
+                                                                0.20) ||
+            (getDefault().getVehicleTable().rowCount() != 0)) {
+            System.out.println("**** ERROR: the default simulation" +
+                               " changed");
+            ++exitCode;
+        }
+        for (i = 0; (i < seeds.length); ++i) {
+            if (simulation[i].getTickCount() != 300) {
+                System.out.println("**** ERROR: simulation " + i +
+                                   " ticked " +
+                                   simulation[i].getTickCount() +
+                                   " times");
+                ++exitCode;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package traffic;
+
+import java.util.*;
+
+/**
+ *  {@code SparseLaneStorage} keeps a lane as the positions of the
+ *  vehicles in it rather than as its slots, so a very long lane with
+ *  few vehicles costs memory and time in proportion to its vehicles,
+ *  not its length.  Vehicles never pass each other in a lane, so they
+ *  are kept in a ring, oldest (nearest the outgoing end) first, with
+ *  their positions in a matching primitive ring.  Positions go down
+ *  from the front of the ring to the back.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+class SparseLaneStorage extends LaneStorage {
+    private static final int    INITIAL_CAPACITY        = 16;
+
+    private int                 position[];
+    private int                 vehicle[];
+    private int                 mask;
+    private int                 head;
+    private int                 count;
+
+    /**
+     *  @param length Number of slots in the lane
+     */
+    SparseLaneStorage(int length)
+    {
+        super(length);
+        position = new int[INITIAL_CAPACITY];
+        vehicle = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    /*
+     *  Make sure the rings have room for the given number of
+     *  vehicles.  The capacity is always a power of two so wrapping
+     *  around is a mask.
+     */
+    private void    ensureCapacity(int needed)
+    {
+        int         i;
+        int         capacity;
+        int         newPosition[];
+        int         newVehicle[];
+
+        if (needed <= position.length) {
+            return;
+        }
+
+        capacity = position.length;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        newPosition = new int[capacity];
+        newVehicle = new int[capacity];
+        for (i = 0; (i < count); ++i) {
+            newPosition[i] = position[(head + i) & mask];
+            newVehicle[i] = vehicle[(head + i) & mask];
+        }
+        position = newPosition;
+        vehicle = newVehicle;
+        mask = capacity - 1;
+        head = 0;
+    }
+
+    /*
+     *  Return the place in the ring of the vehicle in the given slot
+     *  or -1 if the slot is empty.
+     */
+    private int     find(int slot)
+    {
+        int     low;
+        int     high;
+
+        /*
+         *  Positions go down as we go back through the ring.
+         */
+        low = 0;
+        high = count - 1;
+        while (low <= high) {
+            int     middle;
+            int     at;
+
+            middle = (low + high) >>> 1;
+            at = position[(head + middle) & mask];
+            if (at == slot) {
+                return((head + middle) & mask);
+            }
+            if (at > slot) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return(-1);
+    }
+
+    int         get(int slot)
+    {
+        int     which;
+
+        which = find(slot);
+        if (which < 0) {
+            return(VehicleTable.NONE);
+        }
+
+        return(vehicle[which]);
+    }
+
+    boolean     isEmpty(int slot)
+    {
+        if (count == 0) {
+            return(true);
+        }
+        if (slot == 0) {
+            /*
+             *  Only the youngest vehicle can be in the first slot.
+             */
+            return(position[(head + count - 1) & mask] != 0);
+        }
+
+        return(find(slot) < 0);
+    }
+
+    int         count()
+    {
+        return(count);
+    }
+
+    void        copyTo(int vehicles[])
+    {
+        int     i;
+
+        Arrays.fill(vehicles, 0, length, VehicleTable.NONE);
+        for (i = 0; (i < count); ++i) {
+            vehicles[position[(head + i) & mask]] =
+                                        vehicle[(head + i) & mask];
+        }
+    }
+
+    void        load(int vehicles[])
+    {
+        int     slot;
+
+        /*
+         *  The oldest vehicle goes at the front of the ring.
+         */
+        Arrays.fill(vehicle, VehicleTable.NONE);
+        head = 0;
+        count = 0;
+        for (slot = length - 1; (slot >= 0); --slot) {
+            if (vehicles[slot] != VehicleTable.NONE) {
+                ensureCapacity(count + 1);
+                position[count] = slot;
+                vehicle[count] = vehicles[slot];
+                ++count;
+            }
+        }
+    }
+
+    int         peekLast()
+    {
+        if ((count == 0) || (position[head] != (length - 1))) {
+            return(VehicleTable.NONE);
+        }
+
+        return(vehicle[head]);
+    }
+
+    int         removeLast()
+    {
+        int         returnValue;
+
+        returnValue = peekLast();
+        if (returnValue == VehicleTable.NONE) {
+            return(VehicleTable.NONE);
+        }
+
+        vehicle[head] = VehicleTable.NONE;
+        head = (head + 1) & mask;
+        --count;
+
+        return(returnValue);
+    }
+
+    void        setFirst(int newVehicle)
+    {
+        int     which;
+
+        if (newVehicle == VehicleTable.NONE) {
+            return;
+        }
+
+        ensureCapacity(count + 1);
+        which = (head + count) & mask;
+        position[which] = 0;
+        vehicle[which] = newVehicle;
+        ++count;
+    }
+
+    void        advance()
+    {
+        int     i;
+
+        /*
+         *  The vehicles packed up against the outgoing end stay put.
+         *  Everybody behind the first gap moves ahead one slot.
+         */
+        for (i = 0; (i < count); ++i) {
+            if (position[(head + i) & mask] != (length - 1 - i)) {
+                break;
+            }
+        }
+        for (; (i < count); ++i) {
+            ++position[(head + i) & mask];
+        }
+    }
+
+    LaneStorage newBuffer()
+    {
+        return(new SparseLaneStorage(length));
+    }
+
+    LaneStorage copy()
+    {
+        SparseLaneStorage   copy;
+
+        copy = new SparseLaneStorage(length);
+        copy.position = position.clone();
+        copy.vehicle = vehicle.clone();
+        copy.mask = mask;
+        copy.head = head;
+        copy.count = count;
+
+        return(copy);
+    }
+
+    /*
+     *  The youngest vehicle is as far back as a packed lane goes.
+     */
+    boolean     isPacked()
+    {
+        if (count == 0) {
+            return(true);
+        }
+
+        return(position[(head + count - 1) & mask] == (length - count));
+    }
+
+    void        advanceInto(LaneStorage nextStorage, boolean exitFree)
+    {
+        int                 i;
+        int                 first;
+        boolean             moving;
+        SparseLaneStorage   next;
+
+        /*
+         *  Start the next state fresh, dropping our oldest vehicle if
+         *  it's leaving.
+         */
+        next = (SparseLaneStorage)nextStorage;
+        Arrays.fill(next.vehicle, VehicleTable.NONE);
+        next.head = 0;
+        next.count = 0;
+        next.ensureCapacity(count + 1);
+        first = 0;
+        if ((exitFree == true) && (peekLast() != VehicleTable.NONE)) {
+            first = 1;
+        }
+
+        /*
+         *  Then, as in advance(), the vehicles packed up against the
+         *  outgoing end stay put and everybody behind the first gap
+         *  moves ahead one slot.
+         */
+        moving = false;
+        for (i = first; (i < count); ++i) {
+            int     at;
+
+            at = position[(head + i) & mask];
+            if (at != (length - 1 - (i - first))) {
+                moving = true;
+            }
+            if (moving == true) {
+                ++at;
+            }
+            next.position[next.count] = at;
+            next.vehicle[next.count] = vehicle[(head + i) & mask];
+            ++next.count;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  {@code SweepRunner} runs a whole grid of scenarios in one JVM.
+ *  Every combination of the car and motorcycle percentages, lane
+ *  counts, road lengths and seeds it is given becomes a
+ *  {@code BatchRunner} with a {@code Simulation} of its own, and the
+ *  runs are shared out over a fixed number of threads.  A summary row
+ *  for each run is written out as soon as the run finishes, so the
+ *  rows come out in whatever order the runs finish in.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class SweepRunner {
+    /**
+     *  The first line of the results.
+     */
+    public static final String  HEADER          =
+                        "seed,car,motorcycle,ne,sw,cars,ticks," +
+                        "delivered,occupancy,ticks_per_s";
+
+    /*
+     *  How many ticks go by between looks at how full the roads are.
+     */
+    private static final long   SAMPLE_TICKS    = 100;
+
+    private final int           roadCount;
+    private final long          ticks;
+    private final long          warmupTicks;
+    private final boolean       doubleBuffered;
+    private final Road.LaneKind kind;
+    private final EdgeOfMap.Arrivals    arrivals;
+
+    /**
+     *  This class is one point of the grid with one seed.
+     */
+    public final class  Run implements Callable<String> {
+        private final long      seed;
+        private final double    carPercentage;
+        private final double    motorcyclePercentage;
+        private final int       NElanes;
+        private final int       SWlanes;
+        private final int       carCount;
+
+        /**
+         *  @param seed The seed of the run's {@code Simulation}
+         *  @param carPercentage The chance of spawning a {@code Car}
+         *  @param motorcyclePercentage The chance of spawning a
+         *  {@code Motorcycle}
+         *  @param NElanes The number of north or east bound lanes
+         *  @param SWlanes The number of south or west bound lanes
+         *  @param carCount The number of cars in one lane of a road
+         */
+        public Run(long seed, double carPercentage,
+                   double motorcyclePercentage,
+                   int NElanes, int SWlanes, int carCount)
+        {
+            this.seed = seed;
+            this.carPercentage = carPercentage;
+            this.motorcyclePercentage = motorcyclePercentage;
+            this.NElanes = NElanes;
+            this.SWlanes = SWlanes;
+            this.carCount = carCount;
+        }
+
+        /**
+         *  Build the scenario, run it and sum it up.
+         *  @return The row of results, without a line separator
+         */
+        public String   call()
+        {
+            long            left;
+            long            chunk;
+            long            elapsed;
+            long            delivered;
+            long            samples;
+            double          occupancy;
+            double          cells;
+            double          seconds;
+            BatchRunner     runner;
+            VehicleRegistry registry;
+
+            runner = new BatchRunner(roadCount, carCount, NElanes, SWlanes,
+                                     kind, seed, arrivals);
+            registry = runner.getSimulation().getRegistry();
+            registry.setProbability(Vehicle.CAR, carPercentage / 100);
+            registry.setProbability(Vehicle.MOTORCYCLE,
+                                    motorcyclePercentage / 100);
+            runner.getSimulation().setDoubleBuffered(doubleBuffered);
+            runner.run(warmupTicks);
+
+            /*
+             *  Run the ticks a chunk at a time and see how full the
+             *  roads are in between.  Only the ticks are timed.
+             */
+            delivered = runner.getDelivered();
+            cells = runner.getCellCount();
+            elapsed = 0;
+            samples = 0;
+            occupancy = 0;
+            for (left = ticks; (left > 0); left -= chunk) {
+                chunk = Math.min(left, SAMPLE_TICKS);
+                elapsed += runner.run(chunk);
+                if (cells > 0) {
+                    occupancy += runner.getVehicleCount() / cells;
+                }
+                ++samples;
+            }
+            delivered = runner.getDelivered() - delivered;
+            if (samples > 0) {
+                occupancy /= samples;
+            }
+            seconds = elapsed / 1e9;
+
+            return(String.format("%d,%s,%s,%d,%d,%d,%d,%d,%.6f,%.1f",
+                                 seed, carPercentage,
+                                 motorcyclePercentage, NElanes, SWlanes,
+                                 carCount, ticks, delivered, occupancy,
+                                 (seconds > 0) ? (ticks / seconds) : 0));
+        }
+    }
+
+    /**
+     *  @param roadCount Required number of roads in each chain
+     *  @param ticks Number of ticks to measure in each run
+     *  @param warmupTicks Number of ticks to run before measuring
+     *  @param doubleBuffered Whether to tick in two phases
+     *  @param kind Required way to store the lanes
+     *  @param arrivals How vehicles arrive at the edge of the map
+     */
+    public SweepRunner(int roadCount, long ticks, long warmupTicks,
+                       boolean doubleBuffered, Road.LaneKind kind,
+                       EdgeOfMap.Arrivals arrivals)
+    {
+        this.roadCount = roadCount;
+        this.ticks = ticks;
+        this.warmupTicks = warmupTicks;
+        this.doubleBuffered = doubleBuffered;
+        this.kind = kind;
+        this.arrivals = arrivals;
+    }
+
+    /**
+     *  Run every run on a fixed number of threads and write out each
+     *  row as soon as its run finishes.
+     *  @param runs The runs to do
+     *  @param threads The most runs to do at once
+     *  @param out Where the rows go, one per line, after
+     *  {@code HEADER}
+     *  @return The number of runs that failed
+     *  @throws InterruptedException If we're interrupted while
+     *  waiting for a run
+     */
+    public int  runAll(List<Run> runs, int threads, PrintWriter out)
+        throws InterruptedException
+    {
+        int                             i;
+        int                             failures;
+        ExecutorService                 executor;
+        CompletionService<String>       finished;
+
+        out.println(HEADER);
+        out.flush();
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        finished = new ExecutorCompletionService<>(executor);
+        for (Run which : runs) {
+            finished.submit(which);
+        }
+
+        failures = 0;
+        try {
+            for (i = 0; (i < runs.size()); ++i) {
+                try {
+                    out.println(finished.take().get());
+                } catch (ExecutionException e) {
+                    System.err.println("run failed: " + e.getCause());
+                    ++failures;
+                }
+                out.flush();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return(failures);
+    }
+
+    /*
+     *  Tell the user how to run us and quit.
+     */
+    private static void usage(String complaint)
+    {
+        System.err.println(complaint);
+        System.err.println("usage: SweepRunner [-ticks n] [-warmup n]" +
+                           " [-roads n] [-threads n] [-buffered 0|1]" +
+                           " [-lanes dense|bitmask|sparse]" +
+                           " [-arrivals per_tick|scheduled]" +
+                           " [-out file] [-seeds n,...] [-car p,...]" +
+                           " [-motorcycle p,...] [-ne n,...]" +
+                           " [-sw n,...] [-cars n,...]");
+        System.exit(1);
+    }
+
+    /*
+     *  Turn a comma-separated list of numbers into an array.
+     */
+    private static double[]     parseList(String option, String list)
+    {
+        int         i;
+        String      item[];
+        double      value[];
+
+        item = list.split(",");
+        value = new double[item.length];
+        for (i = 0; (i < item.length); ++i) {
+            try {
+                value[i] = Double.parseDouble(item[i].trim());
+            } catch (NumberFormatException e) {
+                usage("bad value for " + option + ": " + item[i]);
+            }
+        }
+
+        return(value);
+    }
+
+    /*
+     *  Turn a comma-separated list of seeds into an array.  Seeds
+     *  use all 64 bits so they can't go through a double.
+     */
+    private static long[]       parseSeeds(String option, String list)
+    {
+        int         i;
+        String      item[];
+        long        value[];
+
+        item = list.split(",");
+        value = new long[item.length];
+        for (i = 0; (i < item.length); ++i) {
+            try {
+                value[i] = Long.parseLong(item[i].trim());
+            } catch (NumberFormatException e) {
+                usage("bad value for " + option + ": " + item[i]);
+            }
+        }
+
+        return(value);
+    }
+
+    /**
+     *  Build a grid of scenarios and run all of them.
+     *  @param args Command line options:
+     *  {@code -ticks} number of ticks to measure in each run,
+     *  {@code -warmup} number of ticks to run before measuring,
+     *  {@code -roads} number of roads in each chain,
+     *  {@code -threads} most runs to do at once,
+     *  {@code -buffered} 1 to tick in two phases,
+     *  {@code -lanes} how to store the lanes,
+     *  {@code -arrivals} how vehicles arrive,
+     *  {@code -out} the file for the results, standard output if not
+     *  given, and the grid, each a comma-separated list:
+     *  {@code -seeds} seeds, {@code -car} car percentages,
+     *  {@code -motorcycle} motorcycle percentages, {@code -ne} north
+     *  or east bound lane counts, {@code -sw} south or west bound lane
+     *  counts and {@code -cars} numbers of cars in a lane.
+     */
+    public static void main(String args[])
+    {
+        int             i;
+        long            ticks           = 100000;
+        long            warmupTicks     = 10000;
+        int             roadCount       = 2;
+        int             threads         =
+                            Runtime.getRuntime().availableProcessors();
+        boolean         doubleBuffered  = false;
+        Road.LaneKind   kind            = Road.LaneKind.DENSE;
+        EdgeOfMap.Arrivals      arrivals        =
+                                        EdgeOfMap.Arrivals.PER_TICK;
+        String          outName         = null;
+        long            seeds[]         = {1};
+        double          car[]           = {20};
+        double          motorcycle[]    = {5};
+        double          NElanes[]       = {2};
+        double          SWlanes[]       = {2};
+        double          carCount[]      = {20};
+        int             failures;
+        PrintWriter     out;
+        SweepRunner     sweep;
+        List<Run>       runs;
+
+        for (i = 0; (i < args.length); i += 2) {
+            long        value;
+
+            if ((i + 1) >= args.length) {
+                usage("missing value for " + args[i]);
+            }
+            if (args[i].equals("-lanes") == true) {
+                try {
+                    kind = Road.LaneKind.valueOf(
+                                        args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            if (args[i].equals("-arrivals") == true) {
+                try {
+                    arrivals = EdgeOfMap.Arrivals.valueOf(
+                                        args[i + 1].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    usage("bad value for " + args[i] + ": " +
+                          args[i + 1]);
+                }
+                continue;
+            }
+            if (args[i].equals("-out") == true) {
+                outName = args[i + 1];
+                continue;
+            }
+            if (args[i].equals("-seeds") == true) {
+                seeds = parseSeeds(args[i], args[i + 1]);
+                continue;
+            } else if (args[i].equals("-car") == true) {
+                car = parseList(args[i], args[i + 1]);
+                continue;
+            } else if (args[i].equals("-motorcycle") == true) {
+                motorcycle = parseList(args[i], args[i + 1]);
+                continue;
+            } else if (args[i].equals("-ne") == true) {
+                NElanes = parseList(args[i], args[i + 1]);
+                continue;
+            } else if (args[i].equals("-sw") == true) {
+                SWlanes = parseList(args[i], args[i + 1]);
+                continue;
+            } else if (args[i].equals("-cars") == true) {
+                carCount = parseList(args[i], args[i + 1]);
+                continue;
+            }
+            value = 0;
+            try {
+                value = Long.parseLong(args[i + 1]);
+            } catch (NumberFormatException e) {
+                usage("bad value for " + args[i] + ": " + args[i + 1]);
+            }
+
+            if (args[i].equals("-ticks") == true) {
+                ticks = value;
+            } else if (args[i].equals("-warmup") == true) {
+                warmupTicks = value;
+            } else if (args[i].equals("-roads") == true) {
+                roadCount = (int)value;
+            } else if (args[i].equals("-threads") == true) {
+                threads = (int)value;
+            } else if (args[i].equals("-buffered") == true) {
+                doubleBuffered = value != 0;
+            } else {
+                usage("unknown option " + args[i]);
+            }
+        }
+
+        /*
+         *  Every combination of everything, with the seeds changing
+         *  fastest so the replicas of a point finish close together.
+         */
+        sweep = new SweepRunner(roadCount, ticks, warmupTicks,
+                                doubleBuffered, kind, arrivals);
+        runs = new ArrayList<>();
+        for (double c : car) {
+            for (double m : motorcycle) {
+                for (double ne : NElanes) {
+                    for (double sw : SWlanes) {
+                        for (double length : carCount) {
+                            for (long seed : seeds) {
+                                runs.add(sweep.new Run(seed, c, m,
+                                                       (int)ne, (int)sw,
+                                                       (int)length));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        failures = 0;
+        try {
+            if (outName == null) {
+                out = new PrintWriter(new OutputStreamWriter(System.out));
+            } else {
+                out = new PrintWriter(new BufferedWriter(
+                                            new FileWriter(outName)));
+            }
+            failures = sweep.runAll(runs, threads, out);
+            if (outName != null) {
+                out.close();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("sweep failed: " + e);
+            System.exit(1);
+        }
+        System.err.println(runs.size() + " runs on " + threads +
+                           " threads, " + failures + " failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,44 +1,78 @@
 package traffic;
 
-import java.util.*;
-
 /**
  *  This object implements the management of various objects that
  *  need to tick in the proper order.
- *  @version 2018110800
+ *  The order is kept in a {@code TickSchedule} which is compiled
+ *  into a flat array the first time we tick after the objects have
+ *  been wired together.  Groups of objects that don't depend on each
+ *  other may be ticked on several threads.
+ *  <p>
+ *  Everything here works on the default {@code Simulation}.  Code
+ *  that runs more than one scenario at once should hold on to its
+ *  own {@code Simulation} instead.
+ *  @version 2026101800
  *  @author Richard Barton
  */
 public class TickManager {
-    private static LinkedList<Connection>       tickList        =
-                                            new LinkedList<>();
-
     /**
      *  Run all the registered tick() methods.
      */
     public static void tick()
     {
-        /*
-         *  for (Connection tock : tickList) {
-         *      tock.tick();
-         *  }
-         *
-         *  The following lambda expression replaces the above loop.
-         */
-         tickList.forEach(tock -> tock.tick());
+        Simulation.getDefault().tick();
     }
 
     /**
+     *  @return The number of ticks started so far, which is the
+     *  number of the tick in progress during a tick
+     */
+    public static long  getTickCount()
+    {
+        return(Simulation.getDefault().getTickCount());
+    }
+
+    /**
+     *  Register an object to be ticked before another one.
+     *  @param toAdd The {@code Connection} object to tick.
+     *  @param before The {@code Connection} object which must tick
+     *  after {@code toAdd}.  This is usually the object from which
+     *  {@code toAdd} takes its {@code Vehicle}s.
      */
     public static void  registerTick(Connection toAdd,
                                      Connection before)
     {
-        int     indexOfBefore;
+        Simulation.getDefault().registerTick(toAdd, before);
+    }
 
-        indexOfBefore = tickList.indexOf(before);
-        if (indexOfBefore < 0) {
-            indexOfBefore = 0;
-        }
-        tickList.remove(toAdd);
-        tickList.add(indexOfBefore, toAdd);
+    /**
+     *  Tick independent groups of objects on several threads.  Each
+     *  group still ticks in the same order it would on one thread.
+     *  @param threads The number of threads to use.  One or less
+     *  ticks everything on the calling thread.
+     */
+    public static void  setParallelism(int threads)
+    {
+        Simulation.getDefault().setParallelism(threads);
+    }
+
+    /**
+     *  Tick every object in two phases: first everybody works out
+     *  their next state from the last tick, then everybody switches to
+     *  it.  See {@code Simulation.setDoubleBuffered()}.
+     *  @param doubleBuffered Whether to tick in two phases.
+     */
+    public static void  setDoubleBuffered(boolean doubleBuffered)
+    {
+        Simulation.getDefault().setDoubleBuffered(doubleBuffered);
+    }
+
+    /**
+     *  Compile the tick order now instead of on the next tick.  Call
+     *  this after wiring a large map so the first tick isn't slow.
+     */
+    public static void  compile()
+    {
+        Simulation.getDefault().compile();
     }
 }
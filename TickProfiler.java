@@ -0,0 +1,508 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  {@code TickProfiler} finds the {@code Connection} objects that
+ *  take the most time to tick.  Now and then the schedule ticks with
+ *  the clock read between every two objects, and we keep a decaying
+ *  average of each one's time in an array indexed by where it is in
+ *  the compiled schedule.  On a map with a few very long roads their
+ *  lanes come out on top.
+ *  <p>
+ *  Only one tick in {@code sampleEvery} is timed, since reading the
+ *  clock costs about as much as ticking a short lane, and the rest
+ *  cost one more test each.  A timed tick runs on the calling thread
+ *  in the compiled order, even with a pool, so the times aren't mixed
+ *  up with waiting for other threads; it moves every vehicle the same
+ *  as any other tick.  If the schedule is compiled again the averages
+ *  start over.
+ *  <p>
+ *  Only the ticking thread times anything.  {@code top()} and
+ *  {@code report()} may be called from anywhere and see the averages
+ *  as of the last timed tick.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class TickProfiler {
+    /**
+     *  Each timed tick counts for this fraction of the average, so
+     *  a change shows up after a few dozen timed ticks.
+     */
+    public static final double  WEIGHT          = 1.0 / 16;
+
+    /**
+     *  Timing one tick in this many slows a map of short roads down
+     *  by a few percent at most.
+     */
+    public static final int     SAMPLE_EVERY    = 64;
+
+    private final int           sampleEvery;
+    private int                 untilSample;
+    private Connection          timed[]         = new Connection[0];
+    private long                spent[]         = new long[0];
+    private double              average[]       = new double[0];
+    private long                samples;
+
+    /**
+     *  Make a profiler for {@code Simulation.setProfiler()}.
+     *  @param sampleEvery Time one tick in this many.  One times
+     *  them all.
+     */
+    public TickProfiler(int sampleEvery)
+    {
+        if (sampleEvery < 1) {
+            sampleEvery = 1;
+        }
+        this.sampleEvery = sampleEvery;
+        untilSample = 1;
+    }
+
+    /**
+     *  @return How often a tick is timed
+     */
+    public int  getSampleEvery()
+    {
+        return(sampleEvery);
+    }
+
+    /**
+     *  A tick is starting.  Only the ticking thread calls this.
+     *  @return Whether to time this one
+     */
+    boolean     starting()
+    {
+        if (--untilSample > 0) {
+            return(false);
+        }
+        untilSample = sampleEvery;
+
+        return(true);
+    }
+
+    /**
+     *  A timed tick of the given schedule is starting.  If it isn't
+     *  the one we were timing, start over.
+     *  @param schedule The compiled schedule about to tick
+     */
+    synchronized void   timing(Connection schedule[])
+    {
+        if (schedule != timed) {
+            timed = schedule;
+            spent = new long[schedule.length];
+            average = new double[schedule.length];
+            samples = 0;
+        }
+    }
+
+    /**
+     *  Part of a timed tick of one object is done.  Both phases of a
+     *  two-phase tick add up.
+     *  @param slot Where the object is in the schedule
+     *  @param nanos How long it took
+     */
+    void        spent(int slot, long nanos)
+    {
+        spent[slot] += nanos;
+    }
+
+    /**
+     *  A timed tick is done.  Fold it into the averages.
+     */
+    synchronized void   timed()
+    {
+        int     i;
+
+        for (i = 0; (i < spent.length); ++i) {
+            if (samples == 0) {
+                average[i] = spent[i];
+            } else {
+                average[i] += (spent[i] - average[i]) * WEIGHT;
+            }
+            spent[i] = 0;
+        }
+        ++samples;
+    }
+
+    /**
+     *  @return The number of ticks timed since the schedule was last
+     *  compiled
+     */
+    public synchronized long    getSamples()
+    {
+        return(samples);
+    }
+
+    /**
+     *  @return The number of objects in the schedule being timed
+     */
+    public synchronized int     getSlotCount()
+    {
+        return(timed.length);
+    }
+
+    /**
+     *  @param slot Where an object is in the schedule
+     *  @return What the object calls itself, like "Road 0 E1"
+     */
+    public synchronized String  nameOf(int slot)
+    {
+        return(String.valueOf(timed[slot]));
+    }
+
+    /**
+     *  @param slot Where an object is in the schedule
+     *  @return The decaying average of its time in nanoseconds
+     */
+    public synchronized double  averageNanos(int slot)
+    {
+        return(average[slot]);
+    }
+
+    /**
+     *  Find the objects that take the longest to tick.
+     *  @param count How many to find at most
+     *  @return Their slots in the schedule, slowest first
+     */
+    public synchronized int[]   top(int count)
+    {
+        int     i;
+        int     j;
+        int     found;
+        int     slot[];
+
+        count = Math.max(0, Math.min(count, timed.length));
+        slot = new int[count];
+        found = 0;
+        for (i = 0; (i < timed.length); ++i) {
+            /*
+             *  Insert it where it belongs among the slowest so far,
+             *  if it belongs there at all.
+             */
+            for (j = found; (j > 0) &&
+                            (average[slot[j - 1]] < average[i]); --j) {
+                if (j < count) {
+                    slot[j] = slot[j - 1];
+                }
+            }
+            if (j < count) {
+                slot[j] = i;
+                if (found < count) {
+                    ++found;
+                }
+            }
+        }
+
+        return(slot);
+    }
+
+    /**
+     *  Describe the objects that take the longest to tick, one to a
+     *  line, with their share of the time of a tick.
+     *  @param count How many to describe at most
+     *  @return The description
+     */
+    public synchronized String  report(int count)
+    {
+        int             i;
+        int             slot[];
+        double          total;
+        StringBuilder   text;
+
+        total = 0;
+        for (i = 0; (i < average.length); ++i) {
+            total += average[i];
+        }
+        text = new StringBuilder();
+        text.append(String.format("slowest of %d after %d timed ticks," +
+                                  " %.0f ns a tick:\n",
+                                  timed.length, samples, total));
+        slot = top(count);
+        for (i = 0; (i < slot.length); ++i) {
+            text.append(String.format("  %10.0f ns %5.1f%%  %s\n",
+                                      average[slot[i]],
+                                      (total > 0) ?
+                                        (100 * average[slot[i]] / total) :
+                                        0.0,
+                                      nameOf(slot[i])));
+        }
+
+        return(text.toString());
+    }
+
+    /**
+     *  Make something to add to a {@code Simulation}'s tick listeners
+     *  that prints our report now and then.
+     *  @param ticks Print it whenever the tick count is a multiple
+     *  of this
+     *  @param count How many objects to describe at most
+     *  @param out Where to print it
+     *  @return The listener
+     */
+    public Simulation.TickListener  reportEvery(long ticks, int count,
+                                                PrintStream out)
+    {
+        return(simulation -> {
+                if ((simulation.getTickCount() % ticks) == 0) {
+                    out.print("tick " + simulation.getTickCount() + " " +
+                              report(count));
+                }
+            });
+    }
+
+    /*
+     *  Make sure the slowest slots are the ones expected, in order.
+     */
+    private static int  checkTop(TickProfiler profiler, int expected[])
+    {
+        if (Arrays.equals(profiler.top(expected.length), expected) ==
+                                                                false) {
+            System.out.println("**** ERROR: top " + expected.length +
+                               " is " +
+                               Arrays.toString(profiler.top(
+                                                    expected.length)) +
+                               " not " + Arrays.toString(expected));
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Feed in known times, without a clock, and make sure the
+     *  averages, their order and the counts come out exactly.  The
+     *  times are chosen so every average is exact in a double.
+     */
+    private static int  testAverages()
+    {
+        int             i;
+        int             errors;
+        String          pattern;
+        TickProfiler    profiler;
+        Connection      schedule[];
+
+        errors = 0;
+        profiler = new TickProfiler(3);
+        pattern = "";
+        for (i = 0; (i < 9); ++i) {
+            pattern += (profiler.starting() == true) ? "T" : "-";
+        }
+        if (pattern.equals("T--T--T--") == false) {
+            System.out.println("**** ERROR: timed " + pattern);
+            ++errors;
+        }
+
+        schedule = new Connection[5];
+        profiler.timing(schedule);
+        if ((profiler.getSlotCount() != 5) ||
+            (profiler.getSamples() != 0) ||
+            (profiler.top(9).length != 5) ||
+            (profiler.top(0).length != 0)) {
+            System.out.println("**** ERROR: " + profiler.getSlotCount() +
+                               " slots and " + profiler.getSamples() +
+                               " samples before timing");
+            ++errors;
+        }
+
+        /*
+         *  The first timed tick is taken as it is.  Slot 2 ticks in
+         *  two phases, which add up.
+         */
+        profiler.spent(0, 100);
+        profiler.spent(1, 500);
+        profiler.spent(2, 150);
+        profiler.spent(2, 150);
+        profiler.spent(4, 200);
+        profiler.timed();
+        if ((profiler.averageNanos(2) != 300) ||
+            (profiler.getSamples() != 1)) {
+            System.out.println("**** ERROR: first average " +
+                               profiler.averageNanos(2));
+            ++errors;
+        }
+        errors += checkTop(profiler, new int[] {1, 2, 4, 0, 3});
+        errors += checkTop(profiler, new int[] {1, 2});
+
+        /*
+         *  After that each one counts for a sixteenth.  Slots 0 and 4
+         *  tie, and the earlier one comes first.
+         */
+        profiler.spent(0, 1700);
+        profiler.spent(1, 500);
+        profiler.spent(2, 300);
+        profiler.spent(3, 1600);
+        profiler.spent(4, 200);
+        profiler.timed();
+        if ((profiler.averageNanos(0) != 200) ||
+            (profiler.averageNanos(3) != 100) ||
+            (profiler.averageNanos(1) != 500) ||
+            (profiler.getSamples() != 2)) {
+            System.out.println("**** ERROR: averages " +
+                               profiler.averageNanos(0) + " and " +
+                               profiler.averageNanos(3) + " after two");
+            ++errors;
+        }
+        errors += checkTop(profiler, new int[] {1, 2, 0, 4, 3});
+
+        /*
+         *  What was spent was cleared, so a tick that spends nothing
+         *  just decays them all.
+         */
+        profiler.timed();
+        if ((profiler.averageNanos(1) != 468.75) ||
+            (profiler.averageNanos(3) != 93.75) ||
+            (profiler.getSamples() != 3)) {
+            System.out.println("**** ERROR: averages " +
+                               profiler.averageNanos(1) + " and " +
+                               profiler.averageNanos(3) +
+                               " after an empty tick");
+            ++errors;
+        }
+        if (profiler.report(2).startsWith("slowest of 5 after 3 timed" +
+                                          " ticks, 1219 ns a tick:\n") ==
+                                                                false) {
+            System.out.println("**** ERROR: report " +
+                               profiler.report(2));
+            ++errors;
+        }
+
+        /*
+         *  The same schedule keeps its averages.  Another one starts
+         *  over.
+         */
+        profiler.timing(schedule);
+        if (profiler.getSamples() != 3) {
+            System.out.println("**** ERROR: same schedule started over");
+            ++errors;
+        }
+        profiler.timing(new Connection[2]);
+        if ((profiler.getSlotCount() != 2) ||
+            (profiler.getSamples() != 0) ||
+            (profiler.averageNanos(0) != 0)) {
+            System.out.println("**** ERROR: new schedule didn't start" +
+                               " over");
+            ++errors;
+        }
+
+        return(errors);
+    }
+
+    /*
+     *  Run a map with one very long road between short ones and make
+     *  sure the long road's two lanes come out on top.  The times are
+     *  real, so the long road is far longer than it would need to be
+     *  on a quiet machine.
+     */
+    private static int  testLongRoad(boolean doubleBuffered)
+    {
+        int             i;
+        int             slot[];
+        Road            road[];
+        EdgeOfMap       edgeOfMap;
+        Simulation      simulation;
+        TickProfiler    profiler;
+
+        simulation = new Simulation(2026);
+        road = new Road[5];
+        for (i = 0; (i < road.length); ++i) {
+            road[i] = new Road(simulation, (i == 2) ? "Long" : "Road " + i,
+                               (i == 2) ? 100000 : 20, 1, 1,
+                               Road.LaneKind.DENSE);
+        }
+        edgeOfMap = new EdgeOfMap(simulation);
+        edgeOfMap.vehiclesGoTo(road[0], 'E', 0, 0);
+        edgeOfMap.vehiclesGoTo(road[road.length - 1], 'W', 0, 0);
+        for (i = 0; (i < (road.length - 1)); ++i) {
+            road[i].vehiclesGoTo(road[i + 1], 'E', 0, 0);
+            road[i + 1].vehiclesGoTo(road[i], 'W', 0, 0);
+        }
+        road[road.length - 1].vehiclesGoTo(edgeOfMap, 'E', 0, 0);
+        road[0].vehiclesGoTo(edgeOfMap, 'W', 0, 0);
+        simulation.setDoubleBuffered(doubleBuffered);
+
+        profiler = new TickProfiler(4);
+        simulation.setProfiler(profiler);
+        simulation.addTickListener(profiler.reportEvery(2000, 4,
+                                                        System.out));
+        System.out.println("doubleBuffered " + doubleBuffered);
+        for (i = 0; (i < 4000); ++i) {
+            simulation.tick();
+        }
+
+        slot = profiler.top(2);
+        if ((slot.length != 2) ||
+            (profiler.nameOf(slot[0]).startsWith("Long ") == false) ||
+            (profiler.nameOf(slot[1]).startsWith("Long ") == false)) {
+            System.out.println("**** ERROR: long road isn't slowest");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Make sure timed ticks move everything the same as the others,
+     *  on a pool too.
+     */
+    private static int  testSameTicks(boolean doubleBuffered)
+    {
+        int             i;
+        BatchRunner     runner;
+        BatchRunner     twin;
+
+        runner = new BatchRunner(6, 40, 2, 2, Road.LaneKind.DENSE, 2026,
+                                 EdgeOfMap.Arrivals.PER_TICK);
+        runner.getSimulation().setParallelism(2);
+        runner.getSimulation().setDoubleBuffered(doubleBuffered);
+        runner.run(100);
+        twin = runner.fork();
+        twin.getSimulation().setParallelism(2);
+        runner.getSimulation().setProfiler(new TickProfiler(3));
+        runner.run(3000);
+        twin.run(3000);
+        runner.getSimulation().setParallelism(1);
+        twin.getSimulation().setParallelism(1);
+
+        if (runner.getDelivered() != twin.getDelivered()) {
+            System.out.println("**** ERROR: profiling changed the" +
+                               " deliveries " + runner.getDelivered() +
+                               " != " + twin.getDelivered());
+            return(1);
+        }
+        for (i = 0; (i < runner.getRoads().length); ++i) {
+            if (Arrays.equals(runner.getRoads()[i].snapshot(),
+                              twin.getRoads()[i].snapshot()) == false) {
+                System.out.println("**** ERROR: profiling changed " +
+                                   runner.getRoads()[i].getName());
+                return(1);
+            }
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code TickProfiler} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     exitCode;
+
+        exitCode = 0;
+        exitCode += testAverages();
+        exitCode += testLongRoad(false);
+        exitCode += testLongRoad(true);
+        exitCode += testSameTicks(false);
+        exitCode += testSameTicks(true);
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
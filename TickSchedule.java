@@ -0,0 +1,1156 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  {@code TickSchedule} collects the ordering dependencies between
+ *  {@code Connection} objects while the map is being wired and
+ *  compiles them into a flat array that is ticked in order.
+ *  Registering a dependency is O(1).  The array is only rebuilt when
+ *  a dependency was registered since the last compile.
+ *  <p>
+ *  A dependency says one {@code Connection} must tick before another
+ *  one.  Traffic objects wired in a loop (a ring road, or roads that
+ *  start and end at the same {@code EdgeOfMap}) make cycles.  A cycle
+ *  is broken at the member that was registered most recently, which
+ *  is the order the old list-based {@code TickManager} ended up with.
+ *  <p>
+ *  Objects with no chain of dependencies between them can tick in
+ *  any order relative to each other.  The compiled array keeps each
+ *  such independent group together so that, given a
+ *  {@code ForkJoinPool}, the groups tick on several threads at once
+ *  while each group still ticks in exactly the sequential order.
+ *  <p>
+ *  In double-buffered mode every object ticks in two phases instead
+ *  (see {@code Connection}).  Order doesn't matter then, so the whole
+ *  array is cut into even pieces for the pool, groups or no groups.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+class TickSchedule {
+    private final IdentityHashMap<Connection, Integer>  nodeIndex   =
+                                            new IdentityHashMap<>();
+    private Connection          node[]          = new Connection[16];
+    private int                 placed[]        = new int[16];
+    private int                 nodeCount;
+    private int                 arcFrom[]       = new int[16];
+    private int                 arcTo[]         = new int[16];
+    private int                 arcCount;
+    private int                 registrations;
+    private Connection          schedule[]      = new Connection[0];
+    private int                 groupStart[]    = {0};
+    private boolean             dirty;
+    private ForkJoinPool        pool;
+    private int                 grain;
+    private boolean             doubleBuffered;
+    private long                tickCount;
+    private TickProfiler        profiler;
+
+    /*
+     *  This class ticks a run of whole independent groups, splitting
+     *  itself in two while the run is bigger than our grain.
+     */
+    private static class Stretch extends RecursiveAction {
+        private static final long   serialVersionUID        = 1L;
+
+        private final Connection    tocks[];
+        private final int           groupStart[];
+        private final int           firstGroup;
+        private final int           lastGroup;
+        private final int           grain;
+
+        Stretch(Connection tocks[], int groupStart[],
+                int firstGroup, int lastGroup, int grain)
+        {
+            this.tocks = tocks;
+            this.groupStart = groupStart;
+            this.firstGroup = firstGroup;
+            this.lastGroup = lastGroup;
+            this.grain = grain;
+        }
+
+        protected void  compute()
+        {
+            int     i;
+            int     first;
+            int     last;
+            int     middle;
+
+            first = groupStart[firstGroup];
+            last = groupStart[lastGroup];
+            if (((lastGroup - firstGroup) == 1) ||
+                ((last - first) <= grain)) {
+                /*
+                 *  Small enough.  Do it ourselves.
+                 */
+                for (i = first; (i < last); ++i) {
+                    tocks[i].tick();
+                }
+                return;
+            }
+
+            /*
+             *  Split where about half the Connections are on each
+             *  side, but always leave at least one group on each
+             *  side.
+             */
+            middle = Arrays.binarySearch(groupStart, firstGroup,
+                                         lastGroup,
+                                         first + ((last - first) / 2));
+            if (middle < 0) {
+                middle = -middle - 1;
+            }
+            if (middle <= firstGroup) {
+                middle = firstGroup + 1;
+            } else if (middle >= lastGroup) {
+                middle = lastGroup - 1;
+            }
+            invokeAll(new Stretch(tocks, groupStart,
+                                  firstGroup, middle, grain),
+                      new Stretch(tocks, groupStart,
+                                  middle, lastGroup, grain));
+        }
+    }
+
+    /*
+     *  Return the index of the given Connection, adding it if we
+     *  haven't seen it before.
+     */
+    private int indexOf(Connection connection)
+    {
+        Integer     index;
+
+        index = nodeIndex.get(connection);
+        if (index != null) {
+            return(index);
+        }
+
+        if (nodeCount == node.length) {
+            node = Arrays.copyOf(node, nodeCount * 2);
+            placed = Arrays.copyOf(placed, nodeCount * 2);
+        }
+        node[nodeCount] = connection;
+        placed[nodeCount] = 0;
+        nodeIndex.put(connection, nodeCount);
+
+        return(nodeCount++);
+    }
+
+    /**
+     *  Register {@code toAdd} to be ticked before {@code before}.
+     *  Only objects registered as {@code toAdd} get ticked; an object
+     *  that only ever shows up as {@code before} just orders others.
+     *  @param toAdd The {@code Connection} object to tick.
+     *  @param before The {@code Connection} object that must tick
+     *  after {@code toAdd}, or {@code null}.
+     */
+    public void register(Connection toAdd, Connection before)
+    {
+        int     from;
+
+        from = indexOf(toAdd);
+        placed[from] = ++registrations;
+        dirty = true;
+
+        if (before == null) {
+            return;
+        }
+
+        if (arcCount == arcFrom.length) {
+            arcFrom = Arrays.copyOf(arcFrom, arcCount * 2);
+            arcTo = Arrays.copyOf(arcTo, arcCount * 2);
+        }
+        arcFrom[arcCount] = from;
+        arcTo[arcCount] = indexOf(before);
+        ++arcCount;
+    }
+
+    /**
+     *  @return The number of {@code Connection} objects being ticked.
+     */
+    public int  size()
+    {
+        return(getSchedule().length);
+    }
+
+    /**
+     *  Return the compiled schedule, compiling it first if any
+     *  dependency was registered since the last time.
+     *  The caller must not modify the array.
+     *  @return The {@code Connection} objects in the order they tick.
+     */
+    Connection[]        getSchedule()
+    {
+        if (dirty == true) {
+            compile();
+        }
+
+        return(schedule);
+    }
+
+    /*
+     *  This class runs one phase of a two-phase tick over a piece of
+     *  the schedule, splitting itself in two while the piece is bigger
+     *  than our grain.
+     */
+    private static class Phase extends RecursiveAction {
+        private static final long   serialVersionUID        = 1L;
+
+        private final Connection    tocks[];
+        private final int           first;
+        private final int           last;
+        private final int           grain;
+        private final boolean       swap;
+
+        Phase(Connection tocks[], int first, int last, int grain,
+              boolean swap)
+        {
+            this.tocks = tocks;
+            this.first = first;
+            this.last = last;
+            this.grain = grain;
+            this.swap = swap;
+        }
+
+        protected void  compute()
+        {
+            int     middle;
+
+            if ((last - first) <= grain) {
+                runPhase(tocks, first, last, swap);
+                return;
+            }
+
+            middle = first + ((last - first) / 2);
+            invokeAll(new Phase(tocks, first, middle, grain, swap),
+                      new Phase(tocks, middle, last, grain, swap));
+        }
+    }
+
+    /*
+     *  Run one phase of a two-phase tick over part of the schedule.
+     */
+    private static void runPhase(Connection tocks[], int first, int last,
+                                 boolean swap)
+    {
+        int     i;
+
+        if (swap == true) {
+            for (i = first; (i < last); ++i) {
+                tocks[i].swapBuffers();
+            }
+        } else {
+            for (i = first; (i < last); ++i) {
+                tocks[i].computeNext();
+            }
+        }
+    }
+
+    /**
+     *  @return The number of groups of {@code Connection} objects that
+     *  are independent of each other.
+     */
+    public int  groupCount()
+    {
+        getSchedule();
+
+        return(groupStart.length - 1);
+    }
+
+    /**
+     *  Tick the independent groups on the given pool instead of on the
+     *  calling thread.
+     *  @param pool The pool to tick on or {@code null} to tick
+     *  sequentially.
+     *  @param grain Runs of groups with no more than this many
+     *  {@code Connection} objects are ticked by a single task.
+     */
+    public void setParallel(ForkJoinPool pool, int grain)
+    {
+        this.pool = pool;
+        if (grain < 1) {
+            grain = 1;
+        }
+        this.grain = grain;
+    }
+
+    /**
+     *  Tick in two phases from now on, or go back to ticking in place.
+     *  @param doubleBuffered Whether to tick in two phases.
+     */
+    public void setDoubleBuffered(boolean doubleBuffered)
+    {
+        this.doubleBuffered = doubleBuffered;
+    }
+
+    /**
+     *  @return Whether the ticks are in two phases
+     */
+    public boolean      isDoubleBuffered()
+    {
+        return(doubleBuffered);
+    }
+
+    /**
+     *  Time every object now and then from now on, or stop.
+     *  @param profiler Who keeps the times, or {@code null}
+     */
+    void        setProfiler(TickProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
+    /**
+     *  @return Who keeps the times, or {@code null}
+     */
+    TickProfiler        getProfiler()
+    {
+        return(profiler);
+    }
+
+    /**
+     *  @return The number of ticks started so far, which is the
+     *  number of the tick in progress during a tick
+     */
+    public long getTickCount()
+    {
+        return(tickCount);
+    }
+
+    /**
+     *  Make this empty schedule a copy of another one for a fork:
+     *  every object in it is forked and then pointed at the others'
+     *  copies, and the compiled order is kept.
+     *  @param parent The schedule to copy
+     *  @param child The {@code Simulation} we belong to
+     *  @param twins Where every object and its copy go
+     */
+    void        forkFrom(TickSchedule parent, Simulation child,
+                         Map<Object, Object> twins)
+    {
+        int     i;
+
+        node = new Connection[parent.node.length];
+        for (i = 0; (i < parent.nodeCount); ++i) {
+            node[i] = parent.node[i].fork(child, twins);
+        }
+        for (i = 0; (i < parent.nodeCount); ++i) {
+            node[i].rewire(twins);
+            nodeIndex.put(node[i], i);
+        }
+        nodeCount = parent.nodeCount;
+        placed = parent.placed.clone();
+        arcFrom = parent.arcFrom.clone();
+        arcTo = parent.arcTo.clone();
+        arcCount = parent.arcCount;
+        registrations = parent.registrations;
+
+        schedule = new Connection[parent.schedule.length];
+        for (i = 0; (i < schedule.length); ++i) {
+            schedule[i] = node[parent.nodeIndex.get(parent.schedule[i])];
+        }
+        groupStart = parent.groupStart.clone();
+        dirty = parent.dirty;
+        grain = parent.grain;
+        doubleBuffered = parent.doubleBuffered;
+        tickCount = parent.tickCount;
+    }
+
+    /*
+     *  Return how many vehicles each object has room for, in the
+     *  order we first heard of them.
+     */
+    private int[]       slotCounts()
+    {
+        int     i;
+        int     slots[];
+
+        slots = new int[nodeCount];
+        for (i = 0; (i < nodeCount); ++i) {
+            slots[i] = node[i].slotCount();
+        }
+
+        return(slots);
+    }
+
+    /**
+     *  Write the dependencies as they were registered and the size of
+     *  every {@code Connection} object, in the order we first heard of
+     *  them.
+     *  @param out Where to write it
+     *  @throws IOException If it can't be written
+     */
+    void        saveWiring(Checkpoint.Writer out) throws IOException
+    {
+        out.putInt(nodeCount);
+        out.putInt(arcCount);
+        out.putInts(arcFrom, 0, arcCount);
+        out.putInts(arcTo, 0, arcCount);
+        out.putInts(slotCounts(), 0, nodeCount);
+    }
+
+    /**
+     *  Read back what {@code saveWiring()} wrote and make sure the
+     *  objects here were wired up the same way and are the same size.
+     *  Nothing is changed.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read or the wiring differs
+     */
+    void        checkWiring(Checkpoint.Reader in) throws IOException
+    {
+        int     saved[];
+
+        if ((in.getInt() != nodeCount) || (in.getInt() != arcCount)) {
+            throw new IOException("checkpoint is for a different map");
+        }
+        saved = new int[Math.max(arcCount, nodeCount)];
+        in.getInts(saved, 0, arcCount);
+        if (Arrays.equals(saved, 0, arcCount,
+                          arcFrom, 0, arcCount) == false) {
+            throw new IOException("checkpoint is for a different map");
+        }
+        in.getInts(saved, 0, arcCount);
+        if (Arrays.equals(saved, 0, arcCount,
+                          arcTo, 0, arcCount) == false) {
+            throw new IOException("checkpoint is for a different map");
+        }
+        in.getInts(saved, 0, nodeCount);
+        if (Arrays.equals(saved, 0, nodeCount,
+                          slotCounts(), 0, nodeCount) == false) {
+            throw new IOException("checkpoint has lanes of different" +
+                                  " lengths");
+        }
+    }
+
+    /**
+     *  Write the tick count and the state of every {@code Connection}
+     *  object, in the order we first heard of them.
+     *  @param out Where to write it
+     *  @throws IOException If it can't be written
+     */
+    void        save(Checkpoint.Writer out) throws IOException
+    {
+        int     i;
+
+        out.putLong(tickCount);
+        for (i = 0; (i < nodeCount); ++i) {
+            node[i].save(out);
+        }
+    }
+
+    /**
+     *  Read back what {@code save()} wrote, after
+     *  {@code checkWiring()} has made sure it fits.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read
+     */
+    void        restore(Checkpoint.Reader in) throws IOException
+    {
+        int     i;
+
+        tickCount = in.getLong();
+        for (i = 0; (i < nodeCount); ++i) {
+            node[i].restore(in);
+        }
+    }
+
+    /**
+     *  Tick everything in the compiled order.
+     */
+    public void tick()
+    {
+        Connection  tocks[];
+        int         i;
+
+        tocks = getSchedule();
+        ++tickCount;
+        if ((profiler != null) && (profiler.starting() == true)) {
+            profile(tocks);
+            return;
+        }
+        if (doubleBuffered == true) {
+            if ((pool != null) && (tocks.length > grain)) {
+                pool.invoke(new Phase(tocks, 0, tocks.length, grain,
+                                      false));
+                pool.invoke(new Phase(tocks, 0, tocks.length, grain,
+                                      true));
+            } else {
+                runPhase(tocks, 0, tocks.length, false);
+                runPhase(tocks, 0, tocks.length, true);
+            }
+            return;
+        }
+
+        if ((pool != null) && (groupStart.length > 2) &&
+            (tocks.length > grain)) {
+            /*
+             *  There's enough independent work to share.
+             */
+            pool.invoke(new Stretch(tocks, groupStart, 0,
+                                    groupStart.length - 1, grain));
+            return;
+        }
+
+        for (i = 0; (i < tocks.length); ++i) {
+            tocks[i].tick();
+        }
+    }
+
+    /*
+     *  Tick everything in the compiled order on this thread, reading
+     *  the clock between every two objects.  Sequential order is
+     *  always a good one, in either mode.
+     */
+    private void        profile(Connection tocks[])
+    {
+        int     i;
+        long    before;
+        long    after;
+
+        profiler.timing(tocks);
+        before = System.nanoTime();
+        if (doubleBuffered == true) {
+            for (i = 0; (i < tocks.length); ++i) {
+                tocks[i].computeNext();
+                after = System.nanoTime();
+                profiler.spent(i, after - before);
+                before = after;
+            }
+            for (i = 0; (i < tocks.length); ++i) {
+                tocks[i].swapBuffers();
+                after = System.nanoTime();
+                profiler.spent(i, after - before);
+                before = after;
+            }
+        } else {
+            for (i = 0; (i < tocks.length); ++i) {
+                tocks[i].tick();
+                after = System.nanoTime();
+                profiler.spent(i, after - before);
+                before = after;
+            }
+        }
+        profiler.timed();
+    }
+
+    /**
+     *  Sort the registered dependencies into a flat array.
+     *  Strongly connected components are found first and laid out in
+     *  dependency order.  Inside a component with a cycle the usual
+     *  topological sort is run and, whenever it gets stuck, the most
+     *  recently registered member still waiting is let go first.
+     */
+    public void compile()
+    {
+        int     i;
+        int     j;
+        int     arc;
+        int     count;
+        int     outStart[];
+        int     outArc[];
+        int     fill[];
+        int     component[];
+        int     order[];
+        int     componentStart[];
+        int     componentCount;
+        int     inDegree[];
+        int     ready[];
+        int     sorted[];
+        boolean done[];
+        long    latest[];
+
+        /*
+         *  Build a compact adjacency list of the arcs between objects
+         *  that actually tick.
+         */
+        outStart = new int[nodeCount + 1];
+        for (arc = 0; (arc < arcCount); ++arc) {
+            if ((placed[arcFrom[arc]] > 0) && (placed[arcTo[arc]] > 0) &&
+                (arcFrom[arc] != arcTo[arc])) {
+                ++outStart[arcFrom[arc] + 1];
+            }
+        }
+        for (i = 0; (i < nodeCount); ++i) {
+            outStart[i + 1] += outStart[i];
+        }
+        outArc = new int[outStart[nodeCount]];
+        fill = Arrays.copyOf(outStart, nodeCount);
+        for (arc = 0; (arc < arcCount); ++arc) {
+            if ((placed[arcFrom[arc]] > 0) && (placed[arcTo[arc]] > 0) &&
+                (arcFrom[arc] != arcTo[arc])) {
+                outArc[fill[arcFrom[arc]]++] = arcTo[arc];
+            }
+        }
+
+        /*
+         *  Group the nodes into strongly connected components listed
+         *  in the order they must tick.
+         */
+        component = new int[nodeCount];
+        order = new int[nodeCount];
+        componentStart = new int[nodeCount + 1];
+        componentCount = stronglyConnect(outStart, outArc, component,
+                                         order, componentStart);
+
+        /*
+         *  Count the arcs coming into each node from inside its own
+         *  component.  Arcs from other components are already
+         *  satisfied by the order of the components.
+         */
+        inDegree = new int[nodeCount];
+        for (i = 0; (i < nodeCount); ++i) {
+            for (j = outStart[i]; (j < outStart[i + 1]); ++j) {
+                if (component[outArc[j]] == component[i]) {
+                    ++inDegree[outArc[j]];
+                }
+            }
+        }
+
+        sorted = new int[componentStart[componentCount]];
+        count = 0;
+        ready = new int[nodeCount];
+        done = new boolean[nodeCount];
+        for (i = 0; (i < componentCount); ++i) {
+            int     first;
+            int     last;
+            int     head;
+            int     tail;
+            int     nextLatest;
+
+            first = componentStart[i];
+            last = componentStart[i + 1];
+            if ((last - first) == 1) {
+                /*
+                 *  Nothing to sort.
+                 */
+                sorted[count++] = order[first];
+                continue;
+            }
+
+            /*
+             *  Keep the members sorted by when they were registered,
+             *  newest last, in case we have to break a cycle.  The
+             *  registration number fits in the high half and the
+             *  node index in the low half.
+             */
+            latest = new long[last - first];
+            for (j = first; (j < last); ++j) {
+                latest[j - first] = ((long)placed[order[j]] << 32) |
+                                    order[j];
+            }
+            Arrays.sort(latest);
+            nextLatest = latest.length - 1;
+
+            Arrays.sort(order, first, last);
+            head = 0;
+            tail = 0;
+            for (j = first; (j < last); ++j) {
+                if (inDegree[order[j]] == 0) {
+                    ready[tail++] = order[j];
+                    done[order[j]] = true;
+                }
+            }
+
+            while (count < last) {
+                int     which;
+
+                if (head == tail) {
+                    /*
+                     *  Everybody left is waiting on somebody else.
+                     *  Let the most recently registered one go.
+                     */
+                    while (done[(int)latest[nextLatest]] == true) {
+                        --nextLatest;
+                    }
+                    which = (int)latest[nextLatest];
+                    ready[tail++] = which;
+                    done[which] = true;
+                }
+
+                which = ready[head++];
+                sorted[count++] = which;
+                for (j = outStart[which]; (j < outStart[which + 1]); ++j) {
+                    int     to;
+
+                    to = outArc[j];
+                    if ((component[to] != i) || (done[to] == true)) {
+                        continue;
+                    }
+                    if (--inDegree[to] == 0) {
+                        ready[tail++] = to;
+                        done[to] = true;
+                    }
+                }
+            }
+        }
+
+        group(outStart, outArc, sorted);
+        dirty = false;
+    }
+
+    /*
+     *  Split the sorted nodes into groups with no arcs between them
+     *  and lay the groups out one after the other without changing
+     *  the order inside any group.
+     */
+    private void group(int outStart[], int outArc[], int sorted[])
+    {
+        int     i;
+        int     j;
+        int     groups;
+        int     root[];
+        int     groupOf[];
+        int     fill[];
+        Connection      compiled[];
+
+        /*
+         *  Union-find over the arcs.
+         */
+        root = new int[nodeCount];
+        for (i = 0; (i < nodeCount); ++i) {
+            root[i] = i;
+        }
+        for (i = 0; (i < nodeCount); ++i) {
+            for (j = outStart[i]; (j < outStart[i + 1]); ++j) {
+                int     a;
+                int     b;
+
+                a = findRoot(root, i);
+                b = findRoot(root, outArc[j]);
+                if (a != b) {
+                    root[a] = b;
+                }
+            }
+        }
+
+        /*
+         *  Number the groups in the order they first show up and
+         *  count how big each one is.
+         */
+        groupOf = new int[nodeCount];
+        Arrays.fill(groupOf, -1);
+        fill = new int[sorted.length + 1];
+        groups = 0;
+        for (i = 0; (i < sorted.length); ++i) {
+            int     r;
+
+            r = findRoot(root, sorted[i]);
+            if (groupOf[r] < 0) {
+                groupOf[r] = groups++;
+            }
+            ++fill[groupOf[r] + 1];
+        }
+        for (i = 0; (i < groups); ++i) {
+            fill[i + 1] += fill[i];
+        }
+        groupStart = Arrays.copyOf(fill, groups + 1);
+
+        /*
+         *  Deal the nodes into their groups in order.
+         */
+        compiled = new Connection[sorted.length];
+        for (i = 0; (i < sorted.length); ++i) {
+            compiled[fill[groupOf[findRoot(root, sorted[i])]]++] =
+                                                        node[sorted[i]];
+        }
+        schedule = compiled;
+    }
+
+    /*
+     *  Find the root of a union-find tree, halving the path as we go.
+     */
+    private static int  findRoot(int root[], int which)
+    {
+        while (root[which] != which) {
+            root[which] = root[root[which]];
+            which = root[which];
+        }
+
+        return(which);
+    }
+
+    /*
+     *  Find the strongly connected components of the ticking nodes
+     *  using Tarjan's algorithm without recursion, since a long chain
+     *  of lanes would overflow the stack.  Tarjan finds components
+     *  with nothing after them first, so we fill order[] and
+     *  componentStart[] from the back to get them in tick order.
+     *  Returns the number of components.
+     */
+    private int stronglyConnect(int outStart[], int outArc[],
+                                int component[], int order[],
+                                int componentStart[])
+    {
+        int     i;
+        int     index;
+        int     found;
+        int     filled;
+        int     ticking;
+        int     lowLink[];
+        int     visit[];
+        int     nextArc[];
+        int     stack[];
+        int     stackTop;
+        int     call[];
+        int     callTop;
+        boolean onStack[];
+
+        lowLink = new int[nodeCount];
+        visit = new int[nodeCount];
+        nextArc = new int[nodeCount];
+        stack = new int[nodeCount];
+        call = new int[nodeCount];
+        onStack = new boolean[nodeCount];
+        Arrays.fill(component, -1);
+        index = 0;
+        found = 0;
+        stackTop = 0;
+
+        /*
+         *  Count the ticking nodes so we know where the back is.
+         */
+        ticking = 0;
+        for (i = 0; (i < nodeCount); ++i) {
+            if (placed[i] > 0) {
+                ++ticking;
+            }
+        }
+        filled = ticking;
+
+        for (i = 0; (i < nodeCount); ++i) {
+            if ((placed[i] == 0) || (visit[i] != 0)) {
+                continue;
+            }
+
+            callTop = 0;
+            call[callTop++] = i;
+            visit[i] = ++index;
+            lowLink[i] = index;
+            nextArc[i] = outStart[i];
+            stack[stackTop++] = i;
+            onStack[i] = true;
+
+            while (callTop > 0) {
+                int     at;
+
+                at = call[callTop - 1];
+                if (nextArc[at] < outStart[at + 1]) {
+                    int     to;
+
+                    to = outArc[nextArc[at]++];
+                    if (visit[to] == 0) {
+                        /*
+                         *  Go deeper.
+                         */
+                        visit[to] = ++index;
+                        lowLink[to] = index;
+                        nextArc[to] = outStart[to];
+                        stack[stackTop++] = to;
+                        onStack[to] = true;
+                        call[callTop++] = to;
+                    } else if ((onStack[to] == true) &&
+                               (visit[to] < lowLink[at])) {
+                        lowLink[at] = visit[to];
+                    }
+                    continue;
+                }
+
+                /*
+                 *  Done with this node's arcs.  Pass our low link
+                 *  back to the caller.
+                 */
+                --callTop;
+                if ((callTop > 0) &&
+                    (lowLink[at] < lowLink[call[callTop - 1]])) {
+                    lowLink[call[callTop - 1]] = lowLink[at];
+                }
+
+                if (lowLink[at] == visit[at]) {
+                    int     member;
+
+                    /*
+                     *  at is the root of a component.  Pop it.
+                     */
+                    do {
+                        member = stack[--stackTop];
+                        onStack[member] = false;
+                        component[member] = found;
+                        order[--filled] = member;
+                    } while (member != at);
+                    componentStart[found++] = filled;
+                }
+            }
+        }
+
+        /*
+         *  componentStart[] was filled in the order the components
+         *  were found, which is backwards.  Reverse it, and number
+         *  the components the same way.
+         */
+        for (i = 0; (i < nodeCount); ++i) {
+            if (component[i] >= 0) {
+                component[i] = found - component[i] - 1;
+            }
+        }
+        for (i = 0; (i < (found / 2)); ++i) {
+            int     temp;
+
+            temp = componentStart[i];
+            componentStart[i] = componentStart[found - i - 1];
+            componentStart[found - i - 1] = temp;
+        }
+        componentStart[found] = ticking;
+
+        return(found);
+    }
+
+    /*
+     *  A stand-in for a lane that just remembers when it ticked.
+     */
+    private static class Tock implements Connection {
+        private final String    name;
+        private final int       ticked[];
+        private final int       position;
+
+        Tock(String name, int ticked[], int position)
+        {
+            this.name = name;
+            this.ticked = ticked;
+            this.position = position;
+        }
+
+        public int      takeVehicle()
+        {
+            return(VehicleTable.NONE);
+        }
+
+        public void     tick()
+        {
+            ticked[position] = ++ticked[ticked.length - 1];
+        }
+
+        public Connection       fork(Simulation child,
+                                     Map<Object, Object> twins)
+        {
+            Tock    twin;
+
+            twin = new Tock(name, ticked, position);
+            twins.put(this, twin);
+
+            return(twin);
+        }
+
+        public void     rewire(Map<Object, Object> twins)
+        {
+        }
+
+        public String   toString()
+        {
+            return(name);
+        }
+    }
+
+    /*
+     *  Complain if first didn't tick before second.
+     */
+    private static int  checkBefore(int ticked[], Connection tock[],
+                                    int first, int second)
+    {
+        if (ticked[first] < ticked[second]) {
+            return(0);
+        }
+
+        System.out.println("**** ERROR: " + tock[first] +
+                           " should tick before " + tock[second]);
+        return(1);
+    }
+
+    /**
+     *  Performs a unit test on the {@code TickSchedule} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             exitCode;
+        int             i;
+        int             lanes;
+        int             groups;
+        int             ticked[];
+        int             groupTicked[][];
+        int             sequential[][];
+        ForkJoinPool    pool;
+        Connection      tock[];
+        Connection      compiled[];
+        TickSchedule    schedule;
+        long            start;
+
+        exitCode = 0;
+
+        /*
+         *  A straight chain: c takes from b which takes from a, so
+         *  c must tick first.
+         */
+        ticked = new int[4];
+        tock = new Connection[3];
+        for (i = 0; (i < tock.length); ++i) {
+            tock[i] = new Tock("" + (char)('a' + i), ticked, i);
+        }
+        schedule = new TickSchedule();
+        schedule.register(tock[1], tock[0]);
+        schedule.register(tock[2], tock[1]);
+        schedule.register(tock[0], null);
+        schedule.tick();
+        exitCode += checkBefore(ticked, tock, 2, 1);
+        exitCode += checkBefore(ticked, tock, 1, 0);
+
+        /*
+         *  The two-road map from MapComponent: an edge of the map
+         *  feeding west road lane 0 (index 1) feeding east road
+         *  lane 0 (index 2) feeding the edge again, and the same
+         *  thing in the other direction with indices 3 and 4.  This
+         *  is registered the way Road and EdgeOfMap do it.
+         */
+        ticked = new int[6];
+        tock = new Connection[5];
+        tock[0] = new Tock("edge", ticked, 0);
+        tock[1] = new Tock("west NE", ticked, 1);
+        tock[2] = new Tock("east NE", ticked, 2);
+        tock[3] = new Tock("east SW", ticked, 3);
+        tock[4] = new Tock("west SW", ticked, 4);
+        schedule = new TickSchedule();
+        schedule.register(tock[1], tock[0]);
+        schedule.register(tock[2], tock[1]);
+        schedule.register(tock[0], tock[2]);
+        schedule.register(tock[3], tock[0]);
+        schedule.register(tock[4], tock[3]);
+        schedule.register(tock[0], tock[4]);
+        schedule.tick();
+        System.out.println("cycle order: " +
+                           Arrays.toString(schedule.getSchedule()));
+        exitCode += checkBefore(ticked, tock, 0, 2);
+        exitCode += checkBefore(ticked, tock, 2, 1);
+        exitCode += checkBefore(ticked, tock, 0, 4);
+        exitCode += checkBefore(ticked, tock, 4, 3);
+
+        /*
+         *  Make sure the schedule is only rebuilt when something
+         *  changes.
+         */
+        compiled = schedule.getSchedule();
+        schedule.tick();
+        if (compiled != schedule.getSchedule()) {
+            System.out.println("**** ERROR: schedule rebuilt" +
+                               " without a change");
+            ++exitCode;
+        }
+        schedule.register(new Tock("extra", new int[2], 0), null);
+        if ((compiled == schedule.getSchedule()) ||
+            (schedule.size() != 6)) {
+            System.out.println("**** ERROR: schedule not rebuilt" +
+                               " after a change");
+            ++exitCode;
+        }
+
+        /*
+         *  Something only used as "before" is never ticked.
+         */
+        ticked = new int[3];
+        tock = new Connection[2];
+        tock[0] = new Tock("ticker", ticked, 0);
+        tock[1] = new Tock("source", ticked, 1);
+        schedule = new TickSchedule();
+        schedule.register(tock[0], tock[1]);
+        schedule.tick();
+        if ((ticked[1] != 0) || (schedule.size() != 1)) {
+            System.out.println("**** ERROR: unregistered object ticked");
+            ++exitCode;
+        }
+
+        /*
+         *  A long chain with a cycle through the edge of the map
+         *  should wire and compile quickly and come out downstream
+         *  first.
+         */
+        lanes = 100000;
+        ticked = new int[lanes + 2];
+        tock = new Connection[lanes + 1];
+        for (i = 0; (i <= lanes); ++i) {
+            tock[i] = new Tock("lane " + i, ticked, i);
+        }
+        schedule = new TickSchedule();
+        start = System.nanoTime();
+        schedule.register(tock[1], tock[0]);
+        for (i = 2; (i <= lanes); ++i) {
+            schedule.register(tock[i], tock[i - 1]);
+        }
+        schedule.register(tock[0], tock[lanes]);
+        schedule.compile();
+        System.out.printf("wired and compiled %d lanes in %.1f ms\n",
+                          lanes, (System.nanoTime() - start) / 1e6);
+        schedule.tick();
+        exitCode += checkBefore(ticked, tock, 0, lanes);
+        for (i = lanes; (i > 1); --i) {
+            if (ticked[i] > ticked[i - 1]) {
+                exitCode += checkBefore(ticked, tock, i, i - 1);
+                break;
+            }
+        }
+
+        /*
+         *  Lots of independent chains ticked on several threads must
+         *  each tick in the same order as they do on one thread.
+         */
+        groups = 64;
+        lanes = 50;
+        groupTicked = new int[groups][];
+        sequential = new int[groups][];
+        schedule = new TickSchedule();
+        for (i = 0; (i < groups); ++i) {
+            int     j;
+
+            groupTicked[i] = new int[lanes + 1];
+            tock = new Connection[lanes];
+            for (j = 0; (j < lanes); ++j) {
+                tock[j] = new Tock("group " + i + " lane " + j,
+                                   groupTicked[i], j);
+            }
+            schedule.register(tock[0], null);
+            for (j = 1; (j < lanes); ++j) {
+                schedule.register(tock[j], tock[j - 1]);
+            }
+        }
+        if (schedule.groupCount() != groups) {
+            System.out.println("**** ERROR: found " +
+                               schedule.groupCount() + " groups instead" +
+                               " of " + groups);
+            ++exitCode;
+        }
+        schedule.tick();
+        for (i = 0; (i < groups); ++i) {
+            sequential[i] = groupTicked[i].clone();
+            Arrays.fill(groupTicked[i], 0);
+        }
+        pool = new ForkJoinPool(4);
+        schedule.setParallel(pool, 1);
+        schedule.tick();
+        pool.shutdown();
+        for (i = 0; (i < groups); ++i) {
+            if (Arrays.equals(sequential[i], groupTicked[i]) == false) {
+                System.out.println("**** ERROR: group " + i +
+                                   " ticked in a different order on" +
+                                   " several threads");
+                ++exitCode;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
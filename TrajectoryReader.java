@@ -0,0 +1,509 @@
+package traffic;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code TrajectoryReader} finds where vehicles went in a file
+ *  written by {@code TrajectoryRecorder}.  The index at the end of
+ *  the file is sorted by vehicle, so finding a vehicle is a binary
+ *  search of the index, reading a few bytes each step, and then one
+ *  read of just that vehicle's events.  Besides where it went we
+ *  have the slot it came into each lane at and when it was stopped,
+ *  so we know its slot on every tick too.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class TrajectoryReader implements Closeable {
+    private final FileChannel   channel;
+    private final long          firstTick;
+    private final String        roadName[];
+    private final char          heading[];
+    private final int           laneNumber[];
+    private final int           length[];
+    private final long          indexAt;
+    private final long          vehicleCount;
+    private final ByteBuffer    entry           = ByteBuffer.allocate(16);
+
+    /**
+     *  Where one vehicle went: every lane it came into and, if it did,
+     *  when it left the map, in order, and every time it was stopped.
+     */
+    public static final class   Trajectory {
+        private final long      identifier;
+        private final long      tick[];
+        private final int       lane[];
+        private final int       slot[];
+        private final long      moved[];
+        private final int       stopped[];
+        private final int       length[];
+
+        Trajectory(long identifier, long tick[], int lane[], int slot[],
+                   long moved[], int stopped[], int length[])
+        {
+            this.identifier = identifier;
+            this.tick = tick;
+            this.lane = lane;
+            this.slot = slot;
+            this.moved = moved;
+            this.stopped = stopped;
+            this.length = length;
+        }
+
+        /**
+         *  @return The identifier of the vehicle
+         */
+        public long     getIdentifier()
+        {
+            return(identifier);
+        }
+
+        /**
+         *  @return The number of events
+         */
+        public int      getCount()
+        {
+            return(tick.length);
+        }
+
+        /**
+         *  @param event Which event
+         *  @return The tick it happened on
+         */
+        public long     getTick(int event)
+        {
+            return(tick[event]);
+        }
+
+        /**
+         *  @param event Which event
+         *  @return The lane the vehicle came into or -1 if it left
+         *  the map
+         */
+        public int      getLane(int event)
+        {
+            return(lane[event]);
+        }
+
+        /**
+         *  @param event Which event
+         *  @return The slot the vehicle came into its lane at, counting
+         *  from the incoming end, or -1 if it left the map
+         */
+        public int      getSlot(int event)
+        {
+            return(slot[event]);
+        }
+
+        /**
+         *  @param when A tick of the simulation
+         *  @return The lane the vehicle was in after that tick or -1
+         *  if it wasn't on the roads recorded
+         */
+        public int      laneAt(long when)
+        {
+            int     event;
+
+            event = eventAt(when);
+            if (event < 0) {
+                return(-1);
+            }
+
+            return(lane[event]);
+        }
+
+        /**
+         *  @param when A tick of the simulation
+         *  @return The slot the vehicle was in after that tick,
+         *  counting from the incoming end of its lane, or -1 if it
+         *  wasn't on the roads recorded
+         */
+        public int      positionAt(long when)
+        {
+            int     i;
+            int     event;
+            long    position;
+            long    from;
+            long    to;
+
+            event = eventAt(when);
+            if ((event < 0) || (lane[event] < 0)) {
+                return(-1);
+            }
+
+            /*
+             *  It moved up a slot on every tick since it came in,
+             *  except the ones it was stopped on.  The oldest vehicle
+             *  waiting to leave is in the last slot, and nobody tells
+             *  us when it stops there.
+             */
+            position = slot[event] + (when - tick[event]);
+            for (i = 0; (i < moved.length); ++i) {
+                from = Math.max(moved[i] - stopped[i], tick[event] + 1);
+                to = Math.min(moved[i] - 1, when);
+                if (from <= to) {
+                    position -= to - from + 1;
+                }
+            }
+
+            return((int)Math.min(position, length[lane[event]] - 1));
+        }
+
+        /*
+         *  Find the last event on or before a tick, or -1 if there
+         *  isn't one.
+         */
+        private int     eventAt(long when)
+        {
+            int     low;
+            int     high;
+
+            /*
+             *  Find the last event on or before the tick.
+             */
+            low = 0;
+            high = tick.length;
+            while (low < high) {
+                int     middle;
+
+                middle = (low + high) >>> 1;
+                if (tick[middle] <= when) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return(low - 1);
+        }
+    }
+
+    /**
+     *  Open a recording.
+     *  @param file The file {@code TrajectoryRecorder} wrote
+     *  @throws IOException If the file can't be read or isn't a
+     *  finished recording
+     */
+    public TrajectoryReader(Path file) throws IOException
+    {
+        int         i;
+        int         lanes;
+        ByteBuffer  header;
+        ByteBuffer  trailer;
+
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            header = ByteBuffer.allocate(12);
+            readFully(header, 0);
+            if ((header.getInt() != TrajectoryRecorder.MAGIC) ||
+                (header.getInt() != TrajectoryRecorder.VERSION)) {
+                throw new IOException(file + " isn't a trajectory" +
+                                      " recording");
+            }
+            i = header.getInt();
+            if ((i < 0) || (i > (channel.size() - 32))) {
+                throw new IOException(file + " has a broken header");
+            }
+            header = ByteBuffer.allocate(i);
+            readFully(header, 12);
+            firstTick = header.getLong();
+            lanes = header.getInt();
+            roadName = new String[lanes];
+            heading = new char[lanes];
+            laneNumber = new int[lanes];
+            length = new int[lanes];
+            for (i = 0; (i < lanes); ++i) {
+                roadName[i] = readString(header);
+                heading[i] = (char)header.get();
+                laneNumber[i] = header.getInt();
+                length[i] = header.getInt();
+            }
+
+            trailer = ByteBuffer.allocate(20);
+            readFully(trailer, channel.size() - 20);
+            indexAt = trailer.getLong();
+            vehicleCount = trailer.getLong();
+            if ((trailer.getInt() != TrajectoryRecorder.MAGIC) ||
+                ((indexAt + (16 * vehicleCount)) !=
+                                        (channel.size() - 20))) {
+                throw new IOException(file + " wasn't finished");
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            channel.close();
+            throw new IOException(file + " is broken");
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     *  Fill a buffer from the file starting at the given place, and
+     *  get it ready to read.
+     */
+    private void        readFully(ByteBuffer buffer, long from)
+        throws IOException
+    {
+        buffer.clear();
+        while (buffer.hasRemaining() == true) {
+            int     bytes;
+
+            bytes = channel.read(buffer, from);
+            if (bytes < 0) {
+                throw new EOFException("trajectories are cut short");
+            }
+            from += bytes;
+        }
+        buffer.flip();
+    }
+
+    /*
+     *  Read a string written as its length and its UTF-8 bytes.
+     */
+    private static String       readString(ByteBuffer in)
+    {
+        byte    utf8[];
+
+        utf8 = new byte[in.getInt()];
+        in.get(utf8);
+
+        return(new String(utf8, StandardCharsets.UTF_8));
+    }
+
+    /*
+     *  Read a number written seven bits at a time.
+     */
+    private static long readNumber(DataInputStream in) throws IOException
+    {
+        long    value;
+        int     shift;
+        int     b;
+
+        value = 0;
+        for (shift = 0; ; shift += 7) {
+            b = in.readUnsignedByte();
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return(value);
+            }
+        }
+    }
+
+    /**
+     *  Find where a vehicle went.
+     *  @param identifier The identifier of the vehicle
+     *  @return Its trajectory or {@code null} if it was never on the
+     *  roads recorded
+     *  @throws IOException If the file can't be read
+     */
+    public synchronized Trajectory      trajectory(long identifier)
+        throws IOException
+    {
+        int                 i;
+        int                 count;
+        int                 events;
+        int                 stops;
+        int                 what;
+        long                low;
+        long                high;
+        long                previous;
+        long                tick[];
+        int                 lane[];
+        int                 slot[];
+        long                moved[];
+        int                 stopped[];
+        DataInputStream     in;
+
+        low = 0;
+        high = vehicleCount;
+        while (low < high) {
+            long    middle;
+            long    found;
+
+            middle = (low + high) >>> 1;
+            readFully(entry, indexAt + (16 * middle));
+            found = entry.getLong();
+            if (found == identifier) {
+                /*
+                 *  Read its events.
+                 */
+                channel.position(entry.getLong());
+                in = new DataInputStream(new BufferedInputStream(
+                                    Channels.newInputStream(channel), 512));
+                count = (int)readNumber(in);
+                tick = new long[count];
+                lane = new int[count];
+                slot = new int[count];
+                moved = new long[count];
+                stopped = new int[count];
+                events = 0;
+                stops = 0;
+                previous = firstTick;
+                for (i = 0; (i < count); ++i) {
+                    previous += readNumber(in);
+                    what = (int)readNumber(in);
+                    if (what == 1) {
+                        /*
+                         *  It was stopped until this tick.
+                         */
+                        moved[stops] = previous;
+                        stopped[stops] = (int)readNumber(in);
+                        ++stops;
+                        continue;
+                    }
+                    tick[events] = previous;
+                    lane[events] = what - 2;
+                    slot[events] = -1;
+                    if (what == 0) {
+                        lane[events] = -1;
+                    } else if (what >= length.length + 2) {
+                        throw new IOException("vehicle " + identifier +
+                                              " went to a lane that" +
+                                              " wasn't recorded");
+                    } else {
+                        slot[events] = (int)readNumber(in);
+                    }
+                    ++events;
+                }
+
+                return(new Trajectory(identifier,
+                                      Arrays.copyOf(tick, events),
+                                      Arrays.copyOf(lane, events),
+                                      Arrays.copyOf(slot, events),
+                                      Arrays.copyOf(moved, stops),
+                                      Arrays.copyOf(stopped, stops),
+                                      length));
+            }
+            if (found < identifier) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return(null);
+    }
+
+    /**
+     *  @return The tick of the simulation recording started on
+     */
+    public long getFirstTick()
+    {
+        return(firstTick);
+    }
+
+    /**
+     *  @return The number of vehicles recorded
+     */
+    public long getVehicleCount()
+    {
+        return(vehicleCount);
+    }
+
+    /**
+     *  @return The number of lanes recorded
+     */
+    public int  getLaneCount()
+    {
+        return(length.length);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The name of the road the lane is on
+     */
+    public String       getRoadName(int lane)
+    {
+        return(roadName[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return 'E' if the lane is north or east bound or 'W' if it is
+     *  south or west bound
+     */
+    public char getHeading(int lane)
+    {
+        return(heading[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The number of the lane among the ones going its way on
+     *  its road, the way {@code Road.vehiclesGoTo()} counts them
+     */
+    public int  getLaneNumber(int lane)
+    {
+        return(laneNumber[lane]);
+    }
+
+    /**
+     *  @param lane Which lane
+     *  @return The number of slots in the lane
+     */
+    public int  getLength(int lane)
+    {
+        return(length[lane]);
+    }
+
+    /**
+     *  @param lane Which lane or -1
+     *  @return The lane for people to read, like "Road 0 E1"
+     */
+    public String       describe(int lane)
+    {
+        if (lane < 0) {
+            return("off the map");
+        }
+
+        return(roadName[lane] + " " + heading[lane] + laneNumber[lane]);
+    }
+
+    /**
+     *  Let go of the file.
+     *  @throws IOException If the file can't be closed
+     */
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     *  Print where a vehicle went.
+     *  @param args The file and the identifier of the vehicle
+     */
+    public static void main(String args[])
+    {
+        int                 i;
+        TrajectoryReader    reader;
+        Trajectory          trajectory;
+
+        if (args.length != 2) {
+            System.err.println("usage: TrajectoryReader file vehicle");
+            System.exit(1);
+        }
+        try {
+            reader = new TrajectoryReader(Paths.get(args[0]));
+            trajectory = reader.trajectory(Long.parseLong(args[1]));
+            if (trajectory == null) {
+                System.out.println("vehicle " + args[1] + " was never" +
+                                   " on the roads recorded");
+            } else {
+                for (i = 0; (i < trajectory.getCount()); ++i) {
+                    System.out.printf("tick %d: %s\n",
+                                      trajectory.getTick(i),
+                                      reader.describe(
+                                            trajectory.getLane(i)));
+                }
+            }
+            reader.close();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("can't read " + args[0] + ": " + e);
+            System.exit(1);
+        }
+    }
+}
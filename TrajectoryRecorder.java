@@ -0,0 +1,1036 @@
+package traffic;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ *  {@code TrajectoryRecorder} writes down where every vehicle went:
+ *  each time a vehicle comes into a lane, and when it leaves the map,
+ *  with the tick it happened on.  A vehicle is in a lane from the
+ *  tick it came in until the tick it came into the next one.  It
+ *  moves up a slot every tick unless it is stuck behind the vehicles
+ *  packed up against the outgoing end, so each time one starts moving
+ *  again we write down how many ticks it was stopped, and that with
+ *  the slot it came in at gives its slot on any tick.  When
+ *  the recorder is closed the events are sorted by vehicle into a
+ *  file with an index, so {@code TrajectoryReader} can find any one
+ *  vehicle's trajectory with a binary search and read just that.
+ *  <p>
+ *  The lanes tell us about vehicles as they come in, on whatever
+ *  thread is ticking them, so each thread keeps its events in arrays
+ *  of its own and nobody waits for anybody.  After every tick they
+ *  are moved into one big chunk, and when that fills up it is sorted
+ *  and written out to a run file next to the recording.  Closing the
+ *  recorder merges the runs, which only takes as much memory as one
+ *  vehicle's trajectory per run.  A run that was never closed can't
+ *  be read.
+ *  <p>
+ *  Vehicles already on the roads when recording starts come into
+ *  their lanes on the first tick, at the slots they are in.  Each
+ *  lane keeps the vehicles in it in order on a line of its own, which
+ *  only the thread ticking the lane touches.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class TrajectoryRecorder implements Closeable,
+                                           Simulation.TickListener {
+    /**
+     *  The first four bytes of a file, and the last four bytes.
+     */
+    static final int            MAGIC           = 0x5452544a;
+
+    /**
+     *  The version of the file written.
+     */
+    static final int            VERSION         = 1;
+
+    /*
+     *  What goes in place of a lane for the other events.
+     */
+    static final int            LEFT_MAP        = -1;
+    static final int            STOPPED         = -2;
+
+    /**
+     *  The number of events sorted in memory at once unless asked for
+     *  otherwise.
+     */
+    static final int            DEFAULT_CHUNK_SIZE      = 1 << 20;
+
+    private final Simulation    simulation;
+    private final VehicleTable  table;
+    private final Path          file;
+    private final Road          road[];
+    private final int           roadOf[];
+    private final int           laneOf[];
+    private final Map<Connection, Integer>      laneIndex       =
+                                                new IdentityHashMap<>();
+    private final Line          line[];
+    private final long          firstTick;
+    private final List<Buffer>  buffers         = new ArrayList<>();
+    private final ThreadLocal<Buffer>   threadBuffer    =
+                                    ThreadLocal.withInitial(this::newBuffer);
+    private final long          chunkVehicle[];
+    private final long          chunkTick[];
+    private final int           chunkLane[];
+    private final int           chunkValue[];
+    private final int           order[];
+    private final int           temp[];
+    private int                 chunkCount;
+    private final List<Path>    runs            = new ArrayList<>();
+    private final List<Integer> runSize         = new ArrayList<>();
+    private long                eventCount;
+    private boolean             closed;
+    private IOException         failure;
+
+    /*
+     *  The events one thread has seen during the tick in progress.
+     */
+    private static final class  Buffer {
+        private long            vehicle[]       = new long[64];
+        private int             lane[]          = new int[64];
+        private int             value[]         = new int[64];
+        private int             count;
+
+        /*
+         *  Note an event.  The value is the slot a vehicle came into
+         *  a lane at, or how many ticks it was stopped.
+         */
+        void    add(long identifier, int which, int number)
+        {
+            if (count == vehicle.length) {
+                vehicle = Arrays.copyOf(vehicle, 2 * count);
+                lane = Arrays.copyOf(lane, 2 * count);
+                value = Arrays.copyOf(value, 2 * count);
+            }
+            vehicle[count] = identifier;
+            lane[count] = which;
+            value[count] = number;
+            ++count;
+        }
+    }
+
+    /*
+     *  The vehicles in one lane, the oldest first, and the tick each
+     *  of the ones packed up against the outgoing end stopped on.
+     *  The packed ones are always the oldest few.
+     */
+    private static final class  Line {
+        private final long      vehicle[];
+        private final long      since[];
+        private int             head;
+        private int             count;
+        private int             stopped;
+
+        Line(int length)
+        {
+            vehicle = new long[length + 1];
+            since = new long[length + 1];
+        }
+
+        /*
+         *  Where the vehicle so many from the oldest is kept.
+         */
+        int     at(int which)
+        {
+            return((head + which) % vehicle.length);
+        }
+
+        /*
+         *  A vehicle came in behind the rest.
+         */
+        void    add(long identifier)
+        {
+            if (count < vehicle.length) {
+                vehicle[at(count)] = identifier;
+                ++count;
+            }
+        }
+
+        /*
+         *  The oldest vehicle left.  If it was stopped it was in the
+         *  last slot, which is as far as it goes anyway, so nobody
+         *  needs to hear about it.
+         */
+        void    removeOldest()
+        {
+            head = at(1);
+            --count;
+            if (stopped > 0) {
+                --stopped;
+            }
+        }
+    }
+
+    /*
+     *  One run file being merged.
+     */
+    private static final class  Run {
+        private final DataInputStream   in;
+        private final int       number;
+        private int             left;
+        private long            vehicle;
+        private long            tick;
+        private int             lane;
+        private int             value;
+
+        Run(Path file, int number, int size) throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                                        Files.newInputStream(file)));
+            this.number = number;
+            left = size;
+        }
+
+        /*
+         *  Read the next event.  Return false if there are no more.
+         */
+        boolean next() throws IOException
+        {
+            if (left == 0) {
+                in.close();
+                return(false);
+            }
+            --left;
+            vehicle = in.readLong();
+            tick = in.readLong();
+            lane = in.readInt();
+            value = in.readInt();
+
+            return(true);
+        }
+    }
+
+    /**
+     *  Start recording where the vehicles in a {@code Simulation} go,
+     *  sorting {@code DEFAULT_CHUNK_SIZE} events in memory at once.
+     *  See the other constructor.
+     *  @param file Where to record, replacing anything there
+     *  @param simulation What to record
+     *  @param road The roads to record
+     */
+    public TrajectoryRecorder(Path file, Simulation simulation,
+                              Road road[])
+    {
+        this(file, simulation, road, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     *  Start recording where the vehicles in a {@code Simulation} go.
+     *  Nothing is written to the file until the recorder is closed.
+     *  Only one recorder at a time can record a {@code Simulation}.
+     *  @param file Where to record, replacing anything there
+     *  @param simulation What to record
+     *  @param road The roads to record
+     *  @param chunkSize The number of events to sort in memory at
+     *  once
+     */
+    public TrajectoryRecorder(Path file, Simulation simulation,
+                              Road road[], int chunkSize)
+    {
+        int     i;
+        int     lanes;
+        int     whichRoad;
+        int     whichLane;
+        int     slot;
+        int     vehicles[];
+
+        chunkSize = Math.max(chunkSize, 16);
+        this.simulation = simulation;
+        this.table = simulation.getVehicleTable();
+        this.file = file;
+        this.road = road.clone();
+        lanes = 0;
+        for (Road which : road) {
+            lanes += which.getNElanes() + which.getSWlanes();
+        }
+        roadOf = new int[lanes];
+        laneOf = new int[lanes];
+        line = new Line[lanes];
+        i = 0;
+        for (whichRoad = 0; (whichRoad < road.length); ++whichRoad) {
+            for (whichLane = 0;
+                 (whichLane < (road[whichRoad].getNElanes() +
+                               road[whichRoad].getSWlanes()));
+                 ++whichLane, ++i) {
+                roadOf[i] = whichRoad;
+                laneOf[i] = whichLane;
+                laneIndex.put(road[whichRoad].laneAt(whichLane), i);
+                line[i] = new Line(road[whichRoad].getCarCount());
+            }
+        }
+        chunkVehicle = new long[chunkSize];
+        chunkTick = new long[chunkSize];
+        chunkLane = new int[chunkSize];
+        chunkValue = new int[chunkSize];
+        order = new int[chunkSize];
+        temp = new int[chunkSize];
+
+        synchronized (simulation) {
+            if (simulation.getTrajectoryRecorder() != null) {
+                throw new IllegalStateException("somebody is already" +
+                                                " recording trajectories");
+            }
+            firstTick = simulation.getTickCount();
+
+            /*
+             *  Whoever is on the roads now came in on the first tick,
+             *  where they are.  The south and west bound lanes come
+             *  out backwards.
+             */
+            for (i = 0; (i < lanes); ++i) {
+                vehicles = new int[road[roadOf[i]].getCarCount()];
+                road[roadOf[i]].vehiclesInto(laneOf[i], vehicles);
+                for (slot = vehicles.length - 1; (slot >= 0); --slot) {
+                    int     vehicle;
+
+                    vehicle = vehicles[slot];
+                    if (laneOf[i] < road[roadOf[i]].getSWlanes()) {
+                        vehicle = vehicles[vehicles.length - 1 - slot];
+                    }
+                    if (vehicle != VehicleTable.NONE) {
+                        addToChunk(table.identifierOf(vehicle),
+                                   firstTick, i, slot);
+                        line[i].add(table.identifierOf(vehicle));
+                    }
+                }
+            }
+            simulation.setTrajectoryRecorder(this);
+            simulation.addTickListener(this);
+        }
+    }
+
+    /*
+     *  Make the events buffer for a thread that hasn't had one yet.
+     */
+    private Buffer      newBuffer()
+    {
+        Buffer  buffer;
+
+        buffer = new Buffer();
+        synchronized (buffers) {
+            buffers.add(buffer);
+        }
+
+        return(buffer);
+    }
+
+    /*
+     *  Remember the first thing that went wrong so close() can
+     *  complain about it.  The ticks go on no matter what.
+     */
+    private void        failed(IOException e)
+    {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     *  A vehicle came into a lane on the tick in progress.  This is
+     *  called by the lane, on whatever thread is ticking it.
+     *  @param vehicle The handle of the vehicle
+     *  @param lane The lane
+     */
+    void        entered(int vehicle, Connection lane)
+    {
+        Integer     which;
+
+        which = laneIndex.get(lane);
+        if (which != null) {
+            threadBuffer.get().add(table.identifierOf(vehicle), which, 0);
+            line[which].add(table.identifierOf(vehicle));
+        }
+    }
+
+    /**
+     *  A lane is about to move its vehicles on the tick in progress.
+     *  This is called by the lane, on whatever thread is ticking it,
+     *  before any vehicle comes in.  Whoever started moving again
+     *  gets an event saying how long it was stopped.
+     *  @param lane The lane
+     *  @param staying How many vehicles are still in the lane, after
+     *  the oldest left if it did
+     *  @param stopped How many of those, the oldest first, are packed
+     *  up against the outgoing end and don't move
+     */
+    void        moved(Connection lane, int staying, int stopped)
+    {
+        int         i;
+        long        tick;
+        Integer     which;
+        Line        vehicles;
+
+        which = laneIndex.get(lane);
+        if (which == null) {
+            return;
+        }
+        vehicles = line[which];
+        tick = simulation.getTickCount();
+        while (vehicles.count > Math.max(staying, 0)) {
+            vehicles.removeOldest();
+        }
+        stopped = Math.min(stopped, vehicles.count);
+        for (i = vehicles.stopped; (i < stopped); ++i) {
+            vehicles.since[vehicles.at(i)] = tick;
+        }
+        for (i = stopped; (i < vehicles.stopped); ++i) {
+            threadBuffer.get().add(vehicles.vehicle[vehicles.at(i)],
+                                   STOPPED,
+                                   (int)(tick -
+                                         vehicles.since[vehicles.at(i)]));
+        }
+        vehicles.stopped = stopped;
+    }
+
+    /**
+     *  A vehicle left the map on the tick in progress.  This is
+     *  called by the edge of the map before it lets the vehicle go.
+     *  @param vehicle The handle of the vehicle
+     */
+    void        left(int vehicle)
+    {
+        threadBuffer.get().add(table.identifierOf(vehicle), LEFT_MAP, 0);
+    }
+
+    /*
+     *  Put an event in the chunk, writing the chunk out first if it
+     *  is full.
+     */
+    private void        addToChunk(long vehicle, long tick, int lane,
+                                   int value)
+    {
+        if (chunkCount == chunkVehicle.length) {
+            spill();
+        }
+        chunkVehicle[chunkCount] = vehicle;
+        chunkTick[chunkCount] = tick;
+        chunkLane[chunkCount] = lane;
+        chunkValue[chunkCount] = value;
+        ++chunkCount;
+        ++eventCount;
+    }
+
+    /**
+     *  Move what every thread saw during the tick into the chunk.
+     *  This is called by the simulation after every tick, when no
+     *  lane is being ticked.
+     *  @param simulation The simulation that ticked
+     */
+    public void ticked(Simulation simulation)
+    {
+        int     i;
+        long    tick;
+
+        tick = simulation.getTickCount();
+        synchronized (buffers) {
+            for (Buffer buffer : buffers) {
+                for (i = 0; (i < buffer.count); ++i) {
+                    addToChunk(buffer.vehicle[i], tick, buffer.lane[i],
+                               buffer.value[i]);
+                }
+                buffer.count = 0;
+            }
+        }
+    }
+
+    /*
+     *  Is event a before event b?  Events of the same vehicle on the
+     *  same tick stay in the order they were seen.
+     */
+    private boolean     before(int a, int b)
+    {
+        if (chunkVehicle[a] != chunkVehicle[b]) {
+            return(chunkVehicle[a] < chunkVehicle[b]);
+        }
+
+        return(chunkTick[a] < chunkTick[b]);
+    }
+
+    /*
+     *  Sort order[from] to order[to - 1] by vehicle and tick without
+     *  moving any event that doesn't have to.
+     */
+    private void        sort(int from, int to)
+    {
+        int     middle;
+        int     i;
+        int     j;
+        int     k;
+
+        if ((to - from) < 2) {
+            return;
+        }
+        middle = (from + to) >>> 1;
+        sort(from, middle);
+        sort(middle, to);
+        if (before(order[middle], order[middle - 1]) == false) {
+            /*
+             *  Already in order, which is common since vehicles that
+             *  came first mostly have lower identifiers.
+             */
+            return;
+        }
+        System.arraycopy(order, from, temp, from, to - from);
+        for (i = from, j = middle, k = from; (k < to); ++k) {
+            if ((j == to) ||
+                ((i < middle) && (before(temp[j], temp[i]) == false))) {
+                order[k] = temp[i++];
+            } else {
+                order[k] = temp[j++];
+            }
+        }
+    }
+
+    /*
+     *  Sort the chunk and write it out as a run.
+     */
+    private void        spill()
+    {
+        int                 i;
+        Path                run;
+        DataOutputStream    out;
+
+        if ((failure != null) || (chunkCount == 0)) {
+            chunkCount = 0;
+            return;
+        }
+        for (i = 0; (i < chunkCount); ++i) {
+            order[i] = i;
+        }
+        sort(0, chunkCount);
+        try {
+            run = Files.createTempFile(file.toAbsolutePath().getParent(),
+                                       "trajectory", ".run");
+            runs.add(run);
+            runSize.add(chunkCount);
+            out = new DataOutputStream(new BufferedOutputStream(
+                                        Files.newOutputStream(run)));
+            for (i = 0; (i < chunkCount); ++i) {
+                out.writeLong(chunkVehicle[order[i]]);
+                out.writeLong(chunkTick[order[i]]);
+                out.writeInt(chunkLane[order[i]]);
+                out.writeInt(chunkValue[order[i]]);
+            }
+            out.close();
+        } catch (IOException e) {
+            failed(e);
+        }
+        chunkCount = 0;
+    }
+
+    /*
+     *  Write a string as its length and its UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String value)
+        throws IOException
+    {
+        byte    utf8[];
+
+        utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    /*
+     *  Put a number that isn't negative into an array seven bits at a
+     *  time, the way RunRecorder writes them.  Return where the next
+     *  byte goes.
+     */
+    private static int  putNumber(byte into[], int at, long value)
+    {
+        while ((value & ~0x7fL) != 0) {
+            into[at++] = (byte)((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        into[at++] = (byte)value;
+
+        return(at);
+    }
+
+    /*
+     *  Merge the runs into the file: the header, every vehicle's
+     *  events, and the index of where they are.
+     */
+    private void        merge() throws IOException
+    {
+        int                     i;
+        int                     count;
+        long                    position;
+        long                    vehicles;
+        long                    vehicle;
+        long                    tick[];
+        int                     lane[];
+        int                     value[];
+        byte                    bytes[];
+        Path                    indexFile;
+        Run                     run;
+        PriorityQueue<Run>      queue;
+        ByteArrayOutputStream   header;
+        DataOutputStream        headerOut;
+        DataOutputStream        out;
+        DataOutputStream        index;
+
+        header = new ByteArrayOutputStream();
+        headerOut = new DataOutputStream(header);
+        headerOut.writeLong(firstTick);
+        headerOut.writeInt(roadOf.length);
+        for (i = 0; (i < roadOf.length); ++i) {
+            Road    which;
+
+            which = road[roadOf[i]];
+            writeString(headerOut, which.getName());
+            if (laneOf[i] < which.getSWlanes()) {
+                headerOut.writeByte('W');
+                headerOut.writeInt(which.getSWlanes() - 1 - laneOf[i]);
+            } else {
+                headerOut.writeByte('E');
+                headerOut.writeInt(laneOf[i] - which.getSWlanes());
+            }
+            headerOut.writeInt(which.getCarCount());
+        }
+
+        queue = new PriorityQueue<>((a, b) -> {
+            if (a.vehicle != b.vehicle) {
+                return(Long.compare(a.vehicle, b.vehicle));
+            }
+            if (a.tick != b.tick) {
+                return(Long.compare(a.tick, b.tick));
+            }
+            return(Integer.compare(a.number, b.number));
+        });
+        indexFile = Files.createTempFile(file.toAbsolutePath().getParent(),
+                                         "trajectory", ".index");
+        out = new DataOutputStream(new BufferedOutputStream(
+                                    Files.newOutputStream(file)));
+        index = new DataOutputStream(new BufferedOutputStream(
+                                    Files.newOutputStream(indexFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            position = 12 + header.size();
+            for (i = 0; (i < runs.size()); ++i) {
+                run = new Run(runs.get(i), i, runSize.get(i));
+                if (run.next() == true) {
+                    queue.add(run);
+                }
+            }
+
+            /*
+             *  Take the events in order a vehicle at a time.
+             */
+            vehicles = 0;
+            tick = new long[16];
+            lane = new int[16];
+            value = new int[16];
+            bytes = new byte[64];
+            while (queue.isEmpty() == false) {
+                long    previous;
+                int     at;
+
+                vehicle = queue.peek().vehicle;
+                count = 0;
+                while ((queue.isEmpty() == false) &&
+                       (queue.peek().vehicle == vehicle)) {
+                    run = queue.poll();
+                    if (count == tick.length) {
+                        tick = Arrays.copyOf(tick, 2 * count);
+                        lane = Arrays.copyOf(lane, 2 * count);
+                        value = Arrays.copyOf(value, 2 * count);
+                    }
+                    tick[count] = run.tick;
+                    lane[count] = run.lane;
+                    value[count] = run.value;
+                    ++count;
+                    if (run.next() == true) {
+                        queue.add(run);
+                    }
+                }
+                if (bytes.length < (25 * (count + 1))) {
+                    bytes = new byte[25 * (count + 1)];
+                }
+
+                /*
+                 *  The number of events, then each one as the ticks
+                 *  since the one before and what happened: 0 for
+                 *  leaving the map, 1 and the ticks for having been
+                 *  stopped, or the lane plus two and the slot for
+                 *  coming into a lane.
+                 */
+                at = putNumber(bytes, 0, count);
+                previous = firstTick;
+                for (i = 0; (i < count); ++i) {
+                    at = putNumber(bytes, at, tick[i] - previous);
+                    if (lane[i] == LEFT_MAP) {
+                        at = putNumber(bytes, at, 0);
+                    } else {
+                        at = putNumber(bytes, at,
+                                       (lane[i] == STOPPED) ?
+                                            1 : (lane[i] + 2));
+                        at = putNumber(bytes, at, value[i]);
+                    }
+                    previous = tick[i];
+                }
+                index.writeLong(vehicle);
+                index.writeLong(position);
+                out.write(bytes, 0, at);
+                position += at;
+                ++vehicles;
+            }
+            index.close();
+
+            /*
+             *  The index, then where it is.
+             */
+            Files.copy(indexFile, out);
+            out.writeLong(position);
+            out.writeLong(vehicles);
+            out.writeInt(MAGIC);
+            out.close();
+        } finally {
+            index.close();
+            out.close();
+            for (Run which : queue) {
+                which.in.close();
+            }
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    /**
+     *  @return The number of events recorded so far, counting the
+     *  vehicles that were on the roads when recording started
+     */
+    public long getEventCount()
+    {
+        synchronized (simulation) {
+            return(eventCount);
+        }
+    }
+
+    /**
+     *  @return The number of times the events had to be sorted and
+     *  written out so far
+     */
+    public int  getRunCount()
+    {
+        synchronized (simulation) {
+            return(runs.size());
+        }
+    }
+
+    /*
+     *  Whoever is still stopped was stopped up to the last tick, as
+     *  if they started moving on the next.
+     */
+    private void        stopRecording()
+    {
+        int     i;
+        long    tick;
+
+        tick = simulation.getTickCount() + 1;
+        for (Line vehicles : line) {
+            for (i = 0; (i < vehicles.stopped); ++i) {
+                addToChunk(vehicles.vehicle[vehicles.at(i)], tick, STOPPED,
+                           (int)(tick - vehicles.since[vehicles.at(i)]));
+            }
+            vehicles.stopped = 0;
+        }
+    }
+
+    /**
+     *  Stop recording and write the trajectories out.
+     *  @throws IOException If any part of the file couldn't be
+     *  written
+     */
+    public void close() throws IOException
+    {
+        synchronized (simulation) {
+            if (closed == true) {
+                return;
+            }
+            closed = true;
+            simulation.removeTickListener(this);
+            simulation.setTrajectoryRecorder(null);
+            stopRecording();
+            spill();
+            try {
+                if (failure == null) {
+                    merge();
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+     *  Note which lane and slot every vehicle on the roads is in after
+     *  a tick, counting that many ticks since recording started.  The
+     *  lanes going south or west come backwards.
+     */
+    private static void watch(Simulation simulation, Road road[],
+                              Map<Long, int[]> seen, int ticks, int tick)
+    {
+        int     i;
+        int     lane;
+        int     slot;
+        int     where[];
+        int     vehicles[];
+
+        lane = 0;
+        for (Road which : road) {
+            vehicles = new int[which.getCarCount()];
+            for (i = 0; (i < (which.getNElanes() + which.getSWlanes()));
+                 ++i, ++lane) {
+                which.vehiclesInto(i, vehicles);
+                for (slot = 0; (slot < vehicles.length); ++slot) {
+                    int     vehicle;
+
+                    vehicle = vehicles[slot];
+                    if (i < which.getSWlanes()) {
+                        vehicle = vehicles[vehicles.length - 1 - slot];
+                    }
+                    if (vehicle == VehicleTable.NONE) {
+                        continue;
+                    }
+                    where = seen.computeIfAbsent(
+                        simulation.getVehicleTable().identifierOf(vehicle),
+                        k -> {
+                            int     never[];
+
+                            never = new int[2 * (ticks + 1)];
+                            Arrays.fill(never, -1);
+                            return(never);
+                        });
+                    where[tick] = lane;
+                    where[ticks + 1 + tick] = slot;
+                }
+            }
+        }
+    }
+
+    /*
+     *  Make sure every vehicle's trajectory puts it in the lane and
+     *  slot it was seen in on every tick.
+     */
+    private static int  compare(TrajectoryReader reader,
+                                Map<Long, int[]> seen, int ticks,
+                                String what) throws IOException
+    {
+        int                             i;
+        long                            when;
+        int                             where[];
+        TrajectoryReader.Trajectory     trajectory;
+
+        for (Map.Entry<Long, int[]> entry : seen.entrySet()) {
+            trajectory = reader.trajectory(entry.getKey());
+            if (trajectory == null) {
+                System.out.println("**** ERROR: " + what + " vehicle " +
+                                   entry.getKey() + " wasn't found");
+                return(1);
+            }
+            where = entry.getValue();
+            for (i = 0; (i <= ticks); ++i) {
+                when = reader.getFirstTick() + i;
+                if ((trajectory.laneAt(when) != where[i]) ||
+                    (trajectory.positionAt(when) != where[ticks + 1 + i])) {
+                    System.out.println("**** ERROR: " + what +
+                                       " vehicle " + entry.getKey() +
+                                       " in lane " +
+                                       trajectory.laneAt(when) +
+                                       " slot " +
+                                       trajectory.positionAt(when) +
+                                       " on tick " + i + " instead of " +
+                                       where[i] + " slot " +
+                                       where[ticks + 1 + i]);
+                    return(1);
+                }
+            }
+        }
+        if (reader.trajectory(-5) != null) {
+            System.out.println("**** ERROR: " + what + " found a" +
+                               " vehicle that never was");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Let the vehicles on two roads pile up at a dead end while we
+     *  record, then let them go, so they stop and start again behind
+     *  each other.
+     */
+    private static int  testQueue(Road.LaneKind kind, boolean buffered)
+        throws IOException
+    {
+        int                 i;
+        int                 ticks;
+        int                 errors;
+        Path                file;
+        Simulation          simulation;
+        EdgeOfMap           edgeOfMap;
+        Road                road[];
+        TrajectoryRecorder  recorder;
+        TrajectoryReader    reader;
+        Map<Long, int[]>    seen;
+
+        simulation = new Simulation(2026);
+        simulation.setProbability(Vehicle.CAR, 0.8);
+        simulation.setDoubleBuffered(buffered);
+        road = new Road[2];
+        for (i = 0; (i < road.length); ++i) {
+            road[i] = new Road(simulation, "Road " + i, 20, 1, 1, kind);
+        }
+        edgeOfMap = new EdgeOfMap(simulation);
+        edgeOfMap.vehiclesGoTo(road[0], 'E', 0, 0);
+        edgeOfMap.vehiclesGoTo(road[1], 'W', 0, 0);
+        road[0].vehiclesGoTo(road[1], 'E', 0, 0);
+        road[1].vehiclesGoTo(road[0], 'W', 0, 0);
+        for (i = 0; (i < 10); ++i) {
+            simulation.tick();
+        }
+
+        file = Files.createTempFile("trajectory", ".bin");
+        seen = new HashMap<>();
+        ticks = 300;
+        try {
+            recorder = new TrajectoryRecorder(file, simulation, road, 64);
+            for (i = 0; (i <= ticks); ++i) {
+                if (i == 100) {
+                    road[1].vehiclesGoTo(edgeOfMap, 'E', 0, 0);
+                    road[0].vehiclesGoTo(edgeOfMap, 'W', 0, 0);
+                }
+                if (i > 0) {
+                    simulation.tick();
+                }
+                watch(simulation, road, seen, ticks, i);
+            }
+            recorder.close();
+            reader = new TrajectoryReader(file);
+            errors = compare(reader, seen, ticks,
+                             kind + " queue buffered " + buffered);
+            reader.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        return(errors);
+    }
+
+    /**
+     *  Performs a unit test on the {@code TrajectoryRecorder} class by
+     *  watching every vehicle on every tick and comparing where it
+     *  was with the lane and slot the trajectories recorded give.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        int                 tick;
+        int                 ticks;
+        Path                file;
+        BatchRunner         runner;
+        Simulation          simulation;
+        Road                road[];
+        TrajectoryRecorder  recorder;
+        TrajectoryReader    reader;
+        Map<Long, int[]>    seen;
+
+        exitCode = 0;
+        file = null;
+        ticks = 400;
+        try {
+            file = Files.createTempFile("trajectory", ".bin");
+            for (Road.LaneKind kind : Road.LaneKind.values()) {
+                for (int buffered = 0; (buffered < 2); ++buffered) {
+                    runner = new BatchRunner(3, 30, 2, 2, kind,
+                                             2026 + kind.ordinal(),
+                                             EdgeOfMap.Arrivals.SCHEDULED);
+                    simulation = runner.getSimulation();
+                    simulation.setDoubleBuffered(buffered == 1);
+                    simulation.setParallelism(1 + (2 * buffered));
+                    road = runner.getRoads();
+                    runner.run(50);
+
+                    /*
+                     *  Watch every vehicle on every tick while
+                     *  recording in small chunks so there are plenty
+                     *  of runs to merge.
+                     */
+                    recorder = new TrajectoryRecorder(file, simulation,
+                                                      road, 300);
+                    seen = new HashMap<>();
+                    for (tick = 0; (tick <= ticks); ++tick) {
+                        if (tick > 0) {
+                            runner.run(1);
+                        }
+                        watch(simulation, road, seen, ticks, tick);
+                    }
+                    recorder.close();
+                    simulation.setParallelism(1);
+                    runner.run(10);
+
+                    reader = new TrajectoryReader(file);
+                    System.out.println(kind + " buffered " +
+                                       (buffered == 1) + ": " +
+                                       recorder.getEventCount() +
+                                       " events in " +
+                                       recorder.getRunCount() +
+                                       " runs for " +
+                                       reader.getVehicleCount() +
+                                       " vehicles, " +
+                                       Files.size(file) + " bytes");
+                    if ((reader.getVehicleCount() != seen.size()) ||
+                        (recorder.getRunCount() < 2) ||
+                        (reader.getFirstTick() != 50) ||
+                        (reader.getLaneCount() != 12) ||
+                        (reader.describe(6).equals("Road 1 E0") == false)) {
+                        System.out.println("**** ERROR: " + kind +
+                                           " header is wrong");
+                        ++exitCode;
+                    }
+                    exitCode += compare(reader, seen, ticks, kind +
+                                        " buffered " + (buffered == 1));
+                    reader.close();
+                }
+                exitCode += testQueue(kind, false);
+                exitCode += testQueue(kind, true);
+            }
+        } catch (IOException e) {
+            System.out.println("**** ERROR: " + e);
+            ++exitCode;
+        } finally {
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                System.out.println("**** ERROR: " + e);
+                ++exitCode;
+            }
+        }
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code TravelTimes} keeps count of the vehicles that leave the map:
+ *  how many came from each place they can come onto the map, how many
+ *  went to each place they can leave it and how many ticks they took
+ *  to get there.  The ticks go in a histogram whose buckets get wider
+ *  as the times get longer, eight buckets to each doubling, so any
+ *  percentile can be had at any time to within an eighth and the
+ *  whole thing is a few kilobytes however long the run.
+ *  <p>
+ *  Counting a vehicle is a handful of atomic adds into arrays made
+ *  when the map was wired up, so it allocates nothing and takes no
+ *  locks.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public class TravelTimes {
+    /*
+     *  Each doubling of the travel time is split into 1 << SUB_BITS
+     *  buckets.  Times below SUB_BUCKETS each get a bucket of their
+     *  own.
+     */
+    private static final int    SUB_BITS        = 3;
+    private static final int    SUB_BUCKETS     = 1 << SUB_BITS;
+
+    /**
+     *  The number of buckets in the histogram, enough for any
+     *  {@code long}.
+     */
+    static final int            BUCKETS         =
+                                            bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray       histogram       =
+                                            new AtomicLongArray(BUCKETS);
+    private final AtomicLong    totalTicks      = new AtomicLong();
+    private String              originName[]    = new String[0];
+    private AtomicLongArray     fromCount       = new AtomicLongArray(0);
+    private AtomicLongArray     fromTicks       = new AtomicLongArray(0);
+    private String              destinationName[]       = new String[0];
+    private AtomicLongArray     toCount         = new AtomicLongArray(0);
+    private AtomicLongArray     toTicks         = new AtomicLongArray(0);
+
+    /**
+     *  @param ticks A travel time
+     *  @return The bucket of the histogram it goes in
+     */
+    static int  bucketOf(long ticks)
+    {
+        int     power;
+
+        if (ticks < SUB_BUCKETS) {
+            return((int)Math.max(ticks, 0));
+        }
+        power = 63 - Long.numberOfLeadingZeros(ticks);
+
+        return(((power - SUB_BITS + 1) << SUB_BITS) +
+               (int)((ticks >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1)));
+    }
+
+    /**
+     *  @param bucket A bucket of the histogram
+     *  @return The shortest travel time that goes in it
+     */
+    static long lowestOf(int bucket)
+    {
+        int     power;
+
+        if (bucket < SUB_BUCKETS) {
+            return(bucket);
+        }
+        power = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+
+        return((long)(SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) <<
+               (power - SUB_BITS));
+    }
+
+    /**
+     *  @param bucket A bucket of the histogram
+     *  @return The longest travel time that goes in it
+     */
+    static long highestOf(int bucket)
+    {
+        if (bucket == (BUCKETS - 1)) {
+            return(Long.MAX_VALUE);
+        }
+
+        return(lowestOf(bucket + 1) - 1);
+    }
+
+    /*
+     *  Make a copy of an array of counters one longer than it.
+     */
+    private static AtomicLongArray      grow(AtomicLongArray counters)
+    {
+        int                 i;
+        AtomicLongArray     grown;
+
+        grown = new AtomicLongArray(counters.length() + 1);
+        for (i = 0; (i < counters.length()); ++i) {
+            grown.set(i, counters.get(i));
+        }
+
+        return(grown);
+    }
+
+    /*
+     *  Make a copy of an array of counters the same size.
+     */
+    private static AtomicLongArray      copyOf(AtomicLongArray counters)
+    {
+        int                 i;
+        AtomicLongArray     copy;
+
+        copy = new AtomicLongArray(counters.length());
+        for (i = 0; (i < counters.length()); ++i) {
+            copy.set(i, counters.get(i));
+        }
+
+        return(copy);
+    }
+
+    /**
+     *  Number a new place vehicles come onto the map.  This is done
+     *  while the map is wired up, before the first tick.
+     *  @param name What to call it
+     *  @return Its number
+     */
+    synchronized int    addOrigin(String name)
+    {
+        originName = Arrays.copyOf(originName, originName.length + 1);
+        originName[originName.length - 1] = name;
+        fromCount = grow(fromCount);
+        fromTicks = grow(fromTicks);
+
+        return(originName.length - 1);
+    }
+
+    /**
+     *  Number a new place vehicles leave the map.  This is done while
+     *  the map is wired up, before the first tick.
+     *  @param name What to call it
+     *  @return Its number
+     */
+    synchronized int    addDestination(String name)
+    {
+        destinationName = Arrays.copyOf(destinationName,
+                                        destinationName.length + 1);
+        destinationName[destinationName.length - 1] = name;
+        toCount = grow(toCount);
+        toTicks = grow(toTicks);
+
+        return(destinationName.length - 1);
+    }
+
+    /**
+     *  Count a vehicle leaving the map.  This may be called on any
+     *  number of threads at once during a tick.
+     *  @param origin Where it came onto the map or
+     *  {@code VehicleTable.NO_ORIGIN}
+     *  @param destination Where it left the map
+     *  @param ticks How long it took
+     */
+    void        delivered(int origin, int destination, long ticks)
+    {
+        histogram.getAndIncrement(bucketOf(ticks));
+        totalTicks.getAndAdd(ticks);
+        if (origin >= 0) {
+            fromCount.getAndIncrement(origin);
+            fromTicks.getAndAdd(origin, ticks);
+        }
+        toCount.getAndIncrement(destination);
+        toTicks.getAndAdd(destination, ticks);
+    }
+
+    /**
+     *  @return The number of vehicles that have left the map
+     */
+    public long getDelivered()
+    {
+        int     i;
+        long    delivered;
+
+        delivered = 0;
+        for (i = 0; (i < BUCKETS); ++i) {
+            delivered += histogram.get(i);
+        }
+
+        return(delivered);
+    }
+
+    /**
+     *  @return The average number of ticks a vehicle took to cross
+     *  the map or 0 if none has
+     */
+    public double       getMeanTicks()
+    {
+        long    delivered;
+
+        delivered = getDelivered();
+        if (delivered == 0) {
+            return(0);
+        }
+
+        return(totalTicks.get() / (double)delivered);
+    }
+
+    /**
+     *  Find how long it took a given fraction of the vehicles to
+     *  cross the map.  The answer is the longest time in the bucket
+     *  the percentile falls in, so it is never too short and at most
+     *  an eighth too long.
+     *  @param fraction The fraction of the vehicles, like 0.99 for the
+     *  99th percentile
+     *  @return The number of ticks or 0 if no vehicle has left yet
+     */
+    public long percentile(double fraction)
+    {
+        int     i;
+        long    delivered;
+        long    rank;
+        long    seen;
+
+        delivered = getDelivered();
+        if (delivered == 0) {
+            return(0);
+        }
+        rank = Math.max(1, (long)Math.ceil(fraction * delivered));
+        seen = 0;
+        for (i = 0; (i < (BUCKETS - 1)); ++i) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                break;
+            }
+        }
+
+        return(highestOf(i));
+    }
+
+    /**
+     *  @param bucket A bucket of the histogram
+     *  @return The number of vehicles whose travel time went in it
+     */
+    public long getBucketCount(int bucket)
+    {
+        return(histogram.get(bucket));
+    }
+
+    /**
+     *  @return The number of places vehicles come onto the map
+     */
+    public synchronized int     getOriginCount()
+    {
+        return(originName.length);
+    }
+
+    /**
+     *  @param origin Which place
+     *  @return What it is called
+     */
+    public synchronized String  getOriginName(int origin)
+    {
+        return(originName[origin]);
+    }
+
+    /**
+     *  @param origin Which place
+     *  @return The number of vehicles from there that have left the
+     *  map
+     */
+    public synchronized long    getDeliveredFrom(int origin)
+    {
+        return(fromCount.get(origin));
+    }
+
+    /**
+     *  @param origin Which place
+     *  @return The average number of ticks the vehicles from there
+     *  took to cross the map or 0 if none has
+     */
+    public synchronized double  getMeanTicksFrom(int origin)
+    {
+        if (fromCount.get(origin) == 0) {
+            return(0);
+        }
+
+        return(fromTicks.get(origin) / (double)fromCount.get(origin));
+    }
+
+    /**
+     *  @return The number of places vehicles leave the map
+     */
+    public synchronized int     getDestinationCount()
+    {
+        return(destinationName.length);
+    }
+
+    /**
+     *  @param destination Which place
+     *  @return What it is called
+     */
+    public synchronized String  getDestinationName(int destination)
+    {
+        return(destinationName[destination]);
+    }
+
+    /**
+     *  @param destination Which place
+     *  @return The number of vehicles that have left the map there
+     */
+    public synchronized long    getDeliveredTo(int destination)
+    {
+        return(toCount.get(destination));
+    }
+
+    /**
+     *  @param destination Which place
+     *  @return The average number of ticks the vehicles that left
+     *  there took to cross the map or 0 if none has
+     */
+    public synchronized double  getMeanTicksTo(int destination)
+    {
+        if (toCount.get(destination) == 0) {
+            return(0);
+        }
+
+        return(toTicks.get(destination) / (double)toCount.get(destination));
+    }
+
+    /**
+     *  Make a copy for a fork.  The fork is wired up like us, so the
+     *  places keep their numbers.
+     *  @return The copy
+     */
+    synchronized TravelTimes    copy()
+    {
+        int             i;
+        TravelTimes     copy;
+
+        copy = new TravelTimes();
+        for (i = 0; (i < BUCKETS); ++i) {
+            copy.histogram.set(i, histogram.get(i));
+        }
+        copy.totalTicks.set(totalTicks.get());
+        copy.originName = originName.clone();
+        copy.fromCount = copyOf(fromCount);
+        copy.fromTicks = copyOf(fromTicks);
+        copy.destinationName = destinationName.clone();
+        copy.toCount = copyOf(toCount);
+        copy.toTicks = copyOf(toTicks);
+
+        return(copy);
+    }
+
+    /**
+     *  Write how many origins and destinations there are, which comes
+     *  from the wiring.
+     *  @param out Where to write it
+     *  @throws IOException If it can't be written
+     */
+    synchronized void   saveWiring(Checkpoint.Writer out)
+        throws IOException
+    {
+        out.putInt(originName.length);
+        out.putInt(destinationName.length);
+    }
+
+    /**
+     *  Read back what {@code saveWiring()} wrote and make sure we have
+     *  as many origins and destinations.  Nothing is changed.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read or was wired up
+     *  differently
+     */
+    synchronized void   checkWiring(Checkpoint.Reader in)
+        throws IOException
+    {
+        int     origins;
+        int     destinations;
+
+        origins = in.getInt();
+        destinations = in.getInt();
+        if ((origins != originName.length) ||
+            (destinations != destinationName.length)) {
+            throw new IOException("checkpoint has " + origins +
+                                  " origins and " + destinations +
+                                  " destinations, we have " +
+                                  originName.length + " and " +
+                                  destinationName.length);
+        }
+    }
+
+    /**
+     *  Write the counts.  No tick is in progress.
+     *  @param out Where to write them
+     *  @throws IOException If they can't be written
+     */
+    synchronized void   save(Checkpoint.Writer out) throws IOException
+    {
+        int     i;
+
+        for (i = 0; (i < BUCKETS); ++i) {
+            out.putLong(histogram.get(i));
+        }
+        out.putLong(totalTicks.get());
+        for (i = 0; (i < originName.length); ++i) {
+            out.putLong(fromCount.get(i));
+            out.putLong(fromTicks.get(i));
+        }
+        for (i = 0; (i < destinationName.length); ++i) {
+            out.putLong(toCount.get(i));
+            out.putLong(toTicks.get(i));
+        }
+    }
+
+    /**
+     *  Read back what {@code save()} wrote, after
+     *  {@code checkWiring()} has made sure it fits.
+     *  @param in Where to read it from
+     *  @throws IOException If it can't be read
+     */
+    synchronized void   restore(Checkpoint.Reader in) throws IOException
+    {
+        int     i;
+
+        for (i = 0; (i < BUCKETS); ++i) {
+            histogram.set(i, in.getLong());
+        }
+        totalTicks.set(in.getLong());
+        for (i = 0; (i < originName.length); ++i) {
+            fromCount.set(i, in.getLong());
+            fromTicks.set(i, in.getLong());
+        }
+        for (i = 0; (i < destinationName.length); ++i) {
+            toCount.set(i, in.getLong());
+            toTicks.set(i, in.getLong());
+        }
+    }
+
+    /*
+     *  Make sure every travel time lands in a bucket that holds it
+     *  and that the buckets are no wider than an eighth of where they
+     *  start.
+     */
+    private static int  testBuckets()
+    {
+        int                 i;
+        long                ticks;
+        SplittableRandom    random;
+
+        random = new SplittableRandom(2026);
+        for (i = 0; (i < 200000); ++i) {
+            int     bucket;
+
+            if (i < 5000) {
+                ticks = i;
+            } else {
+                ticks = random.nextLong() >>> (1 + random.nextInt(63));
+            }
+            bucket = bucketOf(ticks);
+            if ((lowestOf(bucket) > ticks) || (highestOf(bucket) < ticks) ||
+                ((highestOf(bucket) - lowestOf(bucket)) >
+                                        (lowestOf(bucket) / SUB_BUCKETS))) {
+                System.out.println("**** ERROR: " + ticks + " went in" +
+                                   " bucket " + bucket + " which holds " +
+                                   lowestOf(bucket) + " to " +
+                                   highestOf(bucket));
+                return(1);
+            }
+        }
+        if ((bucketOf(Long.MAX_VALUE) != (BUCKETS - 1)) ||
+            (lowestOf(bucketOf(Long.MAX_VALUE)) < 0)) {
+            System.out.println("**** ERROR: the last bucket is broken");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Count a lot of made up travel times and make sure the
+     *  percentiles are never too short and at most an eighth too long
+     *  next to the exact ones.
+     */
+    private static int  testPercentiles()
+    {
+        int                 i;
+        long                ticks[];
+        double              fraction[]      = { 0.0, 0.5, 0.95, 0.99, 1.0 };
+        TravelTimes         times;
+        SplittableRandom    random;
+
+        times = new TravelTimes();
+        times.addOrigin("here");
+        times.addDestination("there");
+        random = new SplittableRandom(2027);
+        ticks = new long[100000];
+        for (i = 0; (i < ticks.length); ++i) {
+            ticks[i] = 40 + (long)(-200 * Math.log(1 -
+                                                    random.nextDouble()));
+            times.delivered(0, 0, ticks[i]);
+        }
+        Arrays.sort(ticks);
+
+        for (double which : fraction) {
+            long    exact;
+            long    reported;
+
+            exact = ticks[Math.max(0, (int)Math.ceil(which * ticks.length)
+                                                                    - 1)];
+            reported = times.percentile(which);
+            System.out.printf("p%.0f: exact %d, reported %d\n",
+                              which * 100, exact, reported);
+            if ((reported < exact) ||
+                (reported > (exact + (exact / SUB_BUCKETS)))) {
+                System.out.println("**** ERROR: p" + (which * 100) +
+                                   " should be about " + exact);
+                return(1);
+            }
+        }
+        if ((times.getDelivered() != ticks.length) ||
+            (times.getDeliveredFrom(0) != ticks.length) ||
+            (times.getDeliveredTo(0) != ticks.length) ||
+            (Math.abs(times.getMeanTicks() - times.getMeanTicksFrom(0)) >
+                                                                1e-9)) {
+            System.out.println("**** ERROR: counts don't add up");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /*
+     *  Run a chain of roads and make sure every vehicle that left was
+     *  counted once at each end, and that none crossed faster than a
+     *  slot a tick.
+     */
+    private static int  testRun(boolean doubleBuffered)
+    {
+        int             i;
+        int             roads;
+        int             cars;
+        long            from;
+        long            to;
+        TravelTimes     times;
+        BatchRunner     runner;
+
+        roads = 3;
+        cars = 15;
+        runner = new BatchRunner(roads, cars, 2, 1, Road.LaneKind.DENSE,
+                                 2026, EdgeOfMap.Arrivals.PER_TICK);
+        runner.getSimulation().setDoubleBuffered(doubleBuffered);
+        runner.run(5000);
+        times = runner.getSimulation().getTravelTimes();
+
+        from = 0;
+        for (i = 0; (i < times.getOriginCount()); ++i) {
+            from += times.getDeliveredFrom(i);
+        }
+        to = 0;
+        for (i = 0; (i < times.getDestinationCount()); ++i) {
+            System.out.printf("%s: %d, %.1f ticks\n",
+                              times.getDestinationName(i),
+                              times.getDeliveredTo(i),
+                              times.getMeanTicksTo(i));
+            to += times.getDeliveredTo(i);
+        }
+        System.out.printf("doubleBuffered %b: %d delivered, p50 %d" +
+                          " p95 %d p99 %d\n",
+                          doubleBuffered, times.getDelivered(),
+                          times.percentile(0.5), times.percentile(0.95),
+                          times.percentile(0.99));
+        if ((times.getOriginCount() != 3) ||
+            (times.getDestinationCount() != 3) ||
+            (times.getDelivered() == 0) ||
+            (times.getDelivered() != runner.getDelivered()) ||
+            (from != times.getDelivered()) ||
+            (to != times.getDelivered())) {
+            System.out.println("**** ERROR: " + runner.getDelivered() +
+                               " delivered, " + times.getDelivered() +
+                               " timed, " + from + " from and " + to +
+                               " to");
+            return(1);
+        }
+        if (times.percentile(0.0) < (roads * cars)) {
+            System.out.println("**** ERROR: a vehicle crossed " +
+                               (roads * cars) + " slots in " +
+                               times.percentile(0.0) + " ticks");
+            return(1);
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code TravelTimes} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int     exitCode;
+
+        exitCode = 0;
+        exitCode += testBuckets();
+        exitCode += testPercentiles();
+        exitCode += testRun(false);
+        exitCode += testRun(true);
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
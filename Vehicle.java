@@ -1,18 +1,34 @@
 package traffic;
 
 import java.util.*;
+import java.util.random.*;
 
 /**
  *  {@code Vehicle} is an abstract class defining things
  *  that travel on our roads.
- *  @version 20181130
+ *  The vehicles on the map are really rows in a {@code VehicleTable}
+ *  and lanes only pass around their handles.  A {@code Vehicle}
+ *  object is a view of one of those rows, made by {@code of()}, or a
+ *  vehicle that isn't on any map.
+ *  @version 2026101800
  *  @author William Hall
  */
 public abstract class Vehicle {
-    private final int           identifier;
-    private static int          nextIdentifier;
+    /**
+     *  The type of a {@code Car} in the default
+     *  {@code VehicleRegistry}.
+     */
+    static final byte           CAR             = 0;
+
+    /**
+     *  The type of a {@code Motorcycle} in the default
+     *  {@code VehicleRegistry}.
+     */
+    static final byte           MOTORCYCLE      = 1;
+
+    private final long          identifier;
+    private final int           handle;
     private final String        type;
-    private final int           hashCode;
     private static final Random ourRandom       = new Random();
     private static int			randomPercentage	= 0;
 
@@ -21,19 +37,70 @@ public abstract class Vehicle {
      */
     public Vehicle(String type)
     {
-        identifier = nextIdentifier++;
+        this(type, VehicleTable.NONE,
+             VehicleTable.getDefault().nextIdentifier());
+    }
+
+    /**
+     *  @param type required type of vehicle
+     *  @param handle The row of the vehicle in its
+     *  {@code VehicleTable} or {@code VehicleTable.NONE}
+     *  @param identifier The unique identifier of the vehicle
+     */
+    Vehicle(String type, int handle, long identifier)
+    {
+        this.identifier = identifier;
+        this.handle = handle;
         this.type = type;
-        hashCode = Objects.hash(identifier, type);
+    }
+
+    /**
+     *  Make a view of a vehicle in the default {@code VehicleTable}.
+     *  @param handle The row of the vehicle
+     *  @return The view or {@code null} for {@code VehicleTable.NONE}
+     */
+    static Vehicle      of(int handle)
+    {
+        return(of(VehicleTable.getDefault(), VehicleRegistry.getDefault(),
+                  handle));
+    }
+
+    /**
+     *  Make a view of a vehicle in a {@code VehicleTable}.
+     *  @param table The table the vehicle is in
+     *  @param registry The types of vehicles in the table
+     *  @param handle The row of the vehicle
+     *  @return The view or {@code null} for {@code VehicleTable.NONE}
+     */
+    static Vehicle      of(VehicleTable table, VehicleRegistry registry,
+                           int handle)
+    {
+        if (handle == VehicleTable.NONE) {
+            return(null);
+        }
+
+        return(registry.view(table.typeOf(handle), handle,
+                             table.identifierOf(handle)));
     }
 
     /**
      *  @return the unique identifier of the vehicle
      */
-    public int  getIdentifier()
+    public long getIdentifier()
     {
         return(identifier);
     }
 
+    /**
+     *  @return The row of the vehicle in its
+     *  {@code VehicleTable} or {@code VehicleTable.NONE} if it
+     *  isn't on a map
+     */
+    int         getHandle()
+    {
+        return(handle);
+    }
+
     /**
      *  @return the type of the vehicle
      */
@@ -72,34 +139,88 @@ public abstract class Vehicle {
     /**
      *  @return an instance of a randomly selected subclass
      *  of {@code Vehicle} or {@code null}.
-     *  Roughly 20% of the time we'll return a {@code Car},
-     *  5% of the time we'll return a {@code Motorcycle}
-     *  and the rest of the time we'll return {@code null}.
+     *  Each type registered in the default {@code VehicleRegistry}
+     *  comes up as often as its probability says; out of the box
+     *  that's a {@code Car} 20% of the time, a {@code Motorcycle} 5%
+     *  of the time and {@code null} the rest of the time.
      */
     static public Vehicle      nextRandom()
     {
-        int             nextRandom;
-        int				accumulatedPercentage;
+        byte    vehicleType;
 
-        /*
-         *  Get a random number between 0 and 99, inclusive.
-         */
-        nextRandom = ourRandom.nextInt(100);
-        accumulatedPercentage = 0;
+        vehicleType = nextRandomType();
+        if (vehicleType == VehicleTable.FREE) {
+            return(null);
+        }
 
-        accumulatedPercentage += Car.getRandomPercentage();
-        if (nextRandom < accumulatedPercentage) {
+        return(VehicleRegistry.getDefault().view(vehicleType,
+                        VehicleTable.NONE,
+                        VehicleTable.getDefault().nextIdentifier()));
+    }
 
-            return(new Car());
+    /**
+     *  Spawn a randomly selected type of vehicle, in the same
+     *  proportions as {@code nextRandom()}, as a row in a table.
+     *  @param table Where to put the vehicle
+     *  @param registry The types of vehicle to pick from
+     *  @param tick The tick on which the vehicle is spawned
+     *  @param random Where to get the random number
+     *  @param origin Where the vehicle comes onto the map or
+     *  {@code VehicleTable.NO_ORIGIN}
+     *  @return The handle of the new vehicle or
+     *  {@code VehicleTable.NONE}
+     */
+    static int          nextRandomHandle(VehicleTable table,
+                                         VehicleRegistry registry,
+                                         long tick,
+                                         RandomGenerator random,
+                                         int origin)
+    {
+        byte    vehicleType;
+
+        vehicleType = registry.sample(random);
+        if (vehicleType == VehicleTable.FREE) {
+            return(VehicleTable.NONE);
         }
 
-		accumulatedPercentage += Motorcycle.getRandomPercentage();
-        if (nextRandom < accumulatedPercentage) {
+        return(table.allocate(vehicleType, tick, origin));
+    }
 
-            return(new Motorcycle());
+    /**
+     *  Spawn a randomly selected type of vehicle, in the same
+     *  proportions as {@code nextRandom()}, as a row handed out by a
+     *  shard of a table.
+     *  @param rows Where to get the row
+     *  @param registry The types of vehicle to pick from
+     *  @param tick The tick on which the vehicle is spawned
+     *  @param random Where to get the random number
+     *  @param origin Where the vehicle comes onto the map or
+     *  {@code VehicleTable.NO_ORIGIN}
+     *  @return The handle of the new vehicle or
+     *  {@code VehicleTable.NONE}
+     */
+    static int          nextRandomHandle(VehicleTable.Shard rows,
+                                         VehicleRegistry registry,
+                                         long tick,
+                                         RandomGenerator random,
+                                         int origin)
+    {
+        byte    vehicleType;
+
+        vehicleType = registry.sample(random);
+        if (vehicleType == VehicleTable.FREE) {
+            return(VehicleTable.NONE);
         }
 
-        return(null);
+        return(rows.allocate(vehicleType, tick, origin));
+    }
+
+    /*
+     *  Pick the type of the next random vehicle or FREE for none.
+     */
+    private static byte nextRandomType()
+    {
+        return(VehicleRegistry.getDefault().sample(ourRandom));
     }
 
     /**
@@ -156,7 +277,7 @@ public abstract class Vehicle {
      */
     public int hashCode()
     {
-        return(hashCode);
+        return(Long.hashCode(identifier));
     }
 
     /**
@@ -169,6 +290,50 @@ public abstract class Vehicle {
                ",type=" + type + "]");
     }
 
+    /*
+     *  Spawn vehicles from a new shard of the default table on each
+     *  of several threads at once, let them go and return their
+     *  identifiers, or null if we were interrupted.
+     */
+    private static long[][] spawnOnThreads(int threads, int perThread)
+    {
+        int         i;
+        Thread      thread[];
+        long        identifiers[][];
+
+        thread = new Thread[threads];
+        identifiers = new long[threads][perThread];
+        for (i = 0; (i < threads); ++i) {
+            final VehicleTable.Shard    rows    =
+                                    VehicleTable.getDefault().newShard();
+            final long                  mine[]  = identifiers[i];
+
+            thread[i] = new Thread(() -> {
+                int     j;
+                int     handle;
+
+                for (j = 0; (j < mine.length); ++j) {
+                    handle = rows.allocate(CAR, j,
+                                           VehicleTable.NO_ORIGIN);
+                    mine[j] = Vehicle.of(handle).getIdentifier();
+                    VehicleTable.getDefault().release(handle);
+                }
+            });
+        }
+        for (Thread which : thread) {
+            which.start();
+        }
+        for (Thread which : thread) {
+            try {
+                which.join();
+            } catch (InterruptedException e) {
+                return(null);
+            }
+        }
+
+        return(identifiers);
+    }
+
     /**
      *  Performs a unit test on the {@code Vehicle} class
      *  by instantiating all subclasses and testing the
@@ -183,11 +348,14 @@ public abstract class Vehicle {
                               new Car(),
                               new Motorcycle()};
         int     i;
-        BitSet  usedIdentifiers;
+        Set<Long>   usedIdentifiers;
+        long    shardIdentifiers[][];
         String  typeName[]      = {"car", "motorcycle", "null"};
         int     typeCount[]     = {0, 0, 0};
         int     typePercent[]   = {20, 5, 75};
         int     randomCount;
+        int     handle;
+        Vehicle view;
 
         exitCode = 0;
         for (Vehicle which : vehicle) {
@@ -288,16 +456,16 @@ public abstract class Vehicle {
          *  and make sure the identifiers don't get duplicated.
          */
         i = 1024 * 1024;
-        usedIdentifiers = new BitSet(i);
+        usedIdentifiers = new HashSet<>();
         for (Vehicle which : vehicle) {
             /*
              *  Add the instantances we've already created to our
              *  database.
              */
-            usedIdentifiers.set(which.getIdentifier());
+            usedIdentifiers.add(which.getIdentifier());
         }
         for (; (i > 0); --i) {
-            int         identifier;
+            long        identifier;
             Vehicle     which;
 
             /*
@@ -314,20 +482,37 @@ public abstract class Vehicle {
              *  already in our database.
              */
             identifier = which.getIdentifier();
-            if (usedIdentifiers.get(identifier) == true) {
+            if (usedIdentifiers.add(identifier) == false) {
                 /*
                  *  We've seen this identifier before.
                  */
                 System.out.println(which + ": duplicate identifier(" +
                                    identifier + ")");
                 exitCode = 1;
-                continue;
             }
+        }
 
-            /*
-             *  Add this identifier to our database.
-             */
-            usedIdentifiers.set(identifier);
+        /*
+         *  Vehicles spawned from shards of their own, on threads of
+         *  their own, get identifiers from ranges of their own, far
+         *  past what fits in an int.
+         */
+        shardIdentifiers = spawnOnThreads(2, 1000);
+        if (shardIdentifiers == null) {
+            System.out.println("**** ERROR: interrupted");
+            exitCode = 1;
+        } else {
+            for (long fromShard[] : shardIdentifiers) {
+                for (long identifier : fromShard) {
+                    if (usedIdentifiers.add(identifier) == false) {
+                        System.out.println("**** ERROR: duplicate" +
+                                           " identifier(" + identifier +
+                                           ") from a shard");
+                        exitCode = 1;
+                        break;
+                    }
+                }
+            }
         }
 
         /*
@@ -417,6 +602,26 @@ public abstract class Vehicle {
             }
         }
 
+        /*
+         *  Make sure a view of a row in the table looks like the row.
+         */
+        handle = VehicleTable.getDefault().allocate(MOTORCYCLE, 42);
+        view = Vehicle.of(handle);
+        System.out.println(handle + ": " + view);
+        if ((view instanceof Motorcycle == false) ||
+            (view.getHandle() != handle) ||
+            (view.getIdentifier() !=
+                        VehicleTable.getDefault().identifierOf(handle)) ||
+            (view.equals(Vehicle.of(handle)) == false)) {
+            System.out.println("**** ERROR: view doesn't match its row");
+            exitCode = 1;
+        }
+        VehicleTable.getDefault().release(handle);
+        if (Vehicle.of(VehicleTable.NONE) != null) {
+            System.out.println("**** ERROR: view of no vehicle");
+            exitCode = 1;
+        }
+
         if (exitCode != 0) {
             /*
              *  We found a problem during unit test.
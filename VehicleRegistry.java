@@ -0,0 +1,663 @@
+package traffic;
+
+import java.util.*;
+import java.util.random.*;
+
+/**
+ *  {@code VehicleRegistry} knows every type of {@code Vehicle} that
+ *  can be spawned and how likely each one is.  Types are registered
+ *  at run time with a name, a label for people to read and a spawn
+ *  probability; whatever probability is left over is the chance of
+ *  spawning nothing.  Each type gets a small number, its type in a
+ *  {@code VehicleTable}.
+ *  <p>
+ *  Picking a random type uses the alias method: the probabilities are
+ *  turned into a table once, whenever they change, and after that
+ *  every pick costs one random number and one table lookup no matter
+ *  how many types there are.  The table is replaced rather than
+ *  changed, so picking never has to wait for anybody.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+public final class VehicleRegistry {
+    /**
+     *  The most types a registry can hold.
+     */
+    public static final int     MAX_TYPES       = Byte.MAX_VALUE;
+
+    private static final VehicleRegistry    defaultRegistry =
+                                                new VehicleRegistry();
+
+    private final List<Entry>   entries         = new ArrayList<>();
+    private volatile AliasTable aliasTable      = new AliasTable(
+                                                    new double[0], true);
+    private volatile AliasTable typeTable       = new AliasTable(
+                                                    new double[0], false);
+    private volatile char       letters[]       = new char[0];
+
+    static {
+        /*
+         *  The types we've always had, in the order Vehicle expects.
+         */
+        defaultRegistry.register("car", "Car", 0.20, Car::new);
+        defaultRegistry.register("motorcycle", "Motorcycle", 0.05,
+                                 Motorcycle::new);
+    }
+
+    /**
+     *  Makes a {@code Vehicle} object to stand for a row of a
+     *  {@code VehicleTable}.
+     */
+    @FunctionalInterface
+    interface   View {
+        /**
+         *  @param handle The row of the vehicle or
+         *  {@code VehicleTable.NONE} for a free-standing one
+         *  @param identifier The identifier of the vehicle
+         *  @return The view
+         */
+        Vehicle make(int handle, long identifier);
+    }
+
+    /*
+     *  This class remembers one registered type.
+     */
+    private static class        Entry {
+        private final String            name;
+        private final String            label;
+        private final View              view;
+        private double                  probability;
+
+        Entry(String name, String label, double probability,
+              View view)
+        {
+            this.name = name;
+            this.label = label;
+            this.probability = probability;
+            this.view = view;
+        }
+    }
+
+    /*
+     *  This class is a finished alias table.  Column i is picked with
+     *  probability 1/n; then it's outcome[i] with probability
+     *  cutoff[i] and outcome[alias[i]] otherwise.
+     */
+    private static class        AliasTable {
+        private final byte      outcome[];
+        private final double    cutoff[];
+        private final int       alias[];
+        private final double    spawnProbability;
+
+        /*
+         *  Build the table with Vose's method.  The last outcome is
+         *  "nothing" if the probabilities don't add up to one and we
+         *  were asked for it; otherwise the probabilities are scaled
+         *  to add up to one.
+         */
+        AliasTable(double probability[], boolean withNothing)
+        {
+            int         i;
+            int         n;
+            int         smallCount;
+            int         largeCount;
+            int         small[];
+            int         large[];
+            double      total;
+            double      scaled[];
+
+            total = 0;
+            for (double which : probability) {
+                total += which;
+            }
+            spawnProbability = Math.min(total, 1);
+            n = probability.length;
+            if ((total < 1) && (withNothing == true)) {
+                ++n;
+            } else if (total == 0) {
+                n = 0;
+            }
+            outcome = new byte[n];
+            cutoff = new double[n];
+            alias = new int[n];
+            scaled = new double[n];
+            for (i = 0; (i < n); ++i) {
+                outcome[i] = (byte)i;
+                if (i < probability.length) {
+                    /*
+                     *  If they add up to more than one, or there's no
+                     *  nothing, scale them so they add up to exactly
+                     *  one.
+                     */
+                    if (withNothing == true) {
+                        scaled[i] = probability[i] * n /
+                                                    Math.max(total, 1);
+                    } else {
+                        scaled[i] = probability[i] * n / total;
+                    }
+                } else {
+                    outcome[i] = VehicleTable.FREE;
+                    scaled[i] = (1 - total) * n;
+                }
+            }
+
+            /*
+             *  Pair every column with less than its share with one
+             *  that has more, topping it up from the bigger one.
+             */
+            small = new int[n];
+            large = new int[n];
+            smallCount = 0;
+            largeCount = 0;
+            for (i = 0; (i < n); ++i) {
+                if (scaled[i] < 1) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while ((smallCount > 0) && (largeCount > 0)) {
+                int     less;
+                int     more;
+
+                less = small[--smallCount];
+                more = large[--largeCount];
+                cutoff[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] = (scaled[more] + scaled[less]) - 1;
+                if (scaled[more] < 1) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+
+            /*
+             *  Whatever's left is full, give or take rounding.
+             */
+            while (largeCount > 0) {
+                i = large[--largeCount];
+                cutoff[i] = 1;
+                alias[i] = i;
+            }
+            while (smallCount > 0) {
+                i = small[--smallCount];
+                cutoff[i] = 1;
+                alias[i] = i;
+            }
+        }
+
+        byte    sample(double uniform)
+        {
+            int         column;
+            double      scaled;
+
+            if (outcome.length == 0) {
+                return(VehicleTable.FREE);
+            }
+
+            scaled = uniform * outcome.length;
+            column = (int)scaled;
+            if (column >= outcome.length) {
+                column = outcome.length - 1;
+            }
+            if ((scaled - column) < cutoff[column]) {
+                return(outcome[column]);
+            }
+
+            return(outcome[alias[column]]);
+        }
+    }
+
+    /**
+     *  @return The registry used by everything that doesn't bring its
+     *  own
+     */
+    public static VehicleRegistry       getDefault()
+    {
+        return(defaultRegistry);
+    }
+
+    /**
+     *  Register a type of {@code Vehicle}.  Registering a name that's
+     *  already registered just changes its probability.
+     *  @param name The type name, as returned by
+     *  {@code Vehicle.getType()}
+     *  @param label The name of the type for people to read
+     *  @param probability The chance of spawning this type, from 0
+     *  to 1
+     *  @return The number of the type
+     */
+    public byte register(String name, String label, double probability)
+    {
+        return(register(name, label, probability, null));
+    }
+
+    /**
+     *  Register a type of {@code Vehicle} with its own class of view.
+     *  @param name The type name, as returned by
+     *  {@code Vehicle.getType()}
+     *  @param label The name of the type for people to read
+     *  @param probability The chance of spawning this type, from 0
+     *  to 1
+     *  @param view Makes a view of a {@code VehicleTable} row of this
+     *  type, or a free-standing {@code Vehicle} when given
+     *  {@code VehicleTable.NONE}.  {@code null} for a plain one.
+     *  @return The number of the type
+     *  @throws IllegalArgumentException If the name is empty, since
+     *  its first letter stands for the type in a snapshot
+     */
+    synchronized byte   register(String name, String label,
+                                 double probability,
+                                 View view)
+    {
+        int     i;
+
+        if ((name == null) || (name.isEmpty() == true)) {
+            throw new IllegalArgumentException("vehicle type needs a" +
+                                               " name");
+        }
+        for (i = 0; (i < entries.size()); ++i) {
+            if (entries.get(i).name.equals(name) == true) {
+                setProbability((byte)i, probability);
+                return((byte)i);
+            }
+        }
+        if (entries.size() >= MAX_TYPES) {
+            throw new IllegalStateException("too many vehicle types");
+        }
+        checkProbability(probability);
+        if (view == null) {
+            view = (handle, identifier) -> new Vehicle(name, handle,
+                                                       identifier) {
+            };
+        }
+
+        entries.add(new Entry(name, label, probability, view));
+        rebuild();
+
+        return((byte)(entries.size() - 1));
+    }
+
+    /*
+     *  Complain about a probability that makes no sense.
+     */
+    private static void checkProbability(double probability)
+    {
+        if ((probability >= 0) && (probability <= 1)) {
+            return;
+        }
+
+        throw new IllegalArgumentException("bad probability " +
+                                           probability);
+    }
+
+    /*
+     *  Make a new alias table from the probabilities, and new letters
+     *  for snapshots.
+     */
+    private void        rebuild()
+    {
+        int         i;
+        double      probability[];
+        char        letter[];
+
+        probability = new double[entries.size()];
+        letter = new char[entries.size()];
+        for (i = 0; (i < probability.length); ++i) {
+            probability[i] = entries.get(i).probability;
+            letter[i] = entries.get(i).name.charAt(0);
+        }
+        aliasTable = new AliasTable(probability, true);
+        typeTable = new AliasTable(probability, false);
+        letters = letter;
+    }
+
+    /**
+     *  Change how likely a type is.  If all the probabilities add up
+     *  to more than one they're scaled down to add up to one, and
+     *  nothing is never picked.
+     *  @param type The number of the type
+     *  @param probability The chance of spawning this type, from 0
+     *  to 1
+     */
+    public synchronized void    setProbability(byte type,
+                                               double probability)
+    {
+        checkProbability(probability);
+        entries.get(type).probability = probability;
+        rebuild();
+    }
+
+    /**
+     *  @param type The number of the type
+     *  @return The chance of spawning this type
+     */
+    public synchronized double  getProbability(byte type)
+    {
+        return(entries.get(type).probability);
+    }
+
+    /**
+     *  @return The number of registered types
+     */
+    public synchronized int     size()
+    {
+        return(entries.size());
+    }
+
+    /**
+     *  @param name A type name
+     *  @return The number of the type or {@code VehicleTable.FREE} if
+     *  there isn't one by that name
+     */
+    public synchronized byte    typeOf(String name)
+    {
+        int     i;
+
+        for (i = 0; (i < entries.size()); ++i) {
+            if (entries.get(i).name.equals(name) == true) {
+                return((byte)i);
+            }
+        }
+
+        return(VehicleTable.FREE);
+    }
+
+    /**
+     *  @param type The number of the type
+     *  @return The type name
+     */
+    public synchronized String  nameOf(byte type)
+    {
+        return(entries.get(type).name);
+    }
+
+    /**
+     *  @param type The number of the type
+     *  @return The name of the type for people to read
+     */
+    public synchronized String  labelOf(byte type)
+    {
+        return(entries.get(type).label);
+    }
+
+    /**
+     *  @param type The number of the type or {@code VehicleTable.FREE}
+     *  @return The character that stands for the type in a snapshot
+     *  of a road.  Snapshots ask for every vehicle, so this never
+     *  waits for anybody.
+     */
+    char        letterOf(byte type)
+    {
+        char    letter[];
+
+        letter = letters;
+        if ((type < 0) || (type >= letter.length)) {
+            return('?');
+        }
+
+        return(letter[type]);
+    }
+
+    /**
+     *  Make a registry of its own with the same types and
+     *  probabilities as this one has right now.
+     *  @return The new registry
+     */
+    public synchronized VehicleRegistry copy()
+    {
+        VehicleRegistry     copy;
+
+        copy = new VehicleRegistry();
+        for (Entry which : entries) {
+            copy.entries.add(new Entry(which.name, which.label,
+                                       which.probability, which.view));
+        }
+        copy.rebuild();
+
+        return(copy);
+    }
+
+    /**
+     *  @param type The number of the type
+     *  @param handle A row of that type in a {@code VehicleTable} or
+     *  {@code VehicleTable.NONE}
+     *  @param identifier The identifier of the vehicle
+     *  @return A view of the row, or a free-standing {@code Vehicle}
+     *  of the type for {@code VehicleTable.NONE}
+     */
+    Vehicle     view(byte type, int handle, long identifier)
+    {
+        View    view;
+
+        synchronized (this) {
+            if ((type < 0) || (type >= entries.size())) {
+                return(null);
+            }
+            view = entries.get(type).view;
+        }
+
+        return(view.make(handle, identifier));
+    }
+
+    /**
+     *  Pick a type at random according to the probabilities.
+     *  @param random Where to get the random number
+     *  @return The number of the type or {@code VehicleTable.FREE} for
+     *  no vehicle at all
+     */
+    public byte sample(RandomGenerator random)
+    {
+        return(aliasTable.sample(random.nextDouble()));
+    }
+
+    /**
+     *  Pick a type at random given that a vehicle is spawned at all,
+     *  for somebody who has already decided that.
+     *  @param random Where to get the random number
+     *  @return The number of the type or {@code VehicleTable.FREE} if
+     *  no type could ever be spawned
+     */
+    public byte sampleType(RandomGenerator random)
+    {
+        return(typeTable.sample(random.nextDouble()));
+    }
+
+    /**
+     *  @return The chance of spawning any vehicle at all
+     */
+    public double       getSpawnProbability()
+    {
+        return(aliasTable.spawnProbability);
+    }
+
+    /*
+     *  Pick a lot of types and make sure each one came up about as
+     *  often as it should have.
+     */
+    private static int  testSampling(String what, VehicleRegistry registry,
+                                     double expected[], double none,
+                                     boolean given)
+    {
+        int             i;
+        int             samples;
+        int             errors;
+        int             count[];
+        SplittableRandom        random;
+
+        samples = 2000000;
+        count = new int[expected.length + 1];
+        random = new SplittableRandom(2026);
+        for (i = 0; (i < samples); ++i) {
+            byte    type;
+
+            type = registry.sample(random);
+            if (given == true) {
+                type = registry.sampleType(random);
+            }
+            if (type == VehicleTable.FREE) {
+                ++count[expected.length];
+            } else {
+                ++count[type];
+            }
+        }
+
+        errors = 0;
+        for (i = 0; (i <= expected.length); ++i) {
+            double      p;
+            double      sigma;
+
+            p = none;
+            if (i < expected.length) {
+                p = expected[i];
+            }
+            sigma = Math.sqrt(samples * p * (1 - p));
+            if (Math.abs(count[i] - (samples * p)) > ((5 * sigma) + 1)) {
+                System.out.println("**** ERROR: " + what + " outcome " +
+                                   i + " came up " + count[i] +
+                                   " times instead of about " +
+                                   (samples * p));
+                ++errors;
+            }
+        }
+        System.out.println(what + ": " + Arrays.toString(count));
+
+        return(errors);
+    }
+
+    /**
+     *  Performs a unit test on the {@code VehicleRegistry} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int                 exitCode;
+        int                 i;
+        double              expected[];
+        double              total;
+        VehicleRegistry     registry;
+        VehicleRegistry     copy;
+        Vehicle             vehicle;
+
+        exitCode = 0;
+
+        /*
+         *  The default registry has what we've always had.
+         */
+        registry = getDefault();
+        if ((registry.typeOf("car") != Vehicle.CAR) ||
+            (registry.typeOf("motorcycle") != Vehicle.MOTORCYCLE) ||
+            (registry.typeOf("zeppelin") != VehicleTable.FREE)) {
+            System.out.println("**** ERROR: default types are wrong");
+            ++exitCode;
+        }
+        vehicle = registry.view(Vehicle.CAR, VehicleTable.NONE, 1);
+        if ((vehicle instanceof Car == false) ||
+            (vehicle.getType().equals("car") == false)) {
+            System.out.println("**** ERROR: car view is " + vehicle);
+            ++exitCode;
+        }
+        exitCode += testSampling("default", registry,
+                                 new double[] {0.20, 0.05}, 0.75, false);
+        exitCode += testSampling("default given a vehicle", registry,
+                                 new double[] {0.80, 0.20}, 0, true);
+
+        /*
+         *  A fleet of two dozen types, some of them rare.
+         */
+        registry = new VehicleRegistry();
+        expected = new double[24];
+        total = 0;
+        for (i = 0; (i < expected.length); ++i) {
+            expected[i] = 0.001 + (0.0025 * i);
+            total += expected[i];
+            if (registry.register("type" + i, "Type " + i,
+                                  expected[i]) != i) {
+                System.out.println("**** ERROR: type" + i +
+                                   " got the wrong number");
+                ++exitCode;
+            }
+        }
+        vehicle = registry.view((byte)3, VehicleTable.NONE, 2);
+        if (vehicle.getType().equals("type3") == false) {
+            System.out.println("**** ERROR: plain view is " + vehicle);
+            ++exitCode;
+        }
+        exitCode += testSampling("fleet", registry, expected, 1 - total,
+                                 false);
+
+        /*
+         *  A copy has the same types but its own probabilities.
+         */
+        copy = registry.copy();
+        copy.setProbability((byte)0, 0.5);
+        if ((copy.size() != registry.size()) ||
+            (copy.nameOf((byte)7).equals("type7") == false) ||
+            (registry.getProbability((byte)0) != expected[0])) {
+            System.out.println("**** ERROR: copy isn't on its own");
+            ++exitCode;
+        }
+        if (Math.abs(registry.getSpawnProbability() - total) > 1e-9) {
+            System.out.println("**** ERROR: spawn probability is " +
+                               registry.getSpawnProbability() +
+                               " should be " + total);
+            ++exitCode;
+        }
+
+        /*
+         *  Re-registering changes the probability.  Too much
+         *  probability gets scaled down and nothing never comes up.
+         */
+        registry = new VehicleRegistry();
+        registry.register("a", "A", 0.5);
+        registry.register("b", "B", 0.5);
+        registry.register("a", "A", 1.0);
+        if (registry.size() != 2) {
+            System.out.println("**** ERROR: re-registering added a type");
+            ++exitCode;
+        }
+        exitCode += testSampling("scaled", registry,
+                                 new double[] {2.0 / 3, 1.0 / 3}, 0, false);
+
+        /*
+         *  A type needs a name to get a letter from.
+         */
+        if ((registry.letterOf((byte)0) != 'a') ||
+            (registry.letterOf((byte)2) != '?') ||
+            (registry.letterOf(VehicleTable.FREE) != '?')) {
+            System.out.println("**** ERROR: wrong letters");
+            ++exitCode;
+        }
+        for (String name : new String[] {null, ""}) {
+            try {
+                registry.register(name, "Nameless", 0.1);
+                System.out.println("**** ERROR: registered \"" + name +
+                                   "\"");
+                ++exitCode;
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        if (registry.size() != 2) {
+            System.out.println("**** ERROR: nameless type registered");
+            ++exitCode;
+        }
+
+        /*
+         *  Nothing registered means nothing spawned.
+         */
+        registry = new VehicleRegistry();
+        exitCode += testSampling("empty", registry, new double[0], 1,
+                                 false);
+        exitCode += testSampling("empty given a vehicle", registry,
+                                 new double[0], 1, true);
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
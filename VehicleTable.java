@@ -0,0 +1,897 @@
+package traffic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  {@code VehicleTable} keeps every {@code Vehicle} on the map as a
+ *  row of primitive columns instead of as an object of its own.  A
+ *  vehicle is known by its handle, an {@code int} index into the
+ *  columns, which is what lanes store and pass along.  The columns are
+ *  the type of the vehicle, its 64-bit identifier, the tick it was
+ *  spawned on and where it came onto the map.  When a vehicle leaves
+ *  the map its row goes on a free list to be used by the next vehicle
+ *  spawned, so a busy map settles down to a fixed number of rows and
+ *  makes no garbage at all.
+ *  <p>
+ *  The columns are kept in fixed-size segments that never move once
+ *  allocated, found through a directory of fixed size that is never
+ *  replaced, so looking at a row takes no lock even while other
+ *  threads add segments.  A handle is only ever handed from thread to
+ *  thread along with everything else in a tick.
+ *  <p>
+ *  Rows are handed out by a {@code Shard}, one for each thing that
+ *  spawns vehicles on its own.  A shard takes
+ *  fresh rows from the table a block at a time and keeps a free list
+ *  of its own, and a vehicle's row goes back to the shard it came
+ *  from when whichever thread is ticking the lane it leaves by lets
+ *  it go, so threads spawning and delivering vehicles never wait for
+ *  each other.  Each shard hands out identifiers from a range of its
+ *  own too, so a vehicle's identifier only depends on where it came
+ *  from and how many came before it, not on which thread spawned it.
+ *  Callers that don't bring a shard share one that hands out rows
+ *  under the table's lock.
+ *  <p>
+ *  {@code Vehicle} objects are views on top of a row: see
+ *  {@code Vehicle.of()}.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+final class VehicleTable {
+    /**
+     *  The handle meaning "no vehicle".  It is zero so freshly
+     *  allocated {@code int} arrays are full of empty slots.
+     */
+    static final int            NONE            = 0;
+
+    /**
+     *  The type stored for a row that isn't in use.
+     */
+    static final byte           FREE            = -1;
+
+    /**
+     *  The origin stored for a vehicle that didn't come from a
+     *  numbered origin.
+     */
+    static final int            NO_ORIGIN       = -1;
+
+    /**
+     *  The number of fresh rows a {@code Shard} takes at a time.
+     */
+    static final int            BLOCK_SIZE      = 64;
+
+    private static final int    SEGMENT_SHIFT   = 12;
+    private static final int    SEGMENT_SIZE    = 1 << SEGMENT_SHIFT;
+    private static final int    SEGMENT_MASK    = SEGMENT_SIZE - 1;
+
+    /*
+     *  Enough segments for 16 million vehicles at once.
+     */
+    private static final int    MAX_SEGMENTS    = 1 << 12;
+
+    private static final VehicleTable   defaultTable    =
+                                                new VehicleTable();
+
+    private final AtomicReferenceArray<Segment> segment =
+                            new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final AtomicInteger highWater       = new AtomicInteger(1);
+    private volatile Shard      shard[]         = new Shard[0];
+    private final LongAdder     liveCount       = new LongAdder();
+    private final Shard         common;
+    private final IdAllocator   allocator       = new IdAllocator();
+
+    /*
+     *  One segment of each column.  The owner column is the number of
+     *  the shard that handed the row out.
+     */
+    private static final class  Segment {
+        final byte      type[]          = new byte[SEGMENT_SIZE];
+        final long      identifier[]    = new long[SEGMENT_SIZE];
+        final long      spawnTick[]     = new long[SEGMENT_SIZE];
+        final int       origin[]        = new int[SEGMENT_SIZE];
+        final int       owner[]         = new int[SEGMENT_SIZE];
+        final int       nextFree[]      = new int[SEGMENT_SIZE];
+
+        /*
+         *  Return a copy of the segment.
+         */
+        Segment copy()
+        {
+            Segment     copy;
+
+            copy = new Segment();
+            System.arraycopy(type, 0, copy.type, 0, SEGMENT_SIZE);
+            System.arraycopy(identifier, 0, copy.identifier, 0,
+                             SEGMENT_SIZE);
+            System.arraycopy(spawnTick, 0, copy.spawnTick, 0,
+                             SEGMENT_SIZE);
+            System.arraycopy(origin, 0, copy.origin, 0, SEGMENT_SIZE);
+            System.arraycopy(owner, 0, copy.owner, 0, SEGMENT_SIZE);
+            System.arraycopy(nextFree, 0, copy.nextFree, 0,
+                             SEGMENT_SIZE);
+
+            return(copy);
+        }
+    }
+
+    /**
+     *  This class hands out rows without taking any lock.  A
+     *  {@code Shard} must only be used to allocate rows by one thread
+     *  at a time, but its rows may be released by any thread: they go
+     *  on a stack the other threads push onto, which the shard takes
+     *  over in one go when its own free list runs out.
+     */
+    final class         Shard {
+        private final int           number;
+        private int                 next;
+        private int                 end;
+        private int                 freeHead        = NONE;
+        private final AtomicInteger returned        =
+                                            new AtomicInteger(NONE);
+        private int                 rows;
+        private final IdAllocator.Shard identifiers;
+
+        /*
+         *  Shards are numbered in the order they were made, and so
+         *  are their ranges of identifiers.
+         */
+        private Shard(int number, IdAllocator.Shard identifiers)
+        {
+            this.number = number;
+            this.identifiers = identifiers;
+        }
+
+        /**
+         *  @return Where the shard is in the order shards were made
+         */
+        int     number()
+        {
+            return(number);
+        }
+
+        /**
+         *  Make a row for a new vehicle, reusing one this shard
+         *  handed out before if it has been released.
+         *  @param vehicleType The type of the vehicle
+         *  @param tick The tick on which the vehicle was spawned
+         *  @param from Where the vehicle came onto the map, as
+         *  numbered by {@code TravelTimes.addOrigin()}, or
+         *  {@code NO_ORIGIN}
+         *  @return The handle of the new vehicle, never {@code NONE}
+         */
+        int     allocate(byte vehicleType, long tick, int from)
+        {
+            int         handle;
+            int         offset;
+            Segment     in;
+
+            handle = freeHead;
+            if ((handle == NONE) && (returned.get() != NONE)) {
+                /*
+                 *  Take back every row released since we last
+                 *  looked.
+                 */
+                handle = returned.getAndSet(NONE);
+            }
+            if (handle != NONE) {
+                in = segment.get(handle >>> SEGMENT_SHIFT);
+                offset = handle & SEGMENT_MASK;
+                freeHead = in.nextFree[offset];
+            } else {
+                if (next == end) {
+                    next = claim();
+                    end = next + BLOCK_SIZE;
+                }
+                handle = next++;
+                in = segment.get(handle >>> SEGMENT_SHIFT);
+                offset = handle & SEGMENT_MASK;
+                in.owner[offset] = number;
+                ++rows;
+            }
+
+            in.type[offset] = vehicleType;
+            in.identifier[offset] = identifiers.next();
+            in.spawnTick[offset] = tick;
+            in.origin[offset] = from;
+            in.nextFree[offset] = NONE;
+            liveCount.increment();
+
+            return(handle);
+        }
+
+        /*
+         *  Push a released row onto the stack of rows to give back.
+         */
+        private void    giveBack(Segment in, int handle)
+        {
+            int     head;
+
+            do {
+                head = returned.get();
+                in.nextFree[handle & SEGMENT_MASK] = head;
+            } while (returned.compareAndSet(head, handle) == false);
+        }
+
+        /*
+         *  Make this shard hand out rows the way the given one does.
+         */
+        private void    copyFrom(Shard parent)
+        {
+            next = parent.next;
+            end = parent.end;
+            freeHead = parent.freeHead;
+            returned.set(parent.returned.get());
+            rows = parent.rows;
+            identifiers.moveTo(parent.identifiers.position());
+        }
+    }
+
+    /**
+     *  Make an empty table.
+     */
+    VehicleTable()
+    {
+        common = newShard();
+    }
+
+    /**
+     *  @return The table used by everything that doesn't bring its
+     *  own
+     */
+    static VehicleTable getDefault()
+    {
+        return(defaultTable);
+    }
+
+    /**
+     *  Make a {@code Shard} for something that spawns vehicles on its
+     *  own.  Do this while wiring up the map.
+     *  @return The new {@code Shard}
+     */
+    synchronized Shard  newShard()
+    {
+        Shard   made[];
+
+        made = Arrays.copyOf(shard, shard.length + 1);
+        made[shard.length] = new Shard(shard.length,
+                                       allocator.newShard());
+        shard = made;
+
+        return(made[made.length - 1]);
+    }
+
+    /**
+     *  Find a copy's {@code Shard} for a fork.
+     *  @param number The number of the shard in the table this one
+     *  was copied from
+     *  @return The shard with that number
+     */
+    Shard       shard(int number)
+    {
+        return(shard[number]);
+    }
+
+    /*
+     *  Take a block of fresh rows, making sure their segments are
+     *  there, and return the first.
+     */
+    private int claim()
+    {
+        int     first;
+        int     which;
+
+        first = highWater.getAndAdd(BLOCK_SIZE);
+        if (first > ((MAX_SEGMENTS << SEGMENT_SHIFT) - BLOCK_SIZE)) {
+            throw new IllegalStateException("too many vehicles");
+        }
+        for (which = first >>> SEGMENT_SHIFT;
+             (which <= ((first + BLOCK_SIZE - 1) >>> SEGMENT_SHIFT));
+             ++which) {
+            if (segment.get(which) == null) {
+                segment.compareAndSet(which, null, new Segment());
+            }
+        }
+
+        return(first);
+    }
+
+    /**
+     *  @return A new identifier for a {@code Vehicle} from the shared
+     *  {@code Shard}, unique among everything this table has handed
+     *  out
+     */
+    synchronized long   nextIdentifier()
+    {
+        return(common.identifiers.next());
+    }
+
+    /**
+     *  Make a row for a new vehicle that didn't come from a numbered
+     *  origin.
+     *  @param vehicleType The type of the vehicle
+     *  @param tick The tick on which the vehicle was spawned
+     *  @return The handle of the new vehicle, never {@code NONE}
+     */
+    int         allocate(byte vehicleType, long tick)
+    {
+        return(allocate(vehicleType, tick, NO_ORIGIN));
+    }
+
+    /**
+     *  Make a row for a new vehicle from the shared {@code Shard}.
+     *  Anything that spawns a lot of vehicles should use a shard of
+     *  its own instead.
+     *  @param vehicleType The type of the vehicle
+     *  @param tick The tick on which the vehicle was spawned
+     *  @param from Where the vehicle came onto the map, as numbered by
+     *  {@code TravelTimes.addOrigin()}, or {@code NO_ORIGIN}
+     *  @return The handle of the new vehicle, never {@code NONE}
+     */
+    synchronized int    allocate(byte vehicleType, long tick, int from)
+    {
+        return(common.allocate(vehicleType, tick, from));
+    }
+
+    /**
+     *  Give back the row of a vehicle that has left the map, to the
+     *  {@code Shard} that handed it out.  Giving back {@code NONE}
+     *  or a row that is already free does nothing.  Any thread may
+     *  do this.
+     *  @param handle The handle of the vehicle
+     */
+    void        release(int handle)
+    {
+        int         offset;
+        Segment     in;
+
+        if (handle == NONE) {
+            return;
+        }
+
+        in = segment.get(handle >>> SEGMENT_SHIFT);
+        offset = handle & SEGMENT_MASK;
+        if (in.type[offset] == FREE) {
+            return;
+        }
+        in.type[offset] = FREE;
+        shard[in.owner[offset]].giveBack(in, handle);
+        liveCount.decrement();
+    }
+
+    /**
+     *  @param handle The handle of a vehicle
+     *  @return The type of the vehicle or {@code FREE}
+     */
+    byte        typeOf(int handle)
+    {
+        return(segment.get(handle >>> SEGMENT_SHIFT)
+                      .type[handle & SEGMENT_MASK]);
+    }
+
+    /**
+     *  @param handle The handle of a vehicle
+     *  @return The identifier of the vehicle
+     */
+    long        identifierOf(int handle)
+    {
+        return(segment.get(handle >>> SEGMENT_SHIFT)
+                      .identifier[handle & SEGMENT_MASK]);
+    }
+
+    /**
+     *  @param handle The handle of a vehicle
+     *  @return The tick on which the vehicle was spawned
+     */
+    long        spawnTickOf(int handle)
+    {
+        return(segment.get(handle >>> SEGMENT_SHIFT)
+                      .spawnTick[handle & SEGMENT_MASK]);
+    }
+
+    /**
+     *  @param handle The handle of a vehicle
+     *  @return Where the vehicle came onto the map or
+     *  {@code NO_ORIGIN}
+     */
+    int         originOf(int handle)
+    {
+        return(segment.get(handle >>> SEGMENT_SHIFT)
+                      .origin[handle & SEGMENT_MASK]);
+    }
+
+    /**
+     *  @return The number of vehicles on the map.  This takes no lock,
+     *  so it can be asked after every tick for nothing.
+     */
+    int         liveCount()
+    {
+        return((int)liveCount.sum());
+    }
+
+    /**
+     *  @return The number of rows ever used.  With one shard that is
+     *  the most vehicles that were ever on the map at once; with more,
+     *  it is the sum of each shard's most.  Only ask between ticks.
+     */
+    synchronized int    rowCount()
+    {
+        int     rows;
+
+        rows = 0;
+        for (Shard which : shard) {
+            rows += which.rows;
+        }
+
+        return(rows);
+    }
+
+    /*
+     *  Return the number of segments holding the rows handed out so
+     *  far.
+     */
+    private int segmentCount()
+    {
+        if (highWater.get() == 1) {
+            return(0);
+        }
+
+        return(((highWater.get() - 1) >>> SEGMENT_SHIFT) + 1);
+    }
+
+    /**
+     *  Make a copy of the table for a fork, with a copy of every
+     *  {@code Shard} under the same number.  Each shard of the copy
+     *  hands out the same identifiers the same shard of this table
+     *  would.  Only do this between ticks.
+     *  @return The copy
+     */
+    synchronized VehicleTable   copy()
+    {
+        int             which;
+        VehicleTable    copy;
+
+        copy = new VehicleTable();
+        for (which = 0; (which < segmentCount()); ++which) {
+            copy.segment.set(which, segment.get(which).copy());
+        }
+        copy.highWater.set(highWater.get());
+        for (which = 0; (which < shard.length); ++which) {
+            if (which > 0) {
+                copy.newShard();
+            }
+            copy.shard[which].copyFrom(shard[which]);
+        }
+        copy.liveCount.add(liveCount.sum());
+
+        return(copy);
+    }
+
+    /**
+     *  Write every row ever used, a column at a time, and where each
+     *  {@code Shard} is.  Only do this between ticks.
+     *  @param out Where to write them
+     *  @throws IOException If they can't be written
+     */
+    synchronized void   save(Checkpoint.Writer out) throws IOException
+    {
+        int     which;
+        int     rows;
+        Segment in;
+
+        out.putInt(highWater.get());
+        out.putInt(shard.length);
+        for (Shard each : shard) {
+            out.putInt(each.next);
+            out.putInt(each.end);
+            out.putInt(each.freeHead);
+            out.putInt(each.returned.get());
+            out.putInt(each.rows);
+            out.putLong(each.identifiers.position());
+        }
+        out.putInt(liveCount());
+        out.putInt(segmentCount());
+        for (which = 0; (which < segmentCount()); ++which) {
+            in = segment.get(which);
+            rows = Math.min(SEGMENT_SIZE,
+                            highWater.get() - (which << SEGMENT_SHIFT));
+            out.putBytes(in.type, 0, rows);
+            out.putLongs(in.identifier, 0, rows);
+            out.putLongs(in.spawnTick, 0, rows);
+            out.putInts(in.origin, 0, rows);
+            out.putInts(in.owner, 0, rows);
+            out.putInts(in.nextFree, 0, rows);
+        }
+    }
+
+    /**
+     *  Throw away every row and read back the ones {@code save()}
+     *  wrote.  The table must have as many shards as the one saved.
+     *  Each shard hands out the identifiers it would have if the run
+     *  hadn't stopped.
+     *  @param in Where to read them from
+     *  @throws IOException If they can't be read
+     */
+    synchronized void   restore(Checkpoint.Reader in) throws IOException
+    {
+        int     which;
+        int     rows;
+        int     newHighWater;
+        Segment into;
+
+        newHighWater = in.getInt();
+        if ((newHighWater < 1) ||
+            (newHighWater > (MAX_SEGMENTS << SEGMENT_SHIFT)) ||
+            (in.getInt() != shard.length)) {
+            throw new IOException("bad vehicle table in checkpoint");
+        }
+        highWater.set(newHighWater);
+        for (Shard each : shard) {
+            each.next = in.getInt();
+            each.end = in.getInt();
+            each.freeHead = in.getInt();
+            each.returned.set(in.getInt());
+            each.rows = in.getInt();
+            if (each.identifiers.moveTo(in.getLong()) == false) {
+                throw new IOException("bad vehicle table in checkpoint");
+            }
+        }
+        liveCount.reset();
+        liveCount.add(in.getInt());
+        if (in.getInt() != segmentCount()) {
+            throw new IOException("bad vehicle table in checkpoint");
+        }
+        for (which = 0; (which < MAX_SEGMENTS); ++which) {
+            into = segment.get(which);
+            if (which >= segmentCount()) {
+                segment.set(which, null);
+                continue;
+            }
+            if (into == null) {
+                into = new Segment();
+                segment.set(which, into);
+            }
+            rows = Math.min(SEGMENT_SIZE,
+                            newHighWater - (which << SEGMENT_SHIFT));
+            in.getBytes(into.type, 0, rows);
+            in.getLongs(into.identifier, 0, rows);
+            in.getLongs(into.spawnTick, 0, rows);
+            in.getInts(into.origin, 0, rows);
+            in.getInts(into.owner, 0, rows);
+            in.getInts(into.nextFree, 0, rows);
+        }
+    }
+
+    /*
+     *  Spawn vehicles on several threads, each with its own shard,
+     *  let them go on other threads and make sure each shard gets its
+     *  own rows back.
+     */
+    private static int  testShards()
+    {
+        int             i;
+        int             exitCode;
+        int             perThread;
+        VehicleTable    table;
+        Thread          thread[];
+        Shard           shard[];
+        int             handles[][];
+        int             again[][];
+        BitSet          usedHandles;
+
+        exitCode = 0;
+        table = new VehicleTable();
+        thread = new Thread[4];
+        shard = new Shard[thread.length];
+        perThread = 10000;
+        handles = new int[thread.length][perThread];
+        again = new int[thread.length][perThread];
+        for (i = 0; (i < thread.length); ++i) {
+            shard[i] = table.newShard();
+        }
+
+        /*
+         *  Spawn on every thread at once.
+         */
+        for (i = 0; (i < thread.length); ++i) {
+            final Shard     from    = shard[i];
+            final int       mine[]  = handles[i];
+            final byte      type    = (byte)i;
+
+            thread[i] = new Thread(() -> {
+                int     j;
+
+                for (j = 0; (j < mine.length); ++j) {
+                    mine[j] = from.allocate(type, j, NO_ORIGIN);
+                }
+            });
+        }
+        exitCode += runAll(thread);
+        usedHandles = new BitSet();
+        for (i = 0; (i < thread.length); ++i) {
+            for (int handle : handles[i]) {
+                if ((handle == NONE) ||
+                    (usedHandles.get(handle) == true) ||
+                    (table.typeOf(handle) != (byte)i)) {
+                    System.out.println("**** ERROR: handle " + handle +
+                                       " from shard " + i +
+                                       " is wrong");
+                    return(exitCode + 1);
+                }
+                usedHandles.set(handle);
+            }
+        }
+
+        /*
+         *  Let every thread's vehicles go on the next thread, all at
+         *  once, then spawn the same number again.
+         */
+        for (i = 0; (i < thread.length); ++i) {
+            final int       theirs[]    =
+                                handles[(i + 1) % thread.length];
+
+            thread[i] = new Thread(() -> {
+                for (int handle : theirs) {
+                    table.release(handle);
+                }
+            });
+        }
+        exitCode += runAll(thread);
+        if (table.liveCount() != 0) {
+            System.out.println("**** ERROR: liveCount() is " +
+                               table.liveCount() + " after releasing" +
+                               " everything");
+            ++exitCode;
+        }
+        for (i = 0; (i < thread.length); ++i) {
+            final Shard     from    = shard[i];
+            final int       mine[]  = again[i];
+
+            thread[i] = new Thread(() -> {
+                int     j;
+
+                for (j = 0; (j < mine.length); ++j) {
+                    mine[j] = from.allocate((byte)7, j, NO_ORIGIN);
+                }
+            });
+        }
+        exitCode += runAll(thread);
+
+        /*
+         *  Each shard got back exactly the rows it handed out before.
+         */
+        for (i = 0; (i < thread.length); ++i) {
+            int     before[];
+            int     after[];
+
+            before = handles[i].clone();
+            after = again[i].clone();
+            Arrays.sort(before);
+            Arrays.sort(after);
+            if (Arrays.equals(before, after) == false) {
+                System.out.println("**** ERROR: shard " + i +
+                                   " didn't get its own rows back");
+                ++exitCode;
+            }
+        }
+        if ((table.rowCount() != (thread.length * perThread)) ||
+            (table.liveCount() != (thread.length * perThread))) {
+            System.out.println("**** ERROR: " + table.rowCount() +
+                               " rows and " + table.liveCount() +
+                               " live for " +
+                               (thread.length * perThread) +
+                               " vehicles");
+            ++exitCode;
+        }
+
+        return(exitCode);
+    }
+
+    /*
+     *  Spawn vehicles from two shards on two threads, one of them
+     *  well into its range, and make sure no two of them or of the
+     *  shared shard's vehicles have the same identifier.
+     */
+    private static int  testIdentifiers()
+    {
+        int             i;
+        int             exitCode;
+        long            identifier;
+        long            first;
+        VehicleTable    table;
+        Thread          thread[];
+        Shard           shard[];
+        int             handles[][];
+        Set<Long>       usedIdentifiers;
+
+        exitCode = 0;
+        table = new VehicleTable();
+        thread = new Thread[2];
+        shard = new Shard[thread.length];
+        handles = new int[thread.length][1000];
+        for (i = 0; (i < thread.length); ++i) {
+            shard[i] = table.newShard();
+        }
+        first = shard[1].identifiers.position();
+        shard[1].identifiers.moveTo(first + Integer.MAX_VALUE -
+                                    (handles[1].length / 2));
+        for (i = 0; (i < thread.length); ++i) {
+            final Shard     from    = shard[i];
+            final int       mine[]  = handles[i];
+
+            thread[i] = new Thread(() -> {
+                int     j;
+
+                for (j = 0; (j < mine.length); ++j) {
+                    mine[j] = from.allocate(Vehicle.CAR, j, NO_ORIGIN);
+                }
+            });
+        }
+        exitCode += runAll(thread);
+
+        usedIdentifiers = new HashSet<>();
+        for (i = 0; (i < 1000); ++i) {
+            usedIdentifiers.add(table.identifierOf(
+                                    table.allocate(Vehicle.CAR, i)));
+        }
+        for (i = 0; (i < thread.length); ++i) {
+            for (int handle : handles[i]) {
+                identifier = table.identifierOf(handle);
+                if (usedIdentifiers.add(identifier) == false) {
+                    System.out.println("**** ERROR: duplicate" +
+                                       " identifier " + identifier +
+                                       " from shard " + i);
+                    return(exitCode + 1);
+                }
+            }
+        }
+        identifier = table.identifierOf(handles[1][handles[1].length -
+                                                   1]);
+        if ((identifier - first) <= Integer.MAX_VALUE) {
+            System.out.println("**** ERROR: identifier " + identifier +
+                               " isn't past " + Integer.MAX_VALUE +
+                               " in its shard");
+            ++exitCode;
+        }
+
+        return(exitCode);
+    }
+
+    /*
+     *  Start every thread and wait for them all.
+     */
+    private static int  runAll(Thread thread[])
+    {
+        for (Thread which : thread) {
+            which.start();
+        }
+        for (Thread which : thread) {
+            try {
+                which.join();
+            } catch (InterruptedException e) {
+                System.out.println("**** ERROR: interrupted");
+                return(1);
+            }
+        }
+
+        return(0);
+    }
+
+    /**
+     *  Performs a unit test on the {@code VehicleTable} class.
+     *  @param args arguments to the unit test
+     */
+    public static void main(String[] args)
+    {
+        int             exitCode;
+        int             i;
+        int             handle;
+        int             handles[];
+        VehicleTable    table;
+        Set<Long>       usedIdentifiers;
+        BitSet          usedHandles;
+
+        exitCode = 0;
+        table = new VehicleTable();
+
+        /*
+         *  Fill more than one segment and make sure every row is
+         *  what we put in it.
+         */
+        handles = new int[(3 * SEGMENT_SIZE) + 5];
+        usedIdentifiers = new HashSet<>();
+        usedHandles = new BitSet();
+        for (i = 0; (i < handles.length); ++i) {
+            handles[i] = table.allocate((byte)(i % 3), i * 10L);
+            if (handles[i] == NONE) {
+                System.out.println("**** ERROR: allocate() gave NONE");
+                ++exitCode;
+            }
+            if (usedHandles.get(handles[i]) == true) {
+                System.out.println("**** ERROR: handle " + handles[i] +
+                                   " given out twice");
+                ++exitCode;
+            }
+            usedHandles.set(handles[i]);
+            if (usedIdentifiers.add(table.identifierOf(handles[i])) ==
+                                                                false) {
+                System.out.println("**** ERROR: duplicate identifier " +
+                                   table.identifierOf(handles[i]));
+                ++exitCode;
+            }
+        }
+        for (i = 0; (i < handles.length); ++i) {
+            if ((table.typeOf(handles[i]) != (byte)(i % 3)) ||
+                (table.spawnTickOf(handles[i]) != (i * 10L))) {
+                System.out.println("**** ERROR: row " + handles[i] +
+                                   " lost its columns");
+                ++exitCode;
+                break;
+            }
+        }
+        if (table.liveCount() != handles.length) {
+            System.out.println("**** ERROR: liveCount() is " +
+                               table.liveCount() + " should be " +
+                               handles.length);
+            ++exitCode;
+        }
+
+        /*
+         *  Release every other row and make sure the next vehicles
+         *  reuse them instead of growing the table.
+         */
+        for (i = 0; (i < handles.length); i += 2) {
+            table.release(handles[i]);
+            if (table.typeOf(handles[i]) != FREE) {
+                System.out.println("**** ERROR: released row " +
+                                   handles[i] + " isn't free");
+                ++exitCode;
+            }
+        }
+        table.release(handles[0]);
+        table.release(NONE);
+        if (table.liveCount() != (handles.length / 2)) {
+            System.out.println("**** ERROR: liveCount() is " +
+                               table.liveCount() + " should be " +
+                               (handles.length / 2));
+            ++exitCode;
+        }
+        for (i = 0; (i < handles.length); i += 2) {
+            handle = table.allocate((byte)7, 99);
+            if ((handle % 2) == 0) {
+                /*
+                 *  Rows start at 1 so the released ones are odd.
+                 */
+                System.out.println("**** ERROR: handle " + handle +
+                                   " wasn't a released row");
+                ++exitCode;
+                break;
+            }
+            if (usedIdentifiers.add(table.identifierOf(handle)) ==
+                                                                false) {
+                System.out.println("**** ERROR: reused row kept" +
+                                   " identifier " +
+                                   table.identifierOf(handle));
+                ++exitCode;
+                break;
+            }
+        }
+        if (table.rowCount() != handles.length) {
+            System.out.println("**** ERROR: rowCount() is " +
+                               table.rowCount() + " should be " +
+                               handles.length);
+            ++exitCode;
+        }
+
+        exitCode += testShards();
+        exitCode += testIdentifiers();
+
+        if (exitCode != 0) {
+            /*
+             *  We found a problem during unit test.
+             */
+            System.out.println("\nUNIT TEST FAILED!");
+            System.exit(exitCode);
+        }
+    }
+}
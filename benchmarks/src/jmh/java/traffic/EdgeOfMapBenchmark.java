@@ -0,0 +1,101 @@
+package traffic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  {@code EdgeOfMapBenchmark} times an edge of the map taking a
+ *  vehicle off every lane that leaves the map, counting it and how
+ *  long it took, and letting its row go.  A lane that always has a
+ *  car leaving stands in for each real one, so every tick delivers
+ *  one vehicle per lane; making that car is part of the time.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EdgeOfMapBenchmark {
+    /**
+     *  The number of lanes leaving the map.
+     */
+    @Param({"1", "16", "256"})
+    public int          lanes;
+
+    private EdgeOfMap   edgeOfMap;
+
+    /*
+     *  A lane that always has a car leaving.
+     */
+    private static class        Leaving implements Connection {
+        private final VehicleTable      table;
+        private final String            name;
+
+        Leaving(VehicleTable table, String name)
+        {
+            this.table = table;
+            this.name = name;
+        }
+
+        public int      takeVehicle()
+        {
+            return(table.allocate(Vehicle.CAR, 0));
+        }
+
+        public void     tick()
+        {
+        }
+
+        public Connection       fork(Simulation child,
+                                     Map<Object, Object> twins)
+        {
+            Leaving     twin;
+
+            twin = new Leaving(child.getVehicleTable(), name);
+            twins.put(this, twin);
+
+            return(twin);
+        }
+
+        public void     rewire(Map<Object, Object> twins)
+        {
+        }
+
+        public String   toString()
+        {
+            return(name);
+        }
+    }
+
+    /**
+     *  Give an edge of the map its lanes.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        int             i;
+        Simulation      simulation;
+
+        simulation = new Simulation(2026);
+        edgeOfMap = new EdgeOfMap(simulation);
+        for (i = 0; (i < lanes); ++i) {
+            edgeOfMap.setConnection(
+                        new Leaving(simulation.getVehicleTable(),
+                                    "Leaving " + i),
+                        'E', i);
+        }
+    }
+
+    /**
+     *  Take a vehicle off every lane.
+     */
+    @Benchmark
+    public void tick()
+    {
+        edgeOfMap.tick();
+    }
+}
@@ -0,0 +1,85 @@
+package traffic;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  {@code LaneBenchmark} times one lane moving its vehicles along, at
+ *  several lengths and with more or fewer vehicles in it, in each
+ *  way of storing a lane.  The edge of the map fills the lane with a
+ *  car on a tick as often as {@code occupancy} says, and the lane's
+ *  oldest vehicle is taken off first, as the edge of the map would,
+ *  so the lane stays as full as it started.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaneBenchmark {
+    /**
+     *  The number of slots in the lane.
+     */
+    @Param({"20", "200", "2000"})
+    public int          carCount;
+
+    /**
+     *  The chance of a car coming into the lane on a tick, which is
+     *  about the fraction of the slots holding one.
+     */
+    @Param({"0.1", "0.5", "0.9"})
+    public double       occupancy;
+
+    /**
+     *  How the lane is stored.
+     */
+    @Param({"DENSE", "BITMASK", "SPARSE"})
+    public Road.LaneKind        kind;
+
+    private VehicleTable        table;
+    private Connection          lane;
+
+    /**
+     *  Build one road of one lane between two edges of the map and
+     *  run it until the first cars have come out the far end.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        int             i;
+        Road            road;
+        EdgeOfMap       edgeOfMap;
+        Simulation      simulation;
+
+        simulation = new Simulation(2026);
+        simulation.setProbability(Vehicle.CAR, occupancy);
+        simulation.setProbability(Vehicle.MOTORCYCLE, 0);
+        road = new Road(simulation, "Road 0", carCount, 1, 0, kind);
+        edgeOfMap = new EdgeOfMap(simulation);
+        edgeOfMap.vehiclesGoTo(road, 'E', 0, 0);
+        road.vehiclesGoTo(edgeOfMap, 'E', 0, 0);
+        for (i = 0; (i < (2 * carCount)); ++i) {
+            simulation.tick();
+        }
+        table = simulation.getVehicleTable();
+        lane = road.laneAt(0);
+    }
+
+    /**
+     *  Take the oldest vehicle off and move the rest along.
+     */
+    @Benchmark
+    public void tick()
+    {
+        int     vehicle;
+
+        vehicle = lane.takeVehicle();
+        if (vehicle != VehicleTable.NONE) {
+            table.release(vehicle);
+        }
+        lane.tick();
+    }
+}
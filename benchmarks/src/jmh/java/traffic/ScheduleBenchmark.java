@@ -0,0 +1,59 @@
+package traffic;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  {@code ScheduleBenchmark} times a whole tick of a chain of roads
+ *  with one lane each way, from ten lanes up to a hundred thousand.
+ *  {@code TickManager.tick()} does the same for the default
+ *  {@code Simulation}; each size gets a {@code Simulation} of its own
+ *  here so they don't pile up in one schedule.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScheduleBenchmark {
+    /**
+     *  The number of lanes on the map, two to a road.
+     */
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int          lanes;
+
+    /**
+     *  Whether to tick in two phases.
+     */
+    @Param({"false", "true"})
+    public boolean      doubleBuffered;
+
+    private Simulation  simulation;
+
+    /**
+     *  Build the chain and fill it up.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        BatchRunner     runner;
+
+        runner = new BatchRunner(lanes / 2, 20, 1, 1, Road.LaneKind.DENSE,
+                                 2026, EdgeOfMap.Arrivals.PER_TICK);
+        simulation = runner.getSimulation();
+        simulation.setDoubleBuffered(doubleBuffered);
+        runner.run(100);
+    }
+
+    /**
+     *  Tick every lane and edge of the map once.
+     */
+    @Benchmark
+    public void tick()
+    {
+        simulation.tick();
+    }
+}
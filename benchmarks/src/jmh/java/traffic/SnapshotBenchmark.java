@@ -0,0 +1,51 @@
+package traffic;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  {@code SnapshotBenchmark} times drawing a road of two lanes each
+ *  way as text, at several lengths, as the window and the replayer
+ *  do.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+    /**
+     *  The number of slots in each lane.
+     */
+    @Param({"20", "200", "2000"})
+    public int          carCount;
+
+    private Road        road;
+
+    /**
+     *  Build a road between two edges of the map and fill it up
+     *  with the default mix of vehicles.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        BatchRunner     runner;
+
+        runner = new BatchRunner(1, carCount, 2, 2, Road.LaneKind.DENSE,
+                                 2026, EdgeOfMap.Arrivals.PER_TICK);
+        runner.run(2 * carCount);
+        road = runner.getRoads()[0];
+    }
+
+    /**
+     *  @return The road as one string per lane
+     */
+    @Benchmark
+    public String[]     snapshot()
+    {
+        return(road.snapshot());
+    }
+}
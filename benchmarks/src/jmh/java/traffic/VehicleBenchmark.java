@@ -0,0 +1,67 @@
+package traffic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  {@code VehicleBenchmark} times picking the type of a new vehicle,
+ *  both as the {@code Vehicle} object {@code nextRandom()} makes and
+ *  as the row in a {@code VehicleTable} the edges of the map use.
+ *  @version 2026101800
+ *  @author Richard Barton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VehicleBenchmark {
+    private VehicleTable        table;
+    private VehicleTable.Shard  rows;
+    private VehicleRegistry     registry;
+    private SplittableRandom    random;
+
+    /**
+     *  Make a table and a mix of our own for the rows.
+     */
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Simulation      simulation;
+
+        simulation = new Simulation(2026);
+        table = simulation.getVehicleTable();
+        rows = table.newShard();
+        registry = simulation.getRegistry();
+        random = new SplittableRandom(2026);
+    }
+
+    /**
+     *  @return A new {@code Vehicle} object or {@code null}
+     */
+    @Benchmark
+    public Vehicle      nextRandom()
+    {
+        return(Vehicle.nextRandom());
+    }
+
+    /**
+     *  Spawn a row and let it go again straight away.
+     *  @return The handle the row had
+     */
+    @Benchmark
+    public int  nextRandomHandle()
+    {
+        int     vehicle;
+
+        vehicle = Vehicle.nextRandomHandle(rows, registry, 0, random,
+                                           VehicleTable.NO_ORIGIN);
+        if (vehicle != VehicleTable.NONE) {
+            table.release(vehicle);
+        }
+
+        return(vehicle);
+    }
+}